@@ -3,20 +3,32 @@ package uk.ac.tgac.statsdb;
 import org.apache.commons.cli.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.dao.DataAccessException;
-import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.ColumnarQCAnalysis;
 import uk.ac.tgac.statsdb.analysis.PartitionValue;
 import uk.ac.tgac.statsdb.analysis.PositionValue;
 import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.dao.BulkLoader;
+import uk.ac.tgac.statsdb.dao.MonitoredBasicDataSource;
+import uk.ac.tgac.statsdb.dao.QCAnalysisDAO;
 import uk.ac.tgac.statsdb.dao.QCAnalysisStore;
+import uk.ac.tgac.statsdb.dao.ValueRollupDAO;
+import uk.ac.tgac.statsdb.dao.ValueSketchDAO;
+import uk.ac.tgac.statsdb.dao.ValueTypeDictionary;
 import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.ingest.IngestCheckpoint;
+import uk.ac.tgac.statsdb.ingest.IngestDaemon;
+import uk.ac.tgac.statsdb.ingest.IngestResult;
+import uk.ac.tgac.statsdb.ingest.ParallelIngester;
 import uk.ac.tgac.statsdb.run.parser.AnalysisMetadataParser;
-import uk.ac.tgac.statsdb.run.parser.FastQCReportParser;
+import uk.ac.tgac.statsdb.run.parser.InterOpReportParser;
+import uk.ac.tgac.statsdb.run.parser.ParserRegistry;
 import uk.ac.tgac.statsdb.run.parser.QcReportParser;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +36,14 @@ import java.util.Map;
 /**
  * Main StatsDB CLI application. This is able to parse metadata and report files and insert data into the database. A
  * testing mode is also available (supply the '-t' flag) whereby no data is inserted.
+ * <p/>
+ * Reports listed in a metadata file ('-m') are parsed and inserted in parallel, using a single shared database
+ * context. See {@link ParallelIngester}. For historical backfills, bulk mode ('-b') loads them in chunks through a
+ * {@link BulkLoader} instead, then rebuilds the value rollups and sketches of the loaded runs and reports the load
+ * throughput.
+ * <p/>
+ * Daemon mode ('-o') keeps running, watching pipeline output directories for metadata tables and ingesting their reports
+ * as they are written. See {@link IngestDaemon}.
  *
  * @author Rob Davey
  * @date 06/08/13
@@ -32,12 +52,15 @@ import java.util.Map;
 public class StatsDbApp {
   protected static final Logger log = LoggerFactory.getLogger(StatsDbApp.class);
 
+  public static final String DEFAULT_CHECKPOINT = "statsdb-ingest.checkpoint";
+
   public static void main(String[] args) {
     Options options = new Options();
 
     options.addOption("h", false, "Print this help");
     options.addOption("t", false, "Test mode. Doesn't write anything to the database.");
     options.addOption("v", false, "Verbose mode. Use if you like lots of tasty output.");
+    options.addOption("b", false, "Bulk load mode for backfills. Loads the reports of a metadata file ('-m') in chunks. Cannot be used in test mode ('-t').");
 
     Option metadataFileOption = OptionBuilder.withArgName("file")
         .hasArg()
@@ -51,9 +74,9 @@ public class StatsDbApp {
         .create("f");
     options.addOption(inputFileOption);
 
-    Option parserTypeOption = OptionBuilder.withArgName("fastqc,other")
+    Option parserTypeOption = OptionBuilder.withArgName("fastqc,interop,kmer,tagcount,auto")
         .hasArg()
-        .withDescription("Use specified parser type")
+        .withDescription("Use specified parser type. Defaults to detecting the type of each report.")
         .create("p");
     options.addOption(parserTypeOption);
 
@@ -63,6 +86,36 @@ public class StatsDbApp {
         .create("r");
     options.addOption(runNameOption);
 
+    Option parserThreadsOption = OptionBuilder.withArgName("threads")
+        .hasArg()
+        .withDescription("Number of threads parsing reports in metadata mode. Defaults to the number of processors.")
+        .create("w");
+    options.addOption(parserThreadsOption);
+
+    Option writerThreadsOption = OptionBuilder.withArgName("threads")
+        .hasArg()
+        .withDescription("Number of threads writing reports to the database in metadata mode. Defaults to 2.")
+        .create("d");
+    options.addOption(writerThreadsOption);
+
+    Option queueSizeOption = OptionBuilder.withArgName("size")
+        .hasArg()
+        .withDescription("Maximum number of parsed reports waiting to be written in metadata mode. Defaults to 16.")
+        .create("q");
+    options.addOption(queueSizeOption);
+
+    Option watchOption = OptionBuilder.withArgName("directories")
+        .hasArg()
+        .withDescription("Daemon mode. Watch the given comma separated directories for metadata tables and ingest their reports as they are written.")
+        .create("o");
+    options.addOption(watchOption);
+
+    Option checkpointOption = OptionBuilder.withArgName("file")
+        .hasArg()
+        .withDescription("File recording the reports ingested in daemon mode. Defaults to " + DEFAULT_CHECKPOINT + ".")
+        .create("c");
+    options.addOption(checkpointOption);
+
     CommandLineParser parser = new BasicParser();
     try {
       CommandLine line = parser.parse(options, args);
@@ -72,48 +125,95 @@ public class StatsDbApp {
         formatter.printHelp("statsdb.jar", options);
       }
 
-      QcReportParser<File> qcParser = null;
+      ParserRegistry registry = ParserRegistry.discover();
+      if (registry.getReportTypes().isEmpty()) {
+        log.error("No report parsers found on the classpath.");
+        System.exit(1);
+      }
+
+      QcReportParser<File> qcParser = registry;
       if (line.hasOption("p")) {
-        String parserType = line.getOptionValue("p");
-        if ("".equals(parserType) || "fastqc".equals(parserType)) {
-          qcParser = new FastQCReportParser();
-        }
-        else if ("other".equals(parserType)) {
-          log.error("Unsupported option 'other'. Please specify a parser type.");
-          System.exit(1);
+        String parserType = "".equals(line.getOptionValue("p")) ? "fastqc" : line.getOptionValue("p");
+        if (!"auto".equals(parserType) && !"other".equals(parserType)) {
+          qcParser = registry.getParser(parserType);
+          if (qcParser == null) {
+            log.error("Unsupported parser type '" + parserType + "'. Known report types: " + registry.getReportTypes());
+            System.exit(1);
+          }
         }
       }
       else {
-        log.info("No parser type specified. Using FASTQC as the default report type.");
-        qcParser = new FastQCReportParser();
+        log.info("No parser type specified. Detecting the report type of each file from " + registry.getReportTypes());
+      }
+
+      if (line.hasOption("b") && line.hasOption("t")) {
+        log.error("Bulk load mode needs a database. It cannot be used in test mode.");
+        System.exit(1);
+      }
+
+      ClassPathXmlApplicationContext context = null;
+      QCAnalysisStore store = null;
+      if (!line.hasOption("t")) {
+        context = new ClassPathXmlApplicationContext("db-config.xml");
+        store = (QCAnalysisStore)context.getBean("qcAnalysisStore");
+        if (line.hasOption("v")) {
+          store.setVerbose(true);
+        }
       }
 
       List<QCAnalysis> qcas = new ArrayList<>();
 
-      if (line.hasOption("m")) {
+      if (line.hasOption("o")) {
+        if (store == null) {
+          log.error("Daemon mode needs a database. It cannot be used in test mode.");
+          System.exit(1);
+        }
+        runDaemon(line, qcParser, store, context);
+        return;
+      }
+      else if (line.hasOption("m")) {
         File inputfile = new File(line.getOptionValue("m"));
         if (!inputfile.exists()) {
           log.error("No input metadata file specified.");
           System.exit(1);
         }
         else {
-          AnalysisMetadataParser amp = new AnalysisMetadataParser();
-          List<QCAnalysis> pqcas = amp.parseMetadataFile(inputfile);
-          for (QCAnalysis pqca : pqcas) {
-            try {
-              String path = pqca.getProperty("path_to_analysis");
-              File reportFileToParse = new File(path);
-              if (reportFileToParse.exists()) {
-                qcParser.parseReport(reportFileToParse, pqca);
+          BulkLoader loader = null;
+          ParallelIngester ingester;
+          if (line.hasOption("b")) {
+            loader = context.getBean("bulkLoader", BulkLoader.class);
+            ingester = new ParallelIngester(qcParser, loader);
+          }
+          else {
+            ingester = new ParallelIngester(qcParser, store);
+          }
+          configureIngester(ingester, line);
+
+          // the metadata analyses aren't kept here, so each is released once it has been written
+          List<IngestResult> results = ingester.ingest(new AnalysisMetadataParser().parseMetadataFile(inputfile));
+          int failed = 0;
+          for (IngestResult result : results) {
+            if (!result.isSuccess()) {
+              failed++;
+            }
+          }
+          log.info("Ingested " + (results.size() - failed) + " of " + results.size() + " reports");
+          if (failed > 0) {
+            log.error(failed + " reports failed:");
+            for (IngestResult result : results) {
+              if (!result.isSuccess()) {
+                log.error("\t\\_ " + result.getPath() + ": " + result.getMessage());
               }
             }
-            catch (QCAnalysisException e) {
-              log.error("Cannot use metadata file - no property 'path_to_analysis' available. For each report line, this " +
-                        "should point to the file path where the report file is located.");
-              System.exit(1);
+          }
+          if (loader != null) {
+            loader.getStatistics().logReport();
+            if (loader.getStatistics().getAnalysisCount() > 0) {
+              rebuildSummaries(context, results);
             }
           }
-          qcas.addAll(pqcas);
+          closeContext(context, line.hasOption("v"));
+          System.exit(failed > 0 ? 1 : 0);
         }
       }
       else if (line.hasOption("f")) {
@@ -123,7 +223,7 @@ public class StatsDbApp {
           System.exit(1);
         }
         else {
-          QCAnalysis qca = new DefaultQCAnalysis();
+          QCAnalysis qca = new ColumnarQCAnalysis();
 
           if (line.hasOption("r")) {
             qca.addProperty("run", line.getOptionValue("r"));
@@ -131,8 +231,27 @@ public class StatsDbApp {
           else {
             log.warn("No run name specified. Parsed report metrics will only be queryable on raw read filename.");
           }
-          qcParser.parseReport(inputfile, qca);
-          qcas.add(qca);
+          if (qcParser == registry) {
+            qcParser = registry.parserFor(inputfile);
+            if (qcParser == null) {
+              log.error("Cannot detect the report type of " + inputfile.getAbsolutePath() + ". Please specify a parser type.");
+              System.exit(1);
+            }
+          }
+          if (qcParser instanceof InterOpReportParser) {
+            // InterOp files hold metrics for every lane and read, so take a run directory or a single metrics file
+            InterOpReportParser interOpParser = (InterOpReportParser)qcParser;
+            if (inputfile.isDirectory()) {
+              qcas.addAll(interOpParser.parseRunDirectory(inputfile, qca));
+            }
+            else {
+              qcas.addAll(interOpParser.parseMetricsFile(inputfile, qca));
+            }
+          }
+          else {
+            qcParser.parseReport(inputfile, qca);
+            qcas.add(qca);
+          }
         }
       }
       else {
@@ -162,11 +281,6 @@ public class StatsDbApp {
           //write stuff to the database
           log.info("Writing analysis report to the database:");
           try {
-            ApplicationContext context = new ClassPathXmlApplicationContext("db-config.xml");
-            QCAnalysisStore store = (QCAnalysisStore)context.getBean("qcAnalysisStore");
-            if (line.hasOption("v")) {
-              store.setVerbose(true);
-            }
             store.insertAnalysis(qca);
             log.info("SUCCESS");
           }
@@ -182,6 +296,8 @@ public class StatsDbApp {
           }
         }
       }
+
+      closeContext(context, line.hasOption("v"));
     }
     catch (ParseException e) {
       log.error("Parsing failed.  Reason: " + e.getMessage());
@@ -193,6 +309,113 @@ public class StatsDbApp {
       e.printStackTrace();
       System.exit(1);
     }
+    catch (InterruptedException e) {
+      log.error("Interrupted whilst ingesting reports: " + e.getMessage());
+      e.printStackTrace();
+      System.exit(1);
+    }
+    catch (IOException e) {
+      log.error("Unable to run the ingest daemon: " + e.getMessage());
+      e.printStackTrace();
+      System.exit(1);
+    }
     System.exit(0);
   }
+
+  private static void configureIngester(ParallelIngester ingester, CommandLine line) {
+    ingester.setVerbose(line.hasOption("v"));
+    try {
+      if (line.hasOption("w")) {
+        ingester.setParserThreads(Integer.parseInt(line.getOptionValue("w")));
+      }
+      if (line.hasOption("d")) {
+        ingester.setWriterThreads(Integer.parseInt(line.getOptionValue("d")));
+      }
+      if (line.hasOption("q")) {
+        ingester.setQueueCapacity(Integer.parseInt(line.getOptionValue("q")));
+      }
+    }
+    catch (IllegalArgumentException e) {
+      log.error("Invalid ingest thread or queue setting: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  private static void runDaemon(CommandLine line, QcReportParser<File> qcParser, QCAnalysisStore store,
+                                ClassPathXmlApplicationContext context) throws IOException {
+    ParallelIngester ingester = new ParallelIngester(qcParser, store);
+    configureIngester(ingester, line);
+
+    IngestCheckpoint checkpoint = new IngestCheckpoint(new File(line.getOptionValue("c", DEFAULT_CHECKPOINT)));
+    final IngestDaemon daemon = new IngestDaemon(ingester, checkpoint);
+    daemon.setVerbose(line.hasOption("v"));
+    for (String directory : line.getOptionValue("o").split(",")) {
+      if (!directory.trim().isEmpty()) {
+        daemon.watch(Paths.get(directory.trim()));
+      }
+    }
+
+    final Thread main = Thread.currentThread();
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        log.info("Stopping ingest daemon...");
+        daemon.stop();
+        try {
+          main.join(60000L);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+
+    daemon.run();
+    checkpoint.close();
+    closeContext(context, line.hasOption("v"));
+  }
+
+  /**
+   * Rebuilds the enabled value rollups and sketches of the groups and lanes of the loaded analyses only, leaving the
+   * rest of the database's summaries in place
+   */
+  private static void rebuildSummaries(ClassPathXmlApplicationContext context, List<IngestResult> results) {
+    List<Map<String, String>> loaded = new ArrayList<>();
+    for (IngestResult result : results) {
+      if (result.isSuccess()) {
+        loaded.add(result.getRunProperties());
+      }
+    }
+    if (context.containsBean("valueRollupDAO")) {
+      ValueRollupDAO valueRollupDAO = context.getBean("valueRollupDAO", ValueRollupDAO.class);
+      if (valueRollupDAO.isEnabled()) {
+        log.info("Rebuilt " + valueRollupDAO.rebuild(loaded) + " value rollup groups");
+      }
+    }
+    if (context.containsBean("valueSketchDAO")) {
+      ValueSketchDAO valueSketchDAO = context.getBean("valueSketchDAO", ValueSketchDAO.class);
+      if (valueSketchDAO.isEnabled()) {
+        log.info("Rebuilt " + valueSketchDAO.rebuild(loaded) + " value sketch lanes");
+      }
+    }
+  }
+
+  private static void closeContext(ClassPathXmlApplicationContext context, boolean verbose) {
+    if (context != null) {
+      if (context.containsBean("qcAnalysisDAO")) {
+        QCAnalysisDAO dao = context.getBean("qcAnalysisDAO", QCAnalysisDAO.class);
+        if (dao.getSkippedCount() > 0 || dao.getReplacedCount() > 0) {
+          log.info("Skipped " + dao.getSkippedCount() + " and replaced " + dao.getReplacedCount() + " already stored analyses");
+        }
+      }
+      Object dataSource = context.getBean("dataSource");
+      if (verbose && dataSource instanceof MonitoredBasicDataSource) {
+        ((MonitoredBasicDataSource)dataSource).logStatistics();
+      }
+      if (verbose && context.containsBean("valueTypeDictionary")) {
+        context.getBean("valueTypeDictionary", ValueTypeDictionary.class).logStatistics();
+      }
+      context.close();
+    }
+  }
 }
@@ -3,11 +3,8 @@ package uk.ac.tgac.statsdb.analysis;
 import uk.ac.tgac.statsdb.exception.QCAnalysisException;
 import uk.ac.tgac.statsdb.util.StatsDBUtils;
 
-import java.util.AbstractMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Skeleton implementation of a QCAnalysis object. Contains default methods for storing and retrieving QC report
@@ -19,6 +16,7 @@ import java.util.regex.Pattern;
  */
 public abstract class AbstractQCAnalysis implements QCAnalysis {
   private long id = 0L;
+  private final long[] bounds = new long[2];
 
   public Map<String,String> properties;
   public Map<String,String> valueTypes;
@@ -54,15 +52,19 @@ public abstract class AbstractQCAnalysis implements QCAnalysis {
 
   @Override
   public void addPartitionValue(String range, String key, String value) throws QCAnalysisException {
-    Map.Entry<String, String> positionAndSize = StatsDBUtils.rangeToSize(range);
-    PartitionValue pv = new PartitionValue(Long.parseLong(positionAndSize.getKey()), Long.parseLong(positionAndSize.getValue()), key, value);
+    if (range == null) {
+      throw new QCAnalysisException("Null range supplied to range parse.");
+    }
+    StatsDBUtils.parseRange(range, 0, range.length(), bounds);
+    PartitionValue pv = new PartitionValue(Math.min(bounds[0], bounds[1]), Math.abs(bounds[1] - bounds[0]) + 1, key, value);
     partitionValues.add(pv);
   }
 
   @Override
   public void addPositionValue(String position, String key, String value) throws QCAnalysisException {
-    if (position != null && position.matches("[\\d\\+]+")) {
-      PositionValue pv = new PositionValue(Long.parseLong(position.replaceAll("\\+", "")), key, value);
+    long p = position == null ? -1L : StatsDBUtils.parsePosition(position, 0, position.length());
+    if (p >= 0) {
+      PositionValue pv = new PositionValue(p, key, value);
       positionValues.add(pv);
     }
     else {
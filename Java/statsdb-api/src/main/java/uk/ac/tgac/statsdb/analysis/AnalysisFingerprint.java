@@ -0,0 +1,213 @@
+package uk.ac.tgac.statsdb.analysis;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * SHA-1 fingerprints of an analysis, used to recognise a report that is ingested more than once:
+ * <ul>
+ * <li>the identity, from the properties that identify the run, lane, read and sample an analysis belongs to, as used by
+ * the reports' duplicate detection. Two analyses with the same identity are versions of the same analysis.</li>
+ * <li>the content, from every property, apart from the report path, and every general, partition and position
+ * value. Two analyses with the same content hold the same data, whether parsed into a {@link DefaultQCAnalysis} or a
+ * {@link ColumnarQCAnalysis}.</li>
+ * </ul>
+ * Numeric values are fingerprinted as doubles, so "30.0" and "30" match, as they would once stored.
+ *
+ * @since 1.2
+ */
+public final class AnalysisFingerprint {
+  /**
+   * The properties identifying an analysis, as held in analysis_run_identity
+   */
+  public static final List<String> IDENTITY_PROPERTIES = Collections.unmodifiableList(Arrays.asList(
+      "instrument", "run", "lane", "pair", "sample_name", "barcode", "tool", "reference", "interop_subtype"));
+
+  private static final String REPORT_PATH_PROPERTY = "path_to_analysis";
+
+  private AnalysisFingerprint() {
+  }
+
+  /**
+   * Fingerprints the identity of an analysis
+   *
+   * @param analysis
+   * @return the hex SHA-1 of the identity properties, or null if the analysis has no run property, and so nothing to
+   *         tell it apart from other analyses
+   */
+  public static String identityOf(QCAnalysis analysis) {
+    Map<String, String> properties = analysis.getProperties();
+    if (properties.get("run") == null) {
+      return null;
+    }
+    Digest d = new Digest();
+    for (String property : IDENTITY_PROPERTIES) {
+      d.string(properties.get(property));
+    }
+    return d.hex();
+  }
+
+  /**
+   * Fingerprints the properties and values of an analysis
+   *
+   * @param analysis
+   * @return the hex SHA-1 of the analysis content
+   */
+  public static String contentOf(QCAnalysis analysis) {
+    Digest d = new Digest();
+    Map<String, String> properties = new TreeMap<>(analysis.getProperties());
+    properties.remove(REPORT_PATH_PROPERTY);
+    d.entries(properties, false);
+    d.entries(new TreeMap<>(analysis.getGeneralValues()), true);
+
+    if (analysis instanceof ColumnarQCAnalysis) {
+      ColumnarQCAnalysis columnar = (ColumnarQCAnalysis)analysis;
+      d.columns(new TreeMap<>(columnar.getPartitionColumns()));
+      d.columns(new TreeMap<>(columnar.getPositionColumns()));
+    }
+    else {
+      Map<String, List<PartitionValue>> partitions = new TreeMap<>();
+      for (PartitionValue pv : analysis.getPartitionValues()) {
+        rows(partitions, pv.getKey()).add(pv);
+      }
+      d.count(partitions.size());
+      for (Map.Entry<String, List<PartitionValue>> e : partitions.entrySet()) {
+        d.string(e.getKey());
+        d.count(e.getValue().size());
+        for (PartitionValue pv : e.getValue()) {
+          d.row(pv.getPosition(), pv.getSize(), pv.getValue());
+        }
+      }
+
+      Map<String, List<PositionValue>> positions = new TreeMap<>();
+      for (PositionValue pv : analysis.getPositionValues()) {
+        rows(positions, pv.getKey()).add(pv);
+      }
+      d.count(positions.size());
+      for (Map.Entry<String, List<PositionValue>> e : positions.entrySet()) {
+        d.string(e.getKey());
+        d.count(e.getValue().size());
+        for (PositionValue pv : e.getValue()) {
+          d.row(pv.getPosition(), 1L, pv.getValue());
+        }
+      }
+    }
+    return d.hex();
+  }
+
+  private static <T> List<T> rows(Map<String, List<T>> byKey, String key) {
+    List<T> rows = byKey.get(key);
+    if (rows == null) {
+      rows = new ArrayList<>();
+      byKey.put(key, rows);
+    }
+    return rows;
+  }
+
+  /**
+   * Writes length-prefixed fields to a SHA-1 digest, so that no two different sequences of fields digest the same
+   * bytes
+   */
+  private static final class Digest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final MessageDigest digest;
+    private final ByteBuffer buffer = ByteBuffer.allocate(8);
+
+    private Digest() {
+      try {
+        digest = MessageDigest.getInstance("SHA-1");
+      }
+      catch (NoSuchAlgorithmException e) {
+        // every Java platform is required to support SHA-1
+        throw new IllegalStateException(e);
+      }
+    }
+
+    private void string(String s) {
+      if (s == null) {
+        count(-1);
+      }
+      else {
+        byte[] bytes = s.getBytes(UTF8);
+        count(bytes.length);
+        digest.update(bytes);
+      }
+    }
+
+    private void count(int n) {
+      buffer.clear();
+      buffer.putInt(n);
+      digest.update(buffer.array(), 0, 4);
+    }
+
+    private void number(long n) {
+      buffer.clear();
+      buffer.putLong(n);
+      digest.update(buffer.array(), 0, 8);
+    }
+
+    private void number(double value) {
+      digest.update((byte)1);
+      number(Double.doubleToLongBits(value));
+    }
+
+    private void value(String value) {
+      if (value != null) {
+        try {
+          number(Double.parseDouble(value.trim()));
+          return;
+        }
+        catch (NumberFormatException e) {
+          // fingerprinted as text
+        }
+      }
+      digest.update((byte)0);
+      string(value);
+    }
+
+    private void row(long position, long size, String value) {
+      number(position);
+      number(size);
+      value(value);
+    }
+
+    private void entries(Map<String, String> entries, boolean numeric) {
+      count(entries.size());
+      for (Map.Entry<String, String> e : entries.entrySet()) {
+        string(e.getKey());
+        if (numeric) {
+          value(e.getValue());
+        }
+        else {
+          string(e.getValue());
+        }
+      }
+    }
+
+    private void columns(Map<String, ValueColumn> columns) {
+      count(columns.size());
+      for (ValueColumn column : columns.values()) {
+        string(column.getKey());
+        count(column.size());
+        for (int i = 0; i < column.size(); i++) {
+          number(column.getPosition(i));
+          number(column.getSize(i));
+          number(column.getValue(i));
+        }
+      }
+    }
+
+    private String hex() {
+      byte[] bytes = digest.digest();
+      StringBuilder sb = new StringBuilder(bytes.length * 2);
+      for (byte b : bytes) {
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,252 @@
+package uk.ac.tgac.statsdb.analysis;
+
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.util.StatsDBUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A QCAnalysis that stores partition and position values in primitive columns, one {@link ValueColumn} per value type
+ * key, rather than as a PartitionValue or PositionValue object per metric. Values are parsed to doubles as they are
+ * added, matching the DOUBLE columns they are stored in, and value type keys are interned across all columnar analyses.
+ * This keeps the heap cost of holding a whole run of analyses in memory to a few primitives per metric. Values can also
+ * be added as primitives, or parsed without allocating from slices of a report line.
+ * <p/>
+ * Rows keep the order they were added in within each column, and columns keep the order their keys were first seen.
+ * {@link #getPartitionValues()} and {@link #getPositionValues()} are still supported, but build boxed copies on every
+ * call; the DAO and other consumers should read {@link #getPartitionColumns()} and {@link #getPositionColumns()}.
+ *
+ * @since 1.2
+ */
+public class ColumnarQCAnalysis extends AbstractQCAnalysis {
+  private static final ConcurrentMap<String, String> keys = new ConcurrentHashMap<>();
+
+  private final Map<String, ValueColumn> partitionColumns = new LinkedHashMap<>();
+  private final Map<String, ValueColumn> positionColumns = new LinkedHashMap<>();
+  private final long[] bounds = new long[2];
+
+  public ColumnarQCAnalysis() {
+    properties = new HashMap<>();
+    valueTypes = new HashMap<>();
+    valueDescriptions = new HashMap<>();
+    generalValues = new HashMap<>();
+  }
+
+  @Override
+  public void addPartitionValue(String range, String key, String value) throws QCAnalysisException {
+    if (range == null) {
+      throw new QCAnalysisException("Null range supplied to range parse.");
+    }
+    checkValue("partition", key, value);
+    addPartitionValue(range, 0, range.length(), key, value, 0, value.length());
+  }
+
+  /**
+   * Adds a partition value from slices of character sequences, e.g. the cells of a report line, without allocating
+   *
+   * @param range      the characters holding the range
+   * @param rangeStart the index of the first character of the range
+   * @param rangeEnd   the index after the last character of the range
+   * @param key        the value type key
+   * @param value      the characters holding the value
+   * @param valueStart the index of the first character of the value
+   * @param valueEnd   the index after the last character of the value
+   * @throws QCAnalysisException if the range or value is invalid
+   */
+  public void addPartitionValue(CharSequence range, int rangeStart, int rangeEnd, String key,
+                                CharSequence value, int valueStart, int valueEnd) throws QCAnalysisException {
+    StatsDBUtils.parseRange(range, rangeStart, rangeEnd, bounds);
+    addPartitionValue(Math.min(bounds[0], bounds[1]), Math.abs(bounds[1] - bounds[0]) + 1, key,
+                      parseValue("partition", key, value, valueStart, valueEnd));
+  }
+
+  /**
+   * Adds a partition value
+   *
+   * @param position the partition start
+   * @param size     the partition size
+   * @param key      the value type key
+   * @param value    the value
+   * @throws QCAnalysisException if the key is null or empty
+   */
+  public void addPartitionValue(long position, long size, String key, double value) throws QCAnalysisException {
+    checkKey("partition", key);
+    column(partitionColumns, key, true).add(position, size, value);
+  }
+
+  @Override
+  public void addPositionValue(String position, String key, String value) throws QCAnalysisException {
+    if (position == null) {
+      throw new QCAnalysisException("Invalid numerical position 'null' for " + key + " : " + value);
+    }
+    checkValue("position", key, value);
+    addPositionValue(position, 0, position.length(), key, value, 0, value.length());
+  }
+
+  /**
+   * Adds a position value from slices of character sequences, e.g. the cells of a report line, without allocating
+   *
+   * @param position      the characters holding the position
+   * @param positionStart the index of the first character of the position
+   * @param positionEnd   the index after the last character of the position
+   * @param key           the value type key
+   * @param value         the characters holding the value
+   * @param valueStart    the index of the first character of the value
+   * @param valueEnd      the index after the last character of the value
+   * @throws QCAnalysisException if the position or value is invalid
+   */
+  public void addPositionValue(CharSequence position, int positionStart, int positionEnd, String key,
+                               CharSequence value, int valueStart, int valueEnd) throws QCAnalysisException {
+    long p = StatsDBUtils.parsePosition(position, positionStart, positionEnd);
+    if (p < 0) {
+      throw new QCAnalysisException("Invalid numerical position '" + position.subSequence(positionStart, positionEnd)
+                                    + "' for " + key + " : " + value.subSequence(valueStart, valueEnd));
+    }
+    addPositionValue(p, key, parseValue("position", key, value, valueStart, valueEnd));
+  }
+
+  /**
+   * Adds a position value
+   *
+   * @param position the position
+   * @param key      the value type key
+   * @param value    the value
+   * @throws QCAnalysisException if the key is null or empty
+   */
+  public void addPositionValue(long position, String key, double value) throws QCAnalysisException {
+    checkKey("position", key);
+    column(positionColumns, key, false).add(position, 1L, value);
+  }
+
+  /**
+   * Get the partition value columns, keyed on value type
+   *
+   * @return an unmodifiable map of value type key to column
+   */
+  public Map<String, ValueColumn> getPartitionColumns() {
+    return Collections.unmodifiableMap(partitionColumns);
+  }
+
+  /**
+   * Get the position value columns, keyed on value type
+   *
+   * @return an unmodifiable map of value type key to column
+   */
+  public Map<String, ValueColumn> getPositionColumns() {
+    return Collections.unmodifiableMap(positionColumns);
+  }
+
+  /**
+   * @return the total number of partition values across all columns
+   */
+  public int getPartitionValueCount() {
+    return count(partitionColumns);
+  }
+
+  /**
+   * @return the total number of position values across all columns
+   */
+  public int getPositionValueCount() {
+    return count(positionColumns);
+  }
+
+  /**
+   * Builds boxed PartitionValues from the partition columns, grouped by value type key
+   *
+   * @return a new list of PartitionValues
+   */
+  @Override
+  public List<PartitionValue> getPartitionValues() {
+    List<PartitionValue> pvs = new ArrayList<>(getPartitionValueCount());
+    try {
+      for (ValueColumn column : partitionColumns.values()) {
+        for (int i = 0; i < column.size(); i++) {
+          pvs.add(new PartitionValue(column.getPosition(i), column.getSize(i), column.getKey(), String.valueOf(column.getValue(i))));
+        }
+      }
+    }
+    catch (QCAnalysisException e) {
+      // keys and values are checked as they are added
+      throw new IllegalStateException(e);
+    }
+    return pvs;
+  }
+
+  /**
+   * Builds boxed PositionValues from the position columns, grouped by value type key
+   *
+   * @return a new list of PositionValues
+   */
+  @Override
+  public List<PositionValue> getPositionValues() {
+    List<PositionValue> pvs = new ArrayList<>(getPositionValueCount());
+    try {
+      for (ValueColumn column : positionColumns.values()) {
+        for (int i = 0; i < column.size(); i++) {
+          pvs.add(new PositionValue(column.getPosition(i), column.getKey(), String.valueOf(column.getValue(i))));
+        }
+      }
+    }
+    catch (QCAnalysisException e) {
+      throw new IllegalStateException(e);
+    }
+    return pvs;
+  }
+
+  /**
+   * Shrinks every column to its number of rows. Call once parsing is complete if the analysis is to be held in memory.
+   */
+  public void trimToSize() {
+    for (ValueColumn column : partitionColumns.values()) {
+      column.trimToSize();
+    }
+    for (ValueColumn column : positionColumns.values()) {
+      column.trimToSize();
+    }
+  }
+
+  private static ValueColumn column(Map<String, ValueColumn> columns, String key, boolean partitioned) {
+    ValueColumn column = columns.get(key);
+    if (column == null) {
+      String interned = keys.putIfAbsent(key, key);
+      column = new ValueColumn(interned == null ? key : interned, partitioned);
+      columns.put(column.getKey(), column);
+    }
+    return column;
+  }
+
+  private static void checkKey(String type, String key) throws QCAnalysisException {
+    if (key == null || "".equals(key)) {
+      throw new QCAnalysisException("A " + type + " value cannot have a null or empty key");
+    }
+  }
+
+  private static void checkValue(String type, String key, String value) throws QCAnalysisException {
+    checkKey(type, key);
+    if (value == null || "".equals(value)) {
+      throw new QCAnalysisException("A " + type + " value cannot have a null or empty value");
+    }
+  }
+
+  private static double parseValue(String type, String key, CharSequence value, int start, int end) throws QCAnalysisException {
+    if (start >= end) {
+      throw new QCAnalysisException("A " + type + " value cannot have a null or empty value");
+    }
+    try {
+      return StatsDBUtils.parseDouble(value, start, end);
+    }
+    catch (NumberFormatException e) {
+      throw new QCAnalysisException("Invalid numerical " + type + " value '" + value.subSequence(start, end) + "' for " + key);
+    }
+  }
+
+  private static int count(Map<String, ValueColumn> columns) {
+    int count = 0;
+    for (ValueColumn column : columns.values()) {
+      count += column.size();
+    }
+    return count;
+  }
+}
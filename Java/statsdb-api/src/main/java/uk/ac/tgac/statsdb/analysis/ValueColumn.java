@@ -0,0 +1,211 @@
+package uk.ac.tgac.statsdb.analysis;
+
+import java.util.Arrays;
+
+/**
+ * A growable column of numeric metrics sharing a single value type key. Positions, partition sizes and values are held
+ * in primitive arrays, so reading a column through its index accessors, bulk copies or {@link Cursor} never boxes.
+ * Columns of position values have no size array, and report a size of 1 for every row.
+ *
+ * @since 1.2
+ */
+public class ValueColumn {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final String key;
+  private long[] positions;
+  private long[] sizes;
+  private double[] values;
+  private int count = 0;
+
+  /**
+   * Creates an empty column
+   *
+   * @param key         the value type key shared by every row
+   * @param partitioned true if the rows are partition (range) values, false for position values
+   */
+  public ValueColumn(String key, boolean partitioned) {
+    this.key = key;
+    this.positions = new long[INITIAL_CAPACITY];
+    this.sizes = partitioned ? new long[INITIAL_CAPACITY] : null;
+    this.values = new double[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Appends a row to the column
+   *
+   * @param position the position, or partition start
+   * @param size     the partition size. Ignored for position value columns.
+   * @param value    the metric value
+   */
+  public void add(long position, long size, double value) {
+    if (count == positions.length) {
+      grow();
+    }
+    positions[count] = position;
+    if (sizes != null) {
+      sizes[count] = size;
+    }
+    values[count] = value;
+    count++;
+  }
+
+  /**
+   * Get the value type key shared by every row in this column
+   *
+   * @return the value type key
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * @return true if this column holds partition (range) values, false for position values
+   */
+  public boolean isPartitioned() {
+    return sizes != null;
+  }
+
+  /**
+   * @return the number of rows in this column
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Get the position, or partition start, of a row
+   *
+   * @param i the row index
+   * @return the position
+   */
+  public long getPosition(int i) {
+    checkIndex(i);
+    return positions[i];
+  }
+
+  /**
+   * Get the partition size of a row
+   *
+   * @param i the row index
+   * @return the partition size, always 1 for position values
+   */
+  public long getSize(int i) {
+    checkIndex(i);
+    return sizes == null ? 1L : sizes[i];
+  }
+
+  /**
+   * Get the value of a row
+   *
+   * @param i the row index
+   * @return the value
+   */
+  public double getValue(int i) {
+    checkIndex(i);
+    return values[i];
+  }
+
+  /**
+   * @return a copy of the positions in this column, in row order
+   */
+  public long[] getPositions() {
+    return Arrays.copyOf(positions, count);
+  }
+
+  /**
+   * @return a copy of the partition sizes in this column, in row order
+   */
+  public long[] getSizes() {
+    if (sizes == null) {
+      long[] ones = new long[count];
+      Arrays.fill(ones, 1L);
+      return ones;
+    }
+    return Arrays.copyOf(sizes, count);
+  }
+
+  /**
+   * @return a copy of the values in this column, in row order
+   */
+  public double[] getValues() {
+    return Arrays.copyOf(values, count);
+  }
+
+  /**
+   * Get a cursor over the rows of this column, for boxing-free iteration
+   *
+   * @return a new cursor positioned before the first row
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Shrinks the backing arrays to the number of rows, once no more rows will be added
+   */
+  public void trimToSize() {
+    if (count < positions.length) {
+      positions = Arrays.copyOf(positions, count);
+      if (sizes != null) {
+        sizes = Arrays.copyOf(sizes, count);
+      }
+      values = Arrays.copyOf(values, count);
+    }
+  }
+
+  private void grow() {
+    int capacity = Math.max(INITIAL_CAPACITY, positions.length + (positions.length >> 1));
+    positions = Arrays.copyOf(positions, capacity);
+    if (sizes != null) {
+      sizes = Arrays.copyOf(sizes, capacity);
+    }
+    values = Arrays.copyOf(values, capacity);
+  }
+
+  private void checkIndex(int i) {
+    if (i < 0 || i >= count) {
+      throw new IndexOutOfBoundsException("Row " + i + " of " + count + " in column " + key);
+    }
+  }
+
+  /**
+   * A primitive, forward-only iterator over the rows of a ValueColumn
+   */
+  public class Cursor {
+    private int row = -1;
+
+    /**
+     * Moves to the next row
+     *
+     * @return true if there is a next row
+     */
+    public boolean next() {
+      if (row < count) {
+        row++;
+      }
+      return row < count;
+    }
+
+    /**
+     * @return the position of the current row
+     */
+    public long position() {
+      return getPosition(row);
+    }
+
+    /**
+     * @return the partition size of the current row
+     */
+    public long size() {
+      return getSize(row);
+    }
+
+    /**
+     * @return the value of the current row
+     */
+    public double value() {
+      return getValue(row);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package uk.ac.tgac.statsdb.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Throughput counters for a {@link BulkLoader}: the analyses and rows loaded per table, the time spent writing staging
+ * files and loading them, and the overall rate from the start of the first chunk to the end of the last.
+ *
+ * @since 1.2
+ */
+public class BulkLoadStatistics {
+  protected static final Logger log = LoggerFactory.getLogger(BulkLoadStatistics.class);
+
+  private final Map<String, Long> tableRows = new LinkedHashMap<>();
+  private long analyses = 0L;
+  private long chunks = 0L;
+  private long failedChunks = 0L;
+  private long stageNanos = 0L;
+  private long loadNanos = 0L;
+  private long firstStart = 0L;
+  private long lastEnd = 0L;
+
+  synchronized void chunkStarted(long nanos) {
+    if (chunks == 0L && failedChunks == 0L) {
+      firstStart = nanos;
+    }
+  }
+
+  synchronized void chunkLoaded(int analyses, Map<String, Long> rows, long stageNanos, long loadNanos, long endNanos) {
+    this.chunks++;
+    this.analyses += analyses;
+    for (Map.Entry<String, Long> e : rows.entrySet()) {
+      Long total = tableRows.get(e.getKey());
+      tableRows.put(e.getKey(), (total == null ? 0L : total) + e.getValue());
+    }
+    this.stageNanos += stageNanos;
+    this.loadNanos += loadNanos;
+    this.lastEnd = endNanos;
+  }
+
+  synchronized void chunkFailed(long endNanos) {
+    this.failedChunks++;
+    this.lastEnd = endNanos;
+  }
+
+  public synchronized long getAnalysisCount() {
+    return analyses;
+  }
+
+  public synchronized long getChunkCount() {
+    return chunks;
+  }
+
+  public synchronized long getFailedChunkCount() {
+    return failedChunks;
+  }
+
+  /**
+   * @return the rows loaded into each table, in load order
+   */
+  public synchronized Map<String, Long> getTableRows() {
+    return new LinkedHashMap<>(tableRows);
+  }
+
+  /**
+   * @return the rows loaded into every table, properties included
+   */
+  public synchronized long getRowCount() {
+    long rows = 0L;
+    for (long r : tableRows.values()) {
+      rows += r;
+    }
+    return rows;
+  }
+
+  /**
+   * @return the general, partition and position value rows loaded
+   */
+  public synchronized long getValueRowCount() {
+    long properties = tableRows.containsKey("analysis_property") ? tableRows.get("analysis_property") : 0L;
+    return getRowCount() - properties;
+  }
+
+  public synchronized long getStageMillis() {
+    return stageNanos / 1000000L;
+  }
+
+  public synchronized long getLoadMillis() {
+    return loadNanos / 1000000L;
+  }
+
+  /**
+   * @return the time from the start of the first chunk to the end of the last
+   */
+  public synchronized long getElapsedMillis() {
+    return (lastEnd - firstStart) / 1000000L;
+  }
+
+  /**
+   * @return value rows loaded per minute of elapsed time
+   */
+  public synchronized double getValueRowsPerMinute() {
+    long elapsed = lastEnd - firstStart;
+    return elapsed <= 0L ? 0d : getValueRowCount() * 60e9d / elapsed;
+  }
+
+  public synchronized void logReport() {
+    log.info("Bulk load throughput:");
+    log.info("\t\\_ " + analyses + " analyses in " + chunks + " chunks" + (failedChunks > 0 ? ", " + failedChunks + " chunks failed" : ""));
+    for (Map.Entry<String, Long> e : tableRows.entrySet()) {
+      log.info("\t\\_ " + e.getKey() + ": " + e.getValue() + " rows");
+    }
+    log.info("\t\\_ staging " + getStageMillis() + "ms, loading " + getLoadMillis() + "ms, elapsed " + getElapsedMillis() + "ms");
+    log.info("\t\\_ " + String.format("%.0f", getValueRowsPerMinute()) + " value rows per minute");
+  }
+}
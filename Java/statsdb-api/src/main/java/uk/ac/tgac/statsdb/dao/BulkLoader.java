@@ -0,0 +1,602 @@
+package uk.ac.tgac.statsdb.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.ac.tgac.statsdb.analysis.ColumnarQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.PartitionValue;
+import uk.ac.tgac.statsdb.analysis.PositionValue;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.analysis.ValueColumn;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.*;
+
+/**
+ * Loads many analyses at a time for historical backfills, much faster than inserting them one by one through a
+ * {@link QCAnalysisDAO}. Each chunk of analyses passed to {@link #load(List)} is loaded as follows:
+ * <ol>
+ * <li>a block of consecutive analysis ids is reserved, by inserting empty analysis rows past the current maximum id in
+ * a single statement. If another writer takes an id in the block first, the reservation is retried.</li>
+ * <li>the properties, general, partition and position values of the chunk are written to one tab separated staging
+ * file per table, in the analysis_property, analysis_value, per_partition_value and per_position_value column
+ * layouts</li>
+ * <li>the staging files are loaded in a single transaction, with LOAD DATA LOCAL INFILE on MySQL, or otherwise by
+ * streaming each file back through JDBC batches of {@link #setBatchSize(int)} rows</li>
+ * </ol>
+ * If the load fails, the transaction is rolled back and the reserved analysis rows are deleted, so a chunk is loaded
+ * entirely or not at all. Staging files are always deleted.
+ * <p/>
+ * LOAD DATA LOCAL INFILE needs <code>allowLoadLocalInfile=true</code> on the Connector/J URL and local_infile enabled
+ * on the server. Unless LOAD DATA is explicitly enabled with {@link #setUseLoadData(Boolean)}, a chunk whose LOAD
+ * DATA is refused falls back to JDBC batches, as do all later chunks.
+ * <p/>
+ * Value rollups and sketches are not maintained per analysis. Rebuild those of the loaded analyses once the backfill
+ * is complete, with {@link ValueRollupDAO#rebuild(java.util.Collection)} and
+ * {@link ValueSketchDAO#rebuild(java.util.Collection)}.
+ *
+ * @since 1.2
+ */
+public class BulkLoader {
+  protected static final Logger log = LoggerFactory.getLogger(BulkLoader.class);
+
+  public static final int DEFAULT_CHUNK_SIZE = 200;
+  public static final int DEFAULT_BATCH_SIZE = 5000;
+
+  private static final int MAX_RESERVE_ATTEMPTS = 10;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String NULL = "\\N";
+
+  /**
+   * Staging file layouts, in load order. Columns marked true are bound as numbers in the JDBC fallback.
+   */
+  private enum StagingTable {
+    ANALYSIS_PROPERTY("analysis_property", new String[]{"analysis_id", "property", "value"}, new boolean[]{true, false, false}),
+    ANALYSIS_VALUE("analysis_value", new String[]{"analysis_id", "value_type_id", "value"}, new boolean[]{true, true, false}),
+    PER_PARTITION_VALUE("per_partition_value", new String[]{"analysis_id", "position", "size", "value_type_id", "value"}, new boolean[]{true, true, true, true, false}),
+    PER_POSITION_VALUE("per_position_value", new String[]{"analysis_id", "position", "value_type_id", "value"}, new boolean[]{true, true, true, false});
+
+    final String table;
+    final String[] columns;
+    final boolean[] numeric;
+
+    StagingTable(String table, String[] columns, boolean[] numeric) {
+      this.table = table;
+      this.columns = columns;
+      this.numeric = numeric;
+    }
+
+    String columnList() {
+      StringBuilder sb = new StringBuilder("(");
+      for (int i = 0; i < columns.length; i++) {
+        sb.append(i == 0 ? "" : ", ").append(columns[i]);
+      }
+      return sb.append(")").toString();
+    }
+
+    String insert() {
+      StringBuilder sb = new StringBuilder("INSERT INTO ").append(table).append(" ").append(columnList()).append(" VALUES (");
+      for (int i = 0; i < columns.length; i++) {
+        sb.append(i == 0 ? "?" : ", ?");
+      }
+      return sb.append(")").toString();
+    }
+  }
+
+  private final JdbcTemplate template;
+  private final ValueTypeDictionary valueTypeDictionary;
+  private final BulkLoadStatistics statistics = new BulkLoadStatistics();
+  private TransactionTemplate transactionTemplate;
+  private File stagingDirectory;
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private Boolean useLoadData;
+  private volatile Boolean loadDataAvailable;
+
+  /**
+   * Creates a BulkLoader
+   *
+   * @param template            the template to load with
+   * @param valueTypeDictionary the dictionary to resolve value type IDs with, usually shared with the QCAnalysisDAO
+   */
+  public BulkLoader(JdbcTemplate template, ValueTypeDictionary valueTypeDictionary) {
+    this.template = template;
+    this.valueTypeDictionary = valueTypeDictionary;
+  }
+
+  /**
+   * Sets the transaction manager used to load each chunk atomically. Without one, a failed chunk may leave some of its
+   * rows behind until its analyses are deleted.
+   *
+   * @param transactionManager
+   */
+  public void setTransactionManager(PlatformTransactionManager transactionManager) {
+    this.transactionTemplate = transactionManager == null ? null : new TransactionTemplate(transactionManager);
+  }
+
+  /**
+   * Sets the directory staging files are written to. Defaults to the system temporary directory.
+   *
+   * @param stagingDirectory
+   */
+  public void setStagingDirectory(File stagingDirectory) {
+    if (stagingDirectory != null && !stagingDirectory.isDirectory()) {
+      throw new IllegalArgumentException("No such staging directory: " + stagingDirectory);
+    }
+    this.stagingDirectory = stagingDirectory;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Sets the number of analyses callers should pass to each {@link #load(List)}, e.g. {@link
+   * uk.ac.tgac.statsdb.ingest.ParallelIngester} in bulk mode
+   *
+   * @param chunkSize
+   */
+  public void setChunkSize(int chunkSize) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("Chunk size must be at least 1");
+    }
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Sets the number of rows per JDBC batch when staging files can't be loaded with LOAD DATA
+   *
+   * @param batchSize
+   */
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1");
+    }
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Sets whether staging files are loaded with LOAD DATA LOCAL INFILE. Defaults to null, which uses it on MySQL, and
+   * falls back to JDBC batches if it is refused.
+   *
+   * @param useLoadData true to always use LOAD DATA, false to always use JDBC batches, or null to decide by database
+   */
+  public void setUseLoadData(Boolean useLoadData) {
+    this.useLoadData = useLoadData;
+  }
+
+  public BulkLoadStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * Loads a chunk of parsed analyses, all or nothing, and sets their ids
+   *
+   * @param analyses the analyses to load
+   * @throws QCAnalysisException if the chunk could not be staged or loaded
+   */
+  public void load(final List<? extends QCAnalysis> analyses) throws QCAnalysisException {
+    if (analyses.isEmpty()) {
+      return;
+    }
+    long start = System.nanoTime();
+    statistics.chunkStarted(start);
+
+    List<Map<String, Long>> valueIds = new ArrayList<>(analyses.size());
+    for (QCAnalysis analysis : analyses) {
+      valueIds.add(valueTypeDictionary.resolve(analysis));
+    }
+
+    final long first = reserveIds(analyses.size());
+    final long last = first + analyses.size() - 1;
+    for (int i = 0; i < analyses.size(); i++) {
+      analyses.get(i).setId(first + i);
+    }
+
+    final Map<StagingTable, StagingFile> staged = new EnumMap<>(StagingTable.class);
+    try {
+      for (StagingTable table : StagingTable.values()) {
+        staged.put(table, new StagingFile(table, stagingDirectory));
+      }
+      for (int i = 0; i < analyses.size(); i++) {
+        stage(analyses.get(i), valueIds.get(i), staged);
+      }
+      for (StagingFile file : staged.values()) {
+        file.close();
+      }
+      long stageEnd = System.nanoTime();
+
+      final Map<String, Long> rows = new LinkedHashMap<>();
+      if (transactionTemplate == null) {
+        loadFiles(staged, rows);
+      }
+      else {
+        transactionTemplate.execute(new TransactionCallback<Void>() {
+          @Override
+          public Void doInTransaction(TransactionStatus status) {
+            loadFiles(staged, rows);
+            return null;
+          }
+        });
+      }
+      long end = System.nanoTime();
+      statistics.chunkLoaded(analyses.size(), rows, stageEnd - start, end - stageEnd, end);
+      log.info("\t\\_ Loaded analyses " + first + "-" + last + ": " + rowTotal(rows) + " rows in " + (end - start) / 1000000L + "ms");
+    }
+    catch (IOException | RuntimeException e) {
+      statistics.chunkFailed(System.nanoTime());
+      template.update("DELETE FROM analysis WHERE id BETWEEN ? AND ?", first, last);
+      for (QCAnalysis analysis : analyses) {
+        analysis.setId(0);
+      }
+      log.error("Bulk load of analyses " + first + "-" + last + " rolled back: " + e.getMessage());
+      throw new QCAnalysisException("Cannot bulk load " + analyses.size() + " analyses: " + e.getMessage(), e);
+    }
+    finally {
+      for (StagingFile file : staged.values()) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Reserves a block of consecutive analysis ids past the current maximum, by inserting empty analysis rows in a single
+   * statement. The statement fails as a whole if another writer took one of the ids, in which case it is retried.
+   *
+   * @return the first id of the block
+   */
+  private long reserveIds(final int count) throws DataAccessException {
+    StringBuilder sb = new StringBuilder("INSERT INTO analysis (id) VALUES ");
+    for (int i = 0; i < count; i++) {
+      sb.append(i == 0 ? "(?)" : ", (?)");
+    }
+    final String sql = sb.toString();
+
+    for (int attempt = 1; ; attempt++) {
+      try {
+        TransactionCallback<Long> reserve = new TransactionCallback<Long>() {
+          @Override
+          public Long doInTransaction(TransactionStatus status) {
+            long first = template.queryForLong("SELECT COALESCE(MAX(id), 0) FROM analysis") + 1;
+            Object[] ids = new Object[count];
+            for (int i = 0; i < count; i++) {
+              ids[i] = first + i;
+            }
+            template.update(sql, ids);
+            return first;
+          }
+        };
+        return transactionTemplate == null ? reserve.doInTransaction(null) : transactionTemplate.execute(reserve);
+      }
+      catch (DuplicateKeyException e) {
+        if (attempt == MAX_RESERVE_ATTEMPTS) {
+          throw e;
+        }
+        log.warn("\t\\_ Analysis ids taken by another writer, retrying");
+      }
+    }
+  }
+
+  private void stage(QCAnalysis analysis, Map<String, Long> valueIds, Map<StagingTable, StagingFile> staged) throws IOException {
+    long id = analysis.getId();
+
+    StagingFile properties = staged.get(StagingTable.ANALYSIS_PROPERTY);
+    for (Map.Entry<String, String> e : analysis.getProperties().entrySet()) {
+      properties.field(id).field(e.getKey()).field(e.getValue()).endRow();
+    }
+
+    StagingFile general = staged.get(StagingTable.ANALYSIS_VALUE);
+    for (Map.Entry<String, String> e : analysis.getGeneralValues().entrySet()) {
+      Long valueId = valueIds.get(e.getKey());
+      if (valueId == null) {
+        log.warn("Value not defined: " + e.getKey());
+        continue;
+      }
+      general.field(id).field(valueId).field(e.getValue()).endRow();
+    }
+
+    StagingFile partitions = staged.get(StagingTable.PER_PARTITION_VALUE);
+    StagingFile positions = staged.get(StagingTable.PER_POSITION_VALUE);
+    if (analysis instanceof ColumnarQCAnalysis) {
+      ColumnarQCAnalysis columnar = (ColumnarQCAnalysis)analysis;
+      stageColumns(id, columnar.getPartitionColumns(), valueIds, partitions);
+      stageColumns(id, columnar.getPositionColumns(), valueIds, positions);
+      return;
+    }
+
+    for (PartitionValue pv : analysis.getPartitionValues()) {
+      Long valueId = valueIds.get(pv.getKey());
+      if (valueId == null) {
+        log.warn("Partition value type not defined: " + pv.getKey());
+        continue;
+      }
+      partitions.field(id).field(pv.getPosition()).field(pv.getSize()).field(valueId).field(pv.getValue()).endRow();
+    }
+    for (PositionValue pv : analysis.getPositionValues()) {
+      Long valueId = valueIds.get(pv.getKey());
+      if (valueId == null) {
+        log.warn("Position value type not defined: " + pv.getKey());
+        continue;
+      }
+      positions.field(id).field(pv.getPosition()).field(valueId).field(pv.getValue()).endRow();
+    }
+  }
+
+  private static void stageColumns(long id, Map<String, ValueColumn> columns, Map<String, Long> valueIds, StagingFile file) throws IOException {
+    for (ValueColumn column : columns.values()) {
+      Long valueId = valueIds.get(column.getKey());
+      if (valueId == null) {
+        log.warn((column.isPartitioned() ? "Partition" : "Position") + " value type not defined: " + column.getKey());
+        continue;
+      }
+      for (int row = 0; row < column.size(); row++) {
+        file.field(id).field(column.getPosition(row));
+        if (column.isPartitioned()) {
+          file.field(column.getSize(row));
+        }
+        file.field(valueId).field(column.getValue(row)).endRow();
+      }
+    }
+  }
+
+  private void loadFiles(Map<StagingTable, StagingFile> staged, Map<String, Long> rows) throws DataAccessException {
+    for (StagingFile file : staged.values()) {
+      long loaded = file.getRows() == 0L ? 0L : loadFile(file);
+      if (loaded != file.getRows()) {
+        throw new IllegalStateException("Loaded " + loaded + " of " + file.getRows() + " rows into " + file.table.table);
+      }
+      rows.put(file.table.table, loaded);
+    }
+  }
+
+  private long loadFile(StagingFile file) throws DataAccessException {
+    if (isUseLoadData()) {
+      try {
+        return template.update(loadDataStatement(file));
+      }
+      catch (DataAccessException e) {
+        if (useLoadData != null) {
+          throw e;
+        }
+        log.warn("LOAD DATA LOCAL INFILE failed, falling back to JDBC batches. Set allowLoadLocalInfile=true on the " +
+                 "JDBC URL and enable local_infile on the server to use it: " + e.getMessage());
+        loadDataAvailable = Boolean.FALSE;
+      }
+    }
+    return loadBatches(file);
+  }
+
+  private boolean isUseLoadData() {
+    if (useLoadData != null) {
+      return useLoadData;
+    }
+    if (loadDataAvailable == null) {
+      String product = "";
+      try {
+        product = (String)JdbcUtils.extractDatabaseMetaData(template.getDataSource(), "getDatabaseProductName");
+      }
+      catch (MetaDataAccessException e) {
+        log.warn("Cannot determine database product, loading with JDBC batches: " + e.getMessage());
+      }
+      loadDataAvailable = "MySQL".equalsIgnoreCase(product);
+    }
+    return loadDataAvailable;
+  }
+
+  private static String loadDataStatement(StagingFile file) {
+    String path = file.file.getAbsolutePath().replace("\\", "\\\\").replace("'", "\\'");
+    return "LOAD DATA LOCAL INFILE '" + path + "' INTO TABLE " + file.table.table + " CHARACTER SET utf8 " +
+           "FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' " + file.table.columnList();
+  }
+
+  /**
+   * Streams a staging file back through JDBC batches, for databases without LOAD DATA
+   */
+  private long loadBatches(StagingFile file) throws DataAccessException {
+    final StagingTable table = file.table;
+    final long total = file.getRows();
+    try {
+      final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file.file), UTF8), 1 << 16);
+      try {
+        final int[] size = new int[1];
+        BatchPreparedStatementSetter setter = new BatchPreparedStatementSetter() {
+          @Override
+          public void setValues(PreparedStatement ps, int i) throws SQLException {
+            String line;
+            try {
+              line = in.readLine();
+            }
+            catch (IOException e) {
+              throw new SQLException("Cannot read staging file for " + table.table, e);
+            }
+            if (line == null) {
+              throw new SQLException("Staging file for " + table.table + " ended early");
+            }
+            String[] fields = unescapeRow(line, table.columns.length);
+            for (int c = 0; c < fields.length; c++) {
+              if (fields[c] == null) {
+                ps.setNull(c + 1, table.numeric[c] ? Types.BIGINT : Types.VARCHAR);
+              }
+              else if (table.numeric[c]) {
+                ps.setLong(c + 1, Long.parseLong(fields[c]));
+              }
+              else {
+                ps.setString(c + 1, fields[c]);
+              }
+            }
+          }
+
+          @Override
+          public int getBatchSize() {
+            return size[0];
+          }
+        };
+
+        String sql = table.insert();
+        long loaded = 0L;
+        while (loaded < total) {
+          size[0] = (int)Math.min(batchSize, total - loaded);
+          for (int count : template.batchUpdate(sql, setter)) {
+            // drivers may report SUCCESS_NO_INFO rather than a count
+            loaded += count < 0 ? 1 : count;
+          }
+        }
+        return loaded;
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Cannot read staging file for " + table.table + ": " + e.getMessage(), e);
+    }
+  }
+
+  private static long rowTotal(Map<String, Long> rows) {
+    long total = 0L;
+    for (long r : rows.values()) {
+      total += r;
+    }
+    return total;
+  }
+
+  /**
+   * Splits a staged row into its fields, undoing the LOAD DATA escapes. \N is read as null.
+   */
+  static String[] unescapeRow(String line, int columns) {
+    String[] fields = new String[columns];
+    StringBuilder sb = new StringBuilder();
+    int field = 0;
+    boolean escaped = false;
+    boolean isNull = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (escaped) {
+        switch (c) {
+          case 't': sb.append('\t'); break;
+          case 'n': sb.append('\n'); break;
+          case 'r': sb.append('\r'); break;
+          case '0': sb.append('\0'); break;
+          case 'N': isNull = true; break;
+          default: sb.append(c);
+        }
+        escaped = false;
+      }
+      else if (c == '\\') {
+        escaped = true;
+      }
+      else if (c == '\t') {
+        fields[field++] = isNull ? null : sb.toString();
+        sb.setLength(0);
+        isNull = false;
+      }
+      else {
+        sb.append(c);
+      }
+    }
+    fields[field] = isNull ? null : sb.toString();
+    return fields;
+  }
+
+  /**
+   * A tab separated staging file for one table, escaped as LOAD DATA expects: backslash, tab, newline, carriage return
+   * and NUL are escaped with a backslash, and null is written as \N.
+   */
+  private static class StagingFile implements Closeable {
+    final StagingTable table;
+    final File file;
+    private final Writer out;
+    private long rows = 0L;
+    private boolean rowStarted = false;
+    private boolean closed = false;
+
+    StagingFile(StagingTable table, File directory) throws IOException {
+      this.table = table;
+      this.file = File.createTempFile("statsdb-" + table.table + "-", ".tsv", directory);
+      this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8), 1 << 16);
+    }
+
+    private void separator() throws IOException {
+      if (rowStarted) {
+        out.write('\t');
+      }
+      rowStarted = true;
+    }
+
+    StagingFile field(long value) throws IOException {
+      separator();
+      out.write(Long.toString(value));
+      return this;
+    }
+
+    StagingFile field(double value) throws IOException {
+      separator();
+      out.write(Double.toString(value));
+      return this;
+    }
+
+    StagingFile field(String value) throws IOException {
+      separator();
+      if (value == null) {
+        out.write(NULL);
+        return this;
+      }
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        switch (c) {
+          case '\\': out.write("\\\\"); break;
+          case '\t': out.write("\\t"); break;
+          case '\n': out.write("\\n"); break;
+          case '\r': out.write("\\r"); break;
+          case '\0': out.write("\\0"); break;
+          default: out.write(c);
+        }
+      }
+      return this;
+    }
+
+    void endRow() throws IOException {
+      out.write('\n');
+      rowStarted = false;
+      rows++;
+    }
+
+    long getRows() {
+      return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        out.close();
+      }
+    }
+
+    void delete() {
+      try {
+        close();
+      }
+      catch (IOException e) {
+        // being deleted anyway
+      }
+      if (!file.delete() && file.exists()) {
+        log.warn("Cannot delete staging file " + file);
+      }
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package uk.ac.tgac.statsdb.dao;
+
+/**
+ * What a {@link QCAnalysisDAO} does with an analysis whose run identity, see
+ * {@link uk.ac.tgac.statsdb.analysis.AnalysisFingerprint#identityOf(uk.ac.tgac.statsdb.analysis.QCAnalysis)}, is
+ * already stored
+ *
+ * @since 1.2
+ */
+public enum DuplicatePolicy {
+  /**
+   * Keep the stored analysis, whatever the new one holds
+   */
+  SKIP,
+  /**
+   * Keep the stored analysis if the new one holds the same content, otherwise replace it
+   */
+  REPLACE
+}
@@ -0,0 +1,136 @@
+package uk.ac.tgac.statsdb.dao;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pooled DataSource that records how long callers wait to borrow connections, alongside the active and idle
+ * connection counts already provided by the DBCP pool. These statistics can be used to size the pool for a given
+ * query load.
+ * <p/>
+ * A borrow is counted as a wait if, at the time of the request, the pool had no idle connections and had already
+ * reached its maximum number of active connections, i.e. the caller had to block until a connection was returned.
+ *
+ * @since 1.2
+ */
+public class MonitoredBasicDataSource extends BasicDataSource {
+  protected static final Logger log = LoggerFactory.getLogger(MonitoredBasicDataSource.class);
+
+  private final AtomicLong borrowCount = new AtomicLong();
+  private final AtomicLong borrowNanos = new AtomicLong();
+  private final AtomicLong maxBorrowNanos = new AtomicLong();
+  private final AtomicLong failedBorrowCount = new AtomicLong();
+  private final AtomicLong waitCount = new AtomicLong();
+  private final AtomicLong waitNanos = new AtomicLong();
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    int maxActive = getMaxActive();
+    boolean exhausted = maxActive > 0 && getNumIdle() == 0 && getNumActive() >= maxActive;
+    long start = System.nanoTime();
+    try {
+      Connection c = super.getConnection();
+      borrowCount.incrementAndGet();
+      return c;
+    }
+    catch (SQLException e) {
+      failedBorrowCount.incrementAndGet();
+      throw e;
+    }
+    finally {
+      long elapsed = System.nanoTime() - start;
+      borrowNanos.addAndGet(elapsed);
+      long max = maxBorrowNanos.get();
+      while (elapsed > max && !maxBorrowNanos.compareAndSet(max, elapsed)) {
+        max = maxBorrowNanos.get();
+      }
+      if (exhausted) {
+        waitCount.incrementAndGet();
+        waitNanos.addAndGet(elapsed);
+      }
+    }
+  }
+
+  /**
+   * Get the number of connections successfully borrowed from this pool
+   *
+   * @return the number of successful borrows
+   */
+  public long getBorrowCount() {
+    return borrowCount.get();
+  }
+
+  /**
+   * Get the number of borrow attempts that failed, e.g. because the maximum wait time was exceeded
+   *
+   * @return the number of failed borrows
+   */
+  public long getFailedBorrowCount() {
+    return failedBorrowCount.get();
+  }
+
+  /**
+   * Get the mean time taken to borrow a connection, including validation and any time spent waiting
+   *
+   * @return the mean borrow latency in milliseconds
+   */
+  public double getMeanBorrowMillis() {
+    long borrows = borrowCount.get() + failedBorrowCount.get();
+    return borrows == 0 ? 0d : (borrowNanos.get() / (double)borrows) / 1000000d;
+  }
+
+  /**
+   * Get the longest time taken to borrow a connection
+   *
+   * @return the maximum borrow latency in milliseconds
+   */
+  public double getMaxBorrowMillis() {
+    return maxBorrowNanos.get() / 1000000d;
+  }
+
+  /**
+   * Get the number of borrows that had to wait for a connection to be returned to an exhausted pool
+   *
+   * @return the number of waits
+   */
+  public long getWaitCount() {
+    return waitCount.get();
+  }
+
+  /**
+   * Get the total time callers have spent waiting on an exhausted pool
+   *
+   * @return the total wait time in milliseconds
+   */
+  public double getTotalWaitMillis() {
+    return waitNanos.get() / 1000000d;
+  }
+
+  /**
+   * Resets the borrow and wait statistics. Active and idle counts reflect the live pool state and are not affected.
+   */
+  public void resetStatistics() {
+    borrowCount.set(0);
+    borrowNanos.set(0);
+    maxBorrowNanos.set(0);
+    failedBorrowCount.set(0);
+    waitCount.set(0);
+    waitNanos.set(0);
+  }
+
+  /**
+   * Logs the current pool statistics
+   */
+  public void logStatistics() {
+    log.info("Connection pool statistics:");
+    log.info("\t\\_ active: " + getNumActive() + "/" + getMaxActive() + ", idle: " + getNumIdle());
+    log.info("\t\\_ borrows: " + getBorrowCount() + " (" + getFailedBorrowCount() + " failed), mean latency: "
+             + String.format("%.3f", getMeanBorrowMillis()) + "ms, max latency: " + String.format("%.3f", getMaxBorrowMillis()) + "ms");
+    log.info("\t\\_ waits: " + getWaitCount() + ", total wait: " + String.format("%.3f", getTotalWaitMillis()) + "ms");
+  }
+}
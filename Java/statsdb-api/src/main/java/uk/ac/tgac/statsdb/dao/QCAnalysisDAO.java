@@ -3,21 +3,61 @@ package uk.ac.tgac.statsdb.dao;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
-import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.ac.tgac.statsdb.analysis.AnalysisFingerprint;
+import uk.ac.tgac.statsdb.analysis.ColumnarQCAnalysis;
 import uk.ac.tgac.statsdb.analysis.PartitionValue;
 import uk.ac.tgac.statsdb.analysis.PositionValue;
 import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.analysis.ValueColumn;
 import uk.ac.tgac.statsdb.exception.QCAnalysisException;
 
-import java.util.HashMap;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementation of a QCAnalysisStore, supporting reading and writing to an SQL database
+ * <p/>
+ * Properties, general values, partition values and position values are written using JDBC batches of
+ * {@link #setBatchSize(int)} rows through a fixed set of INSERT statements. On MySQL, add
+ * <code>rewriteBatchedStatements=true</code> to the JDBC URL so that Connector/J collapses each batch into
+ * multi-row INSERTs.
+ * <p/>
+ * When a transaction manager is set, {@link #insertAnalysis(QCAnalysis)} runs as a single transaction on a single
+ * connection, so a failure part way through an analysis leaves no orphan rows behind.
+ * <p/>
+ * Value type IDs are resolved through a {@link ValueTypeDictionary}, once per analysis and before its transaction
+ * starts. A single DAO instance, and its dictionary, can be shared between concurrent writers.
+ * <p/>
+ * Partition and position values of a {@link ColumnarQCAnalysis} are bound straight from its primitive columns, without
+ * building PartitionValue or PositionValue objects.
+ * <p/>
+ * When an enabled {@link ValueRollupDAO} is set, the rollups of each analysis's group are updated in the same
+ * transaction as its values.
+ * <p/>
+ * When a {@link DuplicatePolicy} is set, each analysis with a run is stored with the fingerprints of its run identity
+ * and content, see {@link AnalysisFingerprint}, and a unique index on the identity allows one analysis per identity.
+ * An analysis whose identity is already stored is skipped, leaving the ID of the stored analysis on it, or replaces the
+ * stored analysis, deleting it and recomputing its group's rollups in the same transaction as the insert, so re-running
+ * an ingest doesn't store its reports twice. If a concurrent writer stores the same identity first, the insert is
+ * rolled back and decided again against the analysis that writer stored.
+ * <p/>
+ * Registered {@link QCAnalysisStoreListener}s are notified after each analysis is committed, of inserts and of
+ * replacements separately, but not of skipped analyses.
  *
  * @author Rob Davey
  * @date 02/07/13
@@ -25,15 +65,35 @@ import java.util.Map;
  */
 public class QCAnalysisDAO implements QCAnalysisStore {
   protected static final Logger log = LoggerFactory.getLogger(QCAnalysisDAO.class);
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
   private JdbcTemplate template;
-  private Map<String, Long> typeScopes = new HashMap<>();
-  private Map<String, Long> valueTypes = new HashMap<>();
+  private SimpleJdbcInsert analysisInsert;
+  private TransactionTemplate transactionTemplate;
+  private PlatformTransactionManager transactionManager;
+  private ValueTypeDictionary valueTypeDictionary;
+  private ValueRollupDAO valueRollupDAO;
+  private int batchSize = DEFAULT_BATCH_SIZE;
   private boolean verbose = false;
-
-  private static final String TYPE_SCOPE_SELECT =
-      "SELECT id FROM type_scope WHERE scope = ?";
-  private static final String VALUE_TYPE_SELECT =
-      "SELECT id FROM value_type WHERE type_scope_id= ? AND description= ?";
+  private DuplicatePolicy duplicatePolicy;
+  private final AtomicLong skippedCount = new AtomicLong();
+  private final AtomicLong replacedCount = new AtomicLong();
+  private final List<QCAnalysisStoreListener> listeners = new CopyOnWriteArrayList<>();
+
+  private static final String ANALYSIS_PROPERTY_INSERT =
+      "INSERT INTO analysis_property (analysis_id, property, value) VALUES (?, ?, ?)";
+  private static final String ANALYSIS_VALUE_INSERT =
+      "INSERT INTO analysis_value (analysis_id, value_type_id, value) VALUES (?, ?, ?)";
+  private static final String PARTITION_VALUE_INSERT =
+      "INSERT INTO per_partition_value (analysis_id, position, size, value_type_id, value) VALUES (?, ?, ?, ?, ?)";
+  private static final String POSITION_VALUE_INSERT =
+      "INSERT INTO per_position_value (analysis_id, position, value_type_id, value) VALUES (?, ?, ?, ?)";
+  private static final String FINGERPRINT_SELECT =
+      "SELECT analysis_id, fingerprint FROM analysis_fingerprint WHERE identity = ?";
+  private static final String FINGERPRINT_INSERT =
+      "INSERT INTO analysis_fingerprint (analysis_id, identity, fingerprint) VALUES (?, ?, ?)";
+  private static final String ANALYSIS_DELETE =
+      "DELETE FROM analysis WHERE id = ?";
 
   /**
    * Get the JdbcTemplate associated with this data access object
@@ -51,6 +111,121 @@ public class QCAnalysisDAO implements QCAnalysisStore {
    */
   public void setJdbcTemplate(JdbcTemplate template) {
     this.template = template;
+    this.analysisInsert = new SimpleJdbcInsert(template)
+                          .withTableName("analysis")
+                          .usingGeneratedKeyColumns("id");
+  }
+
+  /**
+   * Get the number of rows sent to the database in a single JDBC batch
+   *
+   * @return the batch size
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Sets the number of rows sent to the database in a single JDBC batch. A batch size of 1 effectively
+   * writes each row in its own round trip.
+   *
+   * @param batchSize
+   */
+  public void setBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1");
+    }
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Sets the transaction manager used to make each {@link #insertAnalysis(QCAnalysis)} call atomic. If no
+   * transaction manager is set, each statement is committed as it is executed.
+   *
+   * @param transactionManager
+   */
+  public void setTransactionManager(PlatformTransactionManager transactionManager) {
+    this.transactionManager = transactionManager;
+    this.transactionTemplate = transactionManager == null ? null : new TransactionTemplate(transactionManager);
+  }
+
+  /**
+   * Sets the dictionary used to resolve value type IDs. If none is set, the DAO creates its own from its
+   * JdbcTemplate and transaction manager on first use.
+   *
+   * @param valueTypeDictionary
+   */
+  public synchronized void setValueTypeDictionary(ValueTypeDictionary valueTypeDictionary) {
+    this.valueTypeDictionary = valueTypeDictionary;
+  }
+
+  /**
+   * Get the dictionary used to resolve value type IDs
+   *
+   * @return the value type dictionary
+   */
+  public synchronized ValueTypeDictionary getValueTypeDictionary() {
+    if (valueTypeDictionary == null) {
+      valueTypeDictionary = new ValueTypeDictionary(template);
+      valueTypeDictionary.setTransactionManager(transactionManager);
+    }
+    return valueTypeDictionary;
+  }
+
+  /**
+   * Sets the DAO that maintains the value_rollup table. If none is set, or it isn't enabled, rollups are not updated on
+   * insert.
+   *
+   * @param valueRollupDAO
+   */
+  public void setValueRollupDAO(ValueRollupDAO valueRollupDAO) {
+    this.valueRollupDAO = valueRollupDAO;
+  }
+
+  /**
+   * Get the DAO that maintains the value_rollup table
+   *
+   * @return the value rollup DAO, or null if rollups are not updated on insert
+   */
+  public ValueRollupDAO getValueRollupDAO() {
+    return valueRollupDAO;
+  }
+
+  private boolean isMaintainingRollups() {
+    return valueRollupDAO != null && valueRollupDAO.isEnabled();
+  }
+
+  /**
+   * Sets what to do with an analysis whose run identity is already stored. If no policy is set, every analysis is
+   * inserted, and no fingerprints are stored.
+   *
+   * @param duplicatePolicy
+   */
+  public void setDuplicatePolicy(DuplicatePolicy duplicatePolicy) {
+    this.duplicatePolicy = duplicatePolicy;
+  }
+
+  /**
+   * Get what is done with an analysis whose run identity is already stored
+   *
+   * @return the duplicate policy, or null if every analysis is inserted
+   */
+  public DuplicatePolicy getDuplicatePolicy() {
+    return duplicatePolicy;
+  }
+
+  /**
+   * @return the number of analyses skipped because their run identity was already stored
+   */
+  public long getSkippedCount() {
+    return skippedCount.get();
+  }
+
+  /**
+   * @return the number of stored analyses replaced by an analysis of the same run identity
+   */
+  public long getReplacedCount() {
+    return replacedCount.get();
   }
 
   @Override
@@ -59,111 +234,243 @@ public class QCAnalysisDAO implements QCAnalysisStore {
   }
 
   @Override
-  public void insertAnalysis(QCAnalysis analysis) throws QCAnalysisException, DataAccessException {
+  public void insertAnalysis(final QCAnalysis analysis) throws QCAnalysisException, DataAccessException {
+    final Map<String, Long> valueIds = resolveValueIds(analysis);
+    final String identity = duplicatePolicy == null ? null : AnalysisFingerprint.identityOf(analysis);
+    final String content = identity == null ? null : AnalysisFingerprint.contentOf(analysis);
+    if (transactionTemplate == null) {
+      inserted(analysis, doInsertAnalysis(analysis, valueIds, identity, content));
+      return;
+    }
+
+    Outcome outcome;
+    try {
+      TransactionCallback<Outcome> insert = new TransactionCallback<Outcome>() {
+        @Override
+        public Outcome doInTransaction(TransactionStatus status) {
+          try {
+            return doInsertAnalysis(analysis, valueIds, identity, content);
+          }
+          catch (QCAnalysisException e) {
+            throw new RollbackException(e);
+          }
+        }
+      };
+      try {
+        outcome = transactionTemplate.execute(insert);
+      }
+      catch (DuplicateKeyException e) {
+        if (identity == null) {
+          throw e;
+        }
+        log.info("\t\\_ Run identity stored by a concurrent insert, retrying");
+        outcome = transactionTemplate.execute(insert);
+      }
+    }
+    catch (RollbackException e) {
+      analysis.setId(0);
+      log.error("Analysis insertion rolled back: " + e.getCause().getMessage());
+      throw (QCAnalysisException)e.getCause();
+    }
+    catch (RuntimeException e) {
+      analysis.setId(0);
+      log.error("Analysis insertion rolled back: " + e.getMessage());
+      throw e;
+    }
+    inserted(analysis, outcome);
+  }
+
+  private void inserted(QCAnalysis analysis, Outcome outcome) {
+    if (outcome == Outcome.SKIPPED) {
+      skippedCount.incrementAndGet();
+      return;
+    }
+    if (outcome == Outcome.REPLACED) {
+      replacedCount.incrementAndGet();
+      fireAnalysisReplaced(analysis);
+      return;
+    }
+    fireAnalysisInserted(analysis);
+  }
+
+  /**
+   * Registers a listener to be notified of each analysis once it has been committed
+   *
+   * @param listener
+   */
+  public void addListener(QCAnalysisStoreListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Unregisters a previously added listener
+   *
+   * @param listener
+   */
+  public void removeListener(QCAnalysisStoreListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Replaces the registered listeners, for configuration through Spring
+   *
+   * @param listeners
+   */
+  public void setListeners(List<QCAnalysisStoreListener> listeners) {
+    this.listeners.clear();
+    this.listeners.addAll(listeners);
+  }
+
+  private void fireAnalysisInserted(QCAnalysis analysis) {
+    for (QCAnalysisStoreListener listener : listeners) {
+      try {
+        listener.analysisInserted(analysis);
+      }
+      catch (RuntimeException e) {
+        log.warn("Listener " + listener + " failed to handle inserted analysis " + analysis.getId() + ": " + e.getMessage());
+      }
+    }
+  }
+
+  private void fireAnalysisReplaced(QCAnalysis analysis) {
+    for (QCAnalysisStoreListener listener : listeners) {
+      try {
+        listener.analysisReplaced(analysis);
+      }
+      catch (RuntimeException e) {
+        log.warn("Listener " + listener + " failed to handle replacing analysis " + analysis.getId() + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Inserts an analysis, unless its run identity is already stored and the duplicate policy keeps the stored analysis
+   *
+   * @param identity the fingerprint of the analysis's run identity, or null to insert it without one
+   * @param content  the fingerprint of the analysis's content, if it has an identity
+   */
+  private Outcome doInsertAnalysis(QCAnalysis analysis, Map<String, Long> valueIds, String identity, String content) throws QCAnalysisException, DataAccessException {
+    Outcome outcome = Outcome.INSERTED;
+    if (identity != null) {
+      List<Map<String, Object>> stored = template.queryForList(FINGERPRINT_SELECT, identity);
+      if (!stored.isEmpty()) {
+        long storedId = ((Number)stored.get(0).get("analysis_id")).longValue();
+        String storedContent = ((String)stored.get(0).get("fingerprint")).trim();
+        if (duplicatePolicy == DuplicatePolicy.SKIP || storedContent.equals(content)) {
+          log.info("Skipping analysis: already stored as analysis " + storedId);
+          analysis.setId(storedId);
+          return Outcome.SKIPPED;
+        }
+        log.info("Replacing analysis " + storedId + ":");
+        template.update(ANALYSIS_DELETE, storedId);
+        log.info("\t\\_ Deleted analysis " + storedId);
+        if (isMaintainingRollups()) {
+          valueRollupDAO.recomputeGroup(analysis);
+          log.info("\t\\_ Recomputed value rollups");
+        }
+        outcome = Outcome.REPLACED;
+      }
+    }
+
     log.info("Inserting analysis:");
     MapSqlParameterSource params = new MapSqlParameterSource();
-
-    SimpleJdbcInsert insert = new SimpleJdbcInsert(template)
-                          .withTableName("analysis")
-                          .usingGeneratedKeyColumns("id");
-    Number newId = insert.executeAndReturnKey(params);
+    Number newId = analysisInsert.executeAndReturnKey(params);
     analysis.setId(newId.longValue());
+    if (identity != null) {
+      // claims the identity before the values are written, so a concurrent insert of it fails early
+      template.update(FINGERPRINT_INSERT, analysis.getId(), identity, content);
+      log.info("\t\\_ Inserted fingerprint");
+    }
 
     insertProperties(analysis);
     log.info("\t\\_ Inserted properties");
-    insertValues(analysis);
+    insertValues(analysis, valueIds);
     log.info("\t\\_ Inserted general values");
-    insertPartitionValues(analysis);
+    insertPartitionValues(analysis, valueIds);
     log.info("\t\\_ Inserted partition values");
-    insertPositionValues(analysis);
+    insertPositionValues(analysis, valueIds);
     log.info("\t\\_ Inserted position values");
+    if (isMaintainingRollups()) {
+      valueRollupDAO.addAnalysis(analysis);
+      log.info("\t\\_ Updated value rollups");
+    }
+    return outcome;
   }
 
   @Override
   public void insertValues(QCAnalysis analysis) throws QCAnalysisException, DataAccessException {
-    Map<String, String> types = analysis.getValueScopes();
-    Map<String, String> descriptions = analysis.getValueDescriptions();
+    insertValues(analysis, resolveValueIds(analysis));
+  }
 
-    Map<String, Long> valueIds = new HashMap<>();
+  private void insertValues(QCAnalysis analysis, final Map<String, Long> valueIds) throws QCAnalysisException, DataAccessException {
     long valueId;
 
-    for (String key : types.keySet()) {
-      String valueType = types.get(key);
-      String valueDesc = descriptions.get(key);
-      valueIds.put(key, getValueId(key, valueType, valueDesc));
-    }
-
     Map<String, String> generalValues = analysis.getGeneralValues();
-    for (String key : generalValues.keySet()) {
+    List<Map.Entry<String, String>> batch = new ArrayList<>(generalValues.size());
+    for (Map.Entry<String, String> entry : generalValues.entrySet()) {
+      String key = entry.getKey();
       if (valueIds.get(key) != null) {
         valueId = valueIds.get(key);
-        MapSqlParameterSource params = new MapSqlParameterSource();
-        params.addValue("analysis_id", analysis.getId())
-              .addValue("value_type_id", valueId)
-              .addValue("value", generalValues.get(key));
-
-        SimpleJdbcInsert insert = new SimpleJdbcInsert(template)
-                              .withTableName("analysis_value")
-                              .usingGeneratedKeyColumns("id");
-        insert.execute(params);
+        batch.add(entry);
         if (verbose) {
-          log.info("\t\\_ VALUE [" + valueId + "," + generalValues.get(key) + "]");
+          log.info("\t\\_ VALUE [" + valueId + "," + entry.getValue() + "]");
         }
       }
       else {
         log.warn("Value not defined: " + key);
       }
     }
+
+    final long analysisId = analysis.getId();
+    template.batchUpdate(ANALYSIS_VALUE_INSERT, batch, batchSize, new ParameterizedPreparedStatementSetter<Map.Entry<String, String>>() {
+      @Override
+      public void setValues(PreparedStatement ps, Map.Entry<String, String> entry) throws SQLException {
+        ps.setLong(1, analysisId);
+        ps.setLong(2, valueIds.get(entry.getKey()));
+        ps.setString(3, entry.getValue());
+      }
+    });
   }
 
   @Override
   public void insertProperties(QCAnalysis analysis) throws QCAnalysisException, DataAccessException {
     Map<String, String> properties = analysis.getProperties();
-    for (String key : properties.keySet()) {
-      MapSqlParameterSource params = new MapSqlParameterSource();
-      params.addValue("analysis_id", analysis.getId())
-            .addValue("property", key)
-            .addValue("value", properties.get(key));
-
-      SimpleJdbcInsert insert = new SimpleJdbcInsert(template)
-                            .withTableName("analysis_property")
-                            .usingGeneratedKeyColumns("id");
-      insert.execute(params);
-      if (verbose) {
+    if (verbose) {
+      for (String key : properties.keySet()) {
         log.info("\t\\_ PROPERTY [" + key + "," + properties.get(key) + "]");
       }
     }
+
+    final long analysisId = analysis.getId();
+    template.batchUpdate(ANALYSIS_PROPERTY_INSERT, properties.entrySet(), batchSize, new ParameterizedPreparedStatementSetter<Map.Entry<String, String>>() {
+      @Override
+      public void setValues(PreparedStatement ps, Map.Entry<String, String> entry) throws SQLException {
+        ps.setLong(1, analysisId);
+        ps.setString(2, entry.getKey());
+        ps.setString(3, entry.getValue());
+      }
+    });
   }
 
   @Override
   public void insertPartitionValues(QCAnalysis analysis) throws QCAnalysisException, DataAccessException {
-    Map<String, String> types = analysis.getValueScopes();
-    Map<String, String> descriptions = analysis.getValueDescriptions();
-
-    Map<String, Long> valueIds = new HashMap<>();
-    long valueId;
+    insertPartitionValues(analysis, resolveValueIds(analysis));
+  }
 
-    for (String key : types.keySet()) {
-      String valueType = types.get(key);
-      String valueDesc = descriptions.get(key);
-      valueIds.put(key, getValueId(key, valueType, valueDesc));
+  private void insertPartitionValues(QCAnalysis analysis, final Map<String, Long> valueIds) throws QCAnalysisException, DataAccessException {
+    if (analysis instanceof ColumnarQCAnalysis) {
+      insertColumns(PARTITION_VALUE_INSERT, analysis.getId(), ((ColumnarQCAnalysis)analysis).getPartitionColumns(), valueIds);
+      return;
     }
 
+    long valueId;
+
     List<PartitionValue> partitionValues = analysis.getPartitionValues();
+    List<PartitionValue> batch = new ArrayList<>(partitionValues.size());
     for (PartitionValue pv : partitionValues) {
       if (valueIds.get(pv.getKey()) != null) {
         valueId = valueIds.get(pv.getKey());
-        MapSqlParameterSource params = new MapSqlParameterSource();
-        params.addValue("analysis_id", analysis.getId())
-              .addValue("position", pv.getPosition())
-              .addValue("size", pv.getSize())
-              .addValue("value_type_id", valueId)
-              .addValue("value", pv.getValue());
-
-        SimpleJdbcInsert insert = new SimpleJdbcInsert(template)
-                              .withTableName("per_partition_value")
-                              .usingGeneratedKeyColumns("id");
-        insert.execute(params);
+        batch.add(pv);
         if (verbose) {
           log.info("\t\\_ PARTITION VALUE [" + pv.getPosition() + "," + pv.getSize() + ","+valueId+","+pv.getValue()+"]");
         }
@@ -172,36 +479,39 @@ public class QCAnalysisDAO implements QCAnalysisStore {
         log.warn("Partition value type not defined: " + pv.getKey());
       }
     }
+
+    final long analysisId = analysis.getId();
+    template.batchUpdate(PARTITION_VALUE_INSERT, batch, batchSize, new ParameterizedPreparedStatementSetter<PartitionValue>() {
+      @Override
+      public void setValues(PreparedStatement ps, PartitionValue pv) throws SQLException {
+        ps.setLong(1, analysisId);
+        ps.setLong(2, pv.getPosition());
+        ps.setLong(3, pv.getSize());
+        ps.setLong(4, valueIds.get(pv.getKey()));
+        ps.setString(5, pv.getValue());
+      }
+    });
   }
 
   @Override
   public void insertPositionValues(QCAnalysis analysis) throws QCAnalysisException, DataAccessException {
-    Map<String, String> types = analysis.getValueScopes();
-    Map<String, String> descriptions = analysis.getValueDescriptions();
-
-    Map<String, Long> valueIds = new HashMap<>();
-    long valueId;
+    insertPositionValues(analysis, resolveValueIds(analysis));
+  }
 
-    for (String key : types.keySet()) {
-      String valueType = types.get(key);
-      String valueDesc = descriptions.get(key);
-      valueIds.put(key, getValueId(key, valueType, valueDesc));
+  private void insertPositionValues(QCAnalysis analysis, final Map<String, Long> valueIds) throws QCAnalysisException, DataAccessException {
+    if (analysis instanceof ColumnarQCAnalysis) {
+      insertColumns(POSITION_VALUE_INSERT, analysis.getId(), ((ColumnarQCAnalysis)analysis).getPositionColumns(), valueIds);
+      return;
     }
 
+    long valueId;
+
     List<PositionValue> positionValues = analysis.getPositionValues();
+    List<PositionValue> batch = new ArrayList<>(positionValues.size());
     for (PositionValue pv : positionValues) {
       if (valueIds.get(pv.getKey()) != null) {
         valueId = valueIds.get(pv.getKey());
-        MapSqlParameterSource params = new MapSqlParameterSource();
-        params.addValue("analysis_id", analysis.getId())
-              .addValue("position", pv.getPosition())
-              .addValue("value_type_id", valueId)
-              .addValue("value", pv.getValue());
-
-        SimpleJdbcInsert insert = new SimpleJdbcInsert(template)
-                              .withTableName("per_position_value")
-                              .usingGeneratedKeyColumns("id");
-        insert.execute(params);
+        batch.add(pv);
         if (verbose) {
           log.info("\t\\_ POSITION VALUE [" + pv.getPosition() + ","+valueId+","+pv.getValue()+"]");
         }
@@ -210,78 +520,121 @@ public class QCAnalysisDAO implements QCAnalysisStore {
         log.warn("Position value type not defined: " + pv.getKey());
       }
     }
-  }
 
-  private long getValueId(String value, String valueType, String description) throws DataAccessException {
-    long typeId = 0;
-    long valueId = 0;
-
-    if (verbose) {
-      log.info("Getting valueId for [" + value + "," + valueType + "," + description + "]");
-    }
-
-    if (!typeScopes.keySet().contains(valueType) || typeScopes.get(valueType) == null) {
-      try {
-        typeId = template.queryForLong(TYPE_SCOPE_SELECT, valueType);
-      }
-      catch (EmptyResultDataAccessException e) {
-        typeId = 0;
+    final long analysisId = analysis.getId();
+    template.batchUpdate(POSITION_VALUE_INSERT, batch, batchSize, new ParameterizedPreparedStatementSetter<PositionValue>() {
+      @Override
+      public void setValues(PreparedStatement ps, PositionValue pv) throws SQLException {
+        ps.setLong(1, analysisId);
+        ps.setLong(2, pv.getPosition());
+        ps.setLong(3, valueIds.get(pv.getKey()));
+        ps.setString(4, pv.getValue());
       }
+    });
+  }
 
-      if (typeId != 0) {
-        typeScopes.put(valueType, typeId);
-      }
-      else {
+  private void insertColumns(String sql, long analysisId, Map<String, ValueColumn> columns, Map<String, Long> valueIds) throws DataAccessException {
+    List<ValueColumn> batch = new ArrayList<>(columns.size());
+    List<Long> batchIds = new ArrayList<>(columns.size());
+    int rows = 0;
+    for (ValueColumn column : columns.values()) {
+      Long valueId = valueIds.get(column.getKey());
+      if (valueId != null) {
+        batch.add(column);
+        batchIds.add(valueId);
+        rows += column.size();
         if (verbose) {
-          log.debug("No such type scope in database. Inserting '" + valueType + "'");
+          ValueColumn.Cursor c = column.cursor();
+          while (c.next()) {
+            log.info("\t\\_ " + (column.isPartitioned() ? "PARTITION" : "POSITION") + " VALUE [" + c.position() + ","
+                     + (column.isPartitioned() ? c.size() + "," : "") + valueId + "," + c.value() + "]");
+          }
         }
-        MapSqlParameterSource params = new MapSqlParameterSource();
-        params.addValue("scope", valueType);
-        SimpleJdbcInsert insert = new SimpleJdbcInsert(template)
-                              .withTableName("type_scope")
-                              .usingGeneratedKeyColumns("id");
-        Number newId = insert.executeAndReturnKey(params);
-        typeId = newId.longValue();
-        typeScopes.put(valueType, typeId);
+      }
+      else {
+        log.warn((column.isPartitioned() ? "Partition" : "Position") + " value type not defined: " + column.getKey());
       }
     }
-    else {
-      typeId = typeScopes.get(valueType);
+
+    long[] ids = new long[batchIds.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = batchIds.get(i);
+    }
+    ColumnBatchSetter setter = new ColumnBatchSetter(analysisId, batch, ids);
+    for (int done = 0; done < rows; done += batchSize) {
+      setter.setBatchSize(Math.min(batchSize, rows - done));
+      template.batchUpdate(sql, setter);
     }
+  }
 
-    if (!valueTypes.keySet().contains(value) || valueTypes.get(value) == null) {
-      try {
-        valueId = template.queryForLong(VALUE_TYPE_SELECT, typeId, value);
-      }
-      catch (EmptyResultDataAccessException e) {
-        valueId = 0;
+  private Map<String, Long> resolveValueIds(QCAnalysis analysis) throws DataAccessException {
+    Map<String, Long> valueIds = getValueTypeDictionary().resolve(analysis);
+    if (verbose) {
+      for (Map.Entry<String, Long> valueId : valueIds.entrySet()) {
+        log.info("\t\\_ VALUE TYPE [" + valueId.getKey() + "," + valueId.getValue() + "]");
       }
+    }
+    return valueIds;
+  }
 
-      if (valueId != 0) {
-        valueTypes.put(valueType, valueId);
+  /**
+   * Binds consecutive rows of a list of ValueColumns, walking across columns as each one is exhausted. Successive
+   * batches carry on from the row the previous batch stopped at.
+   */
+  private static class ColumnBatchSetter implements BatchPreparedStatementSetter {
+    private final long analysisId;
+    private final List<ValueColumn> columns;
+    private final long[] valueIds;
+    private int column = 0;
+    private int row = 0;
+    private int batchSize;
+
+    ColumnBatchSetter(long analysisId, List<ValueColumn> columns, long[] valueIds) {
+      this.analysisId = analysisId;
+      this.columns = columns;
+      this.valueIds = valueIds;
+    }
+
+    void setBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+    }
+
+    @Override
+    public void setValues(PreparedStatement ps, int i) throws SQLException {
+      while (row >= columns.get(column).size()) {
+        column++;
+        row = 0;
       }
-      else {
-        if (verbose) {
-          log.debug("No such value type in database. Inserting '" + typeId + "','" + value + "'");
-        }
-        MapSqlParameterSource params = new MapSqlParameterSource();
-        params.addValue("type_scope_id", typeId);
-        params.addValue("description", value);
-        params.addValue("comment", description);
-
-        SimpleJdbcInsert insert = new SimpleJdbcInsert(template)
-                              .withTableName("value_type")
-                              .usingGeneratedKeyColumns("id");
-        Number newId = insert.executeAndReturnKey(params);
-        valueId = newId.longValue();
-        valueTypes.put(value, valueId);
+      ValueColumn c = columns.get(column);
+      int p = 1;
+      ps.setLong(p++, analysisId);
+      ps.setLong(p++, c.getPosition(row));
+      if (c.isPartitioned()) {
+        ps.setLong(p++, c.getSize(row));
       }
+      ps.setLong(p++, valueIds[column]);
+      ps.setDouble(p, c.getValue(row));
+      row++;
     }
-    else {
-      valueId = valueTypes.get(value);
+
+    @Override
+    public int getBatchSize() {
+      return batchSize;
     }
+  }
 
-    return valueId;
+  private enum Outcome {
+    INSERTED, SKIPPED, REPLACED
   }
-}
 
+  /**
+   * Carries a checked QCAnalysisException out of a transaction callback, so that the transaction is rolled back
+   */
+  private static class RollbackException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    RollbackException(QCAnalysisException cause) {
+      super(cause);
+    }
+  }
+}
@@ -14,7 +14,8 @@ import uk.ac.tgac.statsdb.util.VerbosityAware;
 public interface QCAnalysisStore extends VerbosityAware {
   /**
    * Given an analysis parameter, insert that analysis into the database. This method would usually call the other
-   * interface methods in turn.
+   * interface methods in turn. Implementations should insert the analysis atomically, i.e. either all of its rows are
+   * stored or none are.
    *
    * @param analysis
    * @throws QCAnalysisException when the QCAnalysis object could not be inserted
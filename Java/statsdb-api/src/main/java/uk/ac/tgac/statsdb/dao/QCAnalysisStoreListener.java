@@ -0,0 +1,28 @@
+package uk.ac.tgac.statsdb.dao;
+
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+
+/**
+ * Receives notification of analyses written by a {@link QCAnalysisDAO}, e.g. to invalidate cached reports that
+ * cover the analysis' run.
+ *
+ * @since 1.2
+ */
+public interface QCAnalysisStoreListener {
+  /**
+   * Called once an analysis has been committed to the database. Implementations should return quickly, as this is
+   * called on the writing thread.
+   *
+   * @param analysis the analysis that was inserted, with its database ID set
+   */
+  public void analysisInserted(QCAnalysis analysis);
+
+  /**
+   * Called instead of {@link #analysisInserted(QCAnalysis)} once an analysis that replaced a stored analysis with the
+   * same run identity has been committed, see {@link DuplicatePolicy#REPLACE}. The replaced analysis had the same
+   * instrument, run, lane and pair, and its values are no longer stored.
+   *
+   * @param analysis the analysis that was inserted, with its database ID set
+   */
+  public void analysisReplaced(QCAnalysis analysis);
+}
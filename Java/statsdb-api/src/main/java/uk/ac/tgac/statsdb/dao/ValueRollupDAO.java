@@ -0,0 +1,442 @@
+package uk.ac.tgac.statsdb.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Maintains the value_rollup table, which holds the number, sum, minimum and maximum of the values of each value type
+ * at each position, per instrument, run, lane and pair. Per-position and general summaries of any selection of those
+ * properties then cost one row per position and group, rather than one per stored value, see
+ * {@link uk.ac.tgac.statsdb.run.Reports#setUseRollups(boolean)}.
+ * <p/>
+ * Set on a QCAnalysisDAO, each analysis is added to the rollups of its group in the same transaction as its values, by
+ * aggregating the rows just written. The rollups follow the reports' default duplicate selection: only analyses with
+ * an instrument, run, lane, pair, sample_name, barcode and tool are counted, and of analyses that share all of those
+ * plus reference and interop_subtype, only the most recent. When a new analysis supersedes an earlier one, the
+ * rollups of its group are recomputed from the raw values of the group's current analyses. Groups and their analyses
+ * are looked up in analysis_run_identity.
+ * <p/>
+ * Rollups are only maintained on insert while enabled, see {@link #setEnabled(boolean)}, as databases that predate
+ * 1.2 have no value_rollup table.
+ * <p/>
+ * General values are rolled up at position 0, and partition values at the start of their partition.
+ *
+ * @since 1.2
+ */
+public class ValueRollupDAO {
+  protected static final Logger log = LoggerFactory.getLogger(ValueRollupDAO.class);
+
+  public static final int GENERAL_VALUES = 0;
+  public static final int PARTITION_VALUES = 1;
+  public static final int POSITION_VALUES = 2;
+
+  /**
+   * The properties rollups are grouped by, in the order of the value_rollup key columns
+   */
+  private static final String[] GROUP_PROPERTIES = {"instrument", "run", "lane", "pair"};
+
+  /**
+   * The properties telling analyses of a group apart, in the order of the analysis_run_identity columns selected
+   */
+  private static final String[] IDENTITY_PROPERTIES = {"sample_name", "barcode", "tool", "reference", "interop_subtype"};
+  private static final int REQUIRED_IDENTITY_PROPERTIES = 3;
+  private static final int MAX_IDS_PER_QUERY = 500;
+
+  private static final String GROUPS_SELECT =
+      "SELECT DISTINCT instrument, run, lane, pair FROM analysis_run_identity " +
+      "WHERE instrument IS NOT NULL AND run IS NOT NULL AND lane IS NOT NULL AND pair IS NOT NULL";
+  private static final String MEMBERS_SELECT =
+      "SELECT ri.analysis_id, a.analysisDate, ri.sample_name, ri.barcode, ri.tool, ri.reference, ri.interop_subtype " +
+      "FROM analysis_run_identity ri INNER JOIN analysis a ON a.id = ri.analysis_id " +
+      "WHERE ri.instrument = ? AND ri.run = ? AND ri.lane = ? AND ri.pair = ?";
+  private static final String[] AGGREGATE_SELECT = {
+      "SELECT value_type_id, 0, 1, COUNT(*), SUM(value), MIN(value), MAX(value) FROM analysis_value " +
+      "WHERE value IS NOT NULL AND analysis_id IN (%s) GROUP BY value_type_id",
+      "SELECT value_type_id, position, MIN(size), COUNT(*), SUM(value), MIN(value), MAX(value) FROM per_partition_value " +
+      "WHERE analysis_id IN (%s) GROUP BY value_type_id, position",
+      "SELECT value_type_id, position, 1, COUNT(*), SUM(value), MIN(value), MAX(value) FROM per_position_value " +
+      "WHERE analysis_id IN (%s) GROUP BY value_type_id, position"
+  };
+  private static final String ROLLUP_DELETE_GROUP =
+      "DELETE FROM value_rollup WHERE instrument = ? AND run = ? AND lane = ? AND pair = ?";
+  private static final String ROLLUP_DELETE_ALL =
+      "DELETE FROM value_rollup";
+  private static final String MYSQL_ROLLUP_UPSERT =
+      "INSERT INTO value_rollup (source, value_type_id, position, instrument, run, lane, pair, size, samples, total, minimum, maximum) " +
+      "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+      "ON DUPLICATE KEY UPDATE size = VALUES(size), samples = samples + VALUES(samples), total = total + VALUES(total), " +
+      "minimum = LEAST(minimum, VALUES(minimum)), maximum = GREATEST(maximum, VALUES(maximum))";
+  private static final String STANDARD_ROLLUP_UPSERT =
+      "MERGE INTO value_rollup r USING (VALUES (CAST(? AS INTEGER), CAST(? AS INTEGER), CAST(? AS INTEGER), " +
+      "CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(45)), CAST(? AS VARCHAR(45)), " +
+      "CAST(? AS INTEGER), CAST(? AS BIGINT), CAST(? AS DOUBLE), CAST(? AS DOUBLE), CAST(? AS DOUBLE))) " +
+      "AS n (source, value_type_id, position, instrument, run, lane, pair, size, samples, total, minimum, maximum) " +
+      "ON r.source = n.source AND r.value_type_id = n.value_type_id AND r.position = n.position " +
+      "AND r.instrument = n.instrument AND r.run = n.run AND r.lane = n.lane AND r.pair = n.pair " +
+      "WHEN MATCHED THEN UPDATE SET r.size = n.size, r.samples = r.samples + n.samples, r.total = r.total + n.total, " +
+      "r.minimum = LEAST(r.minimum, n.minimum), r.maximum = GREATEST(r.maximum, n.maximum) " +
+      "WHEN NOT MATCHED THEN INSERT (source, value_type_id, position, instrument, run, lane, pair, size, samples, total, minimum, maximum) " +
+      "VALUES (n.source, n.value_type_id, n.position, n.instrument, n.run, n.lane, n.pair, n.size, n.samples, n.total, n.minimum, n.maximum)";
+
+  private final JdbcTemplate template;
+  private TransactionTemplate transactionTemplate;
+  private boolean enabled = true;
+  private volatile String upsert;
+
+  /**
+   * Creates a ValueRollupDAO
+   *
+   * @param template the template to read values and write rollups with. To update rollups in the same transaction as
+   *                 an analysis, this must share its DataSource with the QCAnalysisDAO.
+   */
+  public ValueRollupDAO(JdbcTemplate template) {
+    this.template = template;
+  }
+
+  /**
+   * Sets the transaction manager used to rebuild the rollups of each group atomically
+   *
+   * @param transactionManager
+   */
+  public void setTransactionManager(PlatformTransactionManager transactionManager) {
+    this.transactionTemplate = transactionManager == null ? null : new TransactionTemplate(transactionManager);
+  }
+
+  /**
+   * Enable/disable maintaining the rollups as analyses are inserted by a QCAnalysisDAO. The db-config.xml context
+   * enables them with the statsdb.rollups property, which also has the query server read them.
+   *
+   * @param enabled
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Check whether the rollups are maintained as analyses are inserted
+   *
+   * @return true if rollups are maintained. Defaults to true, though db-config.xml leaves them disabled unless
+   *         statsdb.rollups is set.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Adds the general, partition and position values of an analysis, already written along with its properties, to
+   * the rollups of its group. Call this in the transaction that wrote the analysis.
+   *
+   * @param analysis
+   * @throws DataAccessException
+   */
+  public void addAnalysis(QCAnalysis analysis) throws DataAccessException {
+    String[] group = group(analysis.getProperties());
+    if (group == null) {
+      return;
+    }
+
+    List<Member> members = members(group);
+    Set<Long> current = currentIds(members, 0L);
+    if (!current.contains(analysis.getId())) {
+      // no full identity, or already superseded
+      return;
+    }
+
+    Set<Long> before = currentIds(members, analysis.getId());
+    before.add(analysis.getId());
+    if (before.equals(current)) {
+      upsert(group, aggregate(Collections.singleton(analysis.getId())));
+    }
+    else {
+      log.info("\t\\_ Analysis " + analysis.getId() + " supersedes an earlier analysis, recomputing rollups");
+      template.update(ROLLUP_DELETE_GROUP, (Object[])group);
+      upsert(group, aggregate(current));
+    }
+  }
+
+  /**
+   * Recomputes the rollups of an analysis's group from the raw values of the group's current analyses, e.g. after an
+   * analysis of the group has been deleted. Call this in the transaction that deleted it.
+   *
+   * @param analysis an analysis of the group, which need not be stored
+   * @throws DataAccessException
+   */
+  public void recomputeGroup(QCAnalysis analysis) throws DataAccessException {
+    String[] group = group(analysis.getProperties());
+    if (group != null) {
+      rebuildGroup(group);
+    }
+  }
+
+  /**
+   * Recreates every rollup from the raw values of the stored analyses, e.g. after upgrading an existing database
+   *
+   * @return the number of groups rolled up
+   * @throws DataAccessException
+   */
+  public int rebuild() throws DataAccessException {
+    log.info("Rebuilding value rollups:");
+    template.update(ROLLUP_DELETE_ALL);
+    final List<String[]> groups = new ArrayList<>();
+    template.query(GROUPS_SELECT, new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        groups.add(new String[]{rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4)});
+      }
+    });
+
+    rebuildGroups(groups);
+    return groups.size();
+  }
+
+  /**
+   * Recomputes the rollups of the groups of the given analyses from the raw values of each group's current analyses,
+   * e.g. after a bulk load that didn't maintain them. Other groups are left as they are.
+   *
+   * @param analyses the properties of the analyses whose groups to recompute. Only the instrument, run, lane and pair
+   *                 are read.
+   * @return the number of groups rolled up
+   * @throws DataAccessException
+   */
+  public int rebuild(Collection<? extends Map<String, String>> analyses) throws DataAccessException {
+    log.info("Rebuilding value rollups of " + analyses.size() + " analyses:");
+    Map<List<String>, String[]> groups = new LinkedHashMap<>();
+    for (Map<String, String> properties : analyses) {
+      String[] group = group(properties);
+      if (group != null) {
+        groups.put(Arrays.asList(group), group);
+      }
+    }
+    rebuildGroups(groups.values());
+    return groups.size();
+  }
+
+  private void rebuildGroups(Collection<String[]> groups) throws DataAccessException {
+    for (final String[] group : groups) {
+      if (transactionTemplate == null) {
+        rebuildGroup(group);
+      }
+      else {
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+          @Override
+          protected void doInTransactionWithoutResult(TransactionStatus status) {
+            rebuildGroup(group);
+          }
+        });
+      }
+    }
+  }
+
+  private void rebuildGroup(String[] group) throws DataAccessException {
+    template.update(ROLLUP_DELETE_GROUP, (Object[])group);
+    Set<Long> current = currentIds(members(group), 0L);
+    upsert(group, aggregate(current));
+    log.info("\t\\_ " + Arrays.toString(group) + ": " + current.size() + " analyses");
+  }
+
+  /**
+   * Get the instrument, run, lane and pair of an analysis, or null if any is missing
+   */
+  private static String[] group(Map<String, String> properties) {
+    String[] group = new String[GROUP_PROPERTIES.length];
+    for (int i = 0; i < group.length; i++) {
+      group[i] = properties.get(GROUP_PROPERTIES[i]);
+      if (group[i] == null) {
+        return null;
+      }
+    }
+    return group;
+  }
+
+  private List<Member> members(String[] group) throws DataAccessException {
+    final List<Member> members = new ArrayList<>();
+    template.query(MEMBERS_SELECT, new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        // analyses without a date count as the oldest
+        Timestamp date = rs.getTimestamp(2);
+        Member member = new Member(rs.getLong(1), date == null ? new Timestamp(0L) : date);
+        for (int i = 0; i < IDENTITY_PROPERTIES.length; i++) {
+          member.identity[i] = rs.getString(3 + i);
+        }
+        members.add(member);
+      }
+    }, (Object[])group);
+    return members;
+  }
+
+  /**
+   * Selects the analyses the reports count by default: the most recent of each identity, among those with a full
+   * identity
+   *
+   * @param members the analyses of a group
+   * @param exclude the ID of an analysis to leave out, or 0
+   * @return the IDs of the current analyses
+   */
+  private static Set<Long> currentIds(List<Member> members, long exclude) {
+    Map<List<String>, Timestamp> latest = new HashMap<>();
+    for (Member member : members) {
+      if (member.id != exclude && member.isIdentified()) {
+        List<String> identity = Arrays.asList(member.identity);
+        Timestamp date = latest.get(identity);
+        if (date == null || member.date.after(date)) {
+          latest.put(identity, member.date);
+        }
+      }
+    }
+
+    Set<Long> ids = new HashSet<>();
+    for (Member member : members) {
+      if (member.id != exclude && member.isIdentified() && member.date.equals(latest.get(Arrays.asList(member.identity)))) {
+        ids.add(member.id);
+      }
+    }
+    return ids;
+  }
+
+  private Collection<Rollup> aggregate(Collection<Long> ids) throws DataAccessException {
+    final Map<List<Long>, Rollup> rollups = new HashMap<>();
+    List<Long> all = new ArrayList<>(ids);
+    for (int from = 0; from < all.size(); from += MAX_IDS_PER_QUERY) {
+      List<Long> chunk = all.subList(from, Math.min(all.size(), from + MAX_IDS_PER_QUERY));
+      StringBuilder in = new StringBuilder();
+      for (int i = 0; i < chunk.size(); i++) {
+        in.append(i == 0 ? "?" : ", ?");
+      }
+      for (int source = 0; source < AGGREGATE_SELECT.length; source++) {
+        final int s = source;
+        template.query(String.format(AGGREGATE_SELECT[source], in), new RowCallbackHandler() {
+          @Override
+          public void processRow(ResultSet rs) throws SQLException {
+            Rollup rollup = new Rollup(s, rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getDouble(5), rs.getDouble(6), rs.getDouble(7));
+            Rollup existing = rollups.get(rollup.key());
+            if (existing == null) {
+              rollups.put(rollup.key(), rollup);
+            }
+            else {
+              existing.add(rollup);
+            }
+          }
+        }, chunk.toArray());
+      }
+    }
+    return rollups.values();
+  }
+
+  private void upsert(final String[] group, Collection<Rollup> rollups) throws DataAccessException {
+    if (rollups.isEmpty()) {
+      return;
+    }
+    final List<Rollup> batch = new ArrayList<>(rollups);
+    template.batchUpdate(upsertStatement(), new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        Rollup rollup = batch.get(i);
+        ps.setInt(1, rollup.source);
+        ps.setLong(2, rollup.valueTypeId);
+        ps.setLong(3, rollup.position);
+        for (int g = 0; g < group.length; g++) {
+          ps.setString(4 + g, group[g]);
+        }
+        ps.setLong(8, rollup.size);
+        ps.setLong(9, rollup.samples);
+        ps.setDouble(10, rollup.total);
+        ps.setDouble(11, rollup.minimum);
+        ps.setDouble(12, rollup.maximum);
+      }
+
+      @Override
+      public int getBatchSize() {
+        return batch.size();
+      }
+    });
+  }
+
+  /**
+   * MySQL has no MERGE, and other databases no ON DUPLICATE KEY UPDATE
+   */
+  private String upsertStatement() {
+    if (upsert == null) {
+      String product = "";
+      try {
+        product = (String)JdbcUtils.extractDatabaseMetaData(template.getDataSource(), "getDatabaseProductName");
+      }
+      catch (MetaDataAccessException e) {
+        log.warn("Cannot determine database product, assuming MERGE is supported: " + e.getMessage());
+      }
+      upsert = "MySQL".equalsIgnoreCase(product) ? MYSQL_ROLLUP_UPSERT : STANDARD_ROLLUP_UPSERT;
+    }
+    return upsert;
+  }
+
+  private static class Member {
+    final long id;
+    final Timestamp date;
+    final String[] identity = new String[IDENTITY_PROPERTIES.length];
+
+    Member(long id, Timestamp date) {
+      this.id = id;
+      this.date = date;
+    }
+
+    boolean isIdentified() {
+      for (int i = 0; i < REQUIRED_IDENTITY_PROPERTIES; i++) {
+        if (identity[i] == null) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static class Rollup {
+    final int source;
+    final long valueTypeId;
+    final long position;
+    long size;
+    long samples;
+    double total;
+    double minimum;
+    double maximum;
+
+    Rollup(int source, long valueTypeId, long position, long size, long samples, double total, double minimum, double maximum) {
+      this.source = source;
+      this.valueTypeId = valueTypeId;
+      this.position = position;
+      this.size = size;
+      this.samples = samples;
+      this.total = total;
+      this.minimum = minimum;
+      this.maximum = maximum;
+    }
+
+    List<Long> key() {
+      return Arrays.asList((long)source, valueTypeId, position);
+    }
+
+    void add(Rollup other) {
+      size = Math.min(size, other.size);
+      samples += other.samples;
+      total += other.total;
+      minimum = Math.min(minimum, other.minimum);
+      maximum = Math.max(maximum, other.maximum);
+    }
+  }
+}
@@ -0,0 +1,425 @@
+package uk.ac.tgac.statsdb.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.ac.tgac.statsdb.analysis.ColumnarQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.PartitionValue;
+import uk.ac.tgac.statsdb.analysis.PositionValue;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.analysis.ValueColumn;
+import uk.ac.tgac.statsdb.util.QuantileSketch;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Maintains the value_sketch table, which holds a {@link QuantileSketch} of the values of each value type at each
+ * position, per instrument, run and lane. The sketches of any selection of runs can then be merged to estimate
+ * percentiles across those runs, see {@link uk.ac.tgac.statsdb.run.Reports#getPercentiles(String, double[], Map)},
+ * without reading the raw per_position_value and per_partition_value rows.
+ * <p/>
+ * Position values are sketched at their position and partition values at the start of their partition. General
+ * values are sketched at position 0. Analyses without an instrument, run or lane property are keyed on an empty string
+ * for that property.
+ * <p/>
+ * Registered as a {@link QCAnalysisStoreListener} on a QCAnalysisDAO, each analysis is added to the sketches of its
+ * lane once it has been committed. When an analysis replaces a stored one, the sketches of its lane are recreated from
+ * the lane's raw values instead, so the replaced analysis' values aren't counted. Sketches are merged in memory, so
+ * updates to the sketches of a lane are serialised: within this JVM by a lock per lane, and between processes by
+ * locking the lane's rows, retrying if another process inserts the lane's first rows concurrently. If a sketch update
+ * fails, the analysis is still stored, and {@link #rebuild()} recreates every sketch from the raw values, or
+ * {@link #rebuild(Collection)} those of the lanes of some analyses.
+ * <p/>
+ * Sketches are only maintained as a listener while enabled, see {@link #setEnabled(boolean)}, as each update locks
+ * and rewrites the rows of a lane.
+ *
+ * @since 1.2
+ */
+public class ValueSketchDAO implements QCAnalysisStoreListener {
+  protected static final Logger log = LoggerFactory.getLogger(ValueSketchDAO.class);
+
+  public static final long GENERAL_VALUE_POSITION = 0L;
+
+  private static final int LOCK_STRIPES = 64;
+
+  private static final String SKETCH_SELECT =
+      "SELECT id, value_type_id, position, sketch FROM value_sketch WHERE instrument = ? AND run = ? AND lane = ? FOR UPDATE";
+  private static final String SKETCH_UPDATE =
+      "UPDATE value_sketch SET samples = ?, sketch = ? WHERE id = ?";
+  private static final String SKETCH_INSERT =
+      "INSERT INTO value_sketch (value_type_id, position, instrument, run, lane, samples, sketch) VALUES (?, ?, ?, ?, ?, ?, ?)";
+  private static final String SKETCH_DELETE_LANE =
+      "DELETE FROM value_sketch WHERE instrument = ? AND run = ? AND lane = ?";
+  private static final String SKETCH_DELETE_ALL =
+      "DELETE FROM value_sketch";
+  private static final String LANES_SELECT =
+      "SELECT DISTINCT COALESCE(instrument, '') AS instrument, COALESCE(run, '') AS run, COALESCE(lane, '') AS lane " +
+      "FROM analysis_run_identity";
+  private static final String LANE_FILTER =
+      " INNER JOIN analysis_run_identity i ON i.analysis_id = v.analysis_id " +
+      "WHERE COALESCE(i.instrument, '') = ? AND COALESCE(i.run, '') = ? AND COALESCE(i.lane, '') = ?";
+  private static final String[] LANE_VALUES_SELECT = {
+      "SELECT v.value_type_id, v.position, v.value FROM per_position_value v" + LANE_FILTER,
+      "SELECT v.value_type_id, v.position, v.value FROM per_partition_value v" + LANE_FILTER,
+      "SELECT v.value_type_id, " + GENERAL_VALUE_POSITION + ", v.value FROM analysis_value v" + LANE_FILTER + " AND v.value IS NOT NULL"
+  };
+
+  private final JdbcTemplate template;
+  private final ValueTypeDictionary valueTypeDictionary;
+  private TransactionTemplate transactionTemplate;
+  private double compression = QuantileSketch.DEFAULT_COMPRESSION;
+  private boolean enabled = true;
+  private final Object[] locks = new Object[LOCK_STRIPES];
+
+  /**
+   * Creates a ValueSketchDAO
+   *
+   * @param template            the template to read and write sketches with
+   * @param valueTypeDictionary the dictionary that resolves the value type IDs of inserted analyses, usually the one
+   *                            shared with the QCAnalysisDAO
+   */
+  public ValueSketchDAO(JdbcTemplate template, ValueTypeDictionary valueTypeDictionary) {
+    this.template = template;
+    this.valueTypeDictionary = valueTypeDictionary;
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Sets the transaction manager used to update the sketches of a lane atomically. Without one, rows are not locked
+   * between processes.
+   *
+   * @param transactionManager
+   */
+  public void setTransactionManager(PlatformTransactionManager transactionManager) {
+    this.transactionTemplate = transactionManager == null ? null : new TransactionTemplate(transactionManager);
+  }
+
+  /**
+   * Sets the compression of newly created sketches
+   *
+   * @param compression
+   */
+  public void setCompression(double compression) {
+    if (compression < 10d) {
+      throw new IllegalArgumentException("Compression must be at least 10");
+    }
+    this.compression = compression;
+  }
+
+  /**
+   * Enable/disable maintaining the sketches as a registered listener is notified of analyses. The db-config.xml
+   * context enables them with the statsdb.sketches property.
+   *
+   * @param enabled
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Check whether the sketches are maintained as a registered listener is notified of analyses
+   *
+   * @return true if sketches are maintained. Defaults to true, though db-config.xml leaves them disabled unless
+   *         statsdb.sketches is set.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void analysisInserted(QCAnalysis analysis) {
+    if (enabled) {
+      addAnalysis(analysis);
+    }
+  }
+
+  /**
+   * Recreates the sketches of the replacing analysis' lane, as the sketches can't remove the replaced analysis' values
+   *
+   * @param analysis the analysis that replaced a stored one
+   */
+  @Override
+  public void analysisReplaced(QCAnalysis analysis) {
+    if (enabled) {
+      rebuild(Collections.singleton(analysis.getProperties()));
+    }
+  }
+
+  /**
+   * Adds the general, partition and position values of an analysis to the sketches of its lane
+   *
+   * @param analysis
+   * @throws DataAccessException
+   */
+  public void addAnalysis(QCAnalysis analysis) throws DataAccessException {
+    Map<String, Long> valueIds = valueTypeDictionary.resolve(analysis);
+    Map<Long, QuantileSketch> sketches = new HashMap<>();
+
+    for (Map.Entry<String, String> value : analysis.getGeneralValues().entrySet()) {
+      Long valueId = valueIds.get(value.getKey());
+      if (valueId != null && value.getValue() != null) {
+        try {
+          sketchFor(sketches, valueId, GENERAL_VALUE_POSITION).add(Double.parseDouble(value.getValue()));
+        }
+        catch (NumberFormatException e) {
+          // non-numeric general values aren't sketched
+        }
+      }
+    }
+
+    if (analysis instanceof ColumnarQCAnalysis) {
+      ColumnarQCAnalysis columnar = (ColumnarQCAnalysis)analysis;
+      addColumns(sketches, columnar.getPartitionColumns().values(), valueIds);
+      addColumns(sketches, columnar.getPositionColumns().values(), valueIds);
+    }
+    else {
+      for (PartitionValue pv : analysis.getPartitionValues()) {
+        addValue(sketches, valueIds.get(pv.getKey()), pv.getPosition(), pv.getValue());
+      }
+      for (PositionValue pv : analysis.getPositionValues()) {
+        addValue(sketches, valueIds.get(pv.getKey()), pv.getPosition(), pv.getValue());
+      }
+    }
+
+    Map<String, String> properties = analysis.getProperties();
+    mergeSketches(identity(properties.get("instrument")), identity(properties.get("run")), identity(properties.get("lane")), sketches);
+  }
+
+  /**
+   * Recreates every sketch from the raw values of the analyses in analysis_run_identity, e.g. after upgrading an
+   * existing database
+   *
+   * @return the number of lanes sketched
+   * @throws DataAccessException
+   */
+  public int rebuild() throws DataAccessException {
+    log.info("Rebuilding value sketches:");
+    template.update(SKETCH_DELETE_ALL);
+    List<Map<String, Object>> lanes = template.queryForList(LANES_SELECT);
+    for (Map<String, Object> lane : lanes) {
+      String instrument = String.valueOf(lane.get("instrument"));
+      String run = String.valueOf(lane.get("run"));
+      String laneNumber = String.valueOf(lane.get("lane"));
+      Map<Long, QuantileSketch> sketches = laneSketches(instrument, run, laneNumber);
+      mergeSketches(instrument, run, laneNumber, sketches);
+      log.info("\t\\_ " + instrument + " " + run + " lane " + laneNumber + ": " + sketches.size() + " sketches");
+    }
+    return lanes.size();
+  }
+
+  /**
+   * Recreates the sketches of the lanes of the given analyses from the raw values of each lane's analyses, e.g. after
+   * a bulk load that didn't maintain them. Other lanes are left as they are.
+   *
+   * @param analyses the properties of the analyses whose lanes to recreate. Only the instrument, run and lane are read.
+   * @return the number of lanes sketched
+   * @throws DataAccessException
+   */
+  public int rebuild(Collection<? extends Map<String, String>> analyses) throws DataAccessException {
+    log.info("Rebuilding value sketches of " + analyses.size() + " analyses:");
+    Set<List<String>> lanes = new LinkedHashSet<>();
+    for (Map<String, String> properties : analyses) {
+      lanes.add(Arrays.asList(identity(properties.get("instrument")), identity(properties.get("run")), identity(properties.get("lane"))));
+    }
+    for (List<String> lane : lanes) {
+      Map<Long, QuantileSketch> sketches = laneSketches(lane.get(0), lane.get(1), lane.get(2));
+      replaceSketches(lane.get(0), lane.get(1), lane.get(2), sketches);
+      log.info("\t\\_ " + lane.get(0) + " " + lane.get(1) + " lane " + lane.get(2) + ": " + sketches.size() + " sketches");
+    }
+    return lanes.size();
+  }
+
+  /**
+   * Sketches the stored values of a lane
+   */
+  private Map<Long, QuantileSketch> laneSketches(String instrument, String run, String lane) throws DataAccessException {
+    final Map<Long, QuantileSketch> sketches = new HashMap<>();
+    for (String sql : LANE_VALUES_SELECT) {
+      template.query(sql, new RowCallbackHandler() {
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+          sketchFor(sketches, rs.getLong(1), rs.getLong(2)).add(rs.getDouble(3));
+        }
+      }, instrument, run, lane);
+    }
+    return sketches;
+  }
+
+  private void addColumns(Map<Long, QuantileSketch> sketches, Collection<ValueColumn> columns, Map<String, Long> valueIds) {
+    for (ValueColumn column : columns) {
+      Long valueId = valueIds.get(column.getKey());
+      if (valueId == null) {
+        continue;
+      }
+      ValueColumn.Cursor c = column.cursor();
+      while (c.next()) {
+        sketchFor(sketches, valueId, c.position()).add(c.value());
+      }
+    }
+  }
+
+  private void addValue(Map<Long, QuantileSketch> sketches, Long valueId, long position, String value) {
+    if (valueId != null) {
+      try {
+        sketchFor(sketches, valueId, position).add(Double.parseDouble(value));
+      }
+      catch (NumberFormatException e) {
+        log.warn("Cannot sketch non-numeric value '" + value + "' at position " + position);
+      }
+    }
+  }
+
+  private QuantileSketch sketchFor(Map<Long, QuantileSketch> sketches, long valueId, long position) {
+    Long key = key(valueId, position);
+    QuantileSketch sketch = sketches.get(key);
+    if (sketch == null) {
+      sketch = new QuantileSketch(compression);
+      sketches.put(key, sketch);
+    }
+    return sketch;
+  }
+
+  /**
+   * Merges a lane's new sketches into its stored ones, updating existing rows and inserting the rest
+   */
+  private void mergeSketches(String instrument, String run, String lane, Map<Long, QuantileSketch> sketches) throws DataAccessException {
+    if (!sketches.isEmpty()) {
+      updateLane(instrument, run, lane, sketches, false);
+    }
+  }
+
+  /**
+   * Replaces a lane's stored sketches with new ones
+   */
+  private void replaceSketches(String instrument, String run, String lane, Map<Long, QuantileSketch> sketches) throws DataAccessException {
+    updateLane(instrument, run, lane, sketches, true);
+  }
+
+  /**
+   * Updates a lane's sketches, retrying once if another process inserts a sketch of the lane first. The stored rows
+   * are only locked once they exist, so two processes sketching a new lane can both find no rows and both insert. The
+   * retry merges into the rows the other process inserted.
+   */
+  private void updateLane(String instrument, String run, String lane, Map<Long, QuantileSketch> sketches, boolean replace) throws DataAccessException {
+    try {
+      doUpdateLane(instrument, run, lane, sketches, replace);
+    }
+    catch (DuplicateKeyException e) {
+      log.info("Sketches of " + instrument + " " + run + " lane " + lane + " inserted by a concurrent update, retrying");
+      doUpdateLane(instrument, run, lane, sketches, replace);
+    }
+  }
+
+  private void doUpdateLane(final String instrument, final String run, final String lane, final Map<Long, QuantileSketch> sketches, final boolean replace) throws DataAccessException {
+    synchronized (lock(instrument, run, lane)) {
+      if (transactionTemplate == null) {
+        if (replace) {
+          template.update(SKETCH_DELETE_LANE, instrument, run, lane);
+        }
+        doMergeSketches(instrument, run, lane, sketches);
+        return;
+      }
+      transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+        @Override
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          if (replace) {
+            template.update(SKETCH_DELETE_LANE, instrument, run, lane);
+          }
+          doMergeSketches(instrument, run, lane, sketches);
+        }
+      });
+    }
+  }
+
+  private void doMergeSketches(final String instrument, final String run, final String lane, final Map<Long, QuantileSketch> sketches) throws DataAccessException {
+    final List<Long> updateIds = new ArrayList<>();
+    final List<QuantileSketch> updates = new ArrayList<>();
+    final Set<Long> stored = new HashSet<>();
+    template.query(SKETCH_SELECT, new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        Long key = key(rs.getLong(2), rs.getLong(3));
+        QuantileSketch sketch = sketches.get(key);
+        if (sketch != null) {
+          QuantileSketch merged = QuantileSketch.fromBytes(rs.getBytes(4));
+          merged.merge(sketch);
+          updateIds.add(rs.getLong(1));
+          updates.add(merged);
+          stored.add(key);
+        }
+      }
+    }, instrument, run, lane);
+
+    if (!updates.isEmpty()) {
+      template.batchUpdate(SKETCH_UPDATE, new BatchPreparedStatementSetter() {
+        @Override
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+          ps.setLong(1, updates.get(i).getCount());
+          ps.setBytes(2, updates.get(i).toBytes());
+          ps.setLong(3, updateIds.get(i));
+        }
+
+        @Override
+        public int getBatchSize() {
+          return updates.size();
+        }
+      });
+    }
+
+    final List<Map.Entry<Long, QuantileSketch>> inserts = new ArrayList<>();
+    for (Map.Entry<Long, QuantileSketch> sketch : sketches.entrySet()) {
+      if (!stored.contains(sketch.getKey())) {
+        inserts.add(sketch);
+      }
+    }
+    if (!inserts.isEmpty()) {
+      template.batchUpdate(SKETCH_INSERT, new BatchPreparedStatementSetter() {
+        @Override
+        public void setValues(PreparedStatement ps, int i) throws SQLException {
+          long key = inserts.get(i).getKey();
+          QuantileSketch sketch = inserts.get(i).getValue();
+          ps.setLong(1, key >>> 32);
+          ps.setLong(2, (int)key);
+          ps.setString(3, instrument);
+          ps.setString(4, run);
+          ps.setString(5, lane);
+          ps.setLong(6, sketch.getCount());
+          ps.setBytes(7, sketch.toBytes());
+        }
+
+        @Override
+        public int getBatchSize() {
+          return inserts.size();
+        }
+      });
+    }
+  }
+
+  private Object lock(String instrument, String run, String lane) {
+    return locks[(instrument.hashCode() * 31 + run.hashCode()) * 31 + lane.hashCode() & (LOCK_STRIPES - 1)];
+  }
+
+  /**
+   * Packs a value type ID and position, both INT columns, into one map key
+   */
+  private static Long key(long valueId, long position) {
+    return (valueId << 32) | (position & 0xFFFFFFFFL);
+  }
+
+  private static String identity(String value) {
+    return value == null ? "" : value;
+  }
+}
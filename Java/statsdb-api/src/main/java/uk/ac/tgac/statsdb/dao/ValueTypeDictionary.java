@@ -0,0 +1,286 @@
+package uk.ac.tgac.statsdb.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe cache of the type_scope and value_type dictionary tables, mapping scope names and value type
+ * descriptions to their database IDs. A single dictionary can be shared by any number of concurrent writers.
+ * <p/>
+ * Missing entries are created with insert-if-absent semantics: the insert relies on the unique keys on
+ * type_scope(scope) and value_type(type_scope_id, description), and a writer that loses an insert race re-reads the
+ * winning row. When a transaction manager is set, lookups and inserts run in their own transactions so that new
+ * entries are committed, and visible to other writers, straight away.
+ *
+ * @since 1.2
+ */
+public class ValueTypeDictionary {
+  protected static final Logger log = LoggerFactory.getLogger(ValueTypeDictionary.class);
+
+  private static final String TYPE_SCOPE_SELECT =
+      "SELECT id FROM type_scope WHERE scope = ?";
+  private static final String VALUE_TYPE_SELECT =
+      "SELECT id FROM value_type WHERE type_scope_id = ? AND description = ?";
+  private static final String TYPE_SCOPE_SELECT_ALL =
+      "SELECT id, scope FROM type_scope";
+  private static final String VALUE_TYPE_SELECT_ALL =
+      "SELECT id, type_scope_id, description FROM value_type";
+
+  private final JdbcTemplate template;
+  private final SimpleJdbcInsert typeScopeInsert;
+  private final SimpleJdbcInsert valueTypeInsert;
+  private TransactionTemplate transactionTemplate;
+
+  private final ConcurrentMap<String, Long> typeScopes = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Long, ConcurrentMap<String, Long>> valueTypes = new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong inserts = new AtomicLong();
+
+  public ValueTypeDictionary(JdbcTemplate template) {
+    this.template = template;
+    this.typeScopeInsert = new SimpleJdbcInsert(template)
+                               .withTableName("type_scope")
+                               .usingGeneratedKeyColumns("id");
+    this.valueTypeInsert = new SimpleJdbcInsert(template)
+                               .withTableName("value_type")
+                               .usingGeneratedKeyColumns("id");
+  }
+
+  /**
+   * Sets the transaction manager used to run lookups and inserts in their own transactions, independent of any
+   * transaction the caller may be in
+   *
+   * @param transactionManager
+   */
+  public void setTransactionManager(PlatformTransactionManager transactionManager) {
+    if (transactionManager == null) {
+      this.transactionTemplate = null;
+    }
+    else {
+      this.transactionTemplate = new TransactionTemplate(transactionManager);
+      this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+  }
+
+  /**
+   * Loads every type scope and value type in the database into the cache
+   *
+   * @throws DataAccessException
+   */
+  public void preload() throws DataAccessException {
+    final Map<Long, String> scopesById = new HashMap<>();
+    template.query(TYPE_SCOPE_SELECT_ALL, new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        typeScopes.putIfAbsent(rs.getString(2), rs.getLong(1));
+        scopesById.put(rs.getLong(1), rs.getString(2));
+      }
+    });
+
+    final AtomicLong count = new AtomicLong();
+    template.query(VALUE_TYPE_SELECT_ALL, new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        String description = rs.getString(3);
+        if (description != null) {
+          valueTypesFor(rs.getLong(2)).putIfAbsent(description, rs.getLong(1));
+          count.incrementAndGet();
+        }
+      }
+    });
+    log.info("Preloaded " + scopesById.size() + " type scopes and " + count.get() + " value types");
+  }
+
+  /**
+   * Resolves the value type ID of every value type declared on an analysis, creating any that don't yet exist
+   *
+   * @param analysis
+   * @return a map of value type key to value type ID
+   * @throws DataAccessException
+   */
+  public Map<String, Long> resolve(QCAnalysis analysis) throws DataAccessException {
+    Map<String, String> types = analysis.getValueScopes();
+    Map<String, String> descriptions = analysis.getValueDescriptions();
+    Map<String, Long> valueIds = new HashMap<>(types.size() * 2);
+    for (Map.Entry<String, String> type : types.entrySet()) {
+      String key = type.getKey();
+      valueIds.put(key, getValueTypeId(type.getValue(), key, descriptions.get(key)));
+    }
+    return valueIds;
+  }
+
+  /**
+   * Gets the ID of a type scope, creating it if it doesn't exist
+   *
+   * @param scope
+   * @return the type scope ID
+   * @throws DataAccessException
+   */
+  public long getTypeScopeId(final String scope) throws DataAccessException {
+    Long id = typeScopes.get(scope);
+    if (id != null) {
+      hits.incrementAndGet();
+      return id;
+    }
+
+    misses.incrementAndGet();
+    id = selectId(TYPE_SCOPE_SELECT, scope);
+    if (id == null) {
+      log.debug("No such type scope in database. Inserting '" + scope + "'");
+      try {
+        id = insert(typeScopeInsert, new MapSqlParameterSource().addValue("scope", scope));
+      }
+      catch (DuplicateKeyException e) {
+        id = selectId(TYPE_SCOPE_SELECT, scope);
+      }
+    }
+    Long existing = typeScopes.putIfAbsent(scope, id);
+    return existing != null ? existing : id;
+  }
+
+  /**
+   * Gets the ID of a value type within a scope, creating it (and the scope) if it doesn't exist
+   *
+   * @param scope the type scope name
+   * @param description the value type key, stored in value_type.description
+   * @param comment an optional human readable comment, only used when creating the value type
+   * @return the value type ID
+   * @throws DataAccessException
+   */
+  public long getValueTypeId(String scope, String description, String comment) throws DataAccessException {
+    long scopeId = getTypeScopeId(scope);
+    ConcurrentMap<String, Long> ids = valueTypesFor(scopeId);
+    Long id = ids.get(description);
+    if (id != null) {
+      hits.incrementAndGet();
+      return id;
+    }
+
+    misses.incrementAndGet();
+    id = selectId(VALUE_TYPE_SELECT, scopeId, description);
+    if (id == null) {
+      log.debug("No such value type in database. Inserting '" + scopeId + "','" + description + "'");
+      try {
+        id = insert(valueTypeInsert, new MapSqlParameterSource()
+                                         .addValue("type_scope_id", scopeId)
+                                         .addValue("description", description)
+                                         .addValue("comment", comment));
+      }
+      catch (DuplicateKeyException e) {
+        id = selectId(VALUE_TYPE_SELECT, scopeId, description);
+      }
+    }
+    Long existing = ids.putIfAbsent(description, id);
+    return existing != null ? existing : id;
+  }
+
+  /**
+   * Get the number of lookups answered from the cache
+   *
+   * @return the hit count
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Get the number of lookups that had to go to the database
+   *
+   * @return the miss count
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Get the number of type scopes and value types created by this dictionary
+   *
+   * @return the insert count
+   */
+  public long getInsertCount() {
+    return inserts.get();
+  }
+
+  /**
+   * Get the proportion of lookups answered from the cache
+   *
+   * @return the hit rate, between 0 and 1
+   */
+  public double getHitRate() {
+    long h = hits.get();
+    long total = h + misses.get();
+    return total == 0 ? 0d : h / (double)total;
+  }
+
+  /**
+   * Logs the current cache statistics
+   */
+  public void logStatistics() {
+    log.info("Value type dictionary statistics:");
+    log.info("\t\\_ hits: " + getHitCount() + ", misses: " + getMissCount() + ", hit rate: "
+             + String.format("%.3f", getHitRate()) + ", inserted: " + getInsertCount());
+  }
+
+  private ConcurrentMap<String, Long> valueTypesFor(long scopeId) {
+    ConcurrentMap<String, Long> ids = valueTypes.get(scopeId);
+    if (ids == null) {
+      ids = new ConcurrentHashMap<>();
+      ConcurrentMap<String, Long> existing = valueTypes.putIfAbsent(scopeId, ids);
+      if (existing != null) {
+        ids = existing;
+      }
+    }
+    return ids;
+  }
+
+  private Long selectId(final String sql, final Object... args) throws DataAccessException {
+    return inOwnTransaction(new TransactionCallback<Long>() {
+      @Override
+      public Long doInTransaction(TransactionStatus status) {
+        List<Long> ids = template.queryForList(sql, Long.class, args);
+        return ids.isEmpty() ? null : ids.get(0);
+      }
+    });
+  }
+
+  private Long insert(final SimpleJdbcInsert insert, final MapSqlParameterSource params) throws DataAccessException {
+    Long id = inOwnTransaction(new TransactionCallback<Long>() {
+      @Override
+      public Long doInTransaction(TransactionStatus status) {
+        return insert.executeAndReturnKey(params).longValue();
+      }
+    });
+    inserts.incrementAndGet();
+    return id;
+  }
+
+  private <T> T inOwnTransaction(TransactionCallback<T> callback) throws DataAccessException {
+    if (transactionTemplate != null) {
+      return transactionTemplate.execute(callback);
+    }
+    return callback.doInTransaction(null);
+  }
+}
@@ -0,0 +1,122 @@
+package uk.ac.tgac.statsdb.ingest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Records the report files that have been ingested, so that an {@link IngestDaemon} can be restarted without ingesting
+ * them again. A report is identified by its absolute path, size and modification time, so a report that is rewritten
+ * in place is ingested again.
+ * <p/>
+ * The checkpoint is an append-only file of "size	modified	path" lines, read in full on creation and appended to,
+ * and flushed, as each report is recorded. A partly written last line, e.g. after a crash, is ignored.
+ *
+ * @since 1.2
+ */
+public class IngestCheckpoint {
+  protected static final Logger log = LoggerFactory.getLogger(IngestCheckpoint.class);
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final File file;
+  private final Set<String> processed = new HashSet<>();
+  private Writer writer;
+
+  /**
+   * Opens a checkpoint file, creating it if it doesn't exist
+   *
+   * @param file the checkpoint file
+   * @throws IOException if the file can't be read or opened for appending
+   */
+  public IngestCheckpoint(File file) throws IOException {
+    this.file = file;
+    boolean terminated = true;
+    if (file.exists()) {
+      BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+      try {
+        String line;
+        while ((line = br.readLine()) != null) {
+          if (line.split("\t", 3).length == 3) {
+            processed.add(line);
+          }
+        }
+      }
+      finally {
+        br.close();
+      }
+      terminated = file.length() == 0 || endsWithNewline(file);
+    }
+    writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF8));
+    if (!terminated) {
+      // don't run the next entry into a partly written line
+      writer.write('\n');
+      writer.flush();
+    }
+    log.info("Loaded " + processed.size() + " ingested reports from checkpoint " + file.getAbsolutePath());
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @param report a report file
+   * @return true if the report, as it is now, has been recorded
+   */
+  public synchronized boolean contains(File report) {
+    return processed.contains(keyOf(report));
+  }
+
+  /**
+   * Records a report as ingested, as it is now
+   *
+   * @param report a report file
+   * @throws IOException if the checkpoint can't be written
+   */
+  public synchronized void add(File report) throws IOException {
+    if (writer == null) {
+      throw new IOException("Checkpoint " + file.getAbsolutePath() + " is closed");
+    }
+    String key = keyOf(report);
+    if (processed.add(key)) {
+      writer.write(key);
+      writer.write('\n');
+      writer.flush();
+    }
+  }
+
+  /**
+   * @return the number of reports recorded
+   */
+  public synchronized int size() {
+    return processed.size();
+  }
+
+  public synchronized void close() throws IOException {
+    if (writer != null) {
+      writer.close();
+      writer = null;
+    }
+  }
+
+  private static String keyOf(File report) {
+    File f = report.getAbsoluteFile();
+    return f.length() + "\t" + f.lastModified() + "\t" + f.getPath();
+  }
+
+  private static boolean endsWithNewline(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      raf.seek(file.length() - 1);
+      return raf.read() == '\n';
+    }
+    finally {
+      raf.close();
+    }
+  }
+}
@@ -0,0 +1,412 @@
+package uk.ac.tgac.statsdb.ingest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.run.parser.AnalysisMetadataParser;
+import uk.ac.tgac.statsdb.util.VerbosityAware;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * A long-running ingest that watches pipeline output directories, and their subdirectories, for StatsDB metadata
+ * tables, and ingests the reports they list as soon as they are complete, through a {@link ParallelIngester} sharing
+ * one database context for the life of the daemon.
+ * <p/>
+ * Files are only read once they are quiet, i.e. their size and modification time haven't changed, and no watch event
+ * has been seen for them, for {@link #setQuietMillis(long)}. A table is read again whenever it changes, so pipelines
+ * can append a row as each report is written. Reports that are listed but not yet written, or not yet quiet, are
+ * retried until they are.
+ * <p/>
+ * Each ingested report is recorded in an {@link IngestCheckpoint}, and skipped thereafter, so restarting the daemon,
+ * which rescans the watched directories, doesn't ingest anything twice. A report listed more than once is ingested
+ * once. Reports that fail to ingest are logged and aren't recorded, and are retried once their table has been quiet for
+ * {@link #setRetryMillis(long)}, or sooner if the table changes.
+ *
+ * @since 1.2
+ */
+public class IngestDaemon implements Runnable, VerbosityAware {
+  protected static final Logger log = LoggerFactory.getLogger(IngestDaemon.class);
+
+  public static final long DEFAULT_QUIET_MILLIS = 5000L;
+  public static final long DEFAULT_RETRY_MILLIS = 60000L;
+  public static final String DEFAULT_METADATA_GLOB = "*metadata*.{tsv,csv,txt}";
+
+  private final ParallelIngester ingester;
+  private final IngestCheckpoint checkpoint;
+  private final WatchService watcher;
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+  private final Map<Path, PendingTable> pending = new LinkedHashMap<>();
+  private final AnalysisMetadataParser metadataParser = new AnalysisMetadataParser();
+
+  private PathMatcher metadataMatcher = FileSystems.getDefault().getPathMatcher("glob:" + DEFAULT_METADATA_GLOB);
+  private long quietMillis = DEFAULT_QUIET_MILLIS;
+  private long retryMillis = DEFAULT_RETRY_MILLIS;
+  private volatile boolean running = false;
+  private volatile long ingested = 0L;
+  private boolean verbose = false;
+
+  /**
+   * Creates an IngestDaemon
+   *
+   * @param ingester   the ingester used for every table, usually with a {@link uk.ac.tgac.statsdb.run.parser.ParserRegistry}
+   *                   so tables can list reports of any type
+   * @param checkpoint the record of reports already ingested
+   * @throws IOException if a WatchService can't be created
+   */
+  public IngestDaemon(ParallelIngester ingester, IngestCheckpoint checkpoint) throws IOException {
+    this.ingester = ingester;
+    this.checkpoint = checkpoint;
+    this.watcher = FileSystems.getDefault().newWatchService();
+  }
+
+  /**
+   * Sets how long a file must be unchanged before it is read
+   *
+   * @param quietMillis
+   */
+  public void setQuietMillis(long quietMillis) {
+    if (quietMillis < 0L) {
+      throw new IllegalArgumentException("Quiet period cannot be negative");
+    }
+    this.quietMillis = quietMillis;
+  }
+
+  /**
+   * Sets how long to wait before retrying the reports of a table that failed to ingest
+   *
+   * @param retryMillis
+   */
+  public void setRetryMillis(long retryMillis) {
+    if (retryMillis < 0L) {
+      throw new IllegalArgumentException("Retry period cannot be negative");
+    }
+    this.retryMillis = retryMillis;
+  }
+
+  /**
+   * Sets the glob matching the names of the metadata tables to ingest
+   *
+   * @param glob
+   */
+  public void setMetadataGlob(String glob) {
+    if (glob == null || glob.isEmpty()) {
+      throw new IllegalArgumentException("A metadata table glob is required");
+    }
+    this.metadataMatcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+  }
+
+  @Override
+  public void setVerbose(boolean verbose) {
+    this.verbose = verbose;
+  }
+
+  /**
+   * @return the number of reports ingested since the daemon started
+   */
+  public long getIngestedCount() {
+    return ingested;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Watches a directory and its subdirectories, and queues the metadata tables already in them
+   *
+   * @param directory
+   * @throws IOException if the directory can't be watched
+   */
+  public synchronized void watch(Path directory) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      throw new IOException("Cannot watch " + directory + ": not a directory");
+    }
+    register(directory);
+  }
+
+  /**
+   * Runs the daemon until {@link #stop()} is called
+   */
+  @Override
+  public void run() {
+    running = true;
+    log.info("Watching " + directories.size() + " directories for metadata tables");
+    try {
+      while (running) {
+        WatchKey key = watcher.poll(Math.max(100L, quietMillis / 2), TimeUnit.MILLISECONDS);
+        synchronized (this) {
+          while (key != null) {
+            handle(key);
+            key = watcher.poll();
+          }
+        }
+        processQuietTables();
+      }
+    }
+    catch (ClosedWatchServiceException e) {
+      // stopped
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      running = false;
+      log.info("Stopped watching. Ingested " + ingested + " reports");
+    }
+  }
+
+  /**
+   * Stops the daemon once any ingest in progress has finished
+   */
+  public void stop() {
+    running = false;
+    try {
+      watcher.close();
+    }
+    catch (IOException e) {
+      log.error("Cannot close watch service: " + e.getMessage());
+    }
+  }
+
+  private void handle(WatchKey key) {
+    Path directory = directories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        log.warn("Missed watch events. Rescanning " + directories.size() + " directories");
+        for (Path d : new ArrayList<>(directories.values())) {
+          scan(d);
+        }
+        continue;
+      }
+      if (directory == null) {
+        continue;
+      }
+      Path path = directory.resolve((Path)event.context());
+      if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+        if (event.kind() == ENTRY_CREATE) {
+          try {
+            register(path);
+          }
+          catch (IOException e) {
+            log.error("Cannot watch new directory " + path + ": " + e.getMessage());
+          }
+        }
+      }
+      else {
+        queue(path);
+      }
+    }
+    if (!key.reset()) {
+      directories.remove(key);
+    }
+  }
+
+  private void register(Path root) throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        directories.put(dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY), dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        queue(file);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private void scan(Path directory) {
+    try {
+      Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          queue(file);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+    catch (IOException e) {
+      log.error("Cannot scan " + directory + ": " + e.getMessage());
+    }
+  }
+
+  private void queue(Path file) {
+    if (metadataMatcher.matches(file.getFileName())) {
+      PendingTable table = pending.get(file);
+      if (table == null) {
+        pending.put(file, new PendingTable(file.toFile()));
+      }
+      else {
+        table.touched();
+      }
+    }
+  }
+
+  private void processQuietTables() throws InterruptedException {
+    List<PendingTable> quiet = new ArrayList<>();
+    synchronized (this) {
+      for (PendingTable table : pending.values()) {
+        if (table.isQuiet(quietMillis)) {
+          quiet.add(table);
+        }
+      }
+    }
+
+    for (PendingTable table : quiet) {
+      if (!running) {
+        return;
+      }
+      TableState state = ingestTable(table.file);
+      synchronized (this) {
+        if (state == TableState.INGESTED) {
+          pending.remove(table.file.toPath());
+        }
+        else if (state == TableState.FAILED) {
+          table.retryAfter(retryMillis);
+        }
+        else {
+          table.touched();
+        }
+      }
+    }
+  }
+
+  /**
+   * Ingests the quiet, unrecorded reports of a metadata table
+   *
+   * @return whether every report listed in the table has been ingested, some have failed, or some aren't ready yet
+   */
+  private TableState ingestTable(File table) throws InterruptedException {
+    if (!table.exists()) {
+      return TableState.INGESTED;
+    }
+
+    List<QCAnalysis> analyses;
+    try {
+      analyses = metadataParser.parseMetadataFile(table);
+    }
+    catch (QCAnalysisException e) {
+      log.warn("Cannot read metadata table " + table + " yet: " + e.getMessage());
+      return TableState.WAITING;
+    }
+
+    boolean complete = true;
+    int failed = 0;
+    Set<File> seen = new HashSet<>();
+    List<QCAnalysis> ready = new ArrayList<>();
+    for (QCAnalysis analysis : analyses) {
+      String path = analysis.getProperties().get(ParallelIngester.REPORT_PATH_PROPERTY);
+      if (path == null) {
+        log.error("No property '" + ParallelIngester.REPORT_PATH_PROPERTY + "' in a row of " + table + ". Skipping.");
+        continue;
+      }
+      File report = new File(path);
+      if (!report.isAbsolute()) {
+        report = new File(table.getAbsoluteFile().getParentFile(), path);
+      }
+      if (!seen.add(report.getAbsoluteFile()) || checkpoint.contains(report)) {
+        continue;
+      }
+      if (!report.exists() || System.currentTimeMillis() - report.lastModified() < quietMillis) {
+        complete = false;
+        continue;
+      }
+      try {
+        analysis.addProperty(ParallelIngester.REPORT_PATH_PROPERTY, report.getAbsolutePath());
+      }
+      catch (QCAnalysisException e) {
+        log.error("Cannot set report path: " + e.getMessage());
+        continue;
+      }
+      ready.add(analysis);
+    }
+
+    if (!ready.isEmpty()) {
+      log.info("Ingesting " + ready.size() + " reports from " + table);
+      for (IngestResult result : ingester.ingest(ready)) {
+        if (result.isSuccess()) {
+          ingested++;
+          try {
+            checkpoint.add(new File(result.getPath()));
+          }
+          catch (IOException e) {
+            log.error("Cannot record " + result.getPath() + " in checkpoint: " + e.getMessage());
+          }
+        }
+        else {
+          failed++;
+          log.error("Cannot ingest " + result.getPath() + " from " + table + ": " + result.getMessage());
+        }
+      }
+      if (failed > 0) {
+        log.error(failed + " reports from " + table + " failed, and will be retried");
+      }
+    }
+    else if (verbose) {
+      log.info("No new reports in " + table);
+    }
+
+    if (!complete) {
+      return TableState.WAITING;
+    }
+    return failed > 0 ? TableState.FAILED : TableState.INGESTED;
+  }
+
+  private enum TableState {
+    INGESTED, WAITING, FAILED
+  }
+
+  /**
+   * A metadata table waiting to be quiet, or for the reports it lists
+   */
+  private static final class PendingTable {
+    private final File file;
+    private long lastEvent;
+    private long length;
+    private long modified;
+    private long retryMillis;
+
+    private PendingTable(File file) {
+      this.file = file;
+      touched();
+    }
+
+    private void touched() {
+      lastEvent = System.currentTimeMillis();
+      length = file.length();
+      modified = file.lastModified();
+      retryMillis = 0L;
+    }
+
+    /**
+     * Waits for the retry period, rather than the quiet period, before the table is read again, unless it changes
+     */
+    private void retryAfter(long retryMillis) {
+      touched();
+      this.retryMillis = retryMillis;
+    }
+
+    /**
+     * @return true if the table hasn't changed for the quiet period, or the retry period after a failure. A change
+     *         restarts the quiet period.
+     */
+    private boolean isQuiet(long quietMillis) {
+      if (file.length() != length || file.lastModified() != modified) {
+        touched();
+        return false;
+      }
+      return System.currentTimeMillis() - lastEvent >= Math.max(quietMillis, retryMillis);
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package uk.ac.tgac.statsdb.ingest;
+
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records the outcome of ingesting a single report file
+ * <p/>
+ * The result only holds on to its analysis until the report has been written, or has failed. After that it keeps the
+ * analysis' ID and run properties, see {@link #RUN_PROPERTIES}, so the results of a large ingest don't keep every
+ * parsed value in memory.
+ *
+ * @since 1.2
+ */
+public class IngestResult {
+  public enum Status {
+    PENDING, PARSED, INSERTED, FAILED
+  }
+
+  /**
+   * The properties kept once the analysis has been released, i.e. those the value rollups and sketches are grouped by
+   */
+  public static final String[] RUN_PROPERTIES = {"instrument", "run", "lane", "pair"};
+
+  private final String path;
+  private volatile QCAnalysis analysis;
+  private volatile long id;
+  private volatile Map<String, String> runProperties = Collections.emptyMap();
+  private volatile Status status = Status.PENDING;
+  private volatile String message;
+  private volatile long parseMillis;
+  private volatile long writeMillis;
+
+  public IngestResult(String path, QCAnalysis analysis) {
+    this.path = path;
+    this.analysis = analysis;
+  }
+
+  /**
+   * Get the path of the report file that was ingested
+   *
+   * @return the report path, or null if the analysis didn't specify one
+   */
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * Get the QCAnalysis populated from the report file
+   *
+   * @return the analysis, or null once the report has been written or has failed
+   */
+  public QCAnalysis getAnalysis() {
+    return analysis;
+  }
+
+  /**
+   * Get the database ID of the ingested analysis
+   *
+   * @return the ID, or 0 if the analysis wasn't written
+   */
+  public long getId() {
+    QCAnalysis current = analysis;
+    return current == null ? id : current.getId();
+  }
+
+  /**
+   * Get the run properties of the ingested analysis, see {@link #RUN_PROPERTIES}
+   *
+   * @return the run properties the analysis had
+   */
+  public Map<String, String> getRunProperties() {
+    QCAnalysis current = analysis;
+    return current == null ? runProperties : runProperties(current);
+  }
+
+  /**
+   * Get the ingest status of this report
+   *
+   * @return the status
+   */
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * Get the reason this report failed to ingest
+   *
+   * @return the failure message, or null if the report didn't fail
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  /**
+   * Get the time spent parsing this report
+   *
+   * @return the parse time in milliseconds
+   */
+  public long getParseMillis() {
+    return parseMillis;
+  }
+
+  /**
+   * Get the time spent writing this report to the database
+   *
+   * @return the write time in milliseconds
+   */
+  public long getWriteMillis() {
+    return writeMillis;
+  }
+
+  /**
+   * Check whether this report was ingested successfully, i.e. parsed, and inserted if a store was available
+   *
+   * @return true if the report didn't fail
+   */
+  public boolean isSuccess() {
+    return status != Status.FAILED && status != Status.PENDING;
+  }
+
+  /**
+   * Keeps the ID and run properties of the analysis, and lets go of the analysis itself
+   */
+  void release() {
+    QCAnalysis current = analysis;
+    if (current != null) {
+      id = current.getId();
+      runProperties = runProperties(current);
+      analysis = null;
+    }
+  }
+
+  private static Map<String, String> runProperties(QCAnalysis analysis) {
+    Map<String, String> properties = analysis.getProperties();
+    Map<String, String> kept = new HashMap<>();
+    for (String property : RUN_PROPERTIES) {
+      if (properties.get(property) != null) {
+        kept.put(property, properties.get(property));
+      }
+    }
+    return Collections.unmodifiableMap(kept);
+  }
+
+  void parsed(long millis) {
+    this.parseMillis = millis;
+    this.status = Status.PARSED;
+  }
+
+  void inserted(long millis) {
+    this.writeMillis = millis;
+    this.status = Status.INSERTED;
+    release();
+  }
+
+  void failed(String message) {
+    this.message = message;
+    this.status = Status.FAILED;
+    release();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(path);
+    if (status == Status.FAILED) {
+      sb.append(" - ").append(message);
+    }
+    else {
+      sb.append(" (parse ").append(parseMillis).append("ms");
+      if (status == Status.INSERTED) {
+        sb.append(", write ").append(writeMillis).append("ms");
+      }
+      sb.append(")");
+    }
+    return sb.toString();
+  }
+}
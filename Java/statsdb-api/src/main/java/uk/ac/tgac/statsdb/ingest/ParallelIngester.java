@@ -0,0 +1,303 @@
+package uk.ac.tgac.statsdb.ingest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.dao.BulkLoader;
+import uk.ac.tgac.statsdb.dao.QCAnalysisStore;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.run.parser.QcReportParser;
+import uk.ac.tgac.statsdb.util.VerbosityAware;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ingests a set of report files in parallel. A pool of parser threads parses the report referenced by each
+ * analysis' "path_to_analysis" property, and hands parsed analyses to a pool of database writer threads through a
+ * bounded queue, so that parsing can't run arbitrarily far ahead of the database. All writers share a single
+ * QCAnalysisStore.
+ * <p/>
+ * Given a {@link uk.ac.tgac.statsdb.run.parser.ParserRegistry} as its parser, each report is routed to the parser for
+ * its detected type, so a single ingest can mix reports from different tools.
+ * <p/>
+ * If no store is given, reports are parsed but nothing is written, as per the StatsDbApp test mode.
+ * <p/>
+ * In bulk mode, given a {@link BulkLoader} instead of a store, a single writer thread gathers parsed analyses into
+ * chunks of {@link BulkLoader#getChunkSize()} and loads each chunk at once. A chunk that fails to load fails all of
+ * its reports.
+ * <p/>
+ * The ingester doesn't keep an analysis once it has been written, or has failed, and its {@link IngestResult}s only
+ * keep the analysis' ID and run properties, so memory use is bounded by the queue, and the chunk size in bulk mode,
+ * rather than the number of reports. Callers ingesting a large metadata table shouldn't keep its analyses either.
+ *
+ * @since 1.2
+ */
+public class ParallelIngester implements VerbosityAware {
+  protected static final Logger log = LoggerFactory.getLogger(ParallelIngester.class);
+
+  public static final String REPORT_PATH_PROPERTY = "path_to_analysis";
+
+  private static final IngestResult POISON = new IngestResult(null, null);
+
+  private final QcReportParser<File> parser;
+  private final QCAnalysisStore store;
+  private final BulkLoader loader;
+  private int parserThreads = Runtime.getRuntime().availableProcessors();
+  private int writerThreads = 2;
+  private int queueCapacity = 16;
+  private boolean verbose = false;
+
+  /**
+   * Creates a ParallelIngester
+   *
+   * @param parser the parser used for all report files. Must be safe to share between threads.
+   * @param store the store to write parsed analyses to, or null to only parse
+   */
+  public ParallelIngester(QcReportParser<File> parser, QCAnalysisStore store) {
+    this.parser = parser;
+    this.store = store;
+    this.loader = null;
+  }
+
+  /**
+   * Creates a ParallelIngester in bulk mode
+   *
+   * @param parser the parser used for all report files. Must be safe to share between threads.
+   * @param loader the loader to write chunks of parsed analyses with
+   */
+  public ParallelIngester(QcReportParser<File> parser, BulkLoader loader) {
+    this.parser = parser;
+    this.store = null;
+    this.loader = loader;
+  }
+
+  /**
+   * Sets the number of threads parsing report files
+   *
+   * @param parserThreads
+   */
+  public void setParserThreads(int parserThreads) {
+    if (parserThreads < 1) {
+      throw new IllegalArgumentException("At least one parser thread is required");
+    }
+    this.parserThreads = parserThreads;
+  }
+
+  /**
+   * Sets the number of threads writing parsed analyses to the database. This should not exceed the size of the
+   * connection pool backing the store. Bulk mode always uses a single writer.
+   *
+   * @param writerThreads
+   */
+  public void setWriterThreads(int writerThreads) {
+    if (writerThreads < 1) {
+      throw new IllegalArgumentException("At least one writer thread is required");
+    }
+    this.writerThreads = writerThreads;
+  }
+
+  /**
+   * Sets the maximum number of parsed analyses waiting to be written. Parsers block when the queue is full.
+   *
+   * @param queueCapacity
+   */
+  public void setQueueCapacity(int queueCapacity) {
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException("Queue capacity must be at least 1");
+    }
+    this.queueCapacity = queueCapacity;
+  }
+
+  @Override
+  public void setVerbose(boolean verbose) {
+    this.verbose = verbose;
+  }
+
+  /**
+   * Parses, and writes if a store is available, the report for each of the given analyses
+   *
+   * @param analyses analyses populated with metadata properties, including the report path. The list isn't kept once
+   *                 its analyses have been handed to the parsers.
+   * @return a result for each analysis, in the same order as the analyses were given
+   * @throws InterruptedException if the calling thread is interrupted while waiting for the ingest to finish
+   */
+  public List<IngestResult> ingest(List<QCAnalysis> analyses) throws InterruptedException {
+    final BlockingQueue<IngestResult> queue = new ArrayBlockingQueue<>(queueCapacity);
+    final List<IngestResult> results = new ArrayList<>(analyses.size());
+
+    final int writerCount = loader == null ? writerThreads : 1;
+    ExecutorService writers = Executors.newFixedThreadPool(writerCount, new NamedThreadFactory("statsdb-writer"));
+    ExecutorService parsers = Executors.newFixedThreadPool(parserThreads, new NamedThreadFactory("statsdb-parser"));
+    try {
+      for (int i = 0; i < writerCount; i++) {
+        writers.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              if (loader != null) {
+                loadChunks(queue);
+                return;
+              }
+              IngestResult result;
+              while ((result = queue.take()) != POISON) {
+                write(result);
+              }
+            }
+            catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+      }
+
+      for (QCAnalysis analysis : analyses) {
+        String path = null;
+        try {
+          path = analysis.getProperty(REPORT_PATH_PROPERTY);
+        }
+        catch (QCAnalysisException e) {
+          // no report path, recorded as a failure by the parser task
+        }
+        final IngestResult result = new IngestResult(path, analysis);
+        results.add(result);
+        parsers.execute(new Runnable() {
+          @Override
+          public void run() {
+            if (parse(result)) {
+              try {
+                queue.put(result);
+              }
+              catch (InterruptedException e) {
+                result.failed("Interrupted before the analysis could be written");
+                Thread.currentThread().interrupt();
+              }
+            }
+          }
+        });
+      }
+      // each analysis is now held by its result only, until it has been written
+      analyses = null;
+
+      parsers.shutdown();
+      parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      for (int i = 0; i < writerCount; i++) {
+        queue.put(POISON);
+      }
+      writers.shutdown();
+      writers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    finally {
+      parsers.shutdownNow();
+      writers.shutdownNow();
+    }
+    return results;
+  }
+
+  private boolean parse(IngestResult result) {
+    if (result.getPath() == null) {
+      result.failed("No property '" + REPORT_PATH_PROPERTY + "' available. This should point to the file path where the report file is located.");
+      log.error("FAIL: " + result);
+      return false;
+    }
+
+    File report = new File(result.getPath());
+    if (!report.exists()) {
+      result.failed("No such report file");
+      log.error("FAIL: " + result);
+      return false;
+    }
+
+    long start = System.currentTimeMillis();
+    try {
+      parser.parseReport(report, result.getAnalysis());
+      result.parsed(System.currentTimeMillis() - start);
+      if (verbose) {
+        log.info("Parsed " + result.getPath());
+      }
+      if (store == null && loader == null) {
+        log.info("SUCCESS: " + result);
+        result.release();
+      }
+      return store != null || loader != null;
+    }
+    catch (Exception e) {
+      result.failed("Cannot parse report: " + e.getMessage());
+      log.error("FAIL: " + result);
+      return false;
+    }
+  }
+
+  private void write(IngestResult result) {
+    long start = System.currentTimeMillis();
+    try {
+      store.insertAnalysis(result.getAnalysis());
+      result.inserted(System.currentTimeMillis() - start);
+      log.info("SUCCESS: " + result);
+    }
+    catch (Exception e) {
+      result.failed("Cannot insert analysis into the database: " + e.getMessage());
+      log.error("FAIL: " + result);
+    }
+  }
+
+  private void loadChunks(BlockingQueue<IngestResult> queue) throws InterruptedException {
+    List<IngestResult> chunk = new ArrayList<>(loader.getChunkSize());
+    IngestResult result;
+    while ((result = queue.take()) != POISON) {
+      chunk.add(result);
+      if (chunk.size() >= loader.getChunkSize()) {
+        load(chunk);
+        chunk.clear();
+      }
+    }
+    load(chunk);
+  }
+
+  private void load(List<IngestResult> chunk) {
+    if (chunk.isEmpty()) {
+      return;
+    }
+    List<QCAnalysis> analyses = new ArrayList<>(chunk.size());
+    for (IngestResult result : chunk) {
+      analyses.add(result.getAnalysis());
+    }
+
+    long start = System.currentTimeMillis();
+    try {
+      loader.load(analyses);
+      long millis = System.currentTimeMillis() - start;
+      for (IngestResult result : chunk) {
+        // the chunk's load time, shared between its reports
+        result.inserted(millis / chunk.size());
+        if (verbose) {
+          log.info("SUCCESS: " + result);
+        }
+      }
+      log.info("SUCCESS: " + chunk.size() + " reports loaded");
+    }
+    catch (Exception e) {
+      for (IngestResult result : chunk) {
+        result.failed("Cannot bulk load analysis into the database: " + e.getMessage());
+        log.error("FAIL: " + result);
+      }
+    }
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    private NamedThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      return new Thread(r, prefix + "-" + count.incrementAndGet());
+    }
+  }
+}
@@ -0,0 +1,303 @@
+package uk.ac.tgac.statsdb.run;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An asynchronous facade over {@link Reports} and {@link ReportsDecorator}. Each query runs on a dedicated, bounded
+ * executor and returns a CompletableFuture, so callers don't block on JDBC.
+ * <p/>
+ * Multi-metric per-position queries, including the quality and base content plots of the decorator, fan out into one
+ * query per value type and are joined once they have all completed, so they cost the longest query rather than the sum
+ * of them. Each query holds its own connection, so the Reports must be created with a DataSource or JdbcTemplate, and
+ * the executor should have no more threads than the connection pool has connections.
+ * <p/>
+ * Queries beyond the executor's queue aren't run: their futures fail with a RejectedExecutionException. Other failures,
+ * e.g. an SQLException, fail the future with that exception, as the cause of the CompletionException thrown by join().
+ *
+ * @since 1.2
+ */
+public class AsyncReports implements AutoCloseable {
+  protected static final Logger log = LoggerFactory.getLogger(AsyncReports.class);
+
+  public static final int DEFAULT_THREADS = 8;
+  public static final int DEFAULT_QUEUE_SIZE = 256;
+
+  private static final long KEEP_ALIVE_SECONDS = 60L;
+
+  private final Reports reports;
+  private final ReportsDecorator decorator;
+  private final ExecutorService executor;
+  private final boolean ownsExecutor;
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  /**
+   * Creates an AsyncReports with the default number of threads, that of the default connection pool, and queue size
+   *
+   * @param reports
+   */
+  public AsyncReports(Reports reports) {
+    this(reports, DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+  }
+
+  /**
+   * Creates an AsyncReports with its own executor, which is shut down by {@link #close()}
+   *
+   * @param reports
+   * @param threads   the number of queries run at once, at least 1
+   * @param queueSize the number of queries that may wait for a thread, at least 1
+   */
+  public AsyncReports(Reports reports, int threads, int queueSize) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("At least one query thread is required: " + threads);
+    }
+    if (queueSize < 1) {
+      throw new IllegalArgumentException("Queue size must be at least 1: " + queueSize);
+    }
+    final AtomicInteger count = new AtomicInteger();
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(queueSize), r -> {
+          Thread t = new Thread(r, "statsdb-reports-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+    pool.allowCoreThreadTimeOut(true);
+    this.reports = reports;
+    this.decorator = new ReportsDecorator(reports);
+    this.executor = pool;
+    this.ownsExecutor = true;
+  }
+
+  /**
+   * Creates an AsyncReports running queries on an executor managed by the caller, which isn't shut down by
+   * {@link #close()}
+   *
+   * @param reports
+   * @param executor
+   */
+  public AsyncReports(Reports reports, ExecutorService executor) {
+    this.reports = reports;
+    this.decorator = new ReportsDecorator(reports);
+    this.executor = executor;
+    this.ownsExecutor = false;
+  }
+
+  public Reports getReports() {
+    return reports;
+  }
+
+  /**
+   * @return the number of queries turned away by a full executor
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * @see Reports#getPerPositionSummary(String, String, String)
+   */
+  public CompletableFuture<ReportTable> getPerPositionSummary(String analysis, String analysisProperty, String analysisPropertyValue) {
+    return submit(() -> reports.getPerPositionSummary(analysis, analysisProperty, analysisPropertyValue));
+  }
+
+  /**
+   * @see Reports#getAverageValues(String, String)
+   */
+  public CompletableFuture<ReportTable> getAverageValues(String analysisProperty, String analysisPropertyValue) {
+    return submit(() -> reports.getAverageValues(analysisProperty, analysisPropertyValue));
+  }
+
+  /**
+   * @see Reports#getAverageValues(Map)
+   */
+  public CompletableFuture<ReportTable> getAverageValues(Map<RunProperty, String> runProperties) {
+    Map<RunProperty, String> properties = copy(runProperties);
+    return submit(() -> reports.getAverageValues(properties));
+  }
+
+  /**
+   * @see Reports#getPerPositionValues(String, Map)
+   */
+  public CompletableFuture<ReportTable> getPerPositionValues(String analysis, Map<RunProperty, String> runProperties) {
+    Map<RunProperty, String> properties = copy(runProperties);
+    return submit(() -> reports.getPerPositionValues(analysis, properties));
+  }
+
+  /**
+   * Retrieves summary sets of per-position values for several value types, querying each value type at once
+   *
+   * @param analyses      the value types to query
+   * @param runProperties a Map with the properties to select
+   * @return a future map of value type to its summary values per position, in the order requested, which fails if any
+   *         of the queries fails
+   * @see Reports#getPerPositionValues(List, Map)
+   */
+  public CompletableFuture<Map<String, ReportTable>> getPerPositionValues(List<String> analyses, Map<RunProperty, String> runProperties) {
+    Map<RunProperty, String> properties = copy(runProperties);
+    Map<String, CompletableFuture<ReportTable>> queries = new LinkedHashMap<>();
+    for (String analysis : analyses) {
+      queries.computeIfAbsent(analysis, a -> submit(() -> reports.getPerPositionValues(a, properties)));
+    }
+    return CompletableFuture.allOf(queries.values().toArray(new CompletableFuture<?>[queries.size()])).thenApply(done -> {
+      Map<String, ReportTable> tables = new LinkedHashMap<>();
+      queries.forEach((analysis, query) -> tables.put(analysis, query.join()));
+      return tables;
+    });
+  }
+
+  /**
+   * @see Reports#getPercentiles(String, double[], Map)
+   */
+  public CompletableFuture<ReportTable> getPercentiles(String analysis, double[] percentiles, Map<RunProperty, String> runProperties) {
+    Map<RunProperty, String> properties = copy(runProperties);
+    double[] p = percentiles.clone();
+    return submit(() -> reports.getPercentiles(analysis, p, properties));
+  }
+
+  /**
+   * @see Reports#getSummaryValues(String, Map)
+   */
+  public CompletableFuture<ReportTable> getSummaryValues(String scope, Map<RunProperty, String> runProperties) {
+    Map<RunProperty, String> properties = copy(runProperties);
+    return submit(() -> reports.getSummaryValues(scope, properties));
+  }
+
+  /**
+   * @see Reports#getSummaryValuesWithComments(String, Map)
+   */
+  public CompletableFuture<ReportTable> getSummaryValuesWithComments(String scope, Map<RunProperty, String> runProperties) {
+    Map<RunProperty, String> properties = copy(runProperties);
+    return submit(() -> reports.getSummaryValuesWithComments(scope, properties));
+  }
+
+  /**
+   * @see Reports#listAllRuns()
+   */
+  public CompletableFuture<List<String>> listAllRuns() {
+    return submit(reports::listAllRuns);
+  }
+
+  /**
+   * @see Reports#listRunsForInstrument(String)
+   */
+  public CompletableFuture<List<String>> listRunsForInstrument(String instrument) {
+    return submit(() -> reports.listRunsForInstrument(instrument));
+  }
+
+  /**
+   * @see Reports#listLanesForRun(String)
+   */
+  public CompletableFuture<List<String>> listLanesForRun(String run) {
+    return submit(() -> reports.listLanesForRun(run));
+  }
+
+  /**
+   * @see Reports#listBarcodesForRunAndLane(String, String)
+   */
+  public CompletableFuture<List<String>> listBarcodesForRunAndLane(String run, String lane) {
+    return submit(() -> reports.listBarcodesForRunAndLane(run, lane));
+  }
+
+  /**
+   * @see ReportsDecorator#getBasicStatistics(Map)
+   */
+  public CompletableFuture<ReportTable> getBasicStatistics(Map<RunProperty, String> runProperties) {
+    Map<RunProperty, String> properties = copy(runProperties);
+    return submit(() -> decorator.getBasicStatistics(properties));
+  }
+
+  /**
+   * Gets the quality per base tables, querying each at once
+   *
+   * @see ReportsDecorator#getPerPositionBaseSequenceQuality(Map)
+   */
+  public CompletableFuture<Map<String, ReportTable>> getPerPositionBaseSequenceQuality(Map<RunProperty, String> runProperties) {
+    return getPerPositionValues(ReportsDecorator.QUALITY_VALUES, runProperties);
+  }
+
+  /**
+   * Gets the base content per position tables, querying each at once
+   *
+   * @see ReportsDecorator#getPerPositionBaseContent(Map)
+   */
+  public CompletableFuture<Map<String, ReportTable>> getPerPositionBaseContent(Map<RunProperty, String> runProperties) {
+    return getPerPositionValues(ReportsDecorator.BASE_CONTENT_VALUES, runProperties);
+  }
+
+  /**
+   * @see ReportsDecorator#getOverrepresentedSequences(Map)
+   */
+  public CompletableFuture<ReportTable> getOverrepresentedSequences(Map<RunProperty, String> runProperties) {
+    Map<RunProperty, String> properties = copy(runProperties);
+    return submit(() -> decorator.getOverrepresentedSequences(properties));
+  }
+
+  /**
+   * @see ReportsDecorator#getOverrepresentedTags(Map)
+   */
+  public CompletableFuture<ReportTable> getOverrepresentedTags(Map<RunProperty, String> runProperties) {
+    Map<RunProperty, String> properties = copy(runProperties);
+    return submit(() -> decorator.getOverrepresentedTags(properties));
+  }
+
+  /**
+   * Stops accepting queries, and shuts down the executor if it was created by this AsyncReports. Queries already
+   * accepted still complete.
+   */
+  @Override
+  public void close() {
+    if (ownsExecutor) {
+      executor.shutdown();
+    }
+  }
+
+  private <T> CompletableFuture<T> submit(Query<T> query) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      executor.execute(() -> {
+        if (future.isDone()) {
+          // cancelled whilst queued
+          return;
+        }
+        try {
+          future.complete(query.run());
+        }
+        catch (Throwable e) {
+          future.completeExceptionally(e);
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      rejectedCount.incrementAndGet();
+      log.warn("Report query turned away: the query queue is full");
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Copies the run properties, which are read on another thread once the caller may have changed them
+   */
+  private static Map<RunProperty, String> copy(Map<RunProperty, String> runProperties) {
+    return new HashMap<>(runProperties);
+  }
+
+  @FunctionalInterface
+  private interface Query<T> {
+    T run() throws SQLException;
+  }
+}
@@ -0,0 +1,467 @@
+package uk.ac.tgac.statsdb.run;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.dao.QCAnalysisStoreListener;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Reports implementation that caches the results of the summary stored procedure calls, keyed on the procedure and
+ * its arguments. Repeated dashboard queries for the same runs are then answered without going back to the database.
+ * <p/>
+ * Multi-metric per-position queries are cached per value type, sharing entries with single value type queries, so
+ * only the value types not already cached are fetched.
+ * <p/>
+ * The cache holds at most maxEntries tables, evicting the least recently used, and each table expires ttlMillis after
+ * it was fetched. Registered as a {@link QCAnalysisStoreListener} on a QCAnalysisDAO, any cached table whose run
+ * properties match a newly inserted analysis is invalidated, and tables fetched whilst an analysis was inserted aren't
+ * cached, as they may predate it. Only inserts made through that DAO, in the same JVM, are seen: db-config.xml doesn't
+ * register a cache, and the query server, which doesn't insert, relies on the TTL to pick up reports ingested by other
+ * processes.
+ * <p/>
+ * Cached ReportTables are shared between callers and must not be modified.
+ *
+ * @since 1.2
+ */
+public class CachingReports extends Reports implements QCAnalysisStoreListener {
+  protected static final Logger log = LoggerFactory.getLogger(CachingReports.class);
+
+  public static final int DEFAULT_MAX_ENTRIES = 500;
+  public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000L;
+
+  private static final RunProperty[] KEY_PROPERTIES = {
+      RunProperty.instrument, RunProperty.run, RunProperty.lane, RunProperty.pair, RunProperty.sampleName, RunProperty.barcode
+  };
+
+  /**
+   * The names of the key properties as stored in analysis_property
+   */
+  private static final String[] KEY_PROPERTY_NAMES = {"instrument", "run", "lane", "pair", "sample_name", "barcode"};
+
+  private final Map<CacheKey, CacheEntry> cache;
+  private final int maxEntries;
+  private final long ttlMillis;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong expirations = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  /**
+   * Counts invalidations, so that a table fetched across one isn't cached
+   */
+  private long generation = 0L;
+
+  /**
+   * Create a CachingReports object with a Spring JdbcTemplate and the default cache size and TTL
+   *
+   * @param template
+   */
+  public CachingReports(JdbcTemplate template) {
+    this(template, DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+  }
+
+  /**
+   * Create a CachingReports object with a Spring JdbcTemplate
+   *
+   * @param template
+   * @param maxEntries the maximum number of cached tables
+   * @param ttlMillis  how long a cached table is valid for, in milliseconds
+   */
+  public CachingReports(JdbcTemplate template, int maxEntries, long ttlMillis) {
+    super(template);
+    this.maxEntries = checkMaxEntries(maxEntries);
+    this.ttlMillis = checkTtl(ttlMillis);
+    this.cache = newCache();
+  }
+
+  /**
+   * Create a CachingReports object with a DataSource and the default cache size and TTL
+   *
+   * @param ds
+   */
+  public CachingReports(DataSource ds) {
+    this(ds, DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+  }
+
+  /**
+   * Create a CachingReports object with a DataSource
+   *
+   * @param ds
+   * @param maxEntries the maximum number of cached tables
+   * @param ttlMillis  how long a cached table is valid for, in milliseconds
+   */
+  public CachingReports(DataSource ds, int maxEntries, long ttlMillis) {
+    super(ds);
+    this.maxEntries = checkMaxEntries(maxEntries);
+    this.ttlMillis = checkTtl(ttlMillis);
+    this.cache = newCache();
+  }
+
+  /**
+   * Create a CachingReports object with a connection. For development outside a container.
+   *
+   * @param c
+   * @param maxEntries the maximum number of cached tables
+   * @param ttlMillis  how long a cached table is valid for, in milliseconds
+   */
+  public CachingReports(Connection c, int maxEntries, long ttlMillis) {
+    super(c);
+    this.maxEntries = checkMaxEntries(maxEntries);
+    this.ttlMillis = checkTtl(ttlMillis);
+    this.cache = newCache();
+  }
+
+  @Override
+  public ReportTable getAverageValues(String analysis_property, String analysis_property_value) throws SQLException {
+    CacheKey key = new CacheKey("general_summaries", null, null, analysis_property, analysis_property_value);
+    ReportTable rt = get(key);
+    if (rt == null) {
+      long since = generation();
+      rt = super.getAverageValues(analysis_property, analysis_property_value);
+      put(key, rt, since);
+    }
+    return rt;
+  }
+
+  @Override
+  public ReportTable getAverageValues(Map<RunProperty, String> runProperties) throws SQLException {
+    CacheKey key = new CacheKey("general_summaries_for_run", null, runProperties, null, null);
+    ReportTable rt = get(key);
+    if (rt == null) {
+      long since = generation();
+      rt = super.getAverageValues(runProperties);
+      put(key, rt, since);
+    }
+    return rt;
+  }
+
+  @Override
+  public ReportTable getPerPositionValues(String analysis, Map<RunProperty, String> runProperties) throws SQLException {
+    CacheKey key = new CacheKey("summary_per_position_for_run", analysis, runProperties, null, null);
+    ReportTable rt = get(key);
+    if (rt == null) {
+      long since = generation();
+      rt = super.getPerPositionValues(analysis, runProperties);
+      put(key, rt, since);
+    }
+    return rt;
+  }
+
+  @Override
+  public Map<String, ReportTable> getPerPositionValues(List<String> analyses, Map<RunProperty, String> runProperties) throws SQLException {
+    Map<String, ReportTable> report = new LinkedHashMap<>();
+    List<String> missing = new ArrayList<>();
+    for (String analysis : analyses) {
+      ReportTable rt = get(new CacheKey("summary_per_position_for_run", analysis, runProperties, null, null));
+      if (rt == null) {
+        missing.add(analysis);
+      }
+      report.put(analysis, rt);
+    }
+
+    if (!missing.isEmpty()) {
+      long since = generation();
+      Map<String, ReportTable> fetched = super.getPerPositionValues(missing, runProperties);
+      for (Map.Entry<String, ReportTable> e : fetched.entrySet()) {
+        put(new CacheKey("summary_per_position_for_run", e.getKey(), runProperties, null, null), e.getValue(), since);
+        report.put(e.getKey(), e.getValue());
+      }
+    }
+    return report;
+  }
+
+  @Override
+  public ReportTable getSummaryValuesWithComments(String scope, Map<RunProperty, String> runProperties) throws SQLException {
+    CacheKey key = new CacheKey("summary_value_with_comment", scope, runProperties, null, null);
+    ReportTable rt = get(key);
+    if (rt == null) {
+      long since = generation();
+      rt = super.getSummaryValuesWithComments(scope, runProperties);
+      put(key, rt, since);
+    }
+    return rt;
+  }
+
+  @Override
+  public ReportTable getSummaryValues(String scope, Map<RunProperty, String> runProperties) throws SQLException {
+    CacheKey key = new CacheKey("summary_value", scope, runProperties, null, null);
+    ReportTable rt = get(key);
+    if (rt == null) {
+      long since = generation();
+      rt = super.getSummaryValues(scope, runProperties);
+      put(key, rt, since);
+    }
+    return rt;
+  }
+
+  /**
+   * Invalidates every cached table that covers the run of the inserted analysis
+   *
+   * @param analysis the analysis that was inserted
+   */
+  @Override
+  public void analysisInserted(QCAnalysis analysis) {
+    Map<String, String> properties = analysis.getProperties();
+    int removed = 0;
+    synchronized (cache) {
+      generation++;
+      Iterator<CacheKey> it = cache.keySet().iterator();
+      while (it.hasNext()) {
+        if (it.next().matches(properties)) {
+          it.remove();
+          removed++;
+        }
+      }
+    }
+    if (removed > 0) {
+      invalidations.addAndGet(removed);
+      log.debug("Invalidated " + removed + " cached reports for analysis " + analysis.getId());
+    }
+  }
+
+  /**
+   * Invalidates every cached table that covers the run of the replacing analysis, as for an insert
+   *
+   * @param analysis the analysis that replaced a stored one
+   */
+  @Override
+  public void analysisReplaced(QCAnalysis analysis) {
+    analysisInserted(analysis);
+  }
+
+  /**
+   * Removes every cached table
+   */
+  public void clear() {
+    synchronized (cache) {
+      generation++;
+      cache.clear();
+    }
+  }
+
+  /**
+   * Get the number of tables currently cached
+   *
+   * @return the cache size
+   */
+  public int size() {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  /**
+   * Get the number of queries answered from the cache
+   *
+   * @return the hit count
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Get the number of queries that had to go to the database
+   *
+   * @return the miss count
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Get the number of tables evicted to keep the cache within its maximum size
+   *
+   * @return the eviction count
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * Get the number of tables dropped because they outlived the TTL
+   *
+   * @return the expiration count
+   */
+  public long getExpirationCount() {
+    return expirations.get();
+  }
+
+  /**
+   * Get the number of tables dropped because a matching analysis was inserted
+   *
+   * @return the invalidation count
+   */
+  public long getInvalidationCount() {
+    return invalidations.get();
+  }
+
+  /**
+   * Get the proportion of queries answered from the cache
+   *
+   * @return the hit rate, between 0 and 1
+   */
+  public double getHitRate() {
+    long h = hits.get();
+    long total = h + misses.get();
+    return total == 0 ? 0d : h / (double)total;
+  }
+
+  /**
+   * Logs the current cache statistics
+   */
+  public void logStatistics() {
+    log.info("Report cache statistics:");
+    log.info("\t\\_ size: " + size() + "/" + maxEntries + ", hits: " + getHitCount() + ", misses: " + getMissCount()
+             + ", hit rate: " + String.format("%.3f", getHitRate()));
+    log.info("\t\\_ evictions: " + getEvictionCount() + ", expirations: " + getExpirationCount()
+             + ", invalidations: " + getInvalidationCount());
+  }
+
+  private ReportTable get(CacheKey key) {
+    synchronized (cache) {
+      CacheEntry entry = cache.get(key);
+      if (entry != null) {
+        if (System.currentTimeMillis() - entry.created < ttlMillis) {
+          hits.incrementAndGet();
+          return entry.table;
+        }
+        cache.remove(key);
+        expirations.incrementAndGet();
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  private long generation() {
+    synchronized (cache) {
+      return generation;
+    }
+  }
+
+  /**
+   * Caches a table, unless the cache has been invalidated since the given generation, when the table may be stale
+   */
+  private void put(CacheKey key, ReportTable table, long fetchedGeneration) {
+    if (table != null) {
+      synchronized (cache) {
+        if (generation == fetchedGeneration) {
+          cache.put(key, new CacheEntry(table, System.currentTimeMillis()));
+        }
+      }
+    }
+  }
+
+  private Map<CacheKey, CacheEntry> newCache() {
+    return new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+        if (size() > maxEntries) {
+          evictions.incrementAndGet();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  private static int checkMaxEntries(int maxEntries) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("Cache must hold at least one entry");
+    }
+    return maxEntries;
+  }
+
+  private static long checkTtl(long ttlMillis) {
+    if (ttlMillis < 1) {
+      throw new IllegalArgumentException("Cache TTL must be positive");
+    }
+    return ttlMillis;
+  }
+
+  private static class CacheEntry {
+    private final ReportTable table;
+    private final long created;
+
+    private CacheEntry(ReportTable table, long created) {
+      this.table = table;
+      this.created = created;
+    }
+  }
+
+  /**
+   * Identifies a stored procedure call: the procedure, its analysis or scope argument, and either the run properties
+   * or a single property/value pair it selects on
+   */
+  private static class CacheKey {
+    private final String procedure;
+    private final String analysis;
+    private final Map<String, String> runProperties;
+    private final String property;
+    private final String value;
+
+    private CacheKey(String procedure, String analysis, Map<RunProperty, String> runProperties, String property, String value) {
+      this.procedure = procedure;
+      this.analysis = analysis;
+      this.runProperties = new TreeMap<>();
+      if (runProperties != null) {
+        for (int i = 0; i < KEY_PROPERTIES.length; i++) {
+          String v = runProperties.get(KEY_PROPERTIES[i]);
+          if (v != null) {
+            this.runProperties.put(KEY_PROPERTY_NAMES[i], v);
+          }
+        }
+      }
+      this.property = property;
+      this.value = value;
+    }
+
+    /**
+     * A key matches an analysis if the analysis could contribute to its result, i.e. every run property the key
+     * selects on is either absent from the analysis or has the same value
+     */
+    private boolean matches(Map<String, String> analysisProperties) {
+      if (property != null) {
+        String v = analysisProperties.get(property);
+        return v == null || v.equals(value);
+      }
+      for (Map.Entry<String, String> e : runProperties.entrySet()) {
+        String v = analysisProperties.get(e.getKey());
+        if (v != null && !v.equals(e.getValue())) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof CacheKey)) return false;
+      CacheKey other = (CacheKey)o;
+      return procedure.equals(other.procedure)
+             && eq(analysis, other.analysis)
+             && runProperties.equals(other.runProperties)
+             && eq(property, other.property)
+             && eq(value, other.value);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(new Object[]{procedure, analysis, runProperties, property, value});
+    }
+
+    private static boolean eq(Object a, Object b) {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+}
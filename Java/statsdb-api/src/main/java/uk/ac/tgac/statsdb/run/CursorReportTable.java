@@ -0,0 +1,311 @@
+package uk.ac.tgac.statsdb.run;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ReportTable that streams rows straight from an open, forward-only ResultSet rather than copying them into memory.
+ * The CSV and JSON views are written row by row to a Writer or OutputStream, in the same format as
+ * {@link GenericReportTable}, so memory use doesn't grow with the number of rows. Null cells are written as empty
+ * CSV fields and JSON nulls.
+ * <p/>
+ * The underlying cursor can only be read once: after one of the write or to* methods, or {@link #getTable()}, the
+ * table is consumed and further reads throw an IllegalStateException. The table must be closed once read, which
+ * closes the ResultSet and, if the table owns them, its statement and connection.
+ *
+ * @since 1.2
+ */
+public class CursorReportTable implements ReportTable, Closeable {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  private final ResultSet rs;
+  private final Statement statement;
+  private final Connection connection;
+  private final List<String> headers;
+  private final int columnCount;
+
+  private boolean consumed = false;
+  private boolean peeked = false;
+  private boolean hasRow = false;
+
+  /**
+   * Creates a CursorReportTable over a ResultSet. Closing the table only closes the ResultSet.
+   *
+   * @param rs a ResultSet positioned before its first row
+   * @throws SQLException
+   */
+  public CursorReportTable(ResultSet rs) throws SQLException {
+    this(rs, null, null);
+  }
+
+  /**
+   * Creates a CursorReportTable that also owns the statement and connection the ResultSet came from
+   *
+   * @param rs         a ResultSet positioned before its first row
+   * @param statement  the statement to close with the table, or null
+   * @param connection the connection to close with the table, or null
+   * @throws SQLException
+   */
+  CursorReportTable(ResultSet rs, Statement statement, Connection connection) throws SQLException {
+    this.rs = rs;
+    this.statement = statement;
+    this.connection = connection;
+
+    ResultSetMetaData rsmd = rs.getMetaData();
+    columnCount = rsmd.getColumnCount();
+    headers = new ArrayList<>(columnCount);
+    for (int i = 1; i <= columnCount; i++) {
+      headers.add(rsmd.getColumnName(i));
+    }
+  }
+
+  /**
+   * Writes the table as separated values, header first, one line per row
+   *
+   * @param out       the Writer to write to. It is flushed but not closed.
+   * @param separator character to separate the fields
+   * @throws IOException  if the table can't be written
+   * @throws SQLException if the rows can't be read
+   */
+  public void writeCSV(Writer out, char separator) throws IOException, SQLException {
+    startReading();
+    for (int i = 0; i < columnCount; i++) {
+      if (i > 0) {
+        out.write(separator);
+      }
+      out.write(headers.get(i));
+    }
+    out.write('\n');
+
+    while (nextRow()) {
+      for (int i = 1; i <= columnCount; i++) {
+        if (i > 1) {
+          out.write(separator);
+        }
+        String cell = cell(i);
+        if (cell != null) {
+          out.write(cell);
+        }
+      }
+      out.write('\n');
+    }
+    out.flush();
+  }
+
+  /**
+   * Writes the table as UTF-8 separated values
+   *
+   * @param out       the OutputStream to write to. It is flushed but not closed.
+   * @param separator character to separate the fields
+   * @throws IOException  if the table can't be written
+   * @throws SQLException if the rows can't be read
+   */
+  public void writeCSV(OutputStream out, char separator) throws IOException, SQLException {
+    writeCSV(new BufferedWriter(new OutputStreamWriter(out, UTF8)), separator);
+  }
+
+  /**
+   * Writes the table as a JSON array of arrays, header first
+   *
+   * @param out the Writer to write to. It is flushed but not closed.
+   * @throws IOException  if the table can't be written
+   * @throws SQLException if the rows can't be read
+   */
+  public void writeJSON(Writer out) throws IOException, SQLException {
+    startReading();
+    JsonGenerator json = jsonFactory.createJsonGenerator(out);
+    json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    json.writeStartArray();
+    json.writeStartArray();
+    for (String header : headers) {
+      json.writeString(header);
+    }
+    json.writeEndArray();
+
+    while (nextRow()) {
+      json.writeStartArray();
+      for (int i = 1; i <= columnCount; i++) {
+        String cell = cell(i);
+        if (cell == null) {
+          json.writeNull();
+        }
+        else {
+          json.writeString(cell);
+        }
+      }
+      json.writeEndArray();
+    }
+    json.writeEndArray();
+    json.close();
+    out.flush();
+  }
+
+  /**
+   * Writes the table as a UTF-8 JSON array of arrays
+   *
+   * @param out the OutputStream to write to. It is flushed but not closed.
+   * @throws IOException  if the table can't be written
+   * @throws SQLException if the rows can't be read
+   */
+  public void writeJSON(OutputStream out) throws IOException, SQLException {
+    writeJSON(new BufferedWriter(new OutputStreamWriter(out, UTF8)));
+  }
+
+  /**
+   * Reads the whole table into a CSV String. Prefer {@link #writeCSV(Writer, char)} for large tables.
+   *
+   * @return the table in CSV format
+   */
+  @Override
+  public String toCSV() {
+    return toCSV(',');
+  }
+
+  /**
+   * Reads the whole table into a separated values String. Prefer {@link #writeCSV(Writer, char)} for large tables.
+   *
+   * @param separator character to separate the fields
+   * @return the table represented by the separator
+   */
+  @Override
+  public String toCSV(char separator) {
+    StringWriter out = new StringWriter();
+    try {
+      writeCSV(out, separator);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Unable to write report table", e);
+    }
+    catch (SQLException e) {
+      throw new IllegalStateException("Unable to read report table: " + e.getMessage(), e);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Reads the whole table into a JSON String. Prefer {@link #writeJSON(Writer)} for large tables.
+   *
+   * @return a string containing the json representation of the table
+   * @throws IOException if the table can't be read or written
+   */
+  @Override
+  public String toJSON() throws IOException {
+    StringWriter out = new StringWriter();
+    try {
+      writeJSON(out);
+    }
+    catch (SQLException e) {
+      throw new IOException("Unable to read report table: " + e.getMessage(), e);
+    }
+    return out.toString();
+  }
+
+  @Override
+  public List<String> getHeaders() {
+    return new ArrayList<>(headers);
+  }
+
+  /**
+   * Reads the whole table into memory. This defeats the purpose of a cursor, and is only here to satisfy the
+   * ReportTable contract.
+   *
+   * @return a list with the header followed by the tuples
+   */
+  @Override
+  public List<List<String>> getTable() {
+    List<List<String>> table = new ArrayList<>();
+    table.add(getHeaders());
+    try {
+      startReading();
+      while (nextRow()) {
+        List<String> row = new ArrayList<>(columnCount);
+        for (int i = 1; i <= columnCount; i++) {
+          row.add(cell(i));
+        }
+        table.add(row);
+      }
+    }
+    catch (SQLException e) {
+      throw new IllegalStateException("Unable to read report table: " + e.getMessage(), e);
+    }
+    return table;
+  }
+
+  /**
+   * Checks whether the cursor has any rows, without consuming the table
+   *
+   * @return true if the table has no rows
+   */
+  @Override
+  public boolean isEmpty() {
+    try {
+      if (!consumed && !peeked) {
+        hasRow = rs.next();
+        peeked = true;
+      }
+    }
+    catch (SQLException e) {
+      throw new IllegalStateException("Unable to read report table: " + e.getMessage(), e);
+    }
+    return !hasRow;
+  }
+
+  @Override
+  public void close() throws IOException {
+    SQLException failure = null;
+    try {
+      rs.close();
+    }
+    catch (SQLException e) {
+      failure = e;
+    }
+    if (statement != null) {
+      try {
+        statement.close();
+      }
+      catch (SQLException e) {
+        failure = e;
+      }
+    }
+    if (connection != null) {
+      try {
+        connection.close();
+      }
+      catch (SQLException e) {
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw new IOException("Unable to close report table: " + failure.getMessage(), failure);
+    }
+  }
+
+  private void startReading() {
+    if (consumed) {
+      throw new IllegalStateException("This report table has already been read");
+    }
+    consumed = true;
+  }
+
+  private boolean nextRow() throws SQLException {
+    if (peeked) {
+      peeked = false;
+      return hasRow;
+    }
+    boolean next = rs.next();
+    hasRow |= next;
+    return next;
+  }
+
+  private String cell(int i) throws SQLException {
+    Object o = rs.getObject(i);
+    return o == null ? null : o.toString();
+  }
+}
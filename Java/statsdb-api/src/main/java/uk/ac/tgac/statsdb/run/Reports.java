@@ -1,18 +1,39 @@
 package uk.ac.tgac.statsdb.run;
 
 import org.springframework.jdbc.core.JdbcTemplate;
+import uk.ac.tgac.statsdb.dao.ValueRollupDAO;
+import uk.ac.tgac.statsdb.util.QuantileSketch;
 
 import javax.sql.DataSource;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 public class Reports {
+  /**
+   * Makes MySQL Connector/J stream result sets a row at a time rather than reading them whole
+   */
+  public static final int DEFAULT_FETCH_SIZE = Integer.MIN_VALUE;
+
+  /**
+   * The properties that summaries can be read from the value_rollup table for
+   */
+  private static final RunProperty[] ROLLUP_PROPERTIES = {RunProperty.instrument, RunProperty.run, RunProperty.lane, RunProperty.pair};
+
   private Connection connection;
   private DataSource dataSource = null;
   private JdbcTemplate template = null;
   private boolean suppressClose = false;
+  private int fetchSize = DEFAULT_FETCH_SIZE;
+  private boolean useRollups = false;
 
   /**
    * Create a Reports object with a Spring JdbcTemplate.
@@ -77,6 +98,48 @@ public class Reports {
     this.suppressClose = suppressClose;
   }
 
+  /**
+   * Get the fetch size used by cursor queries
+   *
+   * @return the fetch size
+   */
+  public int getFetchSize() {
+    return fetchSize;
+  }
+
+  /**
+   * Set the fetch size used by cursor queries, e.g. {@link #openAnalysisValuesForRun(Map)}. The default,
+   * Integer.MIN_VALUE, makes MySQL Connector/J stream rows one at a time. Other drivers need a positive fetch size, as
+   * does Connector/J with useCursorFetch=true.
+   *
+   * @param fetchSize
+   */
+  public void setFetchSize(int fetchSize) {
+    this.fetchSize = fetchSize;
+  }
+
+  /**
+   * Check whether summaries are read from the value_rollup table where possible
+   *
+   * @return true if rollups are used. Defaults to false.
+   */
+  public boolean isUseRollups() {
+    return useRollups;
+  }
+
+  /**
+   * Enable/disable reading summaries from the value_rollup table, maintained on insert by a {@link ValueRollupDAO}, in
+   * {@link #getPerPositionValues(String, Map)}, {@link #getPerPositionValues(List, Map)} and
+   * {@link #getAverageValues(Map)}. Rollups are only read when selecting on RunProperty.instrument, RunProperty.run,
+   * RunProperty.lane and RunProperty.pair, and other selections still aggregate the raw values. Only enable this once
+   * the table has been filled, see {@link ValueRollupDAO#rebuild()}.
+   *
+   * @param useRollups
+   */
+  public void setUseRollups(boolean useRollups) {
+    this.useRollups = useRollups;
+  }
+
   /**
    * Method that returns a summary table given an analysis done in partitions (per base, per percentile, etc)
    *
@@ -96,7 +159,7 @@ public class Reports {
       proc.setString(2, analysis_property);
       proc.setString(3, analysis_property_value);
 
-      boolean hadResults = proc.execute();
+      boolean hadResults = execute(proc);
       if (hadResults) {
         rt = new GenericReportTable(proc.getResultSet());
       }
@@ -123,7 +186,7 @@ public class Reports {
       CallableStatement proc = con.prepareCall("{ call list_summary_per_scope(?) }");
       proc.setString(1, "base_partition");
 
-      boolean hadResults = proc.execute();
+      boolean hadResults = execute(proc);
       if (hadResults) {
         list = resultSetToList(proc.getResultSet());
       }
@@ -150,7 +213,7 @@ public class Reports {
       CallableStatement proc = con.prepareCall("{ call list_summary_per_scope(?) }");
       proc.setString(1, "analysis");
 
-      boolean hadResults = proc.execute();
+      boolean hadResults = execute(proc);
       if (hadResults) {
         list = resultSetToList(proc.getResultSet());
       }
@@ -182,7 +245,7 @@ public class Reports {
       proc.setString(2, analysis_property);
       proc.setString(3, analysis_property_value);
 
-      boolean hadResults = proc.execute();
+      boolean hadResults = execute(proc);
       if (hadResults) {
         ResultSet rs = proc.getResultSet();
         if (rs.next()) {
@@ -216,7 +279,7 @@ public class Reports {
       proc.setString(1, analysis_property);
       proc.setString(2, analysis_property_value);
 
-      boolean hadResults = proc.execute();
+      boolean hadResults = execute(proc);
       if (hadResults) {
         rt = new GenericReportTable(proc.getResultSet());
       }
@@ -240,6 +303,10 @@ public class Reports {
    * @throws SQLException
    */
   public ReportTable getAverageValues(Map<RunProperty, String> runProperties) throws SQLException {
+    if (isRollupSelection(runProperties)) {
+      return getAverageRollups(runProperties);
+    }
+
     String[] args = new String[5];
     args[0] = runProperties.get(RunProperty.instrument);
     args[1] = runProperties.get(RunProperty.run);
@@ -262,7 +329,7 @@ public class Reports {
         }
       }
 
-      boolean hadResults = proc.execute();
+      boolean hadResults = execute(proc);
       if (hadResults) {
         rt = new GenericReportTable(proc.getResultSet());
       }
@@ -283,9 +350,331 @@ public class Reports {
    * @throws SQLException
    */
   public ReportTable getPerPositionValues(String analysis, Map<RunProperty, String> runProperties) throws SQLException {
+    if (isRollupSelection(runProperties)) {
+      return getPerPositionRollups(Collections.singletonList(analysis), runProperties, true).get(analysis);
+    }
     return getResultTableFromStoreProcedure("summary_per_position_for_run", analysis, runProperties);
   }
 
+  /**
+   * Retrieve summary sets of per-position values for several analyses at once, given a set of properties. The analysis
+   * IDs matching the properties are resolved once and all the requested value types are fetched in a single query,
+   * rather than one query per value type as with {@link #getPerPositionValues(String, Map)}.
+   *
+   * @param analyses      the value types to query
+   * @param runProperties a Map with the properties to select
+   * @return a map of value type to ReportTable representation of its summary values per position, in the same form as
+   *         {@link #getPerPositionValues(String, Map)}. Every requested value type has an entry, empty if it has no
+   *         values.
+   * @throws SQLException
+   */
+  public Map<String, ReportTable> getPerPositionValues(List<String> analyses, Map<RunProperty, String> runProperties) throws SQLException {
+    if (isRollupSelection(runProperties)) {
+      return getPerPositionRollups(analyses, runProperties, false);
+    }
+
+    StringBuilder valueTypes = new StringBuilder();
+    for (String analysis : analyses) {
+      if (analysis.indexOf(',') != -1) {
+        throw new IllegalArgumentException("Value type names can't contain commas: " + analysis);
+      }
+      if (valueTypes.length() > 0) {
+        valueTypes.append(',');
+      }
+      valueTypes.append(analysis);
+    }
+
+    String[] args = new String[8];
+    args[0] = valueTypes.toString();
+    args[1] = runProperties.get(RunProperty.instrument);
+    args[2] = runProperties.get(RunProperty.run);
+    args[3] = runProperties.get(RunProperty.lane);
+    args[4] = runProperties.get(RunProperty.pair);
+    args[5] = runProperties.get(RunProperty.sampleName);
+    args[6] = runProperties.get(RunProperty.barcode);
+    args[7] = null;
+
+    Map<String, List<List<String>>> tables = new LinkedHashMap<>();
+    Connection con = null;
+    try {
+      con = getConnection();
+      CallableStatement proc = con.prepareCall("{ call summary_per_position_multi_for_run(?,?,?,?,?,?,?,?) }");
+
+      for (int i = 0; i < args.length; i++) {
+        if (args[i] == null) {
+          proc.setNull(i + 1, java.sql.Types.VARCHAR);
+        }
+        else {
+          proc.setString(i + 1, args[i]);
+        }
+      }
+
+      boolean hadResults = execute(proc);
+      if (hadResults) {
+        ResultSet rs = proc.getResultSet();
+        ResultSetMetaData rsmd = rs.getMetaData();
+        int columnCount = rsmd.getColumnCount();
+        List<String> header = new ArrayList<>();
+        for (int i = 2; i <= columnCount; i++) {
+          header.add(rsmd.getColumnName(i));
+        }
+        for (String analysis : analyses) {
+          List<List<String>> table = new ArrayList<>();
+          table.add(header);
+          tables.put(analysis, table);
+        }
+
+        while (rs.next()) {
+          List<List<String>> table = tables.get(rs.getString(1));
+          if (table != null) {
+            List<String> row = new ArrayList<>(columnCount - 1);
+            for (int i = 2; i <= columnCount; i++) {
+              Object o = rs.getObject(i);
+              row.add(o == null ? null : o.toString());
+            }
+            table.add(row);
+          }
+        }
+      }
+    }
+    finally {
+      if (!isSuppressClose()) {
+        close(con);
+      }
+    }
+
+    Map<String, ReportTable> report = new LinkedHashMap<>();
+    for (Map.Entry<String, List<List<String>>> table : tables.entrySet()) {
+      report.put(table.getKey(), new GenericReportTable(table.getValue()));
+    }
+    return report;
+  }
+
+  /**
+   * Retrieve the merged quantile sketches of a value type, per position, over every lane matching a set of properties.
+   * General values are sketched at position 0. The properties supplied can be null, dictating to which level the
+   * sketches are merged.
+   * <p/>
+   * Sketches are kept per lane, so only RunProperty.instrument, RunProperty.run and RunProperty.lane are supported
+   *
+   * @param analysis      the value type to query
+   * @param runProperties a Map with the properties to select
+   * @return a map of position to the merged sketch of the values at that position, in position order
+   * @throws SQLException
+   * @throws IllegalArgumentException if any other property is selected
+   */
+  public SortedMap<Long, QuantileSketch> getQuantileSketches(String analysis, Map<RunProperty, String> runProperties) throws SQLException {
+    List<String> args = new ArrayList<>();
+    args.add(analysis);
+    StringBuilder sql = new StringBuilder(
+        "SELECT s.position, s.sketch FROM value_sketch s INNER JOIN value_type v ON v.id = s.value_type_id WHERE v.description = ?");
+    appendRunFilters(sql, args, "s", runProperties, RunProperty.instrument, RunProperty.run, RunProperty.lane);
+
+    SortedMap<Long, QuantileSketch> sketches = new TreeMap<>();
+    Connection con = null;
+    PreparedStatement ps = null;
+    try {
+      con = getConnection();
+      ps = con.prepareStatement(sql.toString());
+      for (int i = 0; i < args.size(); i++) {
+        ps.setString(i + 1, args.get(i));
+      }
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        QuantileSketch sketch = QuantileSketch.fromBytes(rs.getBytes(2));
+        QuantileSketch merged = sketches.get(rs.getLong(1));
+        if (merged == null) {
+          sketches.put(rs.getLong(1), sketch);
+        }
+        else {
+          merged.merge(sketch);
+        }
+      }
+    }
+    finally {
+      closeQuietly(ps);
+      if (!isSuppressClose()) {
+        close(con);
+      }
+    }
+    return sketches;
+  }
+
+  /**
+   * Retrieve estimated percentiles of a value type, per position, over every lane matching a set of properties. The
+   * per-lane sketches are merged in memory, so this costs one row per lane and position however many values were
+   * stored. See {@link #getQuantileSketches(String, Map)} for the supported properties.
+   *
+   * @param analysis      the value type to query
+   * @param percentiles   the percentiles to estimate, from 0 to 100
+   * @param runProperties a Map with the properties to select
+   * @return ReportTable with a Position and a Samples column, and a column per percentile, e.g. P50
+   * @throws SQLException
+   * @throws IllegalArgumentException if a percentile is out of range, or an unsupported property is selected
+   */
+  public ReportTable getPercentiles(String analysis, double[] percentiles, Map<RunProperty, String> runProperties) throws SQLException {
+    for (double p : percentiles) {
+      if (!(p >= 0d && p <= 100d)) {
+        throw new IllegalArgumentException("Percentiles must be between 0 and 100: " + p);
+      }
+    }
+
+    List<List<String>> table = new ArrayList<>();
+    List<String> header = new ArrayList<>();
+    header.add("Position");
+    header.add("Samples");
+    for (double p : percentiles) {
+      header.add("P" + (p == Math.rint(p) ? String.valueOf((long)p) : String.valueOf(p)));
+    }
+    table.add(header);
+
+    for (Map.Entry<Long, QuantileSketch> sketch : getQuantileSketches(analysis, runProperties).entrySet()) {
+      List<String> row = new ArrayList<>(header.size());
+      row.add(String.valueOf(sketch.getKey()));
+      row.add(String.valueOf(sketch.getValue().getCount()));
+      for (double p : percentiles) {
+        row.add(String.valueOf(sketch.getValue().quantile(p / 100d)));
+      }
+      table.add(row);
+    }
+    return new GenericReportTable(table);
+  }
+
+  private boolean isRollupSelection(Map<RunProperty, String> runProperties) {
+    if (!useRollups) {
+      return false;
+    }
+    for (Map.Entry<RunProperty, String> property : runProperties.entrySet()) {
+      if (property.getValue() != null && !Arrays.asList(ROLLUP_PROPERTIES).contains(property.getKey())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads per-position summaries from value_rollup, in the form of {@link #getPerPositionValues(List, Map)}
+   *
+   * @param onePerValueType if true, a value type with both partition and position values only reports its partition
+   *                        values, as summary_per_position_for_run does. Otherwise both are reported, as
+   *                        summary_per_position_multi_for_run does.
+   */
+  private Map<String, ReportTable> getPerPositionRollups(List<String> analyses, Map<RunProperty, String> runProperties, boolean onePerValueType) throws SQLException {
+    List<String> args = new ArrayList<>(analyses);
+    StringBuilder sql = new StringBuilder(
+        "SELECT v.description, r.source, r.position, MIN(r.size), SUM(r.samples), SUM(r.total) " +
+        "FROM value_rollup r INNER JOIN value_type v ON v.id = r.value_type_id WHERE r.source <> " + ValueRollupDAO.GENERAL_VALUES);
+    sql.append(" AND v.description IN (");
+    for (int i = 0; i < analyses.size(); i++) {
+      sql.append(i == 0 ? "?" : ", ?");
+    }
+    sql.append(")");
+    appendRunFilters(sql, args, "r", runProperties, ROLLUP_PROPERTIES);
+    sql.append(" GROUP BY v.description, r.source, r.position ORDER BY v.description, r.position, r.source");
+
+    Map<String, List<List<String>>> tables = new LinkedHashMap<>();
+    Set<String> partitioned = new HashSet<>();
+    for (String analysis : analyses) {
+      List<List<String>> table = new ArrayList<>();
+      table.add(Arrays.asList("Position", "Size", "Average", "Samples", "Total"));
+      tables.put(analysis, table);
+    }
+
+    List<Object[]> rows = analyses.isEmpty() ? Collections.<Object[]>emptyList() : query(sql.toString(), args);
+    for (Object[] row : rows) {
+      if (((Number)row[1]).intValue() == ValueRollupDAO.PARTITION_VALUES) {
+        partitioned.add((String)row[0]);
+      }
+    }
+    for (Object[] row : rows) {
+      List<List<String>> table = tables.get(row[0]);
+      if (table == null || (onePerValueType && partitioned.contains(row[0]) && ((Number)row[1]).intValue() != ValueRollupDAO.PARTITION_VALUES)) {
+        continue;
+      }
+      long samples = ((Number)row[4]).longValue();
+      double total = ((Number)row[5]).doubleValue();
+      table.add(Arrays.asList(row[2].toString(), row[3].toString(), String.valueOf(total / samples), String.valueOf(samples), String.valueOf(total)));
+    }
+
+    Map<String, ReportTable> report = new LinkedHashMap<>();
+    for (Map.Entry<String, List<List<String>>> table : tables.entrySet()) {
+      report.put(table.getKey(), new GenericReportTable(table.getValue()));
+    }
+    return report;
+  }
+
+  /**
+   * Reads general value summaries from value_rollup, in the form of {@link #getAverageValues(Map)}
+   */
+  private ReportTable getAverageRollups(Map<RunProperty, String> runProperties) throws SQLException {
+    List<String> args = new ArrayList<>();
+    StringBuilder sql = new StringBuilder(
+        "SELECT v.description, SUM(r.samples), SUM(r.total) FROM value_rollup r " +
+        "INNER JOIN value_type v ON v.id = r.value_type_id INNER JOIN type_scope t ON t.id = v.type_scope_id " +
+        "WHERE t.scope = 'analysis' AND r.source = " + ValueRollupDAO.GENERAL_VALUES);
+    appendRunFilters(sql, args, "r", runProperties, ROLLUP_PROPERTIES);
+    sql.append(" GROUP BY v.id, v.description ORDER BY v.description");
+
+    List<List<String>> table = new ArrayList<>();
+    table.add(Arrays.asList("Description", "Average", "Samples", "Total"));
+    for (Object[] row : query(sql.toString(), args)) {
+      long samples = ((Number)row[1]).longValue();
+      double total = ((Number)row[2]).doubleValue();
+      table.add(Arrays.asList((String)row[0], String.valueOf(total / samples), String.valueOf(samples), String.valueOf(total)));
+    }
+    return new GenericReportTable(table);
+  }
+
+  /**
+   * Appends an equality condition on each supplied property that has a value, for tables with a column named after
+   * each property
+   *
+   * @throws IllegalArgumentException if a property that isn't supported has a value, rather than ignoring the filter
+   */
+  private static void appendRunFilters(StringBuilder sql, List<String> args, String alias, Map<RunProperty, String> runProperties, RunProperty... supported) {
+    for (Map.Entry<RunProperty, String> property : runProperties.entrySet()) {
+      if (property.getValue() != null && !Arrays.asList(supported).contains(property.getKey())) {
+        throw new IllegalArgumentException("Cannot select by " + property.getKey() + ", only by " + Arrays.toString(supported));
+      }
+    }
+    for (RunProperty property : supported) {
+      String value = runProperties.get(property);
+      if (value != null) {
+        sql.append(" AND ").append(alias).append(".").append(property.name()).append(" = ?");
+        args.add(value);
+      }
+    }
+  }
+
+  private List<Object[]> query(String sql, List<String> args) throws SQLException {
+    List<Object[]> rows = new ArrayList<>();
+    Connection con = null;
+    PreparedStatement ps = null;
+    try {
+      con = getConnection();
+      ps = con.prepareStatement(sql);
+      for (int i = 0; i < args.size(); i++) {
+        ps.setString(i + 1, args.get(i));
+      }
+      ResultSet rs = ps.executeQuery();
+      int columnCount = rs.getMetaData().getColumnCount();
+      while (rs.next()) {
+        Object[] row = new Object[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+          row[i] = rs.getObject(i + 1);
+        }
+        rows.add(row);
+      }
+    }
+    finally {
+      closeQuietly(ps);
+      if (!isSuppressClose()) {
+        close(con);
+      }
+    }
+    return rows;
+  }
+
   /**
    * Retrieve a set of summary values and related comments given a value scope and a set of properties. The properties supplied can
    * be null, dictating to which level the summary will be generated
@@ -332,7 +721,7 @@ public class Reports {
         }
       }
 
-      boolean hadResults = proc.execute();
+      boolean hadResults = execute(proc);
       if (hadResults) {
         rt = new GenericReportTable(proc.getResultSet());
       }
@@ -345,6 +734,76 @@ public class Reports {
     return rt;
   }
 
+  /**
+   * Opens a cursor over all the analysis values for the supplied run properties. The rows are streamed from the
+   * database as the returned table is written, so exports of any size run in constant memory, e.g.
+   * <pre>
+   *   CursorReportTable table = reports.openAnalysisValuesForRun(runProperties);
+   *   try {
+   *     table.writeCSV(writer, ',');
+   *   }
+   *   finally {
+   *     table.close();
+   *   }
+   * </pre>
+   * The table holds a database connection until it is closed.
+   *
+   * @param runProperties a Map with the properties to select
+   * @return an open CursorReportTable, or null if the procedure returned no results
+   * @throws SQLException
+   */
+  public CursorReportTable openAnalysisValuesForRun(Map<RunProperty, String> runProperties) throws SQLException {
+    String[] args = new String[7];
+    args[0] = runProperties.get(RunProperty.instrument);
+    args[1] = runProperties.get(RunProperty.run);
+    args[2] = runProperties.get(RunProperty.lane);
+    args[3] = runProperties.get(RunProperty.pair);
+    args[4] = runProperties.get(RunProperty.sampleName);
+    args[5] = runProperties.get(RunProperty.barcode);
+    args[6] = null;
+    return openCursorFromStoreProcedure("analysis_values_for_run", args);
+  }
+
+  private CursorReportTable openCursorFromStoreProcedure(String storeProcedure, String[] args) throws SQLException {
+    StringBuilder call = new StringBuilder("{ call ").append(storeProcedure).append("(");
+    for (int i = 0; i < args.length; i++) {
+      call.append(i == 0 ? "?" : ",?");
+    }
+    call.append(") }");
+
+    Connection con = getConnection();
+    CallableStatement proc = null;
+    try {
+      proc = con.prepareCall(call.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      proc.setFetchSize(fetchSize);
+      for (int i = 0; i < args.length; i++) {
+        if (args[i] == null) {
+          proc.setNull(i + 1, java.sql.Types.VARCHAR);
+        }
+        else {
+          proc.setString(i + 1, args[i]);
+        }
+      }
+
+      if (execute(proc)) {
+        return new CursorReportTable(proc.getResultSet(), proc, isSuppressClose() ? null : con);
+      }
+    }
+    catch (SQLException e) {
+      closeQuietly(proc);
+      if (!isSuppressClose()) {
+        close(con);
+      }
+      throw e;
+    }
+
+    closeQuietly(proc);
+    if (!isSuppressClose()) {
+      close(con);
+    }
+    return null;
+  }
+
   /**
    * Returns a list of all the properties that can be used to select from a single property.
    *
@@ -358,7 +817,7 @@ public class Reports {
       con = getConnection();
       CallableStatement proc = con.prepareCall("{ call list_selectable_properties() }");
 
-      boolean hadResults = proc.execute();
+      boolean hadResults = execute(proc);
       if (hadResults) {
         list = resultSetToList(proc.getResultSet());
       }
@@ -385,7 +844,7 @@ public class Reports {
       CallableStatement proc = con.prepareCall("{ call list_selectable_values_from_property(?) }");
       proc.setString(1, property);
 
-      boolean hadResults = proc.execute();
+      boolean hadResults = execute(proc);
       if (hadResults) {
         list = resultSetToList(proc.getResultSet());
       }
@@ -410,14 +869,11 @@ public class Reports {
     Connection con = null;
     try {
       con = getConnection();
-      PreparedStatement proc = con.prepareStatement("SELECT DISTINCT analysis_property.value from analysis_property " +
-                                                    "WHERE property = 'run' " +
-                                                    "AND analysis_id IN " +
-                                                    "(SELECT DISTINCT analysis_property.analysis_id from analysis_property "+
-                                                    "WHERE property = 'instrument' AND value = ?);");
+      PreparedStatement proc = con.prepareStatement("SELECT DISTINCT run FROM analysis_run_identity " +
+                                                    "WHERE instrument = ? AND run IS NOT NULL;");
       proc.setString(1, instrument);
 
-      boolean hadResults = proc.execute();
+      boolean hadResults = execute(proc);
       ResultSet rs;
       if (hadResults) {
         rs = proc.getResultSet();
@@ -451,7 +907,7 @@ public class Reports {
       proc.setNull(4, java.sql.Types.VARCHAR);
       proc.setNull(5, java.sql.Types.VARCHAR);
 
-      boolean hadResults = proc.execute();
+      boolean hadResults = execute(proc);
       ResultSet rs;
       if (hadResults) {
         rs = proc.getResultSet();
@@ -478,14 +934,11 @@ public class Reports {
     Connection con = null;
     try {
       con = getConnection();
-      PreparedStatement proc = con.prepareStatement("SELECT DISTINCT analysis_property.value from analysis_property " +
-                                                    "WHERE property = 'lane' " +
-                                                    "AND analysis_id IN " +
-                                                    "(SELECT DISTINCT analysis_property.analysis_id from analysis_property "+
-                                                    "WHERE property = 'run' AND value = ?);");
+      PreparedStatement proc = con.prepareStatement("SELECT DISTINCT lane FROM analysis_run_identity " +
+                                                    "WHERE run = ? AND lane IS NOT NULL;");
       proc.setString(1, run);
 
-      boolean hadResults = proc.execute();
+      boolean hadResults = execute(proc);
       ResultSet rs;
       if (hadResults) {
         rs = proc.getResultSet();
@@ -512,18 +965,12 @@ public class Reports {
     Connection con = null;
     try {
       con = getConnection();
-      PreparedStatement proc = con.prepareStatement("SELECT DISTINCT analysis_property.value from analysis_property " +
-                                                    "WHERE property = 'barcode' " +
-                                                    "AND analysis_id IN " +
-                                                    "(SELECT DISTINCT analysis_property.analysis_id from analysis_property "+
-                                                    "WHERE property = 'lane' AND value = ?) "+
-                                                    "AND analysis_id IN "+
-                                                    "(SELECT DISTINCT analysis_property.analysis_id from analysis_property "+
-                                                    "WHERE property = 'run' AND value = ?);");
+      PreparedStatement proc = con.prepareStatement("SELECT DISTINCT barcode FROM analysis_run_identity " +
+                                                    "WHERE lane = ? AND run = ? AND barcode IS NOT NULL;");
       proc.setString(1, lane);
       proc.setString(2, run);
 
-      boolean hadResults = proc.execute();
+      boolean hadResults = execute(proc);
       ResultSet rs;
       if (hadResults) {
         rs = proc.getResultSet();
@@ -550,22 +997,14 @@ public class Reports {
     Connection con = null;
     try {
       con = getConnection();
-      PreparedStatement proc = con.prepareStatement("SELECT DISTINCT analysis_property.value from analysis_property " +
-                                                    "WHERE property = 'sample_name' " +
-                                                    "AND analysis_id IN " +
-                                                    "(SELECT DISTINCT analysis_property.analysis_id from analysis_property "+
-                                                    "WHERE property = 'barcode' AND value = ?) " +
-                                                    "AND analysis_id IN " +
-                                                    "(SELECT DISTINCT analysis_property.analysis_id from analysis_property "+
-                                                    "WHERE property = 'lane' AND value = ?) "+
-                                                    "AND analysis_id IN "+
-                                                    "(SELECT DISTINCT analysis_property.analysis_id from analysis_property "+
-                                                    "WHERE property = 'run' AND value = ?);");
+      PreparedStatement proc = con.prepareStatement("SELECT DISTINCT sample_name FROM analysis_run_identity " +
+                                                    "WHERE barcode = ? AND lane = ? AND run = ? " +
+                                                    "AND sample_name IS NOT NULL;");
       proc.setString(1, barcode);
       proc.setString(2, lane);
       proc.setString(3, run);
 
-      boolean hadResults = proc.execute();
+      boolean hadResults = execute(proc);
       ResultSet rs;
       if (hadResults) {
         rs = proc.getResultSet();
@@ -595,6 +1034,29 @@ public class Reports {
     return list;
   }
 
+  /**
+   * Executes a statement, returning true if it produced a ResultSet. Some drivers (e.g. HSQLDB) report a procedure's
+   * dynamic result set only after its first, empty, result, so that is checked too.
+   *
+   * @param proc
+   * @return true if the statement's current result is a ResultSet
+   * @throws SQLException
+   */
+  private boolean execute(PreparedStatement proc) throws SQLException {
+    return proc.execute() || proc.getMoreResults();
+  }
+
+  private void closeQuietly(Statement statement) {
+    try {
+      if (statement != null) {
+        statement.close();
+      }
+    }
+    catch (SQLException e) {
+      e.printStackTrace();
+    }
+  }
+
   private void close(Connection con) {
     try {
       if (con != null) {
@@ -1,7 +1,10 @@
 package uk.ac.tgac.statsdb.run;
 
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -13,6 +16,11 @@ import java.util.Map;
  * Time: 14:26
  */
 public class ReportsDecorator {
+  static final List<String> QUALITY_VALUES = Collections.unmodifiableList(Arrays.asList(
+      "quality_mean", "quality_90th_percentile", "quality_upper_quartile", "quality_median", "quality_lower_quartile", "quality_10th_percentile"));
+  static final List<String> BASE_CONTENT_VALUES = Collections.unmodifiableList(Arrays.asList(
+      "base_content_a", "base_content_c", "base_content_g", "base_content_t"));
+
   Reports r;
 
   public ReportsDecorator(Reports r) {
@@ -49,6 +57,8 @@ public class ReportsDecorator {
    * This is to reproduce a plot like the qualities plot in FastQC. Have a look at the plots in:
    * http://www.bioinformatics.babraham.ac.uk/projects/fastqc/bad_sequence_fastqc/fastqc_report.html
    * <p/>
+   * All six tables are fetched with a single query.
+   * <p/>
    * The report tables produced have three columns: position, size and Average. The position
    * column is the first base in the range, the second column is ths size of the block and the
    * third column is the average value for the queried set. If the queried set is a single sample,
@@ -65,13 +75,7 @@ public class ReportsDecorator {
    * @throws SQLException if there is an issue calling the store procedure
    */
   public Map<String, ReportTable> getPerPositionBaseSequenceQuality(Map<RunProperty, String> runProperties) throws SQLException {
-    Map<String, ReportTable> report = new HashMap<String, ReportTable>();
-    String reportList[] = {"quality_mean", "quality_90th_percentile", "quality_upper_quartile", "quality_median", "quality_lower_quartile", "quality_10th_percentile"};
-
-    for (String s : reportList) {
-      report.put(s, r.getPerPositionValues(s, runProperties));
-    }
-    return report;
+    return new HashMap<String, ReportTable>(r.getPerPositionValues(QUALITY_VALUES, runProperties));
   }
 
   /**
@@ -108,6 +112,8 @@ public class ReportsDecorator {
    * This is to reproduce a plot like the base content plot in FastQC. Have a look at the plots in:
    * http://www.bioinformatics.babraham.ac.uk/projects/fastqc/bad_sequence_fastqc/fastqc_report.html
    * <p/>
+   * All four tables are fetched with a single query.
+   * <p/>
    * The report tables produced have five columns: position, size,  Average, samples, total. The position
    * column is the first base in the range, the second column is ths size of the block and the
    * third column is the average value for the queried set. The fourth column is the number of samples included in the summary.
@@ -125,13 +131,7 @@ public class ReportsDecorator {
    * @throws SQLException if there is an issue calling the store procedure
    */
   public Map<String, ReportTable> getPerPositionBaseContent(Map<RunProperty, String> runProperties) throws SQLException {
-    Map<String, ReportTable> report = new HashMap<String, ReportTable>();
-    String reportList[] = {"base_content_a", "base_content_c", "base_content_g", "base_content_t"};
-
-    for (String s : reportList) {
-      report.put(s, r.getPerPositionValues(s, runProperties));
-    }
-    return report;
+    return new HashMap<String, ReportTable>(r.getPerPositionValues(BASE_CONTENT_VALUES, runProperties));
   }
 
   /**
@@ -1,22 +1,41 @@
 package uk.ac.tgac.statsdb.run.consumer;
 
-import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 import uk.ac.tgac.statsdb.exception.ConsumerException;
+import uk.ac.tgac.statsdb.run.AsyncReports;
 import uk.ac.tgac.statsdb.run.ReportTable;
 import uk.ac.tgac.statsdb.run.Reports;
 import uk.ac.tgac.statsdb.run.ReportsDecorator;
 import uk.ac.tgac.statsdb.run.RunProperty;
 
 import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Consumer that is able to easily generate D3.js compliant JSON for plotting common QC graphs
+ * <p/>
+ * Plots are written as {"stats":[{"base":"1",...},...]}, one object per position holding the average of each value
+ * type as a string. The write methods stream the rows of the per position tables straight into a single JSON
+ * generator, and the JSONObject methods are kept for existing callers.
+ * <p/>
+ * Created with an {@link AsyncReports}, the value types of a plot are queried at once rather than one after another,
+ * and the plot can also be written asynchronously once they have all been read.
  *
  * @author Rob Davey
  * @date 25/10/13
@@ -24,12 +43,30 @@ import java.util.Map;
  */
 public class D3PlotConsumer {
   protected static final Logger log = LoggerFactory.getLogger(D3PlotConsumer.class);
+
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  // per position tables hold Position, Size, Average, ... columns
+  private static final int POSITION_COLUMN = 0;
+  private static final int AVERAGE_COLUMN = 2;
+
+  private static final String[] QUALITY_FIELDS = {"mean", "median", "lowerquartile", "upperquartile", "tenthpercentile", "ninetiethpercentile"};
+  private static final String[] QUALITY_VALUES = {"quality_mean", "quality_median", "quality_lower_quartile", "quality_upper_quartile", "quality_10th_percentile", "quality_90th_percentile"};
+  private static final String[] BASE_CONTENT_FIELDS = {"G", "A", "T", "C"};
+  private static final String[] BASE_CONTENT_VALUES = {"base_content_g", "base_content_a", "base_content_t", "base_content_c"};
+
   private ReportsDecorator reportsDecorator;
+  private AsyncReports asyncReports;
 
   public D3PlotConsumer(ReportsDecorator reportsDecorator) {
     this.reportsDecorator = reportsDecorator;
   }
 
+  public D3PlotConsumer(AsyncReports asyncReports) {
+    this.reportsDecorator = new ReportsDecorator(asyncReports.getReports());
+    this.asyncReports = asyncReports;
+  }
+
   public D3PlotConsumer(DataSource dataSource) {
     this.reportsDecorator = new ReportsDecorator(new Reports(dataSource));
   }
@@ -38,117 +75,223 @@ public class D3PlotConsumer {
     this(template.getDataSource());
   }
 
-    /**
-     * Returns JSONObject formatted Sequence Quality report for each lane.
-     *
-     * @param runName
-     * @param pairedEnd
-     * @param laneNumber
-     * @return
-     * @throws ConsumerException
-     */
+  /**
+   * Writes the Sequence Quality report for a lane as UTF-8 JSON. The report is queried before anything is written, so
+   * nothing is written if the query fails.
+   *
+   * @param runName    the run
+   * @param pairedEnd  true for the first read of the pair, false for the second
+   * @param laneNumber the lane
+   * @param out        the OutputStream to write to. It is flushed but not closed.
+   * @throws ConsumerException if the report can't be queried
+   * @throws IOException       if the report can't be written
+   */
+  public void writePerPositionBaseSequenceQualityForLane(String runName, boolean pairedEnd, int laneNumber, OutputStream out) throws ConsumerException, IOException {
+    if (asyncReports != null) {
+      join(writePerPositionBaseSequenceQualityForLaneAsync(runName, pairedEnd, laneNumber, out));
+      return;
+    }
+    Map<String, ReportTable> tables;
+    try {
+      tables = reportsDecorator.getPerPositionBaseSequenceQuality(laneProperties(runName, pairedEnd, laneNumber));
+    }
+    catch (SQLException e) {
+      throw new ConsumerException("Cannot query sequence quality for lane " + laneNumber + " of run " + runName, e);
+    }
+    writeStats(tables, "quality_lower_quartile", QUALITY_FIELDS, QUALITY_VALUES, out);
+  }
 
-    public JSONObject getPerPositionBaseSequenceQualityForLane(String runName, boolean pairedEnd, int laneNumber) throws ConsumerException {
-    Map<RunProperty, String> map = new HashMap<>();
-    map.put(RunProperty.run, runName);
-    map.put(RunProperty.lane, String.valueOf(laneNumber));
-    String pair;
-    if (pairedEnd) {
-      pair = "1";
+  /**
+   * Writes the per position base content report for a lane as UTF-8 JSON. The report is queried before anything is
+   * written, so nothing is written if the query fails.
+   *
+   * @param runName    the run
+   * @param pairedEnd  true for the first read of the pair, false for the second
+   * @param laneNumber the lane
+   * @param out        the OutputStream to write to. It is flushed but not closed.
+   * @throws ConsumerException if the report can't be queried
+   * @throws IOException       if the report can't be written
+   */
+  public void writePerPositionBaseContentForLane(String runName, boolean pairedEnd, int laneNumber, OutputStream out) throws ConsumerException, IOException {
+    if (asyncReports != null) {
+      join(writePerPositionBaseContentForLaneAsync(runName, pairedEnd, laneNumber, out));
+      return;
+    }
+    Map<String, ReportTable> tables;
+    try {
+      tables = reportsDecorator.getPerPositionBaseContent(laneProperties(runName, pairedEnd, laneNumber));
     }
-    else {
-      pair = "2";
+    catch (SQLException e) {
+      throw new ConsumerException("Cannot query base content for lane " + laneNumber + " of run " + runName, e);
     }
-    map.put(RunProperty.pair, pair);
+    writeStats(tables, "base_content_a", BASE_CONTENT_FIELDS, BASE_CONTENT_VALUES, out);
+  }
+
+  /**
+   * Writes the Sequence Quality report for a lane as UTF-8 JSON, once its value types, queried at once, have all been
+   * read. The report is written on a query thread, and nothing is written if a query fails.
+   *
+   * @param runName    the run
+   * @param pairedEnd  true for the first read of the pair, false for the second
+   * @param laneNumber the lane
+   * @param out        the OutputStream to write to. It is flushed but not closed.
+   * @return a future completed once the report has been written, which fails with a ConsumerException if the report
+   *         can't be queried, or an IOException if it can't be written
+   * @throws IllegalStateException if the consumer wasn't created with an AsyncReports
+   */
+  public CompletableFuture<Void> writePerPositionBaseSequenceQualityForLaneAsync(String runName, boolean pairedEnd, int laneNumber, OutputStream out) {
+    return writeStatsAsync(requireAsyncReports().getPerPositionBaseSequenceQuality(laneProperties(runName, pairedEnd, laneNumber)),
+                           "Cannot query sequence quality for lane " + laneNumber + " of run " + runName,
+                           "quality_lower_quartile", QUALITY_FIELDS, QUALITY_VALUES, out);
+  }
 
-    JSONObject laneQuality = new JSONObject();
+  /**
+   * Writes the per position base content report for a lane as UTF-8 JSON, once its value types, queried at once, have
+   * all been read. The report is written on a query thread, and nothing is written if a query fails.
+   *
+   * @param runName    the run
+   * @param pairedEnd  true for the first read of the pair, false for the second
+   * @param laneNumber the lane
+   * @param out        the OutputStream to write to. It is flushed but not closed.
+   * @return a future completed once the report has been written, which fails with a ConsumerException if the report
+   *         can't be queried, or an IOException if it can't be written
+   * @throws IllegalStateException if the consumer wasn't created with an AsyncReports
+   */
+  public CompletableFuture<Void> writePerPositionBaseContentForLaneAsync(String runName, boolean pairedEnd, int laneNumber, OutputStream out) {
+    return writeStatsAsync(requireAsyncReports().getPerPositionBaseContent(laneProperties(runName, pairedEnd, laneNumber)),
+                           "Cannot query base content for lane " + laneNumber + " of run " + runName,
+                           "base_content_a", BASE_CONTENT_FIELDS, BASE_CONTENT_VALUES, out);
+  }
+
+  /**
+   * Returns JSONObject formatted Sequence Quality report for each lane.
+   *
+   * @param runName
+   * @param pairedEnd
+   * @param laneNumber
+   * @return
+   * @throws ConsumerException
+   */
+  public JSONObject getPerPositionBaseSequenceQualityForLane(String runName, boolean pairedEnd, int laneNumber) throws ConsumerException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
     try {
-      Map<String, ReportTable> resultMap = reportsDecorator.getPerPositionBaseSequenceQuality(map);
-
-      JSONArray quality_lower_quartile = JSONArray.fromObject(resultMap.get("quality_lower_quartile").toJSON());
-      JSONArray quality_10th_percentile = JSONArray.fromObject(resultMap.get("quality_10th_percentile").toJSON());
-      JSONArray quality_90th_percentile = JSONArray.fromObject(resultMap.get("quality_90th_percentile").toJSON());
-      JSONArray quality_mean = JSONArray.fromObject(resultMap.get("quality_mean").toJSON());
-      JSONArray quality_median = JSONArray.fromObject(resultMap.get("quality_median").toJSON());
-      JSONArray quality_upper_quartile = JSONArray.fromObject(resultMap.get("quality_upper_quartile").toJSON());
-
-      if (quality_lower_quartile.size() > 1) {
-        JSONArray jsonArray = new JSONArray();
-        for (int index = 1; index < quality_lower_quartile.size(); index++) {
-          JSONObject eachBase = new JSONObject();
-          eachBase.put("base", quality_lower_quartile.getJSONArray(index).getString(0));
-          eachBase.put("mean", quality_mean.getJSONArray(index).getString(2));
-          eachBase.put("median", quality_median.getJSONArray(index).getString(2));
-          eachBase.put("lowerquartile", quality_lower_quartile.getJSONArray(index).getString(2));
-          eachBase.put("upperquartile", quality_upper_quartile.getJSONArray(index).getString(2));
-          eachBase.put("tenthpercentile", quality_10th_percentile.getJSONArray(index).getString(2));
-          eachBase.put("ninetiethpercentile", quality_90th_percentile.getJSONArray(index).getString(2));
-          jsonArray.add(eachBase);
-        }
-        laneQuality.put("stats", jsonArray);
+      writePerPositionBaseSequenceQualityForLane(runName, pairedEnd, laneNumber, out);
+      return JSONObject.fromObject(out.toString("UTF-8"));
+    }
+    catch (IOException e) {
+      throw new ConsumerException("Cannot write sequence quality for lane " + laneNumber + " of run " + runName, e);
+    }
+  }
+
+  /**
+   * Returns JSONObject formatted per position base content report for each lane.
+   *
+   * @param runName
+   * @param pairedEnd
+   * @param laneNumber
+   * @return
+   * @throws ConsumerException
+   */
+  public JSONObject getPerPositionBaseContentForLane(String runName, boolean pairedEnd, int laneNumber) throws ConsumerException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      writePerPositionBaseContentForLane(runName, pairedEnd, laneNumber, out);
+      return JSONObject.fromObject(out.toString("UTF-8"));
+    }
+    catch (IOException e) {
+      throw new ConsumerException("Cannot write base content for lane " + laneNumber + " of run " + runName, e);
+    }
+  }
+
+  private AsyncReports requireAsyncReports() {
+    if (asyncReports == null) {
+      throw new IllegalStateException("Asynchronous plots need a D3PlotConsumer created with an AsyncReports");
+    }
+    return asyncReports;
+  }
+
+  private static CompletableFuture<Void> writeStatsAsync(CompletableFuture<Map<String, ReportTable>> query, String error,
+                                                         String reference, String[] fields, String[] values, OutputStream out) {
+    return query.handle((tables, e) -> {
+      if (e != null) {
+        throw new CompletionException(new ConsumerException(error, e instanceof CompletionException ? e.getCause() : e));
+      }
+      try {
+        writeStats(tables, reference, fields, values, out);
       }
-      else {
-        laneQuality.put("stats", JSONArray.fromObject("[]"));
+      catch (IOException io) {
+        throw new CompletionException(io);
       }
+      return null;
+    });
+  }
+
+  /**
+   * Waits for an asynchronous write, rethrowing its failure
+   */
+  private static void join(CompletableFuture<Void> write) throws ConsumerException, IOException {
+    try {
+      write.join();
     }
-    catch (Exception e) {
-      e.printStackTrace();
+    catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof ConsumerException) {
+        throw (ConsumerException)cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      throw e;
     }
-    return laneQuality;
   }
 
-    /**
-     * Returns JSONObject formatted per position base content report for each lane.
-     *
-     * @param runName
-     * @param pairedEnd
-     * @param laneNumber
-     * @return
-     * @throws ConsumerException
-     */
-
-    public JSONObject getPerPositionBaseContentForLane(String runName, boolean pairedEnd, int laneNumber) throws ConsumerException {
+  private static Map<RunProperty, String> laneProperties(String runName, boolean pairedEnd, int laneNumber) {
     Map<RunProperty, String> map = new HashMap<>();
     map.put(RunProperty.run, runName);
     map.put(RunProperty.lane, String.valueOf(laneNumber));
-    String pair;
-    if (pairedEnd) {
-      pair = "1";
-    }
-    else {
-      pair = "2";
+    map.put(RunProperty.pair, pairedEnd ? "1" : "2");
+    return map;
+  }
+
+  /**
+   * Writes {"stats":[...]}, with an object per data row of the reference table holding its position as "base", and the
+   * average of the same row of each value table under the matching field. A value table that is missing or shorter
+   * than the reference table gives null fields.
+   */
+  private static void writeStats(Map<String, ReportTable> tables, String reference, String[] fields, String[] values, OutputStream out) throws IOException {
+    List<List<String>> positions = rows(tables, reference);
+    List<List<List<String>>> columns = new ArrayList<>(values.length);
+    for (String value : values) {
+      columns.add(rows(tables, value));
     }
-    map.put(RunProperty.pair, pair);
 
-    JSONObject laneQuality = new JSONObject();
-    try {
-      Map<String, ReportTable> resultMap = reportsDecorator.getPerPositionBaseContent(map);
-
-      JSONArray base_content_a = JSONArray.fromObject(resultMap.get("base_content_a").toJSON());
-      JSONArray base_content_c = JSONArray.fromObject(resultMap.get("base_content_c").toJSON());
-      JSONArray base_content_g = JSONArray.fromObject(resultMap.get("base_content_g").toJSON());
-      JSONArray base_content_t = JSONArray.fromObject(resultMap.get("base_content_t").toJSON());
-
-      if (base_content_a.size() > 1) {
-        JSONArray jsonArray = new JSONArray();
-        for (int index = 1; index < base_content_a.size(); index++) {
-          JSONObject eachBase = new JSONObject();
-          eachBase.put("base", base_content_a.getJSONArray(index).getString(0));
-          eachBase.put("G", base_content_g.getJSONArray(index).getString(2));
-          eachBase.put("A", base_content_a.getJSONArray(index).getString(2));
-          eachBase.put("T", base_content_t.getJSONArray(index).getString(2));
-          eachBase.put("C", base_content_c.getJSONArray(index).getString(2));
-          jsonArray.add(eachBase);
+    JsonGenerator json = jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+    json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    json.writeStartObject();
+    json.writeArrayFieldStart("stats");
+    for (int index = 1; index < positions.size(); index++) {
+      json.writeStartObject();
+      json.writeStringField("base", positions.get(index).get(POSITION_COLUMN));
+      for (int i = 0; i < fields.length; i++) {
+        List<List<String>> rows = columns.get(i);
+        String average = index < rows.size() ? rows.get(index).get(AVERAGE_COLUMN) : null;
+        if (average == null) {
+          json.writeNullField(fields[i]);
+        }
+        else {
+          json.writeStringField(fields[i], average);
         }
-        laneQuality.put("stats", jsonArray);
-      }
-      else {
-        laneQuality.put("stats", JSONArray.fromObject("[]"));
       }
+      json.writeEndObject();
     }
-    catch (Exception e) {
-      e.printStackTrace();
-    }
-    return laneQuality;
+    json.writeEndArray();
+    json.writeEndObject();
+    json.close();
+    out.flush();
+  }
+
+  private static List<List<String>> rows(Map<String, ReportTable> tables, String value) {
+    ReportTable table = tables == null ? null : tables.get(value);
+    return table == null ? Collections.<List<String>>emptyList() : table.getTable();
   }
 }
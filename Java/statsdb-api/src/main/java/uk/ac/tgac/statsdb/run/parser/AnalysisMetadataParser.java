@@ -1,6 +1,6 @@
 package uk.ac.tgac.statsdb.run.parser;
 
-import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.ColumnarQCAnalysis;
 import uk.ac.tgac.statsdb.analysis.QCAnalysis;
 import uk.ac.tgac.statsdb.exception.QCAnalysisException;
 
@@ -68,7 +68,7 @@ public class AnalysisMetadataParser {
           if (headers == null || headers.length != values.length) {
             throw new QCAnalysisException("Invalid headers found");
           }
-          QCAnalysis qa = new DefaultQCAnalysis();
+          QCAnalysis qa = new ColumnarQCAnalysis();
           for (int i = 0; i < headers.length; i++) {
             qa.addProperty(headers[i], values[i]);
           }
@@ -3,43 +3,41 @@ package uk.ac.tgac.statsdb.run.parser;
 import net.sourceforge.fluxion.spi.ServiceProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import uk.ac.tgac.statsdb.analysis.AbstractQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.ColumnarQCAnalysis;
 import uk.ac.tgac.statsdb.analysis.QCAnalysis;
 import uk.ac.tgac.statsdb.exception.QCAnalysisException;
 import uk.ac.tgac.statsdb.util.StatsDBUtils;
 
 import java.io.*;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Implementation of a QcReportParser that supports FastQC data files
+ * <p/>
+ * Reports are streamed line by line. Each ">>Module name" line selects a handler from a fixed module table, which then
+ * receives the module's header and data lines until the matching ">>END_MODULE". Modules without a handler are
+ * skipped. Parser instances hold no per-report state and can be shared between threads.
+ * <p/>
+ * Table cells are passed to a {@link ColumnarQCAnalysis} as slices of the line, so no String is created per cell.
  *
  * @author Rob Davey
  * @date 03/07/13
  * @since 1.0-SNAPSHOT
  */
 @ServiceProvider
-public class FastQCReportParser implements QcReportParser<File> {
-  private Logger log = LoggerFactory.getLogger(getClass());
+public class FastQCReportParser implements QcReportParser<File>, ReportSignature {
+  private static final Logger log = LoggerFactory.getLogger(FastQCReportParser.class);
 
-  private Map<String, String> values = new HashMap<>();
-  private Map<String, String> valueKeys = new HashMap<>();
-  private Map<String, String> headerKeys = new HashMap<>();
-  private Map<String, String> lineFunctions = new HashMap<>();
+  private static final String MODULE_START = ">>";
+  private static final String MODULE_END = ">>END_MODULE";
+  private static final String VERSION_START = "##";
 
-  private static final String MODULE_START_REGEX = ">>(.*)";
-  private static final String MODULE_END_REGEX = ">>END_MODULE";
-  private static final String MODULE_NAME_REGEX = ">>(.*)[\\s]+([\\S]*)";
+  private static final Map<String, String> values = new LinkedHashMap<>();
+  private static final Map<String, String> valueKeys = new HashMap<>();
+  private static final Map<String, String> headerKeys = new HashMap<>();
+  private static final Map<String, ModuleHandler> moduleHandlers = new HashMap<>();
 
-  private Pattern moduleStartPattern = Pattern.compile(MODULE_START_REGEX);
-  private Pattern moduleEndPattern = Pattern.compile(MODULE_END_REGEX);
-  private Pattern moduleNamePattern = Pattern.compile(MODULE_NAME_REGEX);
-
-  public FastQCReportParser() {
+  static {
     values.put("general_total_sequences", "analysis");
     values.put("general_filtered_sequences", "analysis");
     values.put("general_min_length", "analysis");
@@ -72,75 +70,50 @@ public class FastQCReportParser implements QcReportParser<File> {
     headerKeys.put("%gc", "percentage");
     headerKeys.put("n-count", "n_percentage");
 
-    lineFunctions.put("parseOverrepresentedSequences", "1");
-    lineFunctions.put("parseOverrepresentedKmer", "1");
+    moduleHandlers.put("basic statistics", new BasicStatisticsHandler());
+    moduleHandlers.put("per base sequence quality", new TabularHandler("quality", true));
+    moduleHandlers.put("per sequence quality scores", new TabularHandler("quality_score", false));
+    moduleHandlers.put("per base sequence content", new TabularHandler("base_content", true));
+    moduleHandlers.put("per base gc content", new TabularHandler("gc_content", true));
+    moduleHandlers.put("per sequence gc content", new TabularHandler("gc_content", true));
+    moduleHandlers.put("per base n content", new TabularHandler("base_content", true));
+    moduleHandlers.put("sequence length distribution", new TabularHandler("sequence_length", true));
+    moduleHandlers.put("sequence duplication levels", new TabularHandler("duplication_level", false));
+    moduleHandlers.put("overrepresented sequences", new OverrepresentedHandler("overrepresented_sequence", 4, 3));
+    moduleHandlers.put("kmer content", new OverrepresentedHandler("overrepresented_kmer", 2, -1));
+  }
+
+  @Override
+  public String getReportType() {
+    return "fastqc";
+  }
+
+  /**
+   * FastQC data files start with a "##FastQC" version line
+   */
+  @Override
+  public boolean matches(File report, byte[] head, int length) {
+    return ParserRegistry.firstLine(head, length).startsWith(VERSION_START + "FastQC");
   }
 
   @Override
   public void parseReport(File in, QCAnalysis qcAnalysis) throws QCAnalysisException {
+    BufferedReader br = null;
     try {
-      FileInputStream r = new FileInputStream(in);
+      br = new BufferedReader(new InputStreamReader(new FileInputStream(in)));
       qcAnalysis.addProperty("tool", "FastQC");
 
       for (Map.Entry<String, String> kv : values.entrySet()) {
         qcAnalysis.addValueType(kv.getKey(), kv.getValue());
       }
 
-      processFastQCReportFile(r, qcAnalysis);
+      processFastQCReport(br, qcAnalysis);
     }
     catch (FileNotFoundException e) {
       throw new QCAnalysisException("Cannot open FastQC report file for reading: " + in.getAbsolutePath(), e);
     }
-  }
-
-  private void processFastQCReportFile(FileInputStream r, QCAnalysis qcAnalysis) throws QCAnalysisException {
-    StringBuilder sb = new StringBuilder();
-    BufferedReader br = null;
-    try {
-      br = new BufferedReader(new InputStreamReader(r));
-      String line;
-      while ((line = br.readLine()) != null) {
-        if (line.startsWith("##")) {
-          qcAnalysis.addProperty("FastQC", line.split("\\s+")[1]);
-        }
-        else {
-          sb.append(line).append("\n");
-        }
-      }
-      String report = sb.toString();
-
-      for (String module : report.split(MODULE_END_REGEX)) {
-        for (String modline : module.split("\\n")) {
-          Matcher m = moduleNamePattern.matcher(modline);
-          if (m.matches()) {
-            String[] moduleInfo = m.group(1).split("\\s+");
-            String moduleName = "";
-            for (String s : moduleInfo) {
-              moduleName += StatsDBUtils.capitalise(s);
-            }
-            log.info("Attempting to parse module: " + moduleName);
-            Method parseMethod = this.getClass().getDeclaredMethod("parse" + moduleName, String.class, QCAnalysis.class);
-            parseMethod.setAccessible(true);
-            log.debug("Calling " + parseMethod.toString() + " on: \n" + module);
-            parseMethod.invoke(this, module, qcAnalysis);
-          }
-        }
-      }
-    }
     catch (IOException e) {
-      log.error("Error parsing run metadata headers: " + e.getMessage());
-      e.printStackTrace();
-    }
-    catch (NoSuchMethodException e) {
-      log.error("No such parser for module : " + e.getMessage());
-      e.printStackTrace();
-    }
-    catch (InvocationTargetException e) {
-      log.error("Cannot call parser module : " + e.getMessage());
-      e.printStackTrace();
-    }
-    catch (IllegalAccessException e) {
-      e.printStackTrace();
+      throw new QCAnalysisException("Cannot read FastQC report file: " + in.getAbsolutePath(), e);
     }
     finally {
       if (br != null) {
@@ -154,290 +127,294 @@ public class FastQCReportParser implements QcReportParser<File> {
     }
   }
 
-  private void parseBasicStatistics(String module, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    for (String line : module.split("\\n")) {
-      if (!line.startsWith("#") && !line.startsWith(">>")) {
-        String[] tokens = line.split("\\t");
-        if (tokens.length == 2) {
-          log.debug(tokens[0].trim() + " : " + tokens[1].trim());
-          if("Sequence length".equals(tokens[0])) {
-            Map.Entry<Long, Long> range = StatsDBUtils.parseRange(tokens[1]);
-            qcAnalysis.addGeneralValue("general_min_length", String.valueOf(range.getKey()), null);
-            qcAnalysis.addGeneralValue("general_max_length", String.valueOf(range.getValue()), null);
-          }
-          else if (valueKeys.containsKey(tokens[0])) {
-            qcAnalysis.addGeneralValue(valueKeys.get(tokens[0]), tokens[1], null);
-          }
-          else {
-            qcAnalysis.addProperty(tokens[0], tokens[1]);
-          }
+  private void processFastQCReport(BufferedReader br, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
+    ModuleState state = new ModuleState();
+    String line;
+    while ((line = br.readLine()) != null) {
+      if (line.startsWith(VERSION_START)) {
+        String version = versionOf(line);
+        if (version != null) {
+          qcAnalysis.addProperty("FastQC", version);
+        }
+      }
+      else if (line.startsWith(MODULE_END)) {
+        if (state.handler != null) {
+          state.handler.end(state);
+          log.info("OK");
+        }
+        state.reset();
+      }
+      else if (line.startsWith(MODULE_START)) {
+        int tab = line.indexOf('\t');
+        String moduleName = (tab < 0 ? line.substring(MODULE_START.length()) : line.substring(MODULE_START.length(), tab)).trim();
+        state.reset();
+        state.handler = moduleHandlers.get(moduleName.toLowerCase());
+        if (state.handler != null) {
+          log.info("Attempting to parse module: " + moduleName);
+        }
+        else {
+          log.warn("No parser for module: " + moduleName + ". Skipping.");
+        }
+      }
+      else if (state.handler != null && !line.isEmpty()) {
+        if (line.charAt(0) == '#') {
+          state.handler.header(line, state, qcAnalysis);
+        }
+        else {
+          state.handler.line(line, state, qcAnalysis);
         }
       }
     }
-    log.info("OK");
-  }
-
-  private void parseBasicStatistics(FileInputStream r, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    log.info(""+r.getChannel().position());
-    String module = getModuleBlock(r);
-    parseBasicStatistics(module, qcAnalysis);
-  }
-
-  private void parsePerBaseSequenceQuality(String module, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePartition(module, qcAnalysis, "quality");
-  }
-
-  private void parsePerBaseSequenceQuality(FileInputStream r, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePartition(r, qcAnalysis, "quality");
-  }
-
-  private void parsePerSequenceQualityScores(String module, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePosition(module, qcAnalysis, "quality_score");
-  }
-
-  private void parsePerSequenceQualityScores(FileInputStream r, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePosition(r, qcAnalysis, "quality_score");
-  }
-
-  private void parsePerBaseSequenceContent(String module, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePartition(module, qcAnalysis, "base_content");
-  }
-
-  private void parsePerBaseSequenceContent(FileInputStream r, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePartition(r, qcAnalysis, "base_content");
-  }
-
-  private void parsePerBaseGCContent(String module, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePartition(module, qcAnalysis, "gc_content");
   }
 
-  private void parsePerBaseGCContent(FileInputStream r, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePartition(r, qcAnalysis, "gc_content");
-  }
-
-  private void parsePerSequenceGCContent(String module, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePartition(module, qcAnalysis, "gc_content");
-  }
-
-  private void parsePerSequenceGCContent(FileInputStream r, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePartition(r, qcAnalysis, "gc_content");
-  }
-
-  private void parsePerBaseNContent(String module, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePartition(module, qcAnalysis, "base_content");
+  /**
+   * Extracts the version from a "##FastQC	0.10.1" line
+   */
+  private static String versionOf(String line) {
+    int i = VERSION_START.length();
+    int len = line.length();
+    while (i < len && !Character.isWhitespace(line.charAt(i))) i++;
+    while (i < len && Character.isWhitespace(line.charAt(i))) i++;
+    int start = i;
+    while (i < len && !Character.isWhitespace(line.charAt(i))) i++;
+    return start < i ? line.substring(start, i) : null;
+  }
+
+  /**
+   * Splits a line on runs of tab characters into the given token list, ignoring empty tokens
+   *
+   * @return the number of tokens
+   */
+  private static int tokenise(String line, int from, List<String> tokens) {
+    tokens.clear();
+    int len = line.length();
+    int start = from;
+    for (int i = from; i <= len; i++) {
+      if (i == len || line.charAt(i) == '\t') {
+        if (i > start) {
+          tokens.add(line.substring(start, i));
+        }
+        start = i + 1;
+      }
+    }
+    return tokens.size();
+  }
+
+  /**
+   * Finds the bounds of the tab separated tokens of a line, ignoring empty tokens, without creating substrings. Token i
+   * runs from bounds[2i] to bounds[2i+1].
+   *
+   * @return the number of tokens
+   */
+  private static int tokenBounds(String line, int from, ModuleState state) {
+    int count = 0;
+    int len = line.length();
+    int start = from;
+    for (int i = from; i <= len; i++) {
+      if (i == len || line.charAt(i) == '\t') {
+        if (i > start) {
+          if (state.bounds.length < 2 * (count + 1)) {
+            state.bounds = Arrays.copyOf(state.bounds, state.bounds.length * 2);
+          }
+          state.bounds[2 * count] = start;
+          state.bounds[2 * count + 1] = i;
+          count++;
+        }
+        start = i + 1;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Replaces each run of whitespace in a header token with a single underscore
+   */
+  private static String underscored(String s) {
+    StringBuilder sb = null;
+    int len = s.length();
+    for (int i = 0; i < len; i++) {
+      char c = s.charAt(i);
+      if (Character.isWhitespace(c)) {
+        if (sb == null) {
+          sb = new StringBuilder(len).append(s, 0, i);
+        }
+        while (i + 1 < len && Character.isWhitespace(s.charAt(i + 1))) i++;
+        sb.append('_');
+      }
+      else if (sb != null) {
+        sb.append(c);
+      }
+    }
+    return sb == null ? s : sb.toString();
   }
 
-  private void parsePerBaseNContent(FileInputStream r, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePartition(r, qcAnalysis, "base_content");
-  }
+  /**
+   * Per-report state of the module currently being parsed
+   */
+  private static final class ModuleState {
+    private ModuleHandler handler;
+    private String[] headers;
+    private final List<String> tokens = new ArrayList<>();
+    private int[] bounds = new int[32];
 
-  private void parseSequenceLengthDistribution(String module, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePartition(module, qcAnalysis, "sequence_length");
+    private void reset() {
+      handler = null;
+      headers = null;
+    }
   }
 
-  private void parseSequenceLengthDistribution(FileInputStream r, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePartition(r, qcAnalysis, "sequence_length");
-  }
+  /**
+   * Handles the header and data lines of a single FastQC module type. Handlers are shared between reports, so any
+   * per-report state is kept in the supplied ModuleState.
+   */
+  private abstract static class ModuleHandler {
+    void header(String line, ModuleState state, QCAnalysis qcAnalysis) throws QCAnalysisException {
+    }
 
-  private void parseSequenceDuplicationLevels(String module, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePosition(module, qcAnalysis, "duplication_level");
-  }
+    abstract void line(String line, ModuleState state, QCAnalysis qcAnalysis) throws QCAnalysisException;
 
-  private void parseSequenceDuplicationLevels(FileInputStream r, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    parsePosition(r, qcAnalysis, "duplication_level");
+    void end(ModuleState state) throws QCAnalysisException {
+    }
   }
 
-  private void parseOverrepresentedSequences(String module, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    for (String line : module.split("\\n")) {
-      if (!line.startsWith("#") && !line.startsWith(">>") && !"".equals(line)) {
-        String[] tokens = line.split("\\t+");
-        if (tokens.length >= 4) {
-          values.put(tokens[0], "overrepresented_sequence");
-          qcAnalysis.addValueType(tokens[0], "overrepresented_sequence");
-          qcAnalysis.addGeneralValue(tokens[0], tokens[1], tokens[3]);
+  /**
+   * Basic Statistics: "measure	value" rows mapped to general values or analysis properties
+   */
+  private static final class BasicStatisticsHandler extends ModuleHandler {
+    @Override
+    void line(String line, ModuleState state, QCAnalysis qcAnalysis) throws QCAnalysisException {
+      List<String> tokens = state.tokens;
+      if (tokenise(line, 0, tokens) == 2) {
+        String measure = tokens.get(0);
+        String value = tokens.get(1);
+        log.debug(measure.trim() + " : " + value.trim());
+        if ("Sequence length".equals(measure)) {
+          Map.Entry<Long, Long> range = StatsDBUtils.parseRange(value);
+          qcAnalysis.addGeneralValue("general_min_length", String.valueOf(range.getKey()), null);
+          qcAnalysis.addGeneralValue("general_max_length", String.valueOf(range.getValue()), null);
+        }
+        else if (valueKeys.containsKey(measure)) {
+          qcAnalysis.addGeneralValue(valueKeys.get(measure), value, null);
         }
         else {
-          throw new QCAnalysisException("Malformed overrepresented sequence line");
+          qcAnalysis.addProperty(measure, value);
         }
       }
     }
-    log.info("OK");
   }
 
-  private void parseOverrepresentedSequences(FileInputStream r, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    log.info(""+r.getChannel().position());
-    String module = getModuleBlock(r);
-    parseOverrepresentedSequences(module, qcAnalysis);
-  }
+  /**
+   * Tabular modules: the first column is a base range or a position, and each further column is a metric named by
+   * the module prefix and the column header, e.g. quality_mean
+   */
+  private static final class TabularHandler extends ModuleHandler {
+    private final String prefix;
+    private final boolean partition;
 
-  private void parseKmerContent(String module, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    for (String line : module.split("\\n")) {
-      if (!line.startsWith("#") && !line.startsWith(">>") && !"".equals(line)) {
-        String[] tokens = line.split("\\t+");
-        if (tokens.length >= 2) {
-          values.put(tokens[0], "overrepresented_kmer");
-          qcAnalysis.addValueType(tokens[0], "overrepresented_kmer");
-          qcAnalysis.addGeneralValue(tokens[0], tokens[1], null);
-        }
-        else {
-          throw new QCAnalysisException("Malformed overrepresented kmer line");
+    private TabularHandler(String prefix, boolean partition) {
+      this.prefix = prefix;
+      this.partition = partition;
+    }
+
+    @Override
+    void header(String line, ModuleState state, QCAnalysis qcAnalysis) throws QCAnalysisException {
+      List<String> hs = state.tokens;
+      int n = tokenise(line.toLowerCase(), 1, hs);
+      if (n == 2 && headerKeys.containsKey(hs.get(0))) {
+        qcAnalysis.addGeneralValue(headerKeys.get(hs.get(0)), hs.get(1), "");
+      }
+      else {
+        String[] headers = new String[n];
+        for (int i = 0; i < n; i++) {
+          String token = underscored(hs.get(i));
+          if (headerKeys.containsKey(token)) {
+            token = headerKeys.get(token);
+          }
+          headers[i] = prefix + "_" + token;
         }
+        state.headers = headers;
       }
     }
-    log.info("OK");
-  }
-
-  private void parseKmerContent(FileInputStream r, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
-    log.info(""+r.getChannel().position());
-    String module = getModuleBlock(r);
-    parseKmerContent(module, qcAnalysis);
-  }
 
-  private void parsePartition(String module, QCAnalysis qcAnalysis, String prefix) throws IOException, QCAnalysisException {
-    parseModuleBlock(module, qcAnalysis, prefix, "addPartitionValue");
-    log.info("OK");
-  }
-
-  private void parsePartition(FileInputStream r, QCAnalysis qcAnalysis, String prefix) throws IOException, QCAnalysisException {
-    parseModuleBlock(getModuleBlock(r), qcAnalysis, prefix, "addPartitionValue");
-    log.info("OK");
-  }
+    @Override
+    void line(String line, ModuleState state, QCAnalysis qcAnalysis) throws QCAnalysisException {
+      String[] headers = state.headers;
+      if (headers == null) {
+        throw new QCAnalysisException("Something went wrong with header row parsing. Failing...");
+      }
 
-  private void parsePosition(String module, QCAnalysis qcAnalysis, String prefix) throws IOException, QCAnalysisException {
-    parseModuleBlock(module, qcAnalysis, prefix, "addPositionValue");
-    log.info("OK");
-  }
+      if (qcAnalysis instanceof ColumnarQCAnalysis) {
+        columnarLine(line, headers, state, (ColumnarQCAnalysis)qcAnalysis);
+        return;
+      }
 
-  private void parsePosition(FileInputStream r, QCAnalysis qcAnalysis, String prefix) throws IOException, QCAnalysisException {
-    parseModuleBlock(getModuleBlock(r), qcAnalysis, prefix, "addPositionValue");
-    log.info("OK");
-  }
+      List<String> tokens = state.tokens;
+      int n = tokenise(line, 0, tokens);
+      if (n > headers.length) {
+        throw new QCAnalysisException("Row has more columns than the module header: '" + line + "'");
+      }
 
-  private void parseModuleBlock(String module, QCAnalysis qcAnalysis, String prefix, String func) throws QCAnalysisException {
-    String[] headers = null;
-    String[] lines = module.split("\\n");
-    for (String line : lines) {
-      if (line.startsWith("#")) {
-        line = line.substring(1).toLowerCase();
-        String[] hs = line.split("\\t+");
-        headers = new String[hs.length];
-        if (hs.length == 2 && headerKeys.containsKey(hs[0])) {
-          qcAnalysis.addGeneralValue(headerKeys.get(hs[0]), hs[1], "");
+      String position = n > 0 ? tokens.get(0) : null;
+      for (int i = 1; i < n; i++) {
+        if (partition) {
+          qcAnalysis.addPartitionValue(position, headers[i], tokens.get(i));
         }
         else {
-          for (int i = 0; i < hs.length; i++) {
-            String token = hs[i];
-            token = token.replaceAll("\\s+", "_");
-            if (headerKeys.containsKey(token)) {
-              token = headerKeys.get(token);
-            }
-            headers[i] = prefix + "_" + token;
-          }
+          qcAnalysis.addPositionValue(position, headers[i], tokens.get(i));
         }
       }
     }
 
-    if (headers == null) {
-      throw new QCAnalysisException("Something went wrong with header row parsing. Failing...");
-    }
+    private void columnarLine(String line, String[] headers, ModuleState state, ColumnarQCAnalysis qcAnalysis) throws QCAnalysisException {
+      int n = tokenBounds(line, 0, state);
+      if (n > headers.length) {
+        throw new QCAnalysisException("Row has more columns than the module header: '" + line + "'");
+      }
 
-    for (String line : lines) {
-      if (!line.startsWith(">>") && !line.startsWith("#")) {
-        if (lineFunctions.containsKey(func)) {
-          try {
-            Method qcam = this.getClass().getDeclaredMethod(func, QCAnalysis.class, String.class);
-            qcam.setAccessible(true);
-            qcam.invoke(this, qcAnalysis, line);
-          }
-          catch (NoSuchMethodException e) {
-            throw new QCAnalysisException("No such method '" + func + "' on " + this.getClass().getSimpleName(), e);
-          }
-          catch (InvocationTargetException e) {
-            throw new QCAnalysisException("Cannot call '" + func + "' on " + this.getClass().getSimpleName(), e);
-          }
-          catch (IllegalAccessException e) {
-            throw new QCAnalysisException("Not allowed to call '" + func + "' " + this.getClass().getSimpleName(), e);
-          }
+      int[] b = state.bounds;
+      for (int i = 1; i < n; i++) {
+        if (partition) {
+          qcAnalysis.addPartitionValue(line, b[0], b[1], headers[i], line, b[2 * i], b[2 * i + 1]);
         }
         else {
-          String[] ls = line.split("\\t+");
-          for (int i = 1; i < ls.length; i++) {
-            try {
-              Method qcam = QCAnalysis.class.getDeclaredMethod(func, String.class, String.class, String.class);
-              qcam.setAccessible(true);
-              qcam.invoke(qcAnalysis, ls[0], headers[i], ls[i]);
-            }
-            catch (NoSuchMethodException e) {
-              throw new QCAnalysisException("No such method '" + func + "' on QCAnalysis.", e);
-            }
-            catch (InvocationTargetException e) {
-              throw new QCAnalysisException("Cannot call '" + func + "' on QCAnalysis.", e);
-            }
-            catch (IllegalAccessException e) {
-              throw new QCAnalysisException("Not allowed to call '" + func + "' on QCAnalysis.", e);
-            }
-          }
+          qcAnalysis.addPositionValue(line, b[0], b[1], headers[i], line, b[2 * i], b[2 * i + 1]);
         }
       }
     }
-  }
 
-  private String getModuleBlock(FileInputStream r) throws IOException, QCAnalysisException {
-    BufferedReader br = newReader(r);
-    String line;
-    StringBuilder moduleBlock = new StringBuilder();
-    boolean first = true;
-    try {
-      while ((line = br.readLine()) != null) {
-        if (first) {
-          Matcher mS = moduleStartPattern.matcher(line);
-          if (mS.matches()) {
-            moduleBlock.append(line);
-            first = false;
-          }
-          else {
-            throw new QCAnalysisException("Module block to parse doesn't start with a suitable module start string: '" + line + "'");
-          }
-        }
-        else {
-          Matcher mE = moduleEndPattern.matcher(line);
-          if (mE.matches()) {
-            break;
-          }
-          else {
-            moduleBlock.append(line);
-          }
-        }
+    @Override
+    void end(ModuleState state) throws QCAnalysisException {
+      if (state.headers == null) {
+        throw new QCAnalysisException("Something went wrong with header row parsing. Failing...");
       }
     }
-    finally {
-      closeReader(br);
-    }
-
-    return moduleBlock.toString();
   }
 
-  private BufferedReader newReader(FileInputStream r) {
-    try {
-      //reset the position of the input stream
-      //the following new buffered reader will need to read the QC report from the start
-      r.getChannel().position(0);
-      return new BufferedReader(new InputStreamReader(r));
-    }
-    catch (IOException e) {
-      e.printStackTrace();
+  /**
+   * Overrepresented sequence and kmer modules: each row declares its own value type in the given scope, with the
+   * count as a general value and an optional description column
+   */
+  private static final class OverrepresentedHandler extends ModuleHandler {
+    private final String scope;
+    private final int minTokens;
+    private final int descriptionIndex;
+
+    private OverrepresentedHandler(String scope, int minTokens, int descriptionIndex) {
+      this.scope = scope;
+      this.minTokens = minTokens;
+      this.descriptionIndex = descriptionIndex;
     }
-    return null;
-  }
 
-  private void closeReader(BufferedReader br) {
-    if (br != null) {
-      try {
-        br.close();
+    @Override
+    void line(String line, ModuleState state, QCAnalysis qcAnalysis) throws QCAnalysisException {
+      List<String> tokens = state.tokens;
+      if (tokenise(line, 0, tokens) >= minTokens) {
+        qcAnalysis.addValueType(tokens.get(0), scope);
+        qcAnalysis.addGeneralValue(tokens.get(0), tokens.get(1), descriptionIndex < 0 ? null : tokens.get(descriptionIndex));
       }
-      catch (IOException e) {
-        e.printStackTrace();
+      else {
+        throw new QCAnalysisException("Malformed " + scope.replace('_', ' ') + " line");
       }
     }
   }
-}
\ No newline at end of file
+}
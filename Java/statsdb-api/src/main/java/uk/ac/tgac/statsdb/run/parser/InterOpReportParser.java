@@ -0,0 +1,196 @@
+package uk.ac.tgac.statsdb.run.parser;
+
+import net.sourceforge.fluxion.spi.ServiceProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.tgac.statsdb.analysis.ColumnarQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.run.parser.interop.InterOpAggregator;
+import uk.ac.tgac.statsdb.run.parser.interop.InterOpMetric;
+import uk.ac.tgac.statsdb.run.parser.interop.InterOpRunInfo;
+import uk.ac.tgac.statsdb.run.parser.interop.MetricsSummary;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of a QcReportParser that supports Illumina InterOp binary metrics files, replacing the Perl
+ * QCAnalysis::InterOp module. Tile, Q, Error, Extraction, CorrectedInt and Control metrics are supported.
+ * <p/>
+ * InterOp files are far too large to store whole, so each file is memory-mapped and summarised in a single streaming
+ * pass, per lane and per cycle, by a {@link MetricsSummary}. Large files are decoded in parallel by an
+ * {@link InterOpAggregator}, by default one shared by all parsers. The run layout is read from the RunInfo.xml in the run
+ * directory, i.e. the parent of the InterOp directory. As in the Perl module, a file produces one analysis per lane and
+ * read, with the run, lane, pair, tool, interop_folder and interop_subtype properties set. Index reads are named
+ * "index1", "index2" etc. in the pair property.
+ * <p/>
+ * {@link #parseReport(File, QCAnalysis)} fills a single analysis, which must already carry lane and pair properties.
+ * Use {@link #parseMetricsFile(File, QCAnalysis)} or {@link #parseRunDirectory(File, QCAnalysis)} to get the analyses
+ * for every lane and read. Parser instances hold no state and can be shared between threads.
+ *
+ * @since 1.2
+ */
+@ServiceProvider
+public class InterOpReportParser implements QcReportParser<File>, ReportSignature {
+  private static final Logger log = LoggerFactory.getLogger(InterOpReportParser.class);
+
+  public static final String INTEROP_DIRECTORY = "InterOp";
+
+  private final InterOpAggregator aggregator;
+
+  public InterOpReportParser() {
+    this(InterOpAggregator.getDefault());
+  }
+
+  /**
+   * Creates an InterOpReportParser
+   *
+   * @param aggregator the aggregator used to decode metrics files
+   */
+  public InterOpReportParser(InterOpAggregator aggregator) {
+    this.aggregator = aggregator;
+  }
+
+  @Override
+  public String getReportType() {
+    return "interop";
+  }
+
+  /**
+   * InterOp files have no common magic number, so the supported metrics files are recognised by name. Run directories
+   * holding an InterOp directory also match.
+   */
+  @Override
+  public boolean matches(File report, byte[] head, int length) {
+    if (report.isDirectory()) {
+      return new File(report, INTEROP_DIRECTORY).isDirectory();
+    }
+    return InterOpMetric.forFile(report) != null;
+  }
+
+  @Override
+  public void parseReport(File in, QCAnalysis qcAnalysis) throws QCAnalysisException {
+    InterOpMetric metric = metricOf(in);
+    InterOpRunInfo runInfo = InterOpRunInfo.parse(runDirectoryOf(in));
+
+    String lane = qcAnalysis.getProperties().get("lane");
+    String pair = qcAnalysis.getProperties().get("pair");
+    if (lane == null || pair == null) {
+      throw new QCAnalysisException("An InterOp analysis needs lane and pair properties to select its records. " +
+                                    "Use parseMetricsFile to get the analyses for all lanes and reads.");
+    }
+    int l;
+    try {
+      l = Integer.parseInt(lane);
+    }
+    catch (NumberFormatException e) {
+      throw new QCAnalysisException("Invalid lane '" + lane + "'");
+    }
+    InterOpRunInfo.Read read = runInfo.getReadForPair(pair);
+    if (l < 1 || l > runInfo.getLaneCount() || read == null) {
+      throw new QCAnalysisException("No lane " + lane + ", pair " + pair + " in run " + runInfo.getRunId());
+    }
+
+    MetricsSummary summary = summarise(metric, runInfo, in);
+    addProperties(qcAnalysis, runInfo, metric, in);
+    summary.addTo(qcAnalysis, l, read);
+  }
+
+  /**
+   * Parses an InterOp metrics file into one analysis per lane and read
+   *
+   * @param in       the *MetricsOut.bin file, in the InterOp directory of a run directory
+   * @param template an analysis whose properties are copied to every analysis, or null
+   * @return the analyses, in lane then read order
+   * @throws QCAnalysisException if the file or the run's RunInfo.xml can't be read
+   */
+  public List<QCAnalysis> parseMetricsFile(File in, QCAnalysis template) throws QCAnalysisException {
+    InterOpMetric metric = metricOf(in);
+    InterOpRunInfo runInfo = InterOpRunInfo.parse(runDirectoryOf(in));
+    return analyses(metric, runInfo, in, template);
+  }
+
+  /**
+   * Parses every supported InterOp metrics file of a run into one analysis per file, lane and read
+   *
+   * @param runDirectory the sequencer run directory, containing RunInfo.xml and the InterOp directory
+   * @param template     an analysis whose properties are copied to every analysis, or null
+   * @return the analyses
+   * @throws QCAnalysisException if a file or the run's RunInfo.xml can't be read
+   */
+  public List<QCAnalysis> parseRunDirectory(File runDirectory, QCAnalysis template) throws QCAnalysisException {
+    File interop = new File(runDirectory, INTEROP_DIRECTORY);
+    if (!interop.isDirectory()) {
+      throw new QCAnalysisException("Cannot find InterOp directory in run directory " + runDirectory.getAbsolutePath());
+    }
+    InterOpRunInfo runInfo = InterOpRunInfo.parse(runDirectory);
+
+    List<QCAnalysis> analyses = new ArrayList<>();
+    for (InterOpMetric metric : InterOpMetric.values()) {
+      File f = new File(interop, metric.getFileName());
+      if (f.exists()) {
+        analyses.addAll(analyses(metric, runInfo, f, template));
+      }
+      else {
+        log.info("No " + metric.getFileName() + " in " + interop.getAbsolutePath());
+      }
+    }
+    return analyses;
+  }
+
+  private List<QCAnalysis> analyses(InterOpMetric metric, InterOpRunInfo runInfo, File in, QCAnalysis template) throws QCAnalysisException {
+    MetricsSummary summary = summarise(metric, runInfo, in);
+    List<QCAnalysis> analyses = new ArrayList<>(runInfo.getLaneCount() * runInfo.getReads().size());
+    for (int lane = 1; lane <= runInfo.getLaneCount(); lane++) {
+      for (InterOpRunInfo.Read read : runInfo.getReads()) {
+        ColumnarQCAnalysis analysis = new ColumnarQCAnalysis();
+        if (template != null) {
+          for (Map.Entry<String, String> property : template.getProperties().entrySet()) {
+            analysis.addProperty(property.getKey(), property.getValue());
+          }
+        }
+        addProperties(analysis, runInfo, metric, in);
+        analysis.addProperty("lane", String.valueOf(lane));
+        analysis.addProperty("pair", read.getPair());
+        summary.addTo(analysis, lane, read);
+        analysis.trimToSize();
+        analyses.add(analysis);
+      }
+    }
+    return analyses;
+  }
+
+  private MetricsSummary summarise(InterOpMetric metric, InterOpRunInfo runInfo, File in) throws QCAnalysisException {
+    log.info("Summarising " + metric.getSubtype() + " for run " + runInfo.getRunId() + ":");
+    return aggregator.summarise(metric, runInfo, in);
+  }
+
+  private void addProperties(QCAnalysis analysis, InterOpRunInfo runInfo, InterOpMetric metric, File in) throws QCAnalysisException {
+    analysis.addProperty("run", runInfo.getRunId());
+    analysis.addProperty("interop_folder", in.getAbsoluteFile().getParent());
+    analysis.addProperty("tool", "InterOp");
+    analysis.addProperty("interop_subtype", metric.getSubtype());
+  }
+
+  private static InterOpMetric metricOf(File in) throws QCAnalysisException {
+    InterOpMetric metric = InterOpMetric.forFile(in);
+    if (metric == null) {
+      throw new QCAnalysisException("Unsupported InterOp file: " + in.getName());
+    }
+    if (!in.exists()) {
+      throw new QCAnalysisException("InterOp file " + in.getAbsolutePath() + " is inaccessible or does not exist");
+    }
+    return metric;
+  }
+
+  private static File runDirectoryOf(File in) throws QCAnalysisException {
+    File interop = in.getAbsoluteFile().getParentFile();
+    if (interop == null || interop.getParentFile() == null) {
+      throw new QCAnalysisException("InterOp file " + in.getAbsolutePath() + " is not in a run directory");
+    }
+    return interop.getParentFile();
+  }
+}
@@ -0,0 +1,132 @@
+package uk.ac.tgac.statsdb.run.parser;
+
+import net.sourceforge.fluxion.spi.ServiceProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Implementation of a QcReportParser that supports kmer contamination reports, replacing the Perl
+ * QCAnalysis::KmerContamination module.
+ * <p/>
+ * Reports are tab separated, with a header row starting "Sample" and ending "RefKmerPercent". Each data row with as many
+ * columns as the header sets the tool, reference and sample properties from the Program, Reference and Sample columns,
+ * and the numeric columns as general values, with any thousands separators removed. Parser instances hold no state and
+ * can be shared between threads.
+ *
+ * @since 1.2
+ */
+@ServiceProvider
+public class KmerContaminationReportParser implements QcReportParser<File>, ReportSignature {
+  private static final Logger log = LoggerFactory.getLogger(KmerContaminationReportParser.class);
+
+  private static final String HEADER_START = "Sample";
+  private static final String HEADER_END = "RefKmerPercent";
+
+  private static final Map<String, String> values = new LinkedHashMap<>();
+  private static final Map<String, String> valueKeys = new HashMap<>();
+
+  static {
+    values.put("sample_size_ratio", "analysis");
+    values.put("sampled_reads", "analysis");
+    values.put("contaminated_reads", "analysis");
+    values.put("percentage", "analysis");
+    values.put("ref_kmer_percent", "analysis");
+
+    valueKeys.put("SampleSize(Ratio)", "sample_size_ratio");
+    valueKeys.put("SampledReads", "sampled_reads");
+    valueKeys.put("ContaminatedReads", "contaminated_reads");
+    valueKeys.put("Percentage", "percentage");
+    valueKeys.put("RefKmerPercent", "ref_kmer_percent");
+  }
+
+  @Override
+  public String getReportType() {
+    return "kmer";
+  }
+
+  /**
+   * Kmer contamination reports start with the "Sample ... RefKmerPercent" header row
+   */
+  @Override
+  public boolean matches(File report, byte[] head, int length) {
+    String line = ParserRegistry.firstLine(head, length);
+    return line.startsWith(HEADER_START) && line.endsWith(HEADER_END);
+  }
+
+  @Override
+  public void parseReport(File in, QCAnalysis qcAnalysis) throws QCAnalysisException {
+    BufferedReader br = null;
+    try {
+      br = new BufferedReader(new InputStreamReader(new FileInputStream(in)));
+
+      for (Map.Entry<String, String> kv : values.entrySet()) {
+        qcAnalysis.addValueType(kv.getKey(), kv.getValue());
+      }
+
+      processKmerReport(br, qcAnalysis);
+    }
+    catch (FileNotFoundException e) {
+      throw new QCAnalysisException("Cannot open kmer contamination report file for reading: " + in.getAbsolutePath(), e);
+    }
+    catch (IOException e) {
+      throw new QCAnalysisException("Cannot read kmer contamination report file: " + in.getAbsolutePath(), e);
+    }
+    finally {
+      if (br != null) {
+        try {
+          br.close();
+        }
+        catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  private void processKmerReport(BufferedReader br, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
+    String[] headers = null;
+    String line;
+    while ((line = br.readLine()) != null) {
+      if (line.startsWith(HEADER_START) && line.endsWith(HEADER_END)) {
+        headers = line.split("\t");
+        continue;
+      }
+      if (headers == null) {
+        continue;
+      }
+
+      String[] results = line.split("\t", -1);
+      if (results.length != headers.length) {
+        if (!line.isEmpty()) {
+          log.warn("Skipping row with " + results.length + " columns, expected " + headers.length + ": '" + line + "'");
+        }
+        continue;
+      }
+
+      for (int i = 0; i < results.length; i++) {
+        String header = headers[i];
+        if (header.contains("Program")) {
+          qcAnalysis.addProperty("tool", results[i]);
+        }
+        else if (header.contains("Reference")) {
+          qcAnalysis.addProperty("reference", results[i]);
+        }
+        else if ("Sample".equals(header)) {
+          qcAnalysis.addProperty("sample", results[i]);
+        }
+        else if (valueKeys.containsKey(header)) {
+          qcAnalysis.addGeneralValue(valueKeys.get(header), results[i].replace(",", ""), null);
+        }
+      }
+    }
+
+    if (headers == null) {
+      throw new QCAnalysisException("No kmer contamination header row found. Failing...");
+    }
+  }
+}
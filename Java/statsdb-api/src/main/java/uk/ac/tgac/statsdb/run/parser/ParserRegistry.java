@@ -0,0 +1,180 @@
+package uk.ac.tgac.statsdb.run.parser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * A registry of QcReportParsers, discovered at startup through the ServiceLoader entries written for parsers annotated
+ * with @ServiceProvider, and itself a QcReportParser that hands each report to the right parser.
+ * <p/>
+ * The parser for a report is picked by reading the first {@link #HEAD_BYTES} bytes of the file and asking each
+ * registered parser that implements {@link ReportSignature}, in registration order, whether it recognises them. Given
+ * to a {@link uk.ac.tgac.statsdb.ingest.ParallelIngester}, a registry lets one metadata table list reports of any
+ * supported type, all parsed on the same pool of parser threads. Registered parsers must be safe to share between
+ * threads.
+ *
+ * @since 1.2
+ */
+public class ParserRegistry implements QcReportParser<File> {
+  private static final Logger log = LoggerFactory.getLogger(ParserRegistry.class);
+
+  public static final int HEAD_BYTES = 4096;
+
+  private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+  private final Map<String, QcReportParser<File>> parsers = new LinkedHashMap<>();
+
+  /**
+   * Creates a registry with every QcReportParser service visible to the context class loader
+   */
+  public static ParserRegistry discover() {
+    return discover(Thread.currentThread().getContextClassLoader());
+  }
+
+  /**
+   * Creates a registry with every QcReportParser service visible to a class loader. Services that can't be loaded are
+   * logged and skipped.
+   *
+   * @param loader the class loader to search
+   */
+  public static ParserRegistry discover(ClassLoader loader) {
+    ParserRegistry registry = new ParserRegistry();
+    Iterator<?> services = ServiceLoader.load(QcReportParser.class, loader).iterator();
+    while (true) {
+      try {
+        if (!services.hasNext()) {
+          break;
+        }
+        Object service = services.next();
+        if (service instanceof QcReportParser && !(service instanceof ParserRegistry)) {
+          registry.register(fileParser((QcReportParser<?>)service));
+        }
+      }
+      catch (ServiceConfigurationError e) {
+        log.error("Cannot load report parser: " + e.getMessage());
+      }
+    }
+    log.info("Discovered report parsers: " + registry.getReportTypes());
+    return registry;
+  }
+
+  /**
+   * Registers a parser under its report type, replacing any parser already registered for that type
+   *
+   * @param parser the parser to register
+   */
+  public synchronized void register(QcReportParser<File> parser) {
+    if (parser == null) {
+      throw new IllegalArgumentException("Cannot register a null parser");
+    }
+    parsers.put(reportTypeOf(parser), parser);
+  }
+
+  /**
+   * @return the registered report types, in registration order
+   */
+  public synchronized Set<String> getReportTypes() {
+    return new LinkedHashSet<>(parsers.keySet());
+  }
+
+  /**
+   * @param reportType a report type, as given by {@link ReportSignature#getReportType()}, or the parser class' simple
+   *                   name for parsers without a signature
+   * @return the parser registered for the type, or null
+   */
+  public synchronized QcReportParser<File> getParser(String reportType) {
+    return parsers.get(reportType);
+  }
+
+  /**
+   * Picks the parser for a report from its name and first bytes
+   *
+   * @param report the report file or directory
+   * @return the first registered parser that recognises the report, or null if none do
+   * @throws QCAnalysisException if the report can't be read
+   */
+  public QcReportParser<File> parserFor(File report) throws QCAnalysisException {
+    List<QcReportParser<File>> candidates;
+    synchronized (this) {
+      candidates = new ArrayList<>(parsers.values());
+    }
+
+    byte[] head = new byte[HEAD_BYTES];
+    int length = report.isDirectory() ? 0 : readHead(report, head);
+    for (QcReportParser<File> parser : candidates) {
+      if (parser instanceof ReportSignature && ((ReportSignature)parser).matches(report, head, length)) {
+        return parser;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void parseReport(File in, QCAnalysis qcAnalysis) throws QCAnalysisException {
+    QcReportParser<File> parser = parserFor(in);
+    if (parser == null) {
+      throw new QCAnalysisException("No parser recognises report " + in.getAbsolutePath() + ". Known report types: " + getReportTypes());
+    }
+    log.debug("Parsing " + in.getName() + " as " + reportTypeOf(parser));
+    parser.parseReport(in, qcAnalysis);
+  }
+
+  /**
+   * Decodes the first line of a report head, without its line terminator. Bytes are mapped one to one to characters,
+   * which is enough to match the ASCII headers of the supported reports.
+   *
+   * @return the first line, or the whole head if it holds no line terminator
+   */
+  static String firstLine(byte[] head, int length) {
+    int end = 0;
+    while (end < length && head[end] != '\n' && head[end] != '\r') end++;
+    return new String(head, 0, end, LATIN1);
+  }
+
+  /**
+   * The type argument of a service isn't known at runtime, but every report parser service parses report files
+   */
+  @SuppressWarnings("unchecked")
+  private static QcReportParser<File> fileParser(QcReportParser<?> parser) {
+    return (QcReportParser<File>)parser;
+  }
+
+  private static String reportTypeOf(QcReportParser<File> parser) {
+    return parser instanceof ReportSignature ? ((ReportSignature)parser).getReportType() : parser.getClass().getSimpleName();
+  }
+
+  private static int readHead(File report, byte[] head) throws QCAnalysisException {
+    InputStream in = null;
+    try {
+      in = new FileInputStream(report);
+      int length = 0;
+      int n;
+      while (length < head.length && (n = in.read(head, length, head.length - length)) > 0) {
+        length += n;
+      }
+      return length;
+    }
+    catch (FileNotFoundException e) {
+      throw new QCAnalysisException("Cannot open report file for reading: " + report.getAbsolutePath(), e);
+    }
+    catch (IOException e) {
+      throw new QCAnalysisException("Cannot read report file: " + report.getAbsolutePath(), e);
+    }
+    finally {
+      if (in != null) {
+        try {
+          in.close();
+        }
+        catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,27 @@
+package uk.ac.tgac.statsdb.run.parser;
+
+import java.io.File;
+
+/**
+ * Implemented by QcReportParsers that can recognise their own reports, so that a {@link ParserRegistry} can pick the
+ * parser for each report file without being told the report type.
+ *
+ * @since 1.2
+ */
+public interface ReportSignature {
+  /**
+   * @return the short name of the report type, e.g. "fastqc", used to select the parser by name
+   */
+  String getReportType();
+
+  /**
+   * Checks whether a report looks like one this parser supports. Implementations should be cheap, and decide from the
+   * file name and the first bytes of the file only.
+   *
+   * @param report the report file or directory
+   * @param head   the first bytes of the report. Empty for a directory.
+   * @param length the number of bytes read into head
+   * @return true if this parser can parse the report
+   */
+  boolean matches(File report, byte[] head, int length);
+}
@@ -0,0 +1,250 @@
+package uk.ac.tgac.statsdb.run.parser;
+
+import net.sourceforge.fluxion.spi.ServiceProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.util.StatsDBUtils;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Implementation of a QcReportParser that supports the barcode tag count files written by tgac_tag_count, replacing the
+ * Perl QCAnalysis::TagCount module. Each line holds whitespace separated lane, read, tag and count fields, and only
+ * lines for the lane property of the analysis are counted. Without a lane property every line is counted.
+ * <p/>
+ * A multiplexed lane can list millions of observed tags, so the file is aggregated as it is streamed rather than
+ * storing every tag as a value type:
+ * <ul>
+ * <li>tag_count_total, tag_count_expected, tag_count_unexpected: the reads counted for all tags, for the tags expected
+ * in the lane and for every other tag</li>
+ * <li>tag_count_observed: the number of tag lines counted, i.e. the distinct tags observed</li>
+ * <li>the counts of the expected tags, and of the top N unexpected tags, as general values in the multiplex_tag
+ * scope, as written by the Perl module</li>
+ * </ul>
+ * The expected tags are taken from the comma separated barcode property of the analysis. The top unexpected tags are
+ * kept in a min-heap bounded at N entries, so memory use does not grow with the file, and each tag is assumed to be
+ * listed once per lane. Parser instances hold no per-report state and can be shared between threads.
+ *
+ * @since 1.2
+ */
+@ServiceProvider
+public class TagCountReportParser implements QcReportParser<File>, ReportSignature {
+  private static final Logger log = LoggerFactory.getLogger(TagCountReportParser.class);
+
+  public static final int DEFAULT_TOP_TAGS = 20;
+  public static final String TAG_SCOPE = "multiplex_tag";
+
+  private static final Map<String, String> values = new LinkedHashMap<>();
+
+  static {
+    values.put("tag_count_total", "analysis");
+    values.put("tag_count_expected", "analysis");
+    values.put("tag_count_unexpected", "analysis");
+    values.put("tag_count_observed", "analysis");
+  }
+
+  private int topTags = DEFAULT_TOP_TAGS;
+
+  /**
+   * Sets the number of unexpected tags, by highest count, stored for each analysis
+   *
+   * @param topTags
+   */
+  public void setTopTags(int topTags) {
+    if (topTags < 0) {
+      throw new IllegalArgumentException("The number of top tags cannot be negative");
+    }
+    this.topTags = topTags;
+  }
+
+  public int getTopTags() {
+    return topTags;
+  }
+
+  @Override
+  public String getReportType() {
+    return "tagcount";
+  }
+
+  /**
+   * Tag count files start with a "lane read tag count" line, with a numeric lane and count and a tag of letters
+   */
+  @Override
+  public boolean matches(File report, byte[] head, int length) {
+    String line = ParserRegistry.firstLine(head, length);
+    int[] bounds = new int[8];
+    if (fieldBounds(line, bounds) < 4
+        || StatsDBUtils.parsePosition(line, bounds[0], bounds[1]) < 0
+        || StatsDBUtils.parsePosition(line, bounds[6], bounds[7]) < 0) {
+      return false;
+    }
+    for (int i = bounds[4]; i < bounds[5]; i++) {
+      char c = line.charAt(i);
+      if (!Character.isLetter(c) && c != '-' && c != '+') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void parseReport(File in, QCAnalysis qcAnalysis) throws QCAnalysisException {
+    BufferedReader br = null;
+    try {
+      br = new BufferedReader(new InputStreamReader(new FileInputStream(in)));
+      qcAnalysis.addProperty("tool", "tgac_tag_count");
+
+      for (Map.Entry<String, String> kv : values.entrySet()) {
+        qcAnalysis.addValueType(kv.getKey(), kv.getValue());
+      }
+
+      processTagCounts(br, qcAnalysis);
+    }
+    catch (FileNotFoundException e) {
+      throw new QCAnalysisException("Cannot open tag count file for reading: " + in.getAbsolutePath(), e);
+    }
+    catch (IOException e) {
+      throw new QCAnalysisException("Cannot read tag count file: " + in.getAbsolutePath(), e);
+    }
+    finally {
+      if (br != null) {
+        try {
+          br.close();
+        }
+        catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  private void processTagCounts(BufferedReader br, QCAnalysis qcAnalysis) throws IOException, QCAnalysisException {
+    long lane = -1L;
+    String laneProperty = qcAnalysis.getProperties().get("lane");
+    if (laneProperty != null) {
+      lane = StatsDBUtils.parsePosition(laneProperty, 0, laneProperty.length());
+      if (lane < 0) {
+        throw new QCAnalysisException("Lane property is not a lane number: " + laneProperty);
+      }
+    }
+
+    Map<String, Long> expected = expectedTags(qcAnalysis.getProperties().get("barcode"));
+    int capacity = topTags;
+    PriorityQueue<TagCount> top = new PriorityQueue<>(Math.max(1, capacity));
+
+    long total = 0L;
+    long unexpected = 0L;
+    long observed = 0L;
+    int[] bounds = new int[8];
+    String line;
+    while ((line = br.readLine()) != null) {
+      if (fieldBounds(line, bounds) < 4) {
+        if (!line.trim().isEmpty()) {
+          log.warn("Skipping malformed tag count line: '" + line + "'");
+        }
+        continue;
+      }
+      if (lane >= 0 && StatsDBUtils.parsePosition(line, bounds[0], bounds[1]) != lane) {
+        continue;
+      }
+
+      long count = StatsDBUtils.parsePosition(line, bounds[6], bounds[7]);
+      if (count < 0) {
+        throw new QCAnalysisException("Tag count is not a number: '" + line + "'");
+      }
+      total += count;
+      observed++;
+
+      String tag = line.substring(bounds[4], bounds[5]);
+      Long expectedCount = expected.get(tag);
+      if (expectedCount != null) {
+        expected.put(tag, expectedCount + count);
+      }
+      else {
+        unexpected += count;
+        // only tags that make the top N are kept, so the heap never holds more than N entries
+        if (capacity > 0 && (top.size() < capacity || count > top.peek().count)) {
+          if (top.size() == capacity) {
+            top.poll();
+          }
+          top.offer(new TagCount(tag, count));
+        }
+      }
+    }
+
+    qcAnalysis.addGeneralValue("tag_count_total", String.valueOf(total), null);
+    qcAnalysis.addGeneralValue("tag_count_expected", String.valueOf(total - unexpected), null);
+    qcAnalysis.addGeneralValue("tag_count_unexpected", String.valueOf(unexpected), null);
+    qcAnalysis.addGeneralValue("tag_count_observed", String.valueOf(observed), null);
+
+    for (Map.Entry<String, Long> e : expected.entrySet()) {
+      qcAnalysis.addValueType(e.getKey(), TAG_SCOPE);
+      qcAnalysis.addGeneralValue(e.getKey(), String.valueOf(e.getValue()), null);
+    }
+    for (TagCount t : top) {
+      qcAnalysis.addValueType(t.tag, TAG_SCOPE);
+      qcAnalysis.addGeneralValue(t.tag, String.valueOf(t.count), null);
+    }
+    log.info("Counted " + observed + " tags, keeping " + expected.size() + " expected and " + top.size() + " unexpected");
+  }
+
+  /**
+   * Reads the comma separated expected tags, each with a count of zero
+   */
+  private static Map<String, Long> expectedTags(String barcodes) {
+    Map<String, Long> expected = new LinkedHashMap<>();
+    if (barcodes != null) {
+      for (String barcode : barcodes.split(",")) {
+        String tag = barcode.trim();
+        if (!tag.isEmpty()) {
+          expected.put(tag, 0L);
+        }
+      }
+    }
+    return expected;
+  }
+
+  /**
+   * Finds the bounds of the first four whitespace separated fields of a line, without creating substrings. Field i
+   * runs from bounds[2i] to bounds[2i+1].
+   *
+   * @return the number of fields found, at most four
+   */
+  private static int fieldBounds(String line, int[] bounds) {
+    int count = 0;
+    int len = line.length();
+    int i = 0;
+    while (count < 4) {
+      while (i < len && Character.isWhitespace(line.charAt(i))) i++;
+      if (i == len) {
+        break;
+      }
+      bounds[2 * count] = i;
+      while (i < len && !Character.isWhitespace(line.charAt(i))) i++;
+      bounds[2 * count + 1] = i;
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * An unexpected tag and its count, ordered by count for the top N heap
+   */
+  private static final class TagCount implements Comparable<TagCount> {
+    private final String tag;
+    private final long count;
+
+    private TagCount(String tag, long count) {
+      this.tag = tag;
+      this.count = count;
+    }
+
+    @Override
+    public int compareTo(TagCount o) {
+      return count < o.count ? -1 : (count == o.count ? 0 : 1);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package uk.ac.tgac.statsdb.run.parser.interop;
+
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Summarises ControlMetricsOut.bin (version 1). Each record holds the number of clusters identified as a given control
+ * in one tile and read. Control clusters are summed per lane and read into the control_clusters general value.
+ * <p/>
+ * Records have variable length: uint16 lane, uint16 tile, uint16 read, uint16 control name length and ASCII name,
+ * uint16 index name length and ASCII name, uint32 cluster count. There is no record size in the header.
+ *
+ * @since 1.2
+ */
+public class ControlMetricsSummary extends MetricsSummary {
+  private final long[][] clusters;
+  private final boolean[][] seen;
+
+  public ControlMetricsSummary(InterOpRunInfo runInfo) {
+    super(runInfo);
+    int reads = runInfo.getReads().size();
+    clusters = new long[runInfo.getLaneCount() + 1][reads + 1];
+    seen = new boolean[runInfo.getLaneCount() + 1][reads + 1];
+  }
+
+  @Override
+  protected boolean supportsVersion(int version) {
+    return version == 1;
+  }
+
+  @Override
+  protected int minimumRecordSize() {
+    return 14;
+  }
+
+  @Override
+  protected int readHeader(ByteBuffer header) throws QCAnalysisException {
+    return 1;
+  }
+
+  @Override
+  protected long readRecords(FileChannel channel, long start, long size) throws IOException, QCAnalysisException {
+    if (size > Integer.MAX_VALUE) {
+      throw new QCAnalysisException("ControlMetricsOut.bin is too large to map: " + size + " bytes");
+    }
+    ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+    int limit = (int)size;
+    int offset = (int)start;
+    while (offset + minimumRecordSize() <= limit) {
+      int nameLength = u16(buf, offset + 6);
+      int indexOffset = offset + 8 + nameLength;
+      if (indexOffset + 2 > limit) {
+        break;
+      }
+      int indexLength = u16(buf, indexOffset);
+      int countOffset = indexOffset + 2 + indexLength;
+      if (countOffset + 4 > limit) {
+        break;
+      }
+      countRecord(accumulate(u16(buf, offset), u16(buf, offset + 4), u32(buf, countOffset)));
+      offset = countOffset + 4;
+    }
+    return limit - offset;
+  }
+
+  @Override
+  protected boolean record(ByteBuffer buf, int offset) {
+    throw new UnsupportedOperationException("Control metrics records have variable length");
+  }
+
+  private boolean accumulate(int lane, int read, long count) {
+    if (lane < 1 || lane >= clusters.length || read < 1 || read >= clusters[lane].length) {
+      return false;
+    }
+    clusters[lane][read] += count;
+    seen[lane][read] = true;
+    return true;
+  }
+
+  @Override
+  protected boolean isSplittable() {
+    return false;
+  }
+
+  @Override
+  protected MetricsSummary emptyCopy() {
+    return new ControlMetricsSummary(runInfo);
+  }
+
+  @Override
+  protected void mergeAccumulators(MetricsSummary other) {
+    ControlMetricsSummary o = (ControlMetricsSummary)other;
+    for (int lane = 0; lane < clusters.length; lane++) {
+      for (int read = 0; read < clusters[lane].length; read++) {
+        clusters[lane][read] += o.clusters[lane][read];
+        seen[lane][read] |= o.seen[lane][read];
+      }
+    }
+  }
+
+  @Override
+  public void addTo(QCAnalysis analysis, int lane, InterOpRunInfo.Read read) throws QCAnalysisException {
+    int r = read.getNumber();
+    if (r < clusters[lane].length && seen[lane][r]) {
+      addGeneralValue(analysis, "control_clusters", clusters[lane][r]);
+    }
+  }
+}
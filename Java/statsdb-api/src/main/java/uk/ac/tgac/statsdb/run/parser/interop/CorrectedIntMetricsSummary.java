@@ -0,0 +1,131 @@
+package uk.ac.tgac.statsdb.run.parser.interop;
+
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Summarises CorrectedIntMetricsOut.bin (version 2). Each record holds the intensities, base call counts and signal to
+ * noise ratio of one tile and cycle. Per lane and cycle, avg_intensity, avg_corrected_int_a..t, avg_called_int_a..t and
+ * snr are summarised as means and standard deviations, with the snr spread, and the base call counts are summed over
+ * tiles as num_basecalls_n..t.
+ * <p/>
+ * Record layout: uint16 lane, uint16 tile, uint16 cycle, uint16 average intensity, uint16 corrected intensity per
+ * channel A/C/G/T, uint16 corrected intensity of called clusters per channel A/C/G/T, float32 base call count for
+ * N/A/C/G/T, float32 signal to noise ratio.
+ *
+ * @since 1.2
+ */
+public class CorrectedIntMetricsSummary extends MetricsSummary {
+  private static final String[] BASES = {"a", "c", "g", "t"};
+  private static final String[] CALLS = {"n", "a", "c", "g", "t"};
+
+  private static final int AVG_INTENSITY = 0;
+  private static final int CORRECTED = 1;
+  private static final int CALLED = CORRECTED + BASES.length;
+  private static final int SNR = CALLED + BASES.length;
+
+  private final LaneCycleSamples samples;
+  private final double[][][] basecalls;
+
+  public CorrectedIntMetricsSummary(InterOpRunInfo runInfo) {
+    super(runInfo);
+    samples = new LaneCycleSamples(runInfo.getLaneCount(), runInfo.getCycleCount(), SNR + 1);
+    basecalls = new double[runInfo.getLaneCount() + 1][runInfo.getCycleCount() + 1][];
+  }
+
+  @Override
+  protected boolean supportsVersion(int version) {
+    return version == 2;
+  }
+
+  @Override
+  protected int minimumRecordSize() {
+    return 48;
+  }
+
+  @Override
+  protected boolean record(ByteBuffer buf, int offset) {
+    int lane = u16(buf, offset);
+    int cycle = u16(buf, offset + 4);
+    if (!inRun(lane, cycle)) {
+      return false;
+    }
+
+    samples.add(lane, cycle, AVG_INTENSITY, u16(buf, offset + 6));
+    for (int b = 0; b < BASES.length; b++) {
+      samples.add(lane, cycle, CORRECTED + b, u16(buf, offset + 8 + 2 * b));
+      samples.add(lane, cycle, CALLED + b, u16(buf, offset + 16 + 2 * b));
+    }
+
+    double[] calls = basecalls[lane][cycle];
+    if (calls == null) {
+      calls = basecalls[lane][cycle] = new double[CALLS.length];
+    }
+    for (int b = 0; b < CALLS.length; b++) {
+      float n = buf.getFloat(offset + 24 + 4 * b);
+      if (!Float.isNaN(n)) {
+        calls[b] += n;
+      }
+    }
+
+    float snr = buf.getFloat(offset + 44);
+    if (snr >= 0f) {
+      samples.add(lane, cycle, SNR, snr);
+    }
+    return true;
+  }
+
+  @Override
+  protected MetricsSummary emptyCopy() {
+    return new CorrectedIntMetricsSummary(runInfo);
+  }
+
+  @Override
+  protected void mergeAccumulators(MetricsSummary other) {
+    CorrectedIntMetricsSummary o = (CorrectedIntMetricsSummary)other;
+    samples.merge(o.samples);
+    for (int lane = 0; lane < basecalls.length; lane++) {
+      for (int cycle = 0; cycle < basecalls[lane].length; cycle++) {
+        double[] calls = o.basecalls[lane][cycle];
+        if (calls == null) {
+          continue;
+        }
+        if (basecalls[lane][cycle] == null) {
+          basecalls[lane][cycle] = new double[CALLS.length];
+        }
+        for (int b = 0; b < CALLS.length; b++) {
+          basecalls[lane][cycle][b] += calls[b];
+        }
+      }
+    }
+  }
+
+  @Override
+  public void addTo(QCAnalysis analysis, int lane, InterOpRunInfo.Read read) throws QCAnalysisException {
+    addCycleStatistics(analysis, "avg_intensity", samples, AVG_INTENSITY, lane, read, false);
+    for (int b = 0; b < BASES.length; b++) {
+      addCycleStatistics(analysis, "avg_corrected_int_" + BASES[b], samples, CORRECTED + b, lane, read, false);
+      addCycleStatistics(analysis, "avg_called_int_" + BASES[b], samples, CALLED + b, lane, read, false);
+    }
+    addCycleStatistics(analysis, "snr", samples, SNR, lane, read, true);
+
+    boolean typed = false;
+    for (int cycle = read.getFirstCycle(); cycle <= read.getLastCycle(); cycle++) {
+      double[] calls = basecalls[lane][cycle];
+      if (calls == null) {
+        continue;
+      }
+      if (!typed) {
+        for (String base : CALLS) {
+          analysis.addValueType("num_basecalls_" + base, POSITION_SCOPE);
+        }
+        typed = true;
+      }
+      for (int b = 0; b < CALLS.length; b++) {
+        addPositionValue(analysis, cycle, "num_basecalls_" + CALLS[b], calls[b]);
+      }
+    }
+  }
+}
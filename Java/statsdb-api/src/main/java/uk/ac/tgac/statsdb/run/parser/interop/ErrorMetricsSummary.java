@@ -0,0 +1,61 @@
+package uk.ac.tgac.statsdb.run.parser.interop;
+
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Summarises ErrorMetricsOut.bin (version 3). Each record holds the PhiX alignment error rate of one tile and cycle,
+ * which is summarised per lane and cycle as err_rate_mean, err_rate_stdev and the err_rate spread.
+ * <p/>
+ * Record layout: uint16 lane, uint16 tile, uint16 cycle, float32 error rate, then five uint32 counts of reads with
+ * 0 to 4 errors, which are not used.
+ *
+ * @since 1.2
+ */
+public class ErrorMetricsSummary extends MetricsSummary {
+  private final LaneCycleSamples samples;
+
+  public ErrorMetricsSummary(InterOpRunInfo runInfo) {
+    super(runInfo);
+    samples = new LaneCycleSamples(runInfo.getLaneCount(), runInfo.getCycleCount(), 1);
+  }
+
+  @Override
+  protected boolean supportsVersion(int version) {
+    return version == 3;
+  }
+
+  @Override
+  protected int minimumRecordSize() {
+    return 10;
+  }
+
+  @Override
+  protected boolean record(ByteBuffer buf, int offset) {
+    int lane = u16(buf, offset);
+    int cycle = u16(buf, offset + 4);
+    float errorRate = buf.getFloat(offset + 6);
+    if (!inRun(lane, cycle) || !(errorRate >= 0f)) {
+      return false;
+    }
+    samples.add(lane, cycle, 0, errorRate);
+    return true;
+  }
+
+  @Override
+  protected MetricsSummary emptyCopy() {
+    return new ErrorMetricsSummary(runInfo);
+  }
+
+  @Override
+  protected void mergeAccumulators(MetricsSummary other) {
+    samples.merge(((ErrorMetricsSummary)other).samples);
+  }
+
+  @Override
+  public void addTo(QCAnalysis analysis, int lane, InterOpRunInfo.Read read) throws QCAnalysisException {
+    addCycleStatistics(analysis, "err_rate", samples, 0, lane, read, true);
+  }
+}
@@ -0,0 +1,71 @@
+package uk.ac.tgac.statsdb.run.parser.interop;
+
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Summarises ExtractionMetricsOut.bin (version 2). Each record holds the per-channel focus (FWHM) and 90th percentile
+ * intensity of one tile and cycle, which are summarised per lane and cycle as fwhm_a_mean, intensities_a_stdev, etc.
+ * <p/>
+ * Record layout: uint16 lane, uint16 tile, uint16 cycle, float32 FWHM per channel A/C/G/T, uint16 intensity per channel
+ * A/C/G/T, then a uint64 CIF timestamp, which is not used.
+ *
+ * @since 1.2
+ */
+public class ExtractionMetricsSummary extends MetricsSummary {
+  private static final String[] BASES = {"a", "c", "g", "t"};
+
+  private final LaneCycleSamples samples;
+
+  public ExtractionMetricsSummary(InterOpRunInfo runInfo) {
+    super(runInfo);
+    samples = new LaneCycleSamples(runInfo.getLaneCount(), runInfo.getCycleCount(), 2 * BASES.length);
+  }
+
+  @Override
+  protected boolean supportsVersion(int version) {
+    return version == 2;
+  }
+
+  @Override
+  protected int minimumRecordSize() {
+    return 30;
+  }
+
+  @Override
+  protected boolean record(ByteBuffer buf, int offset) {
+    int lane = u16(buf, offset);
+    int cycle = u16(buf, offset + 4);
+    if (!inRun(lane, cycle)) {
+      return false;
+    }
+    for (int b = 0; b < BASES.length; b++) {
+      float fwhm = buf.getFloat(offset + 6 + 4 * b);
+      if (!Float.isNaN(fwhm)) {
+        samples.add(lane, cycle, b, fwhm);
+      }
+      samples.add(lane, cycle, BASES.length + b, u16(buf, offset + 22 + 2 * b));
+    }
+    return true;
+  }
+
+  @Override
+  protected MetricsSummary emptyCopy() {
+    return new ExtractionMetricsSummary(runInfo);
+  }
+
+  @Override
+  protected void mergeAccumulators(MetricsSummary other) {
+    samples.merge(((ExtractionMetricsSummary)other).samples);
+  }
+
+  @Override
+  public void addTo(QCAnalysis analysis, int lane, InterOpRunInfo.Read read) throws QCAnalysisException {
+    for (int b = 0; b < BASES.length; b++) {
+      addCycleStatistics(analysis, "fwhm_" + BASES[b], samples, b, lane, read, false);
+      addCycleStatistics(analysis, "intensities_" + BASES[b], samples, BASES.length + b, lane, read, false);
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package uk.ac.tgac.statsdb.run.parser.interop;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Summarises InterOp metrics files in parallel. The fixed-width records of a file are split into ranges that are
+ * decoded on a fork-join pool, each into its own partial {@link MetricsSummary}, and the partial summaries are merged
+ * pairwise as the tasks join. InterOp files are written in lane and tile order, so each range covers a few lanes and
+ * tiles, but the merged summary is the same however the records are divided. Quantiles are exact, as every sample, or
+ * every quality histogram, is merged before the statistics are computed.
+ * <p/>
+ * Files with fewer records than a single task, and ControlMetricsOut.bin, which has variable-length records, are read in
+ * the calling thread.
+ *
+ * @since 1.2
+ */
+public class InterOpAggregator {
+  protected static final Logger log = LoggerFactory.getLogger(InterOpAggregator.class);
+
+  public static final int DEFAULT_RECORDS_PER_TASK = 1 << 18;
+
+  private final ForkJoinPool pool;
+  private int recordsPerTask = DEFAULT_RECORDS_PER_TASK;
+
+  /**
+   * Creates an InterOpAggregator with its own pool, with one thread per processor
+   */
+  public InterOpAggregator() {
+    this(new ForkJoinPool());
+  }
+
+  /**
+   * Creates an InterOpAggregator
+   *
+   * @param pool the pool to decode records on. May be shared with other aggregators.
+   */
+  public InterOpAggregator(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * @return a shared aggregator, using one thread per processor
+   */
+  public static InterOpAggregator getDefault() {
+    return DefaultHolder.AGGREGATOR;
+  }
+
+  /**
+   * Sets the number of records each task decodes. Smaller tasks balance better over the pool, but create more partial
+   * summaries to merge.
+   *
+   * @param recordsPerTask
+   */
+  public void setRecordsPerTask(int recordsPerTask) {
+    if (recordsPerTask < 1) {
+      throw new IllegalArgumentException("Each task must decode at least one record");
+    }
+    this.recordsPerTask = recordsPerTask;
+  }
+
+  public int getRecordsPerTask() {
+    return recordsPerTask;
+  }
+
+  /**
+   * Reads and summarises a metrics file
+   *
+   * @param metric  the type of the file
+   * @param runInfo the layout of the run the file belongs to
+   * @param f       the *MetricsOut.bin file
+   * @return the summary of every record in the file
+   * @throws QCAnalysisException if the file can't be read, or has an unsupported version
+   */
+  public MetricsSummary summarise(InterOpMetric metric, InterOpRunInfo runInfo, File f) throws QCAnalysisException {
+    MetricsSummary summary = metric.newSummary(runInfo);
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(f, "r");
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      long start = summary.open(channel, f, size);
+      if (!summary.isSplittable()) {
+        summary.logRead(f, summary.readRecords(channel, start, size));
+        return summary;
+      }
+
+      summary.checkRecordSize();
+      long records = (size - start) / summary.recordSize;
+      if (records <= recordsPerTask) {
+        summary.logRead(f, summary.readRecords(channel, start, size));
+        return summary;
+      }
+
+      // keep each mapped range under 2GB
+      int taskRecords = Math.min(recordsPerTask, Integer.MAX_VALUE / summary.recordSize);
+      try {
+        summary.merge(pool.invoke(new DecodeTask(summary, channel, start, 0L, records, taskRecords)));
+      }
+      catch (DecodeException e) {
+        throw e.getCause();
+      }
+      summary.logRead(f, size - start - records * summary.recordSize);
+      return summary;
+    }
+    catch (IOException e) {
+      throw new QCAnalysisException("Cannot read InterOp file " + f.getAbsolutePath() + ": " + e.getMessage(), e);
+    }
+    finally {
+      if (raf != null) {
+        try {
+          raf.close();
+        }
+        catch (IOException e) {
+          log.warn("Cannot close InterOp file " + f.getAbsolutePath());
+        }
+      }
+    }
+  }
+
+  /**
+   * Decodes the records [from, to) into a partial summary, splitting the range in two until it fits in one task
+   */
+  private static class DecodeTask extends RecursiveTask<MetricsSummary> {
+    private static final long serialVersionUID = 1L;
+
+    private final MetricsSummary template;
+    private final FileChannel channel;
+    private final long start;
+    private final long from;
+    private final long to;
+    private final int taskRecords;
+
+    DecodeTask(MetricsSummary template, FileChannel channel, long start, long from, long to, int taskRecords) {
+      this.template = template;
+      this.channel = channel;
+      this.start = start;
+      this.from = from;
+      this.to = to;
+      this.taskRecords = taskRecords;
+    }
+
+    @Override
+    protected MetricsSummary compute() {
+      if (to - from <= taskRecords) {
+        MetricsSummary partial = template.partial();
+        int length = (int)(to - from) * template.recordSize;
+        try {
+          partial.decode(channel.map(FileChannel.MapMode.READ_ONLY, start + from * template.recordSize, length)
+                                .order(ByteOrder.LITTLE_ENDIAN), length);
+        }
+        catch (IOException e) {
+          throw new DecodeException(e);
+        }
+        return partial;
+      }
+
+      long mid = from + (to - from) / 2;
+      DecodeTask left = new DecodeTask(template, channel, start, from, mid, taskRecords);
+      DecodeTask right = new DecodeTask(template, channel, start, mid, to, taskRecords);
+      left.fork();
+      MetricsSummary summary = right.compute();
+      MetricsSummary leftSummary = left.join();
+      leftSummary.merge(summary);
+      return leftSummary;
+    }
+  }
+
+  /**
+   * Carries an IOException out of a fork-join task
+   */
+  private static class DecodeException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    DecodeException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized IOException getCause() {
+      return (IOException)super.getCause();
+    }
+  }
+
+  private static class DefaultHolder {
+    private static final InterOpAggregator AGGREGATOR = new InterOpAggregator();
+  }
+}
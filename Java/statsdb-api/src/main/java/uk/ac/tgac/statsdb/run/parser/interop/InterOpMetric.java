@@ -0,0 +1,90 @@
+package uk.ac.tgac.statsdb.run.parser.interop;
+
+import java.io.File;
+
+/**
+ * The InterOp binary metrics files that StatsDB can summarise, keyed on file name
+ *
+ * @since 1.2
+ */
+public enum InterOpMetric {
+  TILE("TileMetricsOut.bin") {
+    @Override
+    public MetricsSummary newSummary(InterOpRunInfo runInfo) {
+      return new TileMetricsSummary(runInfo);
+    }
+  },
+  QUALITY("QMetricsOut.bin") {
+    @Override
+    public MetricsSummary newSummary(InterOpRunInfo runInfo) {
+      return new QualityMetricsSummary(runInfo);
+    }
+  },
+  ERROR("ErrorMetricsOut.bin") {
+    @Override
+    public MetricsSummary newSummary(InterOpRunInfo runInfo) {
+      return new ErrorMetricsSummary(runInfo);
+    }
+  },
+  EXTRACTION("ExtractionMetricsOut.bin") {
+    @Override
+    public MetricsSummary newSummary(InterOpRunInfo runInfo) {
+      return new ExtractionMetricsSummary(runInfo);
+    }
+  },
+  CORRECTED_INTENSITY("CorrectedIntMetricsOut.bin") {
+    @Override
+    public MetricsSummary newSummary(InterOpRunInfo runInfo) {
+      return new CorrectedIntMetricsSummary(runInfo);
+    }
+  },
+  CONTROL("ControlMetricsOut.bin") {
+    @Override
+    public MetricsSummary newSummary(InterOpRunInfo runInfo) {
+      return new ControlMetricsSummary(runInfo);
+    }
+  };
+
+  private final String fileName;
+
+  InterOpMetric(String fileName) {
+    this.fileName = fileName;
+  }
+
+  /**
+   * @return the file name, e.g. QMetricsOut.bin
+   */
+  public String getFileName() {
+    return fileName;
+  }
+
+  /**
+   * @return the interop_subtype property value, i.e. the file name without "Out.bin", e.g. QMetrics
+   */
+  public String getSubtype() {
+    return fileName.substring(0, fileName.length() - "Out.bin".length());
+  }
+
+  /**
+   * Creates an empty summary for this metrics file
+   *
+   * @param runInfo the layout of the run the file belongs to
+   * @return a new summary
+   */
+  public abstract MetricsSummary newSummary(InterOpRunInfo runInfo);
+
+  /**
+   * Finds the metric type of an InterOp file
+   *
+   * @param f the file
+   * @return the metric type, or null if the file isn't a supported InterOp metrics file
+   */
+  public static InterOpMetric forFile(File f) {
+    for (InterOpMetric metric : values()) {
+      if (metric.fileName.equals(f.getName())) {
+        return metric;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,231 @@
+package uk.ac.tgac.statsdb.run.parser.interop;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The run layout described by an Illumina RunInfo.xml: the run ID, number of lanes, and the cycles making up each
+ * read. InterOp files number reads including index reads, so each {@link Read} also carries the pair name used in
+ * StatsDB, i.e. "1" and "2" for sequencing reads, and "index1", "index2" for index reads.
+ *
+ * @since 1.2
+ */
+public class InterOpRunInfo {
+  public static final String RUN_INFO = "RunInfo.xml";
+
+  private final String runId;
+  private final String flowcell;
+  private final String instrument;
+  private final int laneCount;
+  private final List<Read> reads;
+  private final int[] cycleReads;
+
+  /**
+   * Creates a run layout
+   *
+   * @param runId      the run ID
+   * @param flowcell   the flowcell ID, or null
+   * @param instrument the instrument name, or null
+   * @param laneCount  the number of lanes
+   * @param reads      the reads in cycle order
+   */
+  public InterOpRunInfo(String runId, String flowcell, String instrument, int laneCount, List<Read> reads) {
+    this.runId = runId;
+    this.flowcell = flowcell;
+    this.instrument = instrument;
+    this.laneCount = laneCount;
+    this.reads = Collections.unmodifiableList(new ArrayList<>(reads));
+
+    int cycles = 0;
+    for (Read read : reads) {
+      cycles = Math.max(cycles, read.getLastCycle());
+    }
+    cycleReads = new int[cycles + 1];
+    for (Read read : reads) {
+      for (int c = read.getFirstCycle(); c <= read.getLastCycle(); c++) {
+        cycleReads[c] = read.getNumber();
+      }
+    }
+  }
+
+  /**
+   * Reads the RunInfo.xml in a run directory
+   *
+   * @param runDirectory the sequencer run directory
+   * @return the run layout
+   * @throws QCAnalysisException if there is no readable RunInfo.xml
+   */
+  public static InterOpRunInfo parse(File runDirectory) throws QCAnalysisException {
+    File f = new File(runDirectory, RUN_INFO);
+    if (!f.exists()) {
+      throw new QCAnalysisException("No " + RUN_INFO + " in run directory " + runDirectory.getAbsolutePath());
+    }
+
+    try {
+      Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(f);
+      Element run = first(doc.getDocumentElement(), "Run");
+      if (run == null) {
+        throw new QCAnalysisException("No Run element in " + f.getAbsolutePath());
+      }
+
+      Element layout = first(run, "FlowcellLayout");
+      if (layout == null || "".equals(layout.getAttribute("LaneCount"))) {
+        throw new QCAnalysisException("No FlowcellLayout LaneCount in " + f.getAbsolutePath());
+      }
+
+      List<Read> reads = new ArrayList<>();
+      int nextCycle = 1;
+      int sequencing = 0;
+      int index = 0;
+      NodeList rs = run.getElementsByTagName("Read");
+      for (int i = 0; i < rs.getLength(); i++) {
+        Element r = (Element)rs.item(i);
+        int number = Integer.parseInt(r.getAttribute("Number"));
+        int first;
+        int last;
+        if (!"".equals(r.getAttribute("NumCycles"))) {
+          first = nextCycle;
+          last = first + Integer.parseInt(r.getAttribute("NumCycles")) - 1;
+        }
+        else {
+          // version 1 RunInfo.xml files give explicit cycle ranges
+          first = Integer.parseInt(r.getAttribute("FirstCycle"));
+          last = Integer.parseInt(r.getAttribute("LastCycle"));
+        }
+        boolean isIndex = "Y".equalsIgnoreCase(r.getAttribute("IsIndexedRead")) || first(r, "Index") != null;
+        String pair = isIndex ? "index" + (++index) : String.valueOf(++sequencing);
+        reads.add(new Read(number, pair, first, last, isIndex));
+        nextCycle = last + 1;
+      }
+
+      return new InterOpRunInfo(run.getAttribute("Id"), text(first(run, "Flowcell")), text(first(run, "Instrument")),
+                                Integer.parseInt(layout.getAttribute("LaneCount")), reads);
+    }
+    catch (ParserConfigurationException | SAXException | IOException e) {
+      throw new QCAnalysisException("Cannot read " + f.getAbsolutePath() + ": " + e.getMessage(), e);
+    }
+    catch (NumberFormatException e) {
+      throw new QCAnalysisException("Invalid number in " + f.getAbsolutePath() + ": " + e.getMessage(), e);
+    }
+  }
+
+  public String getRunId() {
+    return runId;
+  }
+
+  public String getFlowcell() {
+    return flowcell;
+  }
+
+  public String getInstrument() {
+    return instrument;
+  }
+
+  public int getLaneCount() {
+    return laneCount;
+  }
+
+  /**
+   * @return the total number of cycles across all reads
+   */
+  public int getCycleCount() {
+    return cycleReads.length - 1;
+  }
+
+  /**
+   * @return the reads in cycle order, including index reads
+   */
+  public List<Read> getReads() {
+    return reads;
+  }
+
+  /**
+   * Get the InterOp read number a cycle belongs to
+   *
+   * @param cycle the cycle, counted from 1 across all reads
+   * @return the read number, or 0 if the cycle is outside the run
+   */
+  public int readOfCycle(int cycle) {
+    return cycle > 0 && cycle < cycleReads.length ? cycleReads[cycle] : 0;
+  }
+
+  /**
+   * Finds a read by its StatsDB pair name
+   *
+   * @param pair the pair name, e.g. "1" or "index1"
+   * @return the read, or null
+   */
+  public Read getReadForPair(String pair) {
+    for (Read read : reads) {
+      if (read.getPair().equals(pair)) {
+        return read;
+      }
+    }
+    return null;
+  }
+
+  private static Element first(Element parent, String name) {
+    NodeList nl = parent.getElementsByTagName(name);
+    return nl.getLength() > 0 ? (Element)nl.item(0) : null;
+  }
+
+  private static String text(Element e) {
+    return e == null ? null : e.getTextContent().trim();
+  }
+
+  /**
+   * A read of a run, covering a contiguous range of cycles
+   */
+  public static class Read {
+    private final int number;
+    private final String pair;
+    private final int firstCycle;
+    private final int lastCycle;
+    private final boolean index;
+
+    public Read(int number, String pair, int firstCycle, int lastCycle, boolean index) {
+      this.number = number;
+      this.pair = pair;
+      this.firstCycle = firstCycle;
+      this.lastCycle = lastCycle;
+      this.index = index;
+    }
+
+    /**
+     * @return the InterOp read number, counting index reads
+     */
+    public int getNumber() {
+      return number;
+    }
+
+    /**
+     * @return the StatsDB pair name, e.g. "1" or "index1"
+     */
+    public String getPair() {
+      return pair;
+    }
+
+    public int getFirstCycle() {
+      return firstCycle;
+    }
+
+    public int getLastCycle() {
+      return lastCycle;
+    }
+
+    public boolean isIndex() {
+      return index;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package uk.ac.tgac.statsdb.run.parser.interop;
+
+/**
+ * Samples of a fixed set of metric series, per lane and cycle. Samples are only allocated for the lane, cycle and series
+ * combinations that receive values, so the number of objects depends on the run layout and not on the number of
+ * records decoded.
+ *
+ * @since 1.2
+ */
+class LaneCycleSamples {
+  private final Samples[][][] samples;
+  private final int seriesCount;
+
+  LaneCycleSamples(int laneCount, int cycleCount, int seriesCount) {
+    this.samples = new Samples[laneCount + 1][cycleCount + 1][];
+    this.seriesCount = seriesCount;
+  }
+
+  void add(int lane, int cycle, int series, double value) {
+    get(lane, cycle, series, true).add(value);
+  }
+
+  /**
+   * Adds all the samples of another instance with the same dimensions
+   */
+  void merge(LaneCycleSamples other) {
+    for (int lane = 0; lane < samples.length; lane++) {
+      for (int cycle = 0; cycle < samples[lane].length; cycle++) {
+        Samples[] o = other.samples[lane][cycle];
+        if (o == null) {
+          continue;
+        }
+        for (int series = 0; series < seriesCount; series++) {
+          if (o[series] != null) {
+            get(lane, cycle, series, true).addAll(o[series]);
+          }
+        }
+      }
+    }
+  }
+
+  Samples get(int lane, int cycle, int series) {
+    return get(lane, cycle, series, false);
+  }
+
+  private Samples get(int lane, int cycle, int series, boolean create) {
+    Samples[] s = samples[lane][cycle];
+    if (s == null) {
+      if (!create) {
+        return null;
+      }
+      s = samples[lane][cycle] = new Samples[seriesCount];
+    }
+    if (s[series] == null && create) {
+      s[series] = new Samples();
+    }
+    return s[series];
+  }
+}
@@ -0,0 +1,333 @@
+package uk.ac.tgac.statsdb.run.parser.interop;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.tgac.statsdb.analysis.ColumnarQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Summarises a single InterOp binary metrics file in one streaming pass. The file is memory-mapped, and each
+ * fixed-width little-endian record is decoded in place by {@link #record(ByteBuffer, int)} straight into primitive
+ * accumulators, so no object is created per record. Once read, {@link #addTo(QCAnalysis, int, InterOpRunInfo.Read)}
+ * adds the summary statistics for a given lane and read to an analysis.
+ * <p/>
+ * Value type names follow the Perl QCAnalysis::InterOp module, e.g. err_rate_mean or qscore_median. Per-cycle values
+ * are stored as position values at the run cycle number; per-tile values without a cycle are stored as general values.
+ * The "spread" of a series is reported as max, upper_quartile, median, lower_quartile and min, which, as in the Perl
+ * module, are the 95th, 75th, 50th, 25th and 5th percentiles.
+ *
+ * @since 1.2
+ */
+public abstract class MetricsSummary {
+  protected static final Logger log = LoggerFactory.getLogger(MetricsSummary.class);
+
+  public static final String POSITION_SCOPE = "base_position";
+  public static final String ANALYSIS_SCOPE = "analysis";
+
+  protected static final String[] SPREAD = {"max", "upper_quartile", "median", "lower_quartile", "min"};
+  protected static final double[] SPREAD_PERCENTILES = {95d, 75d, 50d, 25d, 5d};
+
+  private static final int MAX_HEADER = 1024;
+
+  protected final InterOpRunInfo runInfo;
+  protected int version;
+  protected int recordSize;
+  private long records = 0L;
+  private long skipped = 0L;
+
+  protected MetricsSummary(InterOpRunInfo runInfo) {
+    this.runInfo = runInfo;
+  }
+
+  /**
+   * Reads and summarises a metrics file in the calling thread. Use an {@link InterOpAggregator} to decode large files
+   * in parallel.
+   *
+   * @param f the *MetricsOut.bin file
+   * @throws QCAnalysisException if the file can't be read, or has an unsupported version
+   */
+  public void read(File f) throws QCAnalysisException {
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(f, "r");
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      long start = open(channel, f, size);
+      logRead(f, readRecords(channel, start, size));
+    }
+    catch (IOException e) {
+      throw new QCAnalysisException("Cannot read InterOp file " + f.getAbsolutePath() + ": " + e.getMessage(), e);
+    }
+    finally {
+      if (raf != null) {
+        try {
+          raf.close();
+        }
+        catch (IOException e) {
+          log.warn("Cannot close InterOp file " + f.getAbsolutePath());
+        }
+      }
+    }
+  }
+
+  /**
+   * Maps the start of a metrics file, checks its version and reads its header
+   *
+   * @return the offset of the first record
+   */
+  long open(FileChannel channel, File f, long size) throws IOException, QCAnalysisException {
+    if (size < 1) {
+      throw new QCAnalysisException("InterOp file " + f.getAbsolutePath() + " has no header");
+    }
+    ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAX_HEADER)).order(ByteOrder.LITTLE_ENDIAN);
+    version = header.get(0) & 0xFF;
+    if (!supportsVersion(version)) {
+      throw new QCAnalysisException("Unsupported " + f.getName() + " version " + version);
+    }
+    return readHeader(header);
+  }
+
+  void logRead(File f, long trailing) {
+    if (trailing > 0) {
+      log.warn("\t\\_ " + f.getName() + " ends with a partial record, which was ignored");
+    }
+    log.info("\t\\_ Decoded " + records + " records from " + f.getName() + (skipped > 0 ? ", skipped " + skipped + " outside the run layout" : ""));
+  }
+
+  /**
+   * Maps and decodes the fixed-width records following the header. Files over 2GB are mapped in windows of whole
+   * records.
+   *
+   * @return the number of trailing bytes that don't make up a whole record
+   */
+  protected long readRecords(FileChannel channel, long start, long size) throws IOException, QCAnalysisException {
+    checkRecordSize();
+    long window = (Integer.MAX_VALUE / recordSize) * (long)recordSize;
+    long position = start;
+    while (size - position >= recordSize) {
+      long length = Math.min(window, ((size - position) / recordSize) * recordSize);
+      decode(channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN), (int)length);
+      position += length;
+    }
+    return size - position;
+  }
+
+  void checkRecordSize() throws QCAnalysisException {
+    if (recordSize < minimumRecordSize()) {
+      throw new QCAnalysisException("Invalid record size " + recordSize + " for version " + version);
+    }
+  }
+
+  /**
+   * Decodes every whole record in a mapped window
+   *
+   * @param buf   the mapped, little-endian records
+   * @param limit the length of the window, a multiple of the record size
+   */
+  void decode(ByteBuffer buf, int limit) {
+    for (int offset = 0; offset < limit; offset += recordSize) {
+      if (record(buf, offset)) {
+        records++;
+      }
+      else {
+        skipped++;
+      }
+    }
+  }
+
+  /**
+   * Creates an empty summary of the same file, sharing this summary's header, to decode a range of its records. Partial
+   * summaries are combined with {@link #merge(MetricsSummary)}.
+   *
+   * @return an empty summary that decodes records the same way as this one
+   */
+  protected MetricsSummary partial() {
+    MetricsSummary partial = emptyCopy();
+    partial.version = version;
+    partial.recordSize = recordSize;
+    return partial;
+  }
+
+  /**
+   * Adds the records accumulated by another summary of the same file to this one. Because every statistic is derived
+   * from the merged accumulators, the result doesn't depend on how the records were divided up.
+   *
+   * @param other a summary created by {@link #partial()}
+   */
+  public void merge(MetricsSummary other) {
+    if (other.getClass() != getClass()) {
+      throw new IllegalArgumentException("Cannot merge a " + other.getClass().getSimpleName() + " into a " + getClass().getSimpleName());
+    }
+    mergeAccumulators(other);
+    records += other.records;
+    skipped += other.skipped;
+  }
+
+  /**
+   * @return true if the records have a fixed width, so that ranges of them can be decoded independently
+   */
+  protected boolean isSplittable() {
+    return true;
+  }
+
+  /**
+   * Checks whether a file format version can be decoded
+   *
+   * @param version the version byte
+   * @return true if supported
+   */
+  protected abstract boolean supportsVersion(int version);
+
+  /**
+   * @return the smallest record size the decoder reads from
+   */
+  protected abstract int minimumRecordSize();
+
+  /**
+   * Reads the header fields after the version byte. By default this is the record size byte.
+   *
+   * @param header the start of the file
+   * @return the length of the header, i.e. the offset of the first record
+   * @throws QCAnalysisException if the header is invalid
+   */
+  protected int readHeader(ByteBuffer header) throws QCAnalysisException {
+    if (header.limit() < 2) {
+      throw new QCAnalysisException("Truncated header, with no record size");
+    }
+    recordSize = header.get(1) & 0xFF;
+    return 2;
+  }
+
+  /**
+   * Decodes and accumulates a single record
+   *
+   * @param buf    the mapped, little-endian records
+   * @param offset the offset of the record in buf
+   * @return true if the record was accumulated, false if it lies outside the run layout
+   */
+  protected abstract boolean record(ByteBuffer buf, int offset);
+
+  /**
+   * Adds the summary statistics for a lane and read to an analysis
+   *
+   * @param analysis the analysis to populate
+   * @param lane     the lane number, from 1
+   * @param read     the read
+   * @throws QCAnalysisException
+   */
+  public abstract void addTo(QCAnalysis analysis, int lane, InterOpRunInfo.Read read) throws QCAnalysisException;
+
+  /**
+   * @return a new, empty summary of the same type and run
+   */
+  protected abstract MetricsSummary emptyCopy();
+
+  /**
+   * Adds the accumulators of another summary of the same type to this one
+   *
+   * @param other the summary to merge, which is never modified
+   */
+  protected abstract void mergeAccumulators(MetricsSummary other);
+
+  /**
+   * Counts a record decoded outside {@link #readRecords(FileChannel, long, long)}
+   *
+   * @param accumulated true if the record was accumulated, false if it was skipped
+   */
+  protected void countRecord(boolean accumulated) {
+    if (accumulated) {
+      records++;
+    }
+    else {
+      skipped++;
+    }
+  }
+
+  /**
+   * @return the number of records accumulated
+   */
+  public long getRecordCount() {
+    return records;
+  }
+
+  protected boolean inRun(int lane, int cycle) {
+    return lane >= 1 && lane <= runInfo.getLaneCount() && cycle >= 1 && cycle <= runInfo.getCycleCount();
+  }
+
+  protected static int u16(ByteBuffer buf, int offset) {
+    return buf.getShort(offset) & 0xFFFF;
+  }
+
+  protected static long u32(ByteBuffer buf, int offset) {
+    return buf.getInt(offset) & 0xFFFFFFFFL;
+  }
+
+  /**
+   * Adds the per-cycle mean and standard deviation, and optionally the spread, of a series over the cycles of a read
+   */
+  protected static void addCycleStatistics(QCAnalysis analysis, String name, LaneCycleSamples samples, int series,
+                                           int lane, InterOpRunInfo.Read read, boolean spread) throws QCAnalysisException {
+    boolean typed = false;
+    for (int cycle = read.getFirstCycle(); cycle <= read.getLastCycle(); cycle++) {
+      Samples s = samples.get(lane, cycle, series);
+      if (s == null || s.size() == 0) {
+        continue;
+      }
+      if (!typed) {
+        analysis.addValueType(name + "_mean", POSITION_SCOPE);
+        analysis.addValueType(name + "_stdev", POSITION_SCOPE);
+        if (spread) {
+          for (String stat : SPREAD) {
+            analysis.addValueType(name + "_" + stat, POSITION_SCOPE);
+          }
+        }
+        typed = true;
+      }
+      addPositionValue(analysis, cycle, name + "_mean", s.mean());
+      addPositionValue(analysis, cycle, name + "_stdev", s.stdev());
+      if (spread) {
+        for (int i = 0; i < SPREAD.length; i++) {
+          addPositionValue(analysis, cycle, name + "_" + SPREAD[i], s.percentile(SPREAD_PERCENTILES[i]));
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the mean and standard deviation, and optionally the spread, of a set of per-tile samples as general values
+   */
+  protected static void addStatistics(QCAnalysis analysis, String name, Samples s, boolean spread) throws QCAnalysisException {
+    if (s == null || s.size() == 0) {
+      return;
+    }
+    addGeneralValue(analysis, name + "_mean", s.mean());
+    addGeneralValue(analysis, name + "_stdev", s.stdev());
+    if (spread) {
+      for (int i = 0; i < SPREAD.length; i++) {
+        addGeneralValue(analysis, name + "_" + SPREAD[i], s.percentile(SPREAD_PERCENTILES[i]));
+      }
+    }
+  }
+
+  protected static void addGeneralValue(QCAnalysis analysis, String name, double value) throws QCAnalysisException {
+    analysis.addValueType(name, ANALYSIS_SCOPE);
+    analysis.addGeneralValue(name, String.valueOf(value), null);
+  }
+
+  protected static void addPositionValue(QCAnalysis analysis, long position, String name, double value) throws QCAnalysisException {
+    if (analysis instanceof ColumnarQCAnalysis) {
+      ((ColumnarQCAnalysis)analysis).addPositionValue(position, name, value);
+    }
+    else {
+      analysis.addPositionValue(String.valueOf(position), name, String.valueOf(value));
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package uk.ac.tgac.statsdb.run.parser.interop;
+
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Summarises QMetricsOut.bin (versions 4 to 6). Each record holds a quality score histogram for one tile and cycle.
+ * Histograms are pooled over tiles per lane and cycle, and each cycle is summarised as qscore_mean, qscore_stdev, the
+ * qscore spread, and percent_q20/percent_q30, the percentage of base calls with a quality score of at least 20 or 30.
+ * <p/>
+ * Record layout: uint16 lane, uint16 tile, uint16 cycle, then one uint32 count per quality score, or per bin when the
+ * version 5 or 6 header declares quality bins.
+ *
+ * @since 1.2
+ */
+public class QualityMetricsSummary extends MetricsSummary {
+  private final long[][][] histograms;
+  private int[] scores;
+
+  public QualityMetricsSummary(InterOpRunInfo runInfo) {
+    super(runInfo);
+    histograms = new long[runInfo.getLaneCount() + 1][runInfo.getCycleCount() + 1][];
+  }
+
+  @Override
+  protected boolean supportsVersion(int version) {
+    return version >= 4 && version <= 6;
+  }
+
+  @Override
+  protected int minimumRecordSize() {
+    return 10;
+  }
+
+  @Override
+  protected int readHeader(ByteBuffer header) throws QCAnalysisException {
+    int length = super.readHeader(header);
+    int counts = (recordSize - 6) / 4;
+    scores = new int[Math.max(counts, 0)];
+    for (int i = 0; i < scores.length; i++) {
+      scores[i] = i + 1;
+    }
+
+    if (version >= 5) {
+      boolean binned = header.get(length++) != 0;
+      if (binned) {
+        int bins = header.get(length++) & 0xFF;
+        if (header.limit() < length + 3 * bins) {
+          throw new QCAnalysisException("Truncated quality bin header");
+        }
+        if (bins == counts) {
+          // binned histograms are indexed by bin, so score each bin by its remapped quality
+          for (int i = 0; i < bins; i++) {
+            scores[i] = header.get(length + 2 * bins + i) & 0xFF;
+          }
+        }
+        length += 3 * bins;
+      }
+    }
+    return length;
+  }
+
+  @Override
+  protected boolean record(ByteBuffer buf, int offset) {
+    int lane = u16(buf, offset);
+    int cycle = u16(buf, offset + 4);
+    if (!inRun(lane, cycle)) {
+      return false;
+    }
+    long[] histogram = histograms[lane][cycle];
+    if (histogram == null) {
+      histogram = histograms[lane][cycle] = new long[scores.length];
+    }
+    for (int i = 0, o = offset + 6; i < histogram.length; i++, o += 4) {
+      histogram[i] += u32(buf, o);
+    }
+    return true;
+  }
+
+  @Override
+  protected MetricsSummary emptyCopy() {
+    return new QualityMetricsSummary(runInfo);
+  }
+
+  @Override
+  protected MetricsSummary partial() {
+    QualityMetricsSummary partial = (QualityMetricsSummary)super.partial();
+    partial.scores = scores;
+    return partial;
+  }
+
+  @Override
+  protected void mergeAccumulators(MetricsSummary other) {
+    long[][][] o = ((QualityMetricsSummary)other).histograms;
+    for (int lane = 0; lane < histograms.length; lane++) {
+      for (int cycle = 0; cycle < histograms[lane].length; cycle++) {
+        long[] h = o[lane][cycle];
+        if (h == null) {
+          continue;
+        }
+        if (histograms[lane][cycle] == null) {
+          histograms[lane][cycle] = h.clone();
+        }
+        else {
+          for (int i = 0; i < h.length; i++) {
+            histograms[lane][cycle][i] += h[i];
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void addTo(QCAnalysis analysis, int lane, InterOpRunInfo.Read read) throws QCAnalysisException {
+    boolean typed = false;
+    for (int cycle = read.getFirstCycle(); cycle <= read.getLastCycle(); cycle++) {
+      long[] histogram = histograms[lane][cycle];
+      if (histogram == null) {
+        continue;
+      }
+
+      long total = 0L;
+      double sum = 0d;
+      double sumSq = 0d;
+      long q20 = 0L;
+      long q30 = 0L;
+      for (int i = 0; i < histogram.length; i++) {
+        long n = histogram[i];
+        total += n;
+        sum += (double)n * scores[i];
+        sumSq += (double)n * scores[i] * scores[i];
+        if (scores[i] >= 20) {
+          q20 += n;
+        }
+        if (scores[i] >= 30) {
+          q30 += n;
+        }
+      }
+      if (total == 0) {
+        continue;
+      }
+
+      if (!typed) {
+        analysis.addValueType("qscore_mean", POSITION_SCOPE);
+        analysis.addValueType("qscore_stdev", POSITION_SCOPE);
+        for (String stat : SPREAD) {
+          analysis.addValueType("qscore_" + stat, POSITION_SCOPE);
+        }
+        analysis.addValueType("percent_q20", POSITION_SCOPE);
+        analysis.addValueType("percent_q30", POSITION_SCOPE);
+        typed = true;
+      }
+
+      double mean = sum / total;
+      addPositionValue(analysis, cycle, "qscore_mean", mean);
+      addPositionValue(analysis, cycle, "qscore_stdev", Math.sqrt(Math.max(0d, sumSq / total - mean * mean)));
+      for (int i = 0; i < SPREAD.length; i++) {
+        addPositionValue(analysis, cycle, "qscore_" + SPREAD[i], percentile(histogram, total, SPREAD_PERCENTILES[i]));
+      }
+      addPositionValue(analysis, cycle, "percent_q20", 100d * q20 / total);
+      addPositionValue(analysis, cycle, "percent_q30", 100d * q30 / total);
+    }
+  }
+
+  /**
+   * Get the first quality score at which the cumulative frequency exceeds a percentile of the total
+   */
+  private int percentile(long[] histogram, long total, double p) {
+    long cumulative = 0L;
+    for (int i = 0; i < histogram.length; i++) {
+      cumulative += histogram[i];
+      if ((double)cumulative / total > p / 100d) {
+        return scores[i];
+      }
+    }
+    return scores[scores.length - 1];
+  }
+}
@@ -0,0 +1,106 @@
+package uk.ac.tgac.statsdb.run.parser.interop;
+
+import java.util.Arrays;
+
+/**
+ * A growable set of double samples, e.g. the per-tile values of one metric for one lane and cycle, with the summary
+ * statistics that the Perl InterOp module reports: mean, sample standard deviation and nearest-rank percentiles.
+ *
+ * @since 1.2
+ */
+public class Samples {
+  private double[] values = new double[8];
+  private int count = 0;
+  private double sum = 0d;
+  private boolean sorted = true;
+
+  /**
+   * Adds a sample
+   *
+   * @param value
+   */
+  public void add(double value) {
+    if (count == values.length) {
+      values = Arrays.copyOf(values, values.length * 2);
+    }
+    if (count > 0 && value < values[count - 1]) {
+      sorted = false;
+    }
+    values[count++] = value;
+    sum += value;
+  }
+
+  /**
+   * Adds all the samples of another set
+   *
+   * @param other the samples to add, which are not modified
+   */
+  public void addAll(Samples other) {
+    if (other.count == 0) {
+      return;
+    }
+    if (count + other.count > values.length) {
+      values = Arrays.copyOf(values, Math.max(values.length * 2, count + other.count));
+    }
+    if (!other.sorted || (count > 0 && other.values[0] < values[count - 1])) {
+      sorted = false;
+    }
+    System.arraycopy(other.values, 0, values, count, other.count);
+    count += other.count;
+    sum += other.sum;
+  }
+
+  /**
+   * @return the number of samples
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * @return the sum of the samples
+   */
+  public double sum() {
+    return sum;
+  }
+
+  /**
+   * @return the mean of the samples, or 0 if there are none
+   */
+  public double mean() {
+    return count == 0 ? 0d : sum / count;
+  }
+
+  /**
+   * @return the sample standard deviation, or 0 if there are fewer than two samples
+   */
+  public double stdev() {
+    if (count <= 1) {
+      return 0d;
+    }
+    double mean = mean();
+    double sq = 0d;
+    for (int i = 0; i < count; i++) {
+      double d = values[i] - mean;
+      sq += d * d;
+    }
+    return Math.sqrt(sq / (count - 1));
+  }
+
+  /**
+   * Get a nearest-rank percentile, i.e. the sample at index floor(p/100 * n) of the sorted samples
+   *
+   * @param p the percentile, from 0 to 100
+   * @return the percentile, or 0 if there are no samples
+   */
+  public double percentile(double p) {
+    if (count == 0) {
+      return 0d;
+    }
+    if (!sorted) {
+      Arrays.sort(values, 0, count);
+      sorted = true;
+    }
+    return values[Math.min(count - 1, (int)(p / 100d * count))];
+  }
+}
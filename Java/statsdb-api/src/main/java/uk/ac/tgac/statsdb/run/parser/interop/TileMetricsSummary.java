@@ -0,0 +1,90 @@
+package uk.ac.tgac.statsdb.run.parser.interop;
+
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Summarises TileMetricsOut.bin (version 2). Each record holds one coded metric for one tile: cluster density and
+ * cluster counts per lane, and phasing, prephasing and percent aligned per read. The per-tile values are summarised per
+ * lane and read as general values, e.g. densitypf_mean or percentphasing_median.
+ * <p/>
+ * Record layout: uint16 lane, uint16 tile, uint16 metric code, float32 value.
+ *
+ * @since 1.2
+ */
+public class TileMetricsSummary extends MetricsSummary {
+  private static final int MAX_CODE = 512;
+
+  private final Samples[][] samples;
+
+  public TileMetricsSummary(InterOpRunInfo runInfo) {
+    super(runInfo);
+    samples = new Samples[runInfo.getLaneCount() + 1][MAX_CODE];
+  }
+
+  @Override
+  protected boolean supportsVersion(int version) {
+    return version == 2;
+  }
+
+  @Override
+  protected int minimumRecordSize() {
+    return 10;
+  }
+
+  @Override
+  protected boolean record(ByteBuffer buf, int offset) {
+    int lane = u16(buf, offset);
+    int code = u16(buf, offset + 4);
+    float value = buf.getFloat(offset + 6);
+    if (lane < 1 || lane > runInfo.getLaneCount() || code >= MAX_CODE || Float.isNaN(value)) {
+      return false;
+    }
+    Samples s = samples[lane][code];
+    if (s == null) {
+      s = samples[lane][code] = new Samples();
+    }
+    // as per the Perl module, negative values are treated as zero
+    s.add(Math.max(0f, value));
+    return true;
+  }
+
+  @Override
+  protected MetricsSummary emptyCopy() {
+    return new TileMetricsSummary(runInfo);
+  }
+
+  @Override
+  protected void mergeAccumulators(MetricsSummary other) {
+    Samples[][] o = ((TileMetricsSummary)other).samples;
+    for (int lane = 0; lane < samples.length; lane++) {
+      for (int code = 0; code < MAX_CODE; code++) {
+        if (o[lane][code] != null) {
+          if (samples[lane][code] == null) {
+            samples[lane][code] = new Samples();
+          }
+          samples[lane][code].addAll(o[lane][code]);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void addTo(QCAnalysis analysis, int lane, InterOpRunInfo.Read read) throws QCAnalysisException {
+    Samples[] codes = samples[lane];
+    int r = read.getNumber();
+    addStatistics(analysis, "density", codes[100], false);
+    addStatistics(analysis, "densitypf", codes[101], false);
+    addStatistics(analysis, "clusters", codes[102], false);
+    addStatistics(analysis, "clusterspf", codes[103], false);
+    if (200 + (r - 1) * 2 + 1 < MAX_CODE) {
+      addStatistics(analysis, "percentphasing", codes[200 + (r - 1) * 2], true);
+      addStatistics(analysis, "percentprephasing", codes[201 + (r - 1) * 2], true);
+    }
+    if (300 + r - 1 < MAX_CODE) {
+      addStatistics(analysis, "percentaligned", codes[300 + r - 1], false);
+    }
+  }
+}
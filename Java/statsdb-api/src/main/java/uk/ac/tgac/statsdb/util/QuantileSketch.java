@@ -0,0 +1,315 @@
+package uk.ac.tgac.statsdb.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A mergeable, fixed-size summary of a distribution of doubles that estimates its quantiles, in the style of Dunning's
+ * merging t-digest. Values are buffered and periodically merged into a sorted list of weighted centroids, whose sizes are
+ * bounded by the arcsine scale function, so that centroids near the tails stay small and extreme quantiles stay accurate.
+ * A sketch holds at most around 2 * compression centroids however many values are added to it, and two sketches can be
+ * merged into one that summarises both distributions.
+ * <p/>
+ * Distributions of up to around compression / 2 values are held exactly. Quantiles are interpolated linearly between
+ * centroid centres, and between the extreme centroids and the exact minimum and maximum.
+ * <p/>
+ * Sketches are serialised with {@link #toBytes()} for storage in the value_sketch table. Instances are not thread-safe.
+ *
+ * @since 1.2
+ */
+public class QuantileSketch {
+  public static final double DEFAULT_COMPRESSION = 100d;
+
+  private static final byte FORMAT_VERSION = 1;
+
+  private final double compression;
+  private double[] means;
+  private double[] weights;
+  private int centroids = 0;
+  private double[] buffer;
+  private int buffered = 0;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Creates an empty sketch with the default compression
+   */
+  public QuantileSketch() {
+    this(DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Creates an empty sketch
+   *
+   * @param compression the accuracy of the sketch. Larger values keep more centroids.
+   */
+  public QuantileSketch(double compression) {
+    if (!(compression >= 10d)) {
+      throw new IllegalArgumentException("Compression must be at least 10");
+    }
+    this.compression = compression;
+    int capacity = (int)Math.ceil(2 * compression) + 10;
+    this.means = new double[capacity];
+    this.weights = new double[capacity];
+    this.buffer = new double[5 * capacity];
+  }
+
+  /**
+   * Adds a value
+   *
+   * @param value the value, which must not be NaN
+   */
+  public void add(double value) {
+    if (Double.isNaN(value)) {
+      throw new IllegalArgumentException("Cannot add NaN to a quantile sketch");
+    }
+    if (buffered == buffer.length) {
+      compress();
+    }
+    buffer[buffered++] = value;
+    if (value < min) {
+      min = value;
+    }
+    if (value > max) {
+      max = value;
+    }
+  }
+
+  /**
+   * Adds all the values summarised by another sketch
+   *
+   * @param other the sketch to merge, which is not modified
+   */
+  public void merge(QuantileSketch other) {
+    if (other.isEmpty()) {
+      return;
+    }
+    double[] otherBuffer = Arrays.copyOf(other.buffer, other.buffered);
+    Arrays.sort(otherBuffer);
+    double[][] incoming = mergeSorted(other.means, other.weights, other.centroids, otherBuffer, otherBuffer.length);
+    compress(incoming[0], incoming[1], incoming[0].length);
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  /**
+   * @return true if no values have been added
+   */
+  public boolean isEmpty() {
+    return centroids == 0 && buffered == 0;
+  }
+
+  /**
+   * @return the number of values added
+   */
+  public long getCount() {
+    double count = buffered;
+    for (int i = 0; i < centroids; i++) {
+      count += weights[i];
+    }
+    return Math.round(count);
+  }
+
+  /**
+   * @return the smallest value added, or NaN if the sketch is empty
+   */
+  public double getMin() {
+    return isEmpty() ? Double.NaN : min;
+  }
+
+  /**
+   * @return the largest value added, or NaN if the sketch is empty
+   */
+  public double getMax() {
+    return isEmpty() ? Double.NaN : max;
+  }
+
+  /**
+   * @return the compression this sketch was created with
+   */
+  public double getCompression() {
+    return compression;
+  }
+
+  /**
+   * Estimates a quantile of the values added
+   *
+   * @param q the quantile, from 0 to 1, e.g. 0.5 for the median
+   * @return the estimated quantile, or NaN if the sketch is empty
+   */
+  public double quantile(double q) {
+    if (!(q >= 0d && q <= 1d)) {
+      throw new IllegalArgumentException("Quantile must be between 0 and 1: " + q);
+    }
+    compress();
+    if (centroids == 0) {
+      return Double.NaN;
+    }
+    if (centroids == 1 && weights[0] == 1d) {
+      return means[0];
+    }
+
+    double total = 0d;
+    for (int i = 0; i < centroids; i++) {
+      total += weights[i];
+    }
+    double index = q * total;
+
+    // interpolate between (0, min), the centre of each centroid, and (total, max)
+    double leftWeight = 0d;
+    double leftValue = min;
+    double cumulative = 0d;
+    for (int i = 0; i < centroids; i++) {
+      double centre = cumulative + weights[i] / 2d;
+      if (index <= centre) {
+        return interpolate(leftWeight, leftValue, centre, means[i], index);
+      }
+      leftWeight = centre;
+      leftValue = means[i];
+      cumulative += weights[i];
+    }
+    return interpolate(leftWeight, leftValue, total, max, index);
+  }
+
+  /**
+   * Serialises the sketch
+   *
+   * @return the serialised sketch
+   */
+  public byte[] toBytes() {
+    compress();
+    ByteBuffer buf = ByteBuffer.allocate(1 + 8 + 4 + 16 + 16 * centroids);
+    buf.put(FORMAT_VERSION).putDouble(compression).putInt(centroids).putDouble(min).putDouble(max);
+    for (int i = 0; i < centroids; i++) {
+      buf.putDouble(means[i]).putDouble(weights[i]);
+    }
+    return buf.array();
+  }
+
+  /**
+   * Deserialises a sketch written by {@link #toBytes()}
+   *
+   * @param bytes the serialised sketch
+   * @return the sketch
+   */
+  public static QuantileSketch fromBytes(byte[] bytes) {
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    if (bytes.length < 29 || buf.get() != FORMAT_VERSION) {
+      throw new IllegalArgumentException("Not a serialised quantile sketch");
+    }
+    QuantileSketch sketch = new QuantileSketch(buf.getDouble());
+    int n = buf.getInt();
+    if (n < 0 || buf.remaining() != 16 + 16 * n) {
+      throw new IllegalArgumentException("Truncated quantile sketch");
+    }
+    sketch.min = buf.getDouble();
+    sketch.max = buf.getDouble();
+    sketch.ensureCapacity(n);
+    for (int i = 0; i < n; i++) {
+      sketch.means[i] = buf.getDouble();
+      sketch.weights[i] = buf.getDouble();
+    }
+    sketch.centroids = n;
+    return sketch;
+  }
+
+  private void compress() {
+    compress(null, null, 0);
+  }
+
+  /**
+   * Merges the buffered values and a sorted list of incoming centroids into the centroids of this sketch
+   */
+  private void compress(double[] inMeans, double[] inWeights, int in) {
+    if (buffered == 0 && in == 0) {
+      return;
+    }
+    Arrays.sort(buffer, 0, buffered);
+    double[][] merged = mergeSorted(means, weights, centroids, buffer, buffered);
+    if (in > 0) {
+      merged = mergeSorted(merged[0], merged[1], merged[0].length, inMeans, inWeights, in);
+    }
+    buffered = 0;
+
+    double[] m = merged[0];
+    double[] w = merged[1];
+    double total = 0d;
+    for (double weight : w) {
+      total += weight;
+    }
+
+    int n = 0;
+    double currentMean = m[0];
+    double currentWeight = w[0];
+    double weightBefore = 0d;
+    double kLeft = k(0d);
+    for (int i = 1; i < m.length; i++) {
+      if (k((weightBefore + currentWeight + w[i]) / total) - kLeft <= 1d) {
+        currentWeight += w[i];
+        currentMean += (m[i] - currentMean) * w[i] / currentWeight;
+      }
+      else {
+        n = emit(n, currentMean, currentWeight);
+        weightBefore += currentWeight;
+        kLeft = k(weightBefore / total);
+        currentMean = m[i];
+        currentWeight = w[i];
+      }
+    }
+    centroids = emit(n, currentMean, currentWeight);
+  }
+
+  private int emit(int n, double mean, double weight) {
+    ensureCapacity(n + 1);
+    means[n] = mean;
+    weights[n] = weight;
+    return n + 1;
+  }
+
+  private void ensureCapacity(int n) {
+    if (n > means.length) {
+      int capacity = Math.max(n, means.length * 2);
+      means = Arrays.copyOf(means, capacity);
+      weights = Arrays.copyOf(weights, capacity);
+    }
+  }
+
+  /**
+   * The arcsine scale function, which bounds each centroid to a unit step in k
+   */
+  private double k(double q) {
+    return compression / (2 * Math.PI) * Math.asin(2 * Math.min(1d, Math.max(0d, q)) - 1);
+  }
+
+  private static double interpolate(double x0, double y0, double x1, double y1, double x) {
+    if (x1 <= x0) {
+      return y1;
+    }
+    return y0 + (y1 - y0) * (x - x0) / (x1 - x0);
+  }
+
+  private static double[][] mergeSorted(double[] m, double[] w, int n, double[] values, int count) {
+    double[] ones = new double[count];
+    Arrays.fill(ones, 1d);
+    return mergeSorted(m, w, n, values, ones, count);
+  }
+
+  private static double[][] mergeSorted(double[] m1, double[] w1, int n1, double[] m2, double[] w2, int n2) {
+    double[] m = new double[n1 + n2];
+    double[] w = new double[n1 + n2];
+    int i = 0;
+    int j = 0;
+    int o = 0;
+    while (i < n1 || j < n2) {
+      if (j >= n2 || (i < n1 && m1[i] <= m2[j])) {
+        m[o] = m1[i];
+        w[o++] = w1[i++];
+      }
+      else {
+        m[o] = m2[j];
+        w[o++] = w2[j++];
+      }
+    }
+    return new double[][]{m, w};
+  }
+}
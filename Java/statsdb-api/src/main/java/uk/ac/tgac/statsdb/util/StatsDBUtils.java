@@ -4,8 +4,6 @@ import uk.ac.tgac.statsdb.exception.QCAnalysisException;
 
 import java.util.AbstractMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Helper class containing any StatsDB general handy constants and functions
@@ -16,14 +14,17 @@ import java.util.regex.Pattern;
  */
 public class StatsDBUtils {
   /**
-   * Regular expression representing a valid range string
+   * Exact powers of ten, for the correctly rounded fast path of {@link #parseDouble(CharSequence, int, int)}
    */
-  private static final Pattern rangeSpan = Pattern.compile("([0-9]+)-([0-9]+)");
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
 
   /**
-   * Regular expression representing a valid point number
+   * Largest mantissa that a double holds exactly, 2^53
    */
-  private static final Pattern rangePoint = Pattern.compile("([0-9]+)");
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
 
   /**
    * Convert a string object representing a range of numbers separated by a hyphen into two numbers
@@ -36,24 +37,185 @@ public class StatsDBUtils {
    */
   public static Map.Entry<Long, Long> parseRange(String range) throws QCAnalysisException {
     if (range != null) {
-      long min = 0L;
-      long max = 0L;
-      Matcher m = rangeSpan.matcher(range);
-      if (m.matches()) {
-        min = Long.parseLong(m.group(1));
-        max = Long.parseLong(m.group(2));
+      long[] bounds = new long[2];
+      parseRange(range, 0, range.length(), bounds);
+      return new AbstractMap.SimpleImmutableEntry<>(bounds[0], bounds[1]);
+    }
+    else {
+      throw new QCAnalysisException("Null range supplied to range parse.");
+    }
+  }
+
+  /**
+   * Parses a range of the form 'a-b', or a single number 'a', from a slice of a character sequence without
+   * allocating. The bounds are written in the order they appear, i.e. '142-32' gives 142 then 32.
+   *
+   * @param s      the characters to parse
+   * @param start  the index of the first character of the range
+   * @param end    the index after the last character of the range
+   * @param bounds a two element array to receive the first and second bounds
+   * @throws QCAnalysisException when the slice isn't a valid range string
+   */
+  public static void parseRange(CharSequence s, int start, int end, long[] bounds) throws QCAnalysisException {
+    int hyphen = -1;
+    for (int i = start; i < end; i++) {
+      if (s.charAt(i) == '-') {
+        hyphen = i;
+        break;
+      }
+    }
+    long from = hyphen < 0 ? parseDigits(s, start, end) : parseDigits(s, start, hyphen);
+    long to = hyphen < 0 ? from : parseDigits(s, hyphen + 1, end);
+    if (from < 0 || to < 0) {
+      throw new QCAnalysisException("Invalid range string '" + s.subSequence(start, end) + "'. Needs to be of the form 'a-b'");
+    }
+    bounds[0] = from;
+    bounds[1] = to;
+  }
+
+  /**
+   * Parses a position made of digits and '+' characters, such as the '10++' bucket of a FastQC table, ignoring the
+   * '+' characters and without allocating
+   *
+   * @param s     the characters to parse
+   * @param start the index of the first character of the position
+   * @param end   the index after the last character of the position
+   * @return the position, or -1 if the slice has no digits, has any other character, or overflows a long
+   */
+  public static long parsePosition(CharSequence s, int start, int end) {
+    long value = 0L;
+    boolean digits = false;
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (c >= '0' && c <= '9') {
+        int d = c - '0';
+        if (value > (Long.MAX_VALUE - d) / 10) {
+          return -1L;
+        }
+        value = value * 10 + d;
+        digits = true;
+      }
+      else if (c != '+') {
+        return -1L;
+      }
+    }
+    return digits ? value : -1L;
+  }
+
+  /**
+   * Parses a decimal number from a slice of a character sequence. Plain decimal and scientific notation values with
+   * up to 15 or so significant digits, which covers every metric written by the supported QC tools, are converted
+   * without allocating and with the same, correctly rounded, result as {@link Double#parseDouble(String)}. Anything
+   * else, such as NaN, Infinity or very long mantissas, is passed on to Double.parseDouble.
+   *
+   * @param s     the characters to parse
+   * @param start the index of the first character of the number
+   * @param end   the index after the last character of the number
+   * @return the parsed double
+   * @throws NumberFormatException if the slice isn't a number
+   */
+  public static double parseDouble(CharSequence s, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+      negative = s.charAt(i) == '-';
+      i++;
+    }
+
+    long mantissa = 0L;
+    int significant = 0;
+    int exponent = 0;
+    boolean digits = false;
+    boolean exact = true;
+    for (; i < end; i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        break;
       }
-      else if (rangePoint.matcher(range).matches()) {
-        min = max = Long.parseLong(range);
+      digits = true;
+      if (significant < 18) {
+        mantissa = mantissa * 10 + (c - '0');
+        if (mantissa != 0) {
+          significant++;
+        }
       }
       else {
-        throw new QCAnalysisException("Invalid range string '"+range+"'. Needs to be of the form 'a-b'");
+        exponent++;
+        exact = false;
       }
-      return new AbstractMap.SimpleImmutableEntry<>(min, max);
     }
-    else {
-      throw new QCAnalysisException("Null range supplied to range parse.");
+    if (i < end && s.charAt(i) == '.') {
+      for (i++; i < end; i++) {
+        char c = s.charAt(i);
+        if (c < '0' || c > '9') {
+          break;
+        }
+        digits = true;
+        if (significant < 18) {
+          mantissa = mantissa * 10 + (c - '0');
+          if (mantissa != 0) {
+            significant++;
+          }
+          exponent--;
+        }
+        else {
+          exact = false;
+        }
+      }
+    }
+    if (digits && i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+      i++;
+      boolean negativeExponent = false;
+      if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+        negativeExponent = s.charAt(i) == '-';
+        i++;
+      }
+      int e = 0;
+      boolean exponentDigits = false;
+      for (; i < end; i++) {
+        char c = s.charAt(i);
+        if (c < '0' || c > '9') {
+          break;
+        }
+        exponentDigits = true;
+        if (e < 10000) {
+          e = e * 10 + (c - '0');
+        }
+      }
+      digits = exponentDigits;
+      exponent += negativeExponent ? -e : e;
+    }
+
+    if (!digits || i != end || !exact || mantissa >= MAX_EXACT_MANTISSA
+        || exponent < -22 || exponent > 22) {
+      return Double.parseDouble(s.subSequence(start, end).toString());
+    }
+    double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parses an unsigned run of digits
+   *
+   * @return the value, or -1 if the slice is empty, has a non-digit character, or overflows a long
+   */
+  private static long parseDigits(CharSequence s, int start, int end) {
+    if (start >= end) {
+      return -1L;
+    }
+    long value = 0L;
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1L;
+      }
+      int d = c - '0';
+      if (value > (Long.MAX_VALUE - d) / 10) {
+        return -1L;
+      }
+      value = value * 10 + d;
     }
+    return value;
   }
 
   /**
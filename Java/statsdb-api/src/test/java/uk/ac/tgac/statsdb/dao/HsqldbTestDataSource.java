@@ -0,0 +1,35 @@
+package uk.ac.tgac.statsdb.dao;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+
+/**
+ * Creates in-memory HSQLDB databases populated with the StatsDB test schema
+ *
+ * @since 1.2
+ */
+public class HsqldbTestDataSource {
+  /**
+   * Creates a DataSource for a named in-memory database, (re)creating the StatsDB schema in it. The database uses
+   * MVCC transactions so that concurrent writers don't block readers.
+   *
+   * @param name the in-memory database name
+   * @return the DataSource
+   */
+  public static DataSource create(String name) {
+    DriverManagerDataSource dataSource = new DriverManagerDataSource();
+    dataSource.setDriverClassName("org.hsqldb.jdbc.JDBCDriver");
+    dataSource.setUrl("jdbc:hsqldb:mem:" + name + ";hsqldb.tx=mvcc");
+    dataSource.setUsername("sa");
+    dataSource.setPassword("");
+
+    ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
+    populator.addScript(new ClassPathResource("hsqldb_statsdb_schema.sql"));
+    DatabasePopulatorUtils.execute(populator, dataSource);
+    return dataSource;
+  }
+}
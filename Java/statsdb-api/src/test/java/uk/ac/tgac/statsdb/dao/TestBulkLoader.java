@@ -0,0 +1,157 @@
+package uk.ac.tgac.statsdb.dao;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import uk.ac.tgac.statsdb.analysis.ColumnarQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests bulk loading through staging files into an in-memory HSQLDB copy of the StatsDB schema, which takes the JDBC
+ * batch fallback rather than LOAD DATA
+ *
+ * @since 1.2
+ */
+public class TestBulkLoader {
+  protected static final Logger log = LoggerFactory.getLogger(TestBulkLoader.class);
+
+  private static final String AWKWARD = "tab\there, new\nline, back\\slash \\N";
+
+  private static JdbcTemplate template;
+  private static QCAnalysisDAO dao;
+  private static BulkLoader loader;
+  private static File staging;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    log.info("Initial setup...");
+    DataSource dataSource = HsqldbTestDataSource.create("bulk");
+    template = new JdbcTemplate(dataSource);
+    dao = new QCAnalysisDAO();
+    dao.setJdbcTemplate(template);
+    dao.setTransactionManager(new DataSourceTransactionManager(dataSource));
+
+    staging = File.createTempFile("statsdb-staging", "");
+    Assert.assertTrue(staging.delete() && staging.mkdir());
+    loader = new BulkLoader(template, dao.getValueTypeDictionary());
+    loader.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    loader.setStagingDirectory(staging);
+    loader.setBatchSize(7);
+  }
+
+  private static QCAnalysis analysis(int lane, boolean columnar) throws QCAnalysisException {
+    QCAnalysis analysis = columnar ? new ColumnarQCAnalysis() : new DefaultQCAnalysis();
+    analysis.addProperty("run", "RUN_BULK");
+    analysis.addProperty("lane", String.valueOf(lane));
+    analysis.addProperty("comment", AWKWARD);
+    analysis.addValueType("quality_mean", "base_partition");
+    analysis.addValueType("base_content_a", "base_partition");
+    analysis.addValueType("total_sequences", "analysis");
+    analysis.addPartitionValue("1-5", "quality_mean", "30.5");
+    analysis.addPartitionValue("6-10", "quality_mean", "31.5");
+    for (int position = 1; position <= 20; position++) {
+      analysis.addPositionValue(String.valueOf(position), "base_content_a", String.valueOf(lane + position / 4d));
+    }
+    analysis.addGeneralValue("total_sequences", String.valueOf(1000 * lane), null);
+    return analysis;
+  }
+
+  private static int count(String table) {
+    return template.queryForInt("SELECT COUNT(*) FROM " + table);
+  }
+
+  @Test
+  public void loadsAChunk() throws QCAnalysisException {
+    int analyses = count("analysis");
+    List<QCAnalysis> chunk = Arrays.asList(analysis(1, false), analysis(2, true), analysis(3, false));
+    loader.load(chunk);
+
+    long first = chunk.get(0).getId();
+    Assert.assertTrue(first > 0L);
+    Assert.assertEquals(first + 1, chunk.get(1).getId());
+    Assert.assertEquals(first + 2, chunk.get(2).getId());
+    Assert.assertEquals(analyses + 3, count("analysis"));
+
+    for (QCAnalysis analysis : chunk) {
+      Assert.assertEquals(3, template.queryForInt("SELECT COUNT(*) FROM analysis_property WHERE analysis_id = ?", analysis.getId()));
+      Assert.assertEquals(1, template.queryForInt("SELECT COUNT(*) FROM analysis_value WHERE analysis_id = ?", analysis.getId()));
+      Assert.assertEquals(2, template.queryForInt("SELECT COUNT(*) FROM per_partition_value WHERE analysis_id = ?", analysis.getId()));
+      Assert.assertEquals(20, template.queryForInt("SELECT COUNT(*) FROM per_position_value WHERE analysis_id = ?", analysis.getId()));
+    }
+    Assert.assertEquals(AWKWARD, template.queryForObject(
+        "SELECT value FROM analysis_property WHERE analysis_id = ? AND property = 'comment'", String.class, first + 1));
+    Assert.assertEquals(2d + 20 / 4d, template.queryForObject(
+        "SELECT value FROM per_position_value WHERE analysis_id = ? AND position = 20", Double.class, first + 1), 0d);
+    Assert.assertEquals(5L, template.queryForLong(
+        "SELECT size FROM per_partition_value WHERE analysis_id = ? AND position = 6", first + 2));
+    Assert.assertEquals(3000d, template.queryForObject(
+        "SELECT value FROM analysis_value WHERE analysis_id = ?", Double.class, first + 2), 0d);
+
+    BulkLoadStatistics statistics = loader.getStatistics();
+    Assert.assertTrue(statistics.getChunkCount() >= 1L);
+    Assert.assertTrue(statistics.getValueRowCount() >= 3 * (1 + 2 + 20));
+    Assert.assertEquals(0, staging.list().length);
+  }
+
+  @Test
+  public void insertsAfterABulkLoadGetNewIds() throws QCAnalysisException {
+    List<QCAnalysis> chunk = Arrays.asList(analysis(4, true), analysis(5, true));
+    loader.load(chunk);
+
+    QCAnalysis inserted = analysis(6, false);
+    dao.insertAnalysis(inserted);
+    Assert.assertTrue(inserted.getId() > chunk.get(1).getId());
+
+    List<QCAnalysis> next = Arrays.asList(analysis(7, false));
+    loader.load(next);
+    Assert.assertEquals(inserted.getId() + 1, next.get(0).getId());
+  }
+
+  @Test
+  public void failedChunksAreRolledBack() throws QCAnalysisException {
+    int analyses = count("analysis");
+    int positions = count("per_position_value");
+
+    QCAnalysis bad = analysis(8, false);
+    bad.addGeneralValue("total_sequences", "not a number", null);
+    List<QCAnalysis> chunk = Arrays.asList(analysis(9, true), bad);
+    try {
+      loader.load(chunk);
+      Assert.fail("Loaded a non-numeric value");
+    }
+    catch (QCAnalysisException e) {
+      // expected
+    }
+    Assert.assertEquals(0L, chunk.get(0).getId());
+    Assert.assertEquals(analyses, count("analysis"));
+    Assert.assertEquals(positions, count("per_position_value"));
+    Assert.assertEquals(0, staging.list().length);
+  }
+
+  @Test
+  public void unescapesStagedRows() {
+    Assert.assertEquals(Arrays.asList("1", null, "a\tb\\c\nd", ""),
+                        Arrays.asList(BulkLoader.unescapeRow("1\t\\N\ta\\tb\\\\c\\nd\t", 4)));
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    log.info("Final teardown...");
+    template.execute("SHUTDOWN");
+    template = null;
+    staging.delete();
+  }
+}
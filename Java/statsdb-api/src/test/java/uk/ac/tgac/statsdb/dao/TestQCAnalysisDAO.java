@@ -0,0 +1,278 @@
+package uk.ac.tgac.statsdb.dao;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import uk.ac.tgac.statsdb.analysis.AnalysisFingerprint;
+import uk.ac.tgac.statsdb.analysis.ColumnarQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.run.parser.FastQCReportParser;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Tests the QCAnalysisDAO write path against an in-memory HSQLDB copy of the StatsDB schema, checks that failed
+ * insertions are rolled back, that a shared value type dictionary avoids repeated lookups and that columnar analyses
+ * store the same values as default ones, that re-ingested analyses are skipped or replaced by their fingerprints, and
+ * that the run identity is kept in step with the properties. Loader throughput is measured by QCAnalysisDAOBenchmark
+ * in statsdb-benchmarks.
+ *
+ * @since 1.2
+ */
+public class TestQCAnalysisDAO {
+  protected static final Logger log = LoggerFactory.getLogger(TestQCAnalysisDAO.class);
+
+  private static JdbcTemplate template;
+  private static DataSourceTransactionManager transactionManager;
+  private static File f;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    log.info("Initial setup...");
+    DataSource dataSource = HsqldbTestDataSource.create("statsdb");
+    template = new JdbcTemplate(dataSource);
+    transactionManager = new DataSourceTransactionManager(dataSource);
+
+    URL furl = TestQCAnalysisDAO.class.getResource("/fastqc_data.txt");
+    if (furl == null) {
+      throw new IOException("No such file 'fastqc_data.txt'. Cannot run DAO tests");
+    }
+    else {
+      f = new File(URI.create(furl.toString()));
+    }
+  }
+
+  @Test
+  public void insertAnalysis() throws QCAnalysisException {
+    QCAnalysisDAO dao = newDAO(QCAnalysisDAO.DEFAULT_BATCH_SIZE);
+    QCAnalysis analysis = parseReport();
+    dao.insertAnalysis(analysis);
+
+    Assert.assertEquals(analysis.getProperties().size(), countRows("analysis_property", analysis.getId()));
+    Assert.assertEquals(analysis.getPartitionValues().size(), countRows("per_partition_value", analysis.getId()));
+    Assert.assertEquals(analysis.getPositionValues().size(), countRows("per_position_value", analysis.getId()));
+  }
+
+  @Test
+  public void insertAnalysisRollsBack() throws QCAnalysisException {
+    QCAnalysisDAO dao = newDAO(QCAnalysisDAO.DEFAULT_BATCH_SIZE);
+    QCAnalysis analysis = parseReport();
+    // analysis_property.value is a VARCHAR(500), so this fails after the analysis row has been written
+    char[] tooLong = new char[501];
+    Arrays.fill(tooLong, 'A');
+    analysis.addProperty("sample_name", new String(tooLong));
+
+    int analyses = template.queryForInt("SELECT COUNT(*) FROM analysis");
+    try {
+      dao.insertAnalysis(analysis);
+      Assert.fail("Insertion of an analysis with an oversized property should fail");
+    }
+    catch (DataAccessException e) {
+      log.info("Insertion failed as expected: " + e.getMessage());
+    }
+    Assert.assertEquals(0, analysis.getId());
+    Assert.assertEquals(analyses, template.queryForInt("SELECT COUNT(*) FROM analysis"));
+  }
+
+  @Test
+  public void sharedValueTypeDictionary() throws QCAnalysisException {
+    ValueTypeDictionary dictionary = new ValueTypeDictionary(template);
+    dictionary.setTransactionManager(transactionManager);
+    dictionary.preload();
+
+    QCAnalysisDAO first = newDAO(QCAnalysisDAO.DEFAULT_BATCH_SIZE);
+    first.setValueTypeDictionary(dictionary);
+    QCAnalysisDAO second = newDAO(QCAnalysisDAO.DEFAULT_BATCH_SIZE);
+    second.setValueTypeDictionary(dictionary);
+
+    first.insertAnalysis(parseReport());
+    long misses = dictionary.getMissCount();
+    second.insertAnalysis(parseReport());
+
+    // every value type was resolved by the first insert, so the second one is answered from the cache
+    Assert.assertEquals(misses, dictionary.getMissCount());
+    Assert.assertTrue(dictionary.getHitCount() > 0);
+    Assert.assertEquals(0, template.queryForInt(
+        "SELECT COUNT(*) FROM (SELECT type_scope_id, description FROM value_type " +
+        "GROUP BY type_scope_id, description HAVING COUNT(*) > 1) d"));
+  }
+
+  @Test
+  public void insertColumnarAnalysis() throws QCAnalysisException {
+    QCAnalysisDAO dao = newDAO(100);
+    QCAnalysis expected = parseReport(new DefaultQCAnalysis());
+    ColumnarQCAnalysis analysis = (ColumnarQCAnalysis)parseReport(new ColumnarQCAnalysis());
+    analysis.trimToSize();
+    Assert.assertEquals(expected.getPartitionValues().size(), analysis.getPartitionValueCount());
+    Assert.assertEquals(expected.getPositionValues().size(), analysis.getPositionValueCount());
+
+    dao.insertAnalysis(analysis);
+    dao.insertAnalysis(expected);
+    Assert.assertEquals(analysis.getPartitionValueCount(), countRows("per_partition_value", analysis.getId()));
+    Assert.assertEquals(analysis.getPositionValueCount(), countRows("per_position_value", analysis.getId()));
+    for (String table : Arrays.asList("per_partition_value", "per_position_value")) {
+      Assert.assertEquals(valueChecksum(table, expected.getId()), valueChecksum(table, analysis.getId()), 1e-6);
+    }
+  }
+
+  @Test
+  public void fingerprintAnalysis() throws QCAnalysisException {
+    QCAnalysis analysis = parseReport(new DefaultQCAnalysis());
+    QCAnalysis columnar = parseReport(new ColumnarQCAnalysis());
+    Assert.assertEquals(AnalysisFingerprint.identityOf(analysis), AnalysisFingerprint.identityOf(columnar));
+    Assert.assertEquals(AnalysisFingerprint.contentOf(analysis), AnalysisFingerprint.contentOf(columnar));
+
+    columnar.addProperty("lane", "2");
+    Assert.assertFalse(AnalysisFingerprint.identityOf(analysis).equals(AnalysisFingerprint.identityOf(columnar)));
+    Assert.assertFalse(AnalysisFingerprint.contentOf(analysis).equals(AnalysisFingerprint.contentOf(columnar)));
+
+    // the report path isn't content, so the same report copied elsewhere is still a duplicate
+    QCAnalysis moved = parseReport(new DefaultQCAnalysis());
+    moved.addProperty("path_to_analysis", "/elsewhere/fastqc_data.txt");
+    Assert.assertEquals(AnalysisFingerprint.contentOf(analysis), AnalysisFingerprint.contentOf(moved));
+
+    Assert.assertNull(AnalysisFingerprint.identityOf(new DefaultQCAnalysis()));
+  }
+
+  @Test
+  public void reinsertSkipsIdenticalAnalysis() throws QCAnalysisException {
+    QCAnalysisDAO dao = newDAO(QCAnalysisDAO.DEFAULT_BATCH_SIZE);
+    dao.setDuplicatePolicy(DuplicatePolicy.REPLACE);
+    QCAnalysis first = parseReport("RUN_SKIP", new DefaultQCAnalysis());
+    dao.insertAnalysis(first);
+    int analyses = template.queryForInt("SELECT COUNT(*) FROM analysis");
+
+    QCAnalysis again = parseReport("RUN_SKIP", new ColumnarQCAnalysis());
+    dao.insertAnalysis(again);
+    Assert.assertEquals(first.getId(), again.getId());
+    Assert.assertEquals(analyses, template.queryForInt("SELECT COUNT(*) FROM analysis"));
+    Assert.assertEquals(1L, dao.getSkippedCount());
+    Assert.assertEquals(0L, dao.getReplacedCount());
+
+    // a skipping DAO keeps the stored analysis even if the content has changed
+    dao.setDuplicatePolicy(DuplicatePolicy.SKIP);
+    QCAnalysis changed = parseReport("RUN_SKIP", new DefaultQCAnalysis());
+    changed.addProperty("encoding", "Illumina 1.9");
+    dao.insertAnalysis(changed);
+    Assert.assertEquals(first.getId(), changed.getId());
+    Assert.assertEquals(analyses, template.queryForInt("SELECT COUNT(*) FROM analysis"));
+  }
+
+  @Test
+  public void reinsertReplacesChangedAnalysis() throws QCAnalysisException {
+    QCAnalysisDAO dao = newDAO(QCAnalysisDAO.DEFAULT_BATCH_SIZE);
+    dao.setDuplicatePolicy(DuplicatePolicy.REPLACE);
+    QCAnalysis first = parseReport("RUN_REPLACE", new DefaultQCAnalysis());
+    dao.insertAnalysis(first);
+    int analyses = template.queryForInt("SELECT COUNT(*) FROM analysis");
+
+    QCAnalysis changed = parseReport("RUN_REPLACE", new DefaultQCAnalysis());
+    changed.addProperty("encoding", "Illumina 1.9");
+    dao.insertAnalysis(changed);
+    Assert.assertFalse(first.getId() == changed.getId());
+    Assert.assertEquals(analyses, template.queryForInt("SELECT COUNT(*) FROM analysis"));
+    Assert.assertEquals(0, template.queryForInt("SELECT COUNT(*) FROM analysis WHERE id = ?", first.getId()));
+    Assert.assertEquals(0, countRows("per_position_value", first.getId()));
+    Assert.assertEquals(changed.getPositionValues().size(), countRows("per_position_value", changed.getId()));
+    Assert.assertEquals(changed.getId(), template.queryForLong(
+        "SELECT analysis_id FROM analysis_fingerprint WHERE identity = ?", AnalysisFingerprint.identityOf(changed)));
+    Assert.assertEquals(1L, dao.getReplacedCount());
+  }
+
+  @Test(expected = DuplicateKeyException.class)
+  public void uniqueIdentity() throws QCAnalysisException {
+    QCAnalysisDAO dao = newDAO(QCAnalysisDAO.DEFAULT_BATCH_SIZE);
+    dao.setDuplicatePolicy(DuplicatePolicy.SKIP);
+    QCAnalysis analysis = parseReport("RUN_UNIQUE", new DefaultQCAnalysis());
+    dao.insertAnalysis(analysis);
+
+    // a second analysis of the same identity can't be stored, whoever writes it
+    QCAnalysisDAO legacy = newDAO(QCAnalysisDAO.DEFAULT_BATCH_SIZE);
+    QCAnalysis duplicate = parseReport("RUN_UNIQUE", new DefaultQCAnalysis());
+    legacy.insertAnalysis(duplicate);
+    template.update("INSERT INTO analysis_fingerprint (analysis_id, identity, fingerprint) VALUES (?, ?, ?)",
+                    duplicate.getId(), AnalysisFingerprint.identityOf(duplicate), AnalysisFingerprint.contentOf(duplicate));
+  }
+
+  @Test
+  public void runIdentityFollowsProperties() throws QCAnalysisException {
+    QCAnalysisDAO dao = newDAO(QCAnalysisDAO.DEFAULT_BATCH_SIZE);
+    QCAnalysis analysis = parseReport("RUN_IDENTITY", new DefaultQCAnalysis());
+    dao.insertAnalysis(analysis);
+
+    Map<String, Object> identity = template.queryForMap(
+        "SELECT * FROM analysis_run_identity WHERE analysis_id = ?", analysis.getId());
+    Assert.assertEquals("hiseq-1", identity.get("INSTRUMENT"));
+    Assert.assertEquals("RUN_IDENTITY", identity.get("RUN"));
+    Assert.assertEquals("1", identity.get("LANE"));
+    Assert.assertEquals("1", identity.get("PAIR"));
+    Assert.assertNull(identity.get("BARCODE"));
+
+    // a later property row for the same analysis updates its identity, and other properties are ignored
+    template.update("INSERT INTO analysis_property (analysis_id, property, value) VALUES (?, ?, ?)",
+                    analysis.getId(), "barcode", "ACGTAC");
+    template.update("INSERT INTO analysis_property (analysis_id, property, value) VALUES (?, ?, ?)",
+                    analysis.getId(), "encoding", "Illumina 1.9");
+    identity = template.queryForMap("SELECT * FROM analysis_run_identity WHERE analysis_id = ?", analysis.getId());
+    Assert.assertEquals("ACGTAC", identity.get("BARCODE"));
+    Assert.assertEquals("RUN_IDENTITY", identity.get("RUN"));
+    Assert.assertEquals(1, countRows("analysis_run_identity", analysis.getId()));
+  }
+
+  private QCAnalysisDAO newDAO(int batchSize) {
+    QCAnalysisDAO dao = new QCAnalysisDAO();
+    dao.setJdbcTemplate(template);
+    dao.setBatchSize(batchSize);
+    dao.setTransactionManager(transactionManager);
+    return dao;
+  }
+
+  private QCAnalysis parseReport() throws QCAnalysisException {
+    return parseReport(new DefaultQCAnalysis());
+  }
+
+  private QCAnalysis parseReport(QCAnalysis analysis) throws QCAnalysisException {
+    return parseReport("111104_SN319_0169_BD08YFACXX", analysis);
+  }
+
+  private QCAnalysis parseReport(String run, QCAnalysis analysis) throws QCAnalysisException {
+    analysis.addProperty("instrument", "hiseq-1");
+    analysis.addProperty("run", run);
+    analysis.addProperty("lane", "1");
+    analysis.addProperty("pair", "1");
+    new FastQCReportParser().parseReport(f, analysis);
+    return analysis;
+  }
+
+  private int countRows(String table, long analysisId) {
+    return template.queryForInt("SELECT COUNT(*) FROM " + table + " WHERE analysis_id = ?", analysisId);
+  }
+
+  private double valueChecksum(String table, long analysisId) {
+    return template.queryForObject(
+        "SELECT SUM(v.value * (1 + MOD(v.position, 7)) * (1 + MOD(t.id, 11))) FROM " + table + " v " +
+        "INNER JOIN value_type t ON t.id = v.value_type_id WHERE v.analysis_id = ?", Double.class, analysisId);
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    log.info("Final teardown...");
+    template.execute("SHUTDOWN");
+    template = null;
+  }
+}
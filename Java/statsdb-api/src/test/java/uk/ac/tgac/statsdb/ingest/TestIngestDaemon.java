@@ -0,0 +1,187 @@
+package uk.ac.tgac.statsdb.ingest;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.dao.QCAnalysisStore;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.run.parser.TagCountReportParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests that the ingest daemon picks up metadata tables and reports as they are written, including in new
+ * subdirectories, that failed reports are retried, and that a restart from the checkpoint only ingests new reports
+ *
+ * @since 1.2
+ */
+public class TestIngestDaemon {
+  private static final long QUIET_MILLIS = 200L;
+  private static final long RETRY_MILLIS = 500L;
+  private static final long TIMEOUT_MILLIS = 20000L;
+
+  private File directory;
+  private File checkpointFile;
+  private final List<String> inserted = Collections.synchronizedList(new ArrayList<String>());
+  private final AtomicInteger failures = new AtomicInteger();
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("statsdb-watch").toFile();
+    checkpointFile = File.createTempFile("statsdb-checkpoint", "");
+    Assert.assertTrue(checkpointFile.delete());
+  }
+
+  private QCAnalysisStore store() {
+    return new QCAnalysisStore() {
+      @Override
+      public void insertAnalysis(QCAnalysis analysis) throws QCAnalysisException {
+        if (failures.getAndDecrement() > 0) {
+          throw new QCAnalysisException("Database unavailable");
+        }
+        inserted.add(analysis.getProperty(ParallelIngester.REPORT_PATH_PROPERTY));
+      }
+
+      @Override
+      public void insertValues(QCAnalysis analysis) {
+      }
+
+      @Override
+      public void insertProperties(QCAnalysis analysis) {
+      }
+
+      @Override
+      public void insertPartitionValues(QCAnalysis analysis) {
+      }
+
+      @Override
+      public void insertPositionValues(QCAnalysis analysis) {
+      }
+
+      @Override
+      public void setVerbose(boolean verbose) {
+      }
+    };
+  }
+
+  private IngestDaemon start(IngestCheckpoint checkpoint) throws IOException {
+    IngestDaemon daemon = new IngestDaemon(new ParallelIngester(new TagCountReportParser(), store()), checkpoint);
+    daemon.setQuietMillis(QUIET_MILLIS);
+    daemon.setRetryMillis(RETRY_MILLIS);
+    daemon.watch(directory.toPath());
+    new Thread(daemon, "statsdb-watch-test").start();
+    return daemon;
+  }
+
+  private static void write(File f, String contents, boolean append) throws IOException {
+    Writer w = new OutputStreamWriter(new FileOutputStream(f, append), "UTF-8");
+    try {
+      w.write(contents);
+    }
+    finally {
+      w.close();
+    }
+  }
+
+  private void awaitInserted(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (inserted.size() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50L);
+    }
+    Assert.assertEquals(count, inserted.size());
+  }
+
+  @Test
+  public void ingestsTablesAsReportsAreWritten() throws IOException, InterruptedException {
+    IngestCheckpoint checkpoint = new IngestCheckpoint(checkpointFile);
+    IngestDaemon daemon = start(checkpoint);
+
+    File run = new File(directory, "RUN_1");
+    Assert.assertTrue(run.mkdir());
+    write(new File(run, "a.txt"), "1 1 ACGTAC 10\n", false);
+    write(new File(run, "b.txt"), "2 1 ACGTAC 20\n", false);
+    File table = new File(run, "RUN_1_metadata.tsv");
+    write(table, "run\tlane\tpath_to_analysis\nRUN_1\t1\ta.txt\nRUN_1\t2\tb.txt\nRUN_1\t3\tc.txt\n", false);
+    awaitInserted(2);
+
+    // the table waits for reports that haven't been written yet
+    write(new File(run, "c.txt"), "3 1 ACGTAC 30\n", false);
+    awaitInserted(3);
+    Assert.assertEquals(3L, daemon.getIngestedCount());
+    daemon.stop();
+    checkpoint.close();
+
+    // a restart rescans the table but only ingests the appended report
+    checkpoint = new IngestCheckpoint(checkpointFile);
+    Assert.assertEquals(3, checkpoint.size());
+    daemon = start(checkpoint);
+    Thread.sleep(5 * QUIET_MILLIS);
+    Assert.assertEquals(3, inserted.size());
+
+    write(new File(run, "d.txt"), "4 1 ACGTAC 40\n", false);
+    write(table, "RUN_1\t4\td.txt\n", true);
+    awaitInserted(4);
+    Assert.assertEquals(new File(run, "d.txt").getAbsolutePath(), inserted.get(3));
+    daemon.stop();
+    checkpoint.close();
+  }
+
+  @Test
+  public void retriesFailedReportsOfAnUnchangedTable() throws IOException, InterruptedException {
+    failures.set(1);
+    IngestCheckpoint checkpoint = new IngestCheckpoint(checkpointFile);
+    IngestDaemon daemon = start(checkpoint);
+
+    write(new File(directory, "a.txt"), "1 1 ACGTAC 10\n", false);
+    write(new File(directory, "RUN_1_metadata.tsv"), "run\tlane\tpath_to_analysis\nRUN_1\t1\ta.txt\n", false);
+    awaitInserted(1);
+    Assert.assertTrue(failures.get() < 0);
+    Assert.assertEquals(1L, daemon.getIngestedCount());
+    daemon.stop();
+    checkpoint.close();
+  }
+
+  @Test
+  public void checkpointIgnoresPartialLines() throws IOException {
+    File report = new File(directory, "report.txt");
+    write(report, "1 1 ACGTAC 10\n", false);
+    write(checkpointFile, "12\t34", false);
+
+    IngestCheckpoint checkpoint = new IngestCheckpoint(checkpointFile);
+    Assert.assertFalse(checkpoint.contains(report));
+    checkpoint.add(report);
+    checkpoint.close();
+
+    checkpoint = new IngestCheckpoint(checkpointFile);
+    Assert.assertTrue(checkpoint.contains(report));
+    Assert.assertEquals(1, checkpoint.size());
+    checkpoint.close();
+  }
+
+  @After
+  public void tearDown() {
+    delete(directory);
+    checkpointFile.delete();
+  }
+
+  private static void delete(File f) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    f.delete();
+  }
+}
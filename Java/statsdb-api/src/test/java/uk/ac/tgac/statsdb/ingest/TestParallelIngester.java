@@ -0,0 +1,122 @@
+package uk.ac.tgac.statsdb.ingest;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.dao.BulkLoader;
+import uk.ac.tgac.statsdb.dao.HsqldbTestDataSource;
+import uk.ac.tgac.statsdb.dao.QCAnalysisDAO;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.run.parser.AnalysisMetadataParser;
+import uk.ac.tgac.statsdb.run.parser.FastQCReportParser;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Tests parallel ingestion of a metadata table into an in-memory HSQLDB copy of the StatsDB schema
+ *
+ * @since 1.2
+ */
+public class TestParallelIngester {
+  protected static final Logger log = LoggerFactory.getLogger(TestParallelIngester.class);
+
+  private static final int REPORTS = 8;
+
+  private static DataSource dataSource;
+  private static JdbcTemplate template;
+  private static QCAnalysisDAO dao;
+  private static File f;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    log.info("Initial setup...");
+    dataSource = HsqldbTestDataSource.create("ingest");
+    template = new JdbcTemplate(dataSource);
+    dao = new QCAnalysisDAO();
+    dao.setJdbcTemplate(template);
+    dao.setTransactionManager(new DataSourceTransactionManager(dataSource));
+
+    URL furl = TestParallelIngester.class.getResource("/fastqc_data.txt");
+    if (furl == null) {
+      throw new IOException("No such file 'fastqc_data.txt'. Cannot run ingest tests");
+    }
+    else {
+      f = new File(URI.create(furl.toString()));
+    }
+  }
+
+  private static List<QCAnalysis> metadata(String run) throws QCAnalysisException {
+    StringBuilder csv = new StringBuilder("instrument,run,lane,pair,path_to_analysis\n");
+    for (int i = 1; i <= REPORTS; i++) {
+      csv.append("hiseq-1,").append(run).append(",").append(i).append(",1,").append(f.getAbsolutePath()).append("\n");
+    }
+    csv.append("hiseq-1,").append(run).append(",1,2,").append(f.getAbsolutePath()).append(".missing\n");
+    return new AnalysisMetadataParser().parseMetadataFile(csv.toString());
+  }
+
+  @Test
+  public void ingestMetadataTable() throws QCAnalysisException, InterruptedException {
+    List<QCAnalysis> analyses = metadata("111104_SN319_0169_BD08YFACXX");
+
+    ParallelIngester ingester = new ParallelIngester(new FastQCReportParser(), dao);
+    ingester.setParserThreads(4);
+    ingester.setWriterThreads(4);
+    ingester.setQueueCapacity(2);
+    List<IngestResult> results = ingester.ingest(analyses);
+
+    Assert.assertEquals(REPORTS + 1, results.size());
+    for (int i = 0; i < REPORTS; i++) {
+      Assert.assertEquals(results.get(i).toString(), IngestResult.Status.INSERTED, results.get(i).getStatus());
+    }
+    Assert.assertEquals(IngestResult.Status.FAILED, results.get(REPORTS).getStatus());
+    Assert.assertEquals(REPORTS, template.queryForInt(
+        "SELECT COUNT(*) FROM analysis_property WHERE property = 'run' AND value = '111104_SN319_0169_BD08YFACXX'"));
+  }
+
+  @Test
+  public void bulkIngestMetadataTable() throws QCAnalysisException, InterruptedException {
+    List<QCAnalysis> analyses = metadata("111104_SN319_0170_BD08YFACXX");
+
+    BulkLoader loader = new BulkLoader(template, dao.getValueTypeDictionary());
+    loader.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    loader.setChunkSize(3);
+    ParallelIngester ingester = new ParallelIngester(new FastQCReportParser(), loader);
+    ingester.setParserThreads(4);
+    ingester.setQueueCapacity(2);
+    List<IngestResult> results = ingester.ingest(analyses);
+
+    for (int i = 0; i < REPORTS; i++) {
+      Assert.assertEquals(results.get(i).toString(), IngestResult.Status.INSERTED, results.get(i).getStatus());
+      Assert.assertTrue(analyses.get(i).getId() > 0L);
+      Assert.assertNull(results.get(i).getAnalysis());
+      Assert.assertEquals(analyses.get(i).getId(), results.get(i).getId());
+      Assert.assertEquals(String.valueOf(i + 1), results.get(i).getRunProperties().get("lane"));
+    }
+    Assert.assertEquals(IngestResult.Status.FAILED, results.get(REPORTS).getStatus());
+    Assert.assertEquals(REPORTS, template.queryForInt(
+        "SELECT COUNT(*) FROM analysis_property WHERE property = 'run' AND value = '111104_SN319_0170_BD08YFACXX'"));
+    Assert.assertEquals(REPORTS, loader.getStatistics().getAnalysisCount());
+    Assert.assertEquals(3L, loader.getStatistics().getChunkCount());
+    Assert.assertEquals(
+        template.queryForInt("SELECT COUNT(*) FROM per_position_value WHERE analysis_id = ?", analyses.get(0).getId()),
+        template.queryForInt("SELECT COUNT(*) FROM per_position_value WHERE analysis_id = ?", analyses.get(REPORTS - 1).getId()));
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    log.info("Final teardown...");
+    template.execute("SHUTDOWN");
+    template = null;
+  }
+}
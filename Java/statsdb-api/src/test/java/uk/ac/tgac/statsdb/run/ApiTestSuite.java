@@ -2,6 +2,12 @@ package uk.ac.tgac.statsdb.run;
 
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
+import uk.ac.tgac.statsdb.dao.TestBulkLoader;
+import uk.ac.tgac.statsdb.dao.TestQCAnalysisDAO;
+import uk.ac.tgac.statsdb.ingest.TestIngestDaemon;
+import uk.ac.tgac.statsdb.ingest.TestParallelIngester;
+import uk.ac.tgac.statsdb.util.TestQuantileSketch;
+import uk.ac.tgac.statsdb.util.TestStatsDBUtils;
 
 /**
  * uk.ac.tgac.qc.run
@@ -15,7 +21,24 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
-  TestFastQCParser.class
+  TestFastQCParser.class,
+  TestQCAnalysisDAO.class,
+  TestParallelIngester.class,
+  TestCachingReports.class,
+  TestReports.class,
+  TestCursorReportTable.class,
+  TestStatsDBUtils.class,
+  TestInterOpReportParser.class,
+  TestQuantileSketch.class,
+  TestPercentileReports.class,
+  TestRollupReports.class,
+  TestD3PlotConsumer.class,
+  TestAsyncReports.class,
+  TestBulkLoader.class,
+  TestKmerContaminationParser.class,
+  TestTagCountParser.class,
+  TestParserRegistry.class,
+  TestIngestDaemon.class
 })
 
 public class ApiTestSuite {
@@ -0,0 +1,132 @@
+package uk.ac.tgac.statsdb.run;
+
+import org.junit.Assert;
+import org.junit.Test;
+import uk.ac.tgac.statsdb.exception.ConsumerException;
+import uk.ac.tgac.statsdb.run.consumer.D3PlotConsumer;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that AsyncReports runs the per-metric queries of a plot at once, and reports failed and rejected queries through
+ * their futures, using a Reports stub that answers each per position query with a one row table
+ *
+ * @since 1.2
+ */
+public class TestAsyncReports {
+  private static final long TIMEOUT_SECONDS = 10L;
+
+  /**
+   * Answers each per position query with the value type's name length as its average, once the latch is released
+   */
+  private static class StubReports extends Reports {
+    private final CountDownLatch latch;
+
+    private StubReports(CountDownLatch latch) {
+      super((DataSource)null);
+      this.latch = latch;
+    }
+
+    @Override
+    public ReportTable getPerPositionValues(String analysis, Map<RunProperty, String> runProperties) throws SQLException {
+      if ("no_such_value".equals(analysis)) {
+        throw new SQLException("No such value type: " + analysis);
+      }
+      latch.countDown();
+      try {
+        if (!latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          throw new SQLException("Timed out waiting for the other queries of " + analysis);
+        }
+      }
+      catch (InterruptedException e) {
+        throw new SQLException(e);
+      }
+      List<List<String>> rows = new ArrayList<>();
+      rows.add(Arrays.asList("Position", "Size", "Average", "Samples", "Total"));
+      rows.add(Arrays.asList("1", "1", String.valueOf(analysis.length()), "1", "0"));
+      return new GenericReportTable(rows);
+    }
+  }
+
+  private static Map<RunProperty, String> lane() {
+    Map<RunProperty, String> runProperties = new HashMap<>();
+    runProperties.put(RunProperty.run, "RUN_1");
+    runProperties.put(RunProperty.lane, "1");
+    return runProperties;
+  }
+
+  @Test
+  public void fansOutPerMetricQueries() {
+    // every query waits for all six, so this only completes if they run at once
+    try (AsyncReports async = new AsyncReports(new StubReports(new CountDownLatch(6)), 6, 6)) {
+      Map<String, ReportTable> tables = async.getPerPositionBaseSequenceQuality(lane()).join();
+      Assert.assertEquals(ReportsDecorator.QUALITY_VALUES, new ArrayList<>(tables.keySet()));
+      Assert.assertEquals("14", tables.get("quality_median").getTable().get(1).get(2));
+    }
+  }
+
+  @Test
+  public void failedQueriesFailTheJoin() {
+    try (AsyncReports async = new AsyncReports(new StubReports(new CountDownLatch(1)), 2, 2)) {
+      async.getPerPositionValues(Arrays.asList("base_content_a", "no_such_value"), lane()).join();
+      Assert.fail("A failed query should fail the joined future");
+    }
+    catch (CompletionException e) {
+      Assert.assertTrue(e.getCause() instanceof SQLException);
+    }
+  }
+
+  @Test
+  public void queriesBeyondTheQueueAreRejected() {
+    CountDownLatch latch = new CountDownLatch(3);
+    try (AsyncReports async = new AsyncReports(new StubReports(latch), 1, 1)) {
+      CompletableFuture<ReportTable> running = async.getPerPositionValues("base_content_a", lane());
+      CompletableFuture<ReportTable> queued = async.getPerPositionValues("base_content_c", lane());
+      CompletableFuture<ReportTable> rejected = async.getPerPositionValues("base_content_g", lane());
+      Assert.assertTrue(rejected.isCompletedExceptionally());
+      Assert.assertEquals(1L, async.getRejectedCount());
+      try {
+        rejected.join();
+        Assert.fail("A query beyond the queue should be rejected");
+      }
+      catch (CompletionException e) {
+        Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+      }
+
+      latch.countDown();
+      latch.countDown();
+      Assert.assertFalse(running.join().isEmpty());
+      Assert.assertFalse(queued.join().isEmpty());
+    }
+  }
+
+  @Test
+  public void asyncPlotsMatchSynchronousPlots() throws ConsumerException, IOException {
+    try (AsyncReports async = new AsyncReports(new StubReports(new CountDownLatch(0)), 4, 4)) {
+      D3PlotConsumer consumer = new D3PlotConsumer(async);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      consumer.writePerPositionBaseContentForLaneAsync("RUN_1", true, 1, out).join();
+      String expected = "{\"stats\":[{\"base\":\"1\",\"G\":\"14\",\"A\":\"14\",\"T\":\"14\",\"C\":\"14\"}]}";
+      Assert.assertEquals(expected, out.toString("UTF-8"));
+
+      out.reset();
+      consumer.writePerPositionBaseContentForLane("RUN_1", true, 1, out);
+      Assert.assertEquals(expected, out.toString("UTF-8"));
+      Assert.assertEquals("1", consumer.getPerPositionBaseContentForLane("RUN_1", true, 1)
+                                       .getJSONArray("stats").getJSONObject(0).getString("base"));
+    }
+  }
+}
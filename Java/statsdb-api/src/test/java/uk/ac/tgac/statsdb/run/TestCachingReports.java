@@ -0,0 +1,181 @@
+package uk.ac.tgac.statsdb.run;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.dao.HsqldbTestDataSource;
+import uk.ac.tgac.statsdb.dao.QCAnalysisDAO;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests CachingReports hit, eviction, expiry and invalidation behaviour, including inserts during a query, against an
+ * in-memory HSQLDB database, using a stand-in summary_value procedure that records each call.
+ *
+ * @since 1.2
+ */
+public class TestCachingReports {
+  protected static final Logger log = LoggerFactory.getLogger(TestCachingReports.class);
+
+  private static DataSource dataSource;
+  private static JdbcTemplate template;
+
+  @BeforeClass
+  public static void setUp() {
+    log.info("Initial setup...");
+    dataSource = HsqldbTestDataSource.create("reports");
+    template = new JdbcTemplate(dataSource);
+    template.execute("CREATE TABLE report_calls (scope VARCHAR(500))");
+    template.execute(
+        "CREATE PROCEDURE summary_value(IN scope_in VARCHAR(500), IN instrument_in VARCHAR(500), " +
+        "IN run_in VARCHAR(500), IN lane_in VARCHAR(500), IN pair_in VARCHAR(500), IN barcode_in VARCHAR(500)) " +
+        "MODIFIES SQL DATA DYNAMIC RESULT SETS 1 " +
+        "BEGIN ATOMIC " +
+        "  DECLARE result CURSOR WITH RETURN FOR " +
+        "    SELECT scope_in AS Description, COALESCE(run_in, 'all') AS Run FROM (VALUES(0)) AS t(x); " +
+        "  INSERT INTO report_calls VALUES (scope_in); " +
+        "  OPEN result; " +
+        "END");
+  }
+
+  @Before
+  public void resetCalls() {
+    template.update("DELETE FROM report_calls");
+  }
+
+  @Test
+  public void repeatedQueryIsCached() throws SQLException {
+    CachingReports reports = new CachingReports(dataSource);
+    ReportTable first = reports.getSummaryValues("multiplex_tag", runProperties("RUN_A", "1"));
+    ReportTable second = reports.getSummaryValues("multiplex_tag", runProperties("RUN_A", "1"));
+
+    Assert.assertSame(first, second);
+    Assert.assertEquals(1, calls());
+    Assert.assertEquals(1, reports.getHitCount());
+    Assert.assertEquals(1, reports.getMissCount());
+    Assert.assertEquals(0.5d, reports.getHitRate(), 0.0001d);
+  }
+
+  @Test
+  public void leastRecentlyUsedIsEvicted() throws SQLException {
+    CachingReports reports = new CachingReports(dataSource, 2, CachingReports.DEFAULT_TTL_MILLIS);
+    reports.getSummaryValues("multiplex_tag", runProperties("RUN_A", "1"));
+    reports.getSummaryValues("multiplex_tag", runProperties("RUN_A", "2"));
+    reports.getSummaryValues("multiplex_tag", runProperties("RUN_A", "1"));
+    reports.getSummaryValues("multiplex_tag", runProperties("RUN_A", "3"));
+
+    Assert.assertEquals(2, reports.size());
+    Assert.assertEquals(1, reports.getEvictionCount());
+    reports.getSummaryValues("multiplex_tag", runProperties("RUN_A", "1"));
+    Assert.assertEquals(3, calls());
+  }
+
+  @Test
+  public void expiredEntryIsRefetched() throws SQLException, InterruptedException {
+    CachingReports reports = new CachingReports(dataSource, CachingReports.DEFAULT_MAX_ENTRIES, 20);
+    reports.getSummaryValues("multiplex_tag", runProperties("RUN_A", "1"));
+    Thread.sleep(50);
+    reports.getSummaryValues("multiplex_tag", runProperties("RUN_A", "1"));
+
+    Assert.assertEquals(2, calls());
+    Assert.assertEquals(1, reports.getExpirationCount());
+  }
+
+  @Test
+  public void insertInvalidatesMatchingRuns() throws SQLException, QCAnalysisException {
+    CachingReports reports = new CachingReports(dataSource);
+    QCAnalysisDAO dao = new QCAnalysisDAO();
+    dao.setJdbcTemplate(template);
+    dao.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    dao.addListener(reports);
+
+    reports.getSummaryValues("multiplex_tag", runProperties("RUN_A", "1"));
+    reports.getSummaryValues("multiplex_tag", runProperties("RUN_A", "2"));
+    reports.getSummaryValues("multiplex_tag", runProperties("RUN_B", "1"));
+    reports.getSummaryValues("multiplex_tag", new HashMap<RunProperty, String>());
+
+    QCAnalysis analysis = new DefaultQCAnalysis();
+    analysis.addProperty("run", "RUN_A");
+    analysis.addProperty("lane", "1");
+    dao.insertAnalysis(analysis);
+
+    // RUN_A lane 1 and the all-runs summary are stale, the other lanes and runs aren't
+    Assert.assertEquals(2, reports.getInvalidationCount());
+    Assert.assertEquals(2, reports.size());
+    reports.getSummaryValues("multiplex_tag", runProperties("RUN_A", "2"));
+    reports.getSummaryValues("multiplex_tag", runProperties("RUN_B", "1"));
+    Assert.assertEquals(4, calls());
+    reports.getSummaryValues("multiplex_tag", runProperties("RUN_A", "1"));
+    Assert.assertEquals(5, calls());
+  }
+
+  @Test
+  public void insertInvalidatesMatchingSamples() throws SQLException, QCAnalysisException {
+    CachingReports reports = new CachingReports(dataSource);
+    Map<RunProperty, String> sampleA = runProperties("RUN_A", "1");
+    sampleA.put(RunProperty.sampleName, "SAMPLE_A");
+    Map<RunProperty, String> sampleB = runProperties("RUN_A", "1");
+    sampleB.put(RunProperty.sampleName, "SAMPLE_B");
+    reports.getSummaryValues("multiplex_tag", sampleA);
+    reports.getSummaryValues("multiplex_tag", sampleB);
+
+    // RunProperty.sampleName is stored as the sample_name property
+    QCAnalysis analysis = new DefaultQCAnalysis();
+    analysis.addProperty("run", "RUN_A");
+    analysis.addProperty("sample_name", "SAMPLE_A");
+    reports.analysisInserted(analysis);
+    Assert.assertEquals(1, reports.getInvalidationCount());
+    reports.getSummaryValues("multiplex_tag", sampleB);
+    Assert.assertEquals(2, calls());
+  }
+
+  @Test
+  public void tableFetchedAcrossAnInsertIsNotCached() throws SQLException, QCAnalysisException {
+    final QCAnalysis analysis = new DefaultQCAnalysis();
+    analysis.addProperty("run", "RUN_A");
+    final CachingReports[] reports = new CachingReports[1];
+    // an insert lands whilst the query is in flight
+    reports[0] = new CachingReports(new DelegatingDataSource(dataSource) {
+      @Override
+      public Connection getConnection() throws SQLException {
+        reports[0].analysisInserted(analysis);
+        return super.getConnection();
+      }
+    }, CachingReports.DEFAULT_MAX_ENTRIES, CachingReports.DEFAULT_TTL_MILLIS);
+
+    Assert.assertNotNull(reports[0].getSummaryValues("multiplex_tag", runProperties("RUN_A", "1")));
+    Assert.assertEquals(0, reports[0].size());
+  }
+
+  private Map<RunProperty, String> runProperties(String run, String lane) {
+    Map<RunProperty, String> map = new HashMap<>();
+    map.put(RunProperty.run, run);
+    map.put(RunProperty.lane, lane);
+    return map;
+  }
+
+  private int calls() {
+    return template.queryForInt("SELECT COUNT(*) FROM report_calls");
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    log.info("Final teardown...");
+    template.execute("SHUTDOWN");
+    template = null;
+  }
+}
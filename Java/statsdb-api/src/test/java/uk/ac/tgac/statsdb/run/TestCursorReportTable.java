@@ -0,0 +1,153 @@
+package uk.ac.tgac.statsdb.run;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import uk.ac.tgac.statsdb.dao.HsqldbTestDataSource;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Tests that CursorReportTable streams the same CSV and JSON as GenericReportTable, using an in-memory HSQLDB database
+ * and a stand-in analysis_values_for_run procedure.
+ *
+ * @since 1.2
+ */
+public class TestCursorReportTable {
+  protected static final Logger log = LoggerFactory.getLogger(TestCursorReportTable.class);
+
+  private static final int ROWS = 5000;
+
+  private static DataSource dataSource;
+  private static JdbcTemplate template;
+  private static GenericReportTable expected;
+
+  @BeforeClass
+  public static void setUp() {
+    log.info("Initial setup...");
+    dataSource = HsqldbTestDataSource.create("cursor");
+    template = new JdbcTemplate(dataSource);
+    template.execute("CREATE TABLE export_rows (analysis_id BIGINT, description VARCHAR(100), value VARCHAR(100))");
+    template.batchUpdate("INSERT INTO export_rows VALUES (?, ?, ?)", new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        ps.setLong(1, i / 10);
+        ps.setString(2, "value_" + (i % 10));
+        ps.setString(3, Double.toString(i * 0.5d));
+      }
+
+      @Override
+      public int getBatchSize() {
+        return ROWS;
+      }
+    });
+    template.execute(
+        "CREATE PROCEDURE analysis_values_for_run(IN instrument_in VARCHAR(500), IN run_in VARCHAR(500), " +
+        "IN lane_in VARCHAR(500), IN pair_in VARCHAR(500), IN sample_name_in VARCHAR(500), " +
+        "IN barcode_in VARCHAR(500), IN tool_in VARCHAR(500)) " +
+        "READS SQL DATA DYNAMIC RESULT SETS 1 " +
+        "BEGIN ATOMIC " +
+        "  DECLARE result CURSOR WITH RETURN FOR " +
+        "    SELECT analysis_id AS ANALYSIS_ID, description AS DESCRIPTION, value AS VALUE FROM export_rows " +
+        "    WHERE run_in IS NULL OR run_in = 'RUN_A' ORDER BY analysis_id, description; " +
+        "  OPEN result; " +
+        "END");
+
+    List<List<String>> table = new ArrayList<>();
+    table.add(Arrays.asList("ANALYSIS_ID", "DESCRIPTION", "VALUE"));
+    for (List<Object> row : template.query(
+        "SELECT analysis_id, description, value FROM export_rows ORDER BY analysis_id, description",
+        new RowMapper<List<Object>>() {
+          @Override
+          public List<Object> mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return Arrays.<Object>asList(rs.getObject(1), rs.getObject(2), rs.getObject(3));
+          }
+        })) {
+      List<String> cells = new ArrayList<>();
+      for (Object cell : row) {
+        cells.add(cell.toString());
+      }
+      table.add(cells);
+    }
+    expected = new GenericReportTable(table);
+  }
+
+  @Test
+  public void streamsSameCSVAsGenericTable() throws SQLException, IOException {
+    CursorReportTable table = open(new HashMap<RunProperty, String>());
+    try {
+      StringWriter out = new StringWriter();
+      table.writeCSV(out, '\t');
+      Assert.assertEquals(expected.toCSV('\t'), out.toString());
+    }
+    finally {
+      table.close();
+    }
+  }
+
+  @Test
+  public void streamsSameJSONAsGenericTable() throws SQLException, IOException {
+    CursorReportTable table = open(new HashMap<RunProperty, String>());
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      table.writeJSON(out);
+      Assert.assertEquals(expected.toJSON(), out.toString("UTF-8"));
+    }
+    finally {
+      table.close();
+    }
+  }
+
+  @Test
+  public void cursorIsReadOnce() throws SQLException, IOException {
+    HashMap<RunProperty, String> runProperties = new HashMap<>();
+    runProperties.put(RunProperty.run, "RUN_B");
+    CursorReportTable table = open(runProperties);
+    try {
+      Assert.assertTrue(table.isEmpty());
+      Assert.assertEquals("ANALYSIS_ID,DESCRIPTION,VALUE\n", table.toCSV());
+      try {
+        table.toCSV();
+        Assert.fail("A consumed cursor shouldn't be readable again");
+      }
+      catch (IllegalStateException e) {
+        log.info("Second read failed as expected: " + e.getMessage());
+      }
+    }
+    finally {
+      table.close();
+    }
+  }
+
+  private CursorReportTable open(HashMap<RunProperty, String> runProperties) throws SQLException {
+    Reports reports = new Reports(dataSource);
+    // HSQLDB doesn't accept Connector/J's Integer.MIN_VALUE streaming hint
+    reports.setFetchSize(100);
+    CursorReportTable table = reports.openAnalysisValuesForRun(runProperties);
+    Assert.assertNotNull(table);
+    return table;
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    log.info("Final teardown...");
+    template.execute("SHUTDOWN");
+    template = null;
+  }
+}
@@ -0,0 +1,96 @@
+package uk.ac.tgac.statsdb.run;
+
+import net.sf.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import uk.ac.tgac.statsdb.exception.ConsumerException;
+import uk.ac.tgac.statsdb.run.consumer.D3PlotConsumer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the JSON written by D3PlotConsumer from fixed per position tables
+ *
+ * @since 1.2
+ */
+public class TestD3PlotConsumer {
+  /**
+   * A per position table with the given averages at positions 1, 2, ...
+   */
+  private static ReportTable table(String... averages) {
+    List<List<String>> rows = new ArrayList<>();
+    rows.add(Arrays.asList("Position", "Size", "Average", "Samples", "Total"));
+    for (int i = 0; i < averages.length; i++) {
+      rows.add(Arrays.asList(String.valueOf(i + 1), "1", averages[i], "2", "0"));
+    }
+    return new GenericReportTable(rows);
+  }
+
+  private static D3PlotConsumer consumer(final Map<String, ReportTable> tables) {
+    return new D3PlotConsumer(new ReportsDecorator(null) {
+      @Override
+      public Map<String, ReportTable> getPerPositionBaseSequenceQuality(Map<RunProperty, String> runProperties) throws SQLException {
+        Assert.assertEquals("RUN_1", runProperties.get(RunProperty.run));
+        Assert.assertEquals("3", runProperties.get(RunProperty.lane));
+        Assert.assertEquals("2", runProperties.get(RunProperty.pair));
+        return tables;
+      }
+
+      @Override
+      public Map<String, ReportTable> getPerPositionBaseContent(Map<RunProperty, String> runProperties) throws SQLException {
+        return tables;
+      }
+    });
+  }
+
+  @Test
+  public void sequenceQuality() throws ConsumerException, IOException {
+    Map<String, ReportTable> tables = new HashMap<>();
+    tables.put("quality_mean", table("30.5", "31.0"));
+    tables.put("quality_median", table("31", "32"));
+    tables.put("quality_lower_quartile", table("28", "29"));
+    tables.put("quality_upper_quartile", table("33", "34"));
+    tables.put("quality_10th_percentile", table("20", "21"));
+    tables.put("quality_90th_percentile", table("36", "37"));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    consumer(tables).writePerPositionBaseSequenceQualityForLane("RUN_1", false, 3, out);
+    String expected = "{\"stats\":[" +
+        "{\"base\":\"1\",\"mean\":\"30.5\",\"median\":\"31\",\"lowerquartile\":\"28\",\"upperquartile\":\"33\",\"tenthpercentile\":\"20\",\"ninetiethpercentile\":\"36\"}," +
+        "{\"base\":\"2\",\"mean\":\"31.0\",\"median\":\"32\",\"lowerquartile\":\"29\",\"upperquartile\":\"34\",\"tenthpercentile\":\"21\",\"ninetiethpercentile\":\"37\"}]}";
+    Assert.assertEquals(expected, out.toString("UTF-8"));
+    Assert.assertEquals(expected, consumer(tables).getPerPositionBaseSequenceQualityForLane("RUN_1", false, 3).toString());
+  }
+
+  @Test
+  public void baseContent() throws ConsumerException, IOException {
+    Map<String, ReportTable> tables = new HashMap<>();
+    tables.put("base_content_a", table("25.1"));
+    tables.put("base_content_c", table("24.9"));
+    tables.put("base_content_g", table("26.0"));
+    tables.put("base_content_t", table("24.0"));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    consumer(tables).writePerPositionBaseContentForLane("RUN_1", true, 3, out);
+    Assert.assertEquals("{\"stats\":[{\"base\":\"1\",\"G\":\"26.0\",\"A\":\"25.1\",\"T\":\"24.0\",\"C\":\"24.9\"}]}", out.toString("UTF-8"));
+  }
+
+  @Test
+  public void emptyTablesGiveEmptyStats() throws ConsumerException, IOException {
+    Map<String, ReportTable> tables = new HashMap<>();
+    tables.put("base_content_a", table());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    consumer(tables).writePerPositionBaseContentForLane("RUN_1", true, 3, out);
+    Assert.assertEquals("{\"stats\":[]}", out.toString("UTF-8"));
+    JSONObject json = consumer(tables).getPerPositionBaseContentForLane("RUN_1", true, 3);
+    Assert.assertTrue(json.getJSONArray("stats").isEmpty());
+  }
+}
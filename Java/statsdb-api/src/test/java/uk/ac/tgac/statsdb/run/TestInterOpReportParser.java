@@ -0,0 +1,239 @@
+package uk.ac.tgac.statsdb.run;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.PositionValue;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.run.parser.InterOpReportParser;
+import uk.ac.tgac.statsdb.run.parser.interop.InterOpAggregator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests the InterOp parser against a synthetic two lane run, with reads 1 (cycles 1-3), index1 (cycle 4) and
+ * 2 (cycles 5-7)
+ *
+ * @since 1.2
+ */
+public class TestInterOpReportParser {
+  private static final double DELTA = 1e-6;
+
+  private static File runDirectory;
+  private static File interop;
+  private static InterOpReportParser parser;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    parser = new InterOpReportParser();
+    runDirectory = Files.createTempDirectory("statsdb-interop").toFile();
+    interop = new File(runDirectory, InterOpReportParser.INTEROP_DIRECTORY);
+    interop.mkdir();
+
+    Writer w = new OutputStreamWriter(new FileOutputStream(new File(runDirectory, "RunInfo.xml")), "UTF-8");
+    try {
+      w.write("<?xml version=\"1.0\"?>\n" +
+              "<RunInfo Version=\"2\"><Run Id=\"171026_TEST_0001_AFLOWCELL\" Number=\"1\">" +
+              "<Flowcell>AFLOWCELL</Flowcell><Instrument>TEST</Instrument><Reads>" +
+              "<Read Number=\"1\" NumCycles=\"3\" IsIndexedRead=\"N\" />" +
+              "<Read Number=\"2\" NumCycles=\"1\" IsIndexedRead=\"Y\" />" +
+              "<Read Number=\"3\" NumCycles=\"3\" IsIndexedRead=\"N\" />" +
+              "</Reads><FlowcellLayout LaneCount=\"2\" SurfaceCount=\"2\" SwathCount=\"1\" TileCount=\"2\" />" +
+              "</Run></RunInfo>");
+    }
+    finally {
+      w.close();
+    }
+
+    // tile metrics: density of 100 and 200 in lane 1, a negative density treated as 0 in lane 2, and read 1 phasing
+    ByteBuffer tile = header(2, 10, 6);
+    tile.putShort((short)1).putShort((short)1101).putShort((short)100).putFloat(100f);
+    tile.putShort((short)1).putShort((short)1102).putShort((short)100).putFloat(200f);
+    tile.putShort((short)2).putShort((short)1101).putShort((short)100).putFloat(-5f);
+    tile.putShort((short)1).putShort((short)1101).putShort((short)200).putFloat(0.1f);
+    tile.putShort((short)1).putShort((short)1102).putShort((short)200).putFloat(0.3f);
+    tile.putShort((short)9).putShort((short)1101).putShort((short)100).putFloat(1f);
+    write("TileMetricsOut.bin", tile);
+
+    // quality metrics v4: two tiles in lane 1, cycle 2, with 10 calls at Q10 and 10 at Q30 between them
+    ByteBuffer q = header(4, 206, 3);
+    qualityRecord(q, 1, 1101, 2, 10, 4);
+    qualityRecord(q, 1, 1102, 2, 30, 10);
+    qualityRecord(q, 1, 1102, 2, 10, 6);
+    write("QMetricsOut.bin", q);
+
+    // error metrics v3: lane 2, cycle 5 (the first cycle of read 2), and a partial trailing record
+    ByteBuffer err = header(3, 30, 2);
+    err.putShort((short)2).putShort((short)1101).putShort((short)5).putFloat(0.5f).put(new byte[20]);
+    err.putShort((short)2).putShort((short)1102).putShort((short)5).putFloat(1.5f).put(new byte[20]);
+    ByteBuffer partial = ByteBuffer.allocate(err.capacity() + 7).order(ByteOrder.LITTLE_ENDIAN);
+    partial.put(err.array());
+    write("ErrorMetricsOut.bin", partial);
+
+    // extraction metrics v2: random values over every lane, tile and cycle, to be split over many tasks
+    Random r = new Random(17L);
+    ByteBuffer ext = header(2, 38, 2 * 20 * 7);
+    for (int lane = 1; lane <= 2; lane++) {
+      for (int t = 1101; t <= 1120; t++) {
+        for (int cycle = 1; cycle <= 7; cycle++) {
+          ext.putShort((short)lane).putShort((short)t).putShort((short)cycle);
+          for (int b = 0; b < 4; b++) {
+            ext.putFloat(2f + r.nextFloat());
+          }
+          for (int b = 0; b < 4; b++) {
+            ext.putShort((short)r.nextInt(5000));
+          }
+          ext.putLong(0L);
+        }
+      }
+    }
+    write("ExtractionMetricsOut.bin", ext);
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    for (File f : interop.listFiles()) {
+      f.delete();
+    }
+    interop.delete();
+    new File(runDirectory, "RunInfo.xml").delete();
+    runDirectory.delete();
+  }
+
+  @Test
+  public void parseTileMetrics() throws QCAnalysisException {
+    List<QCAnalysis> analyses = parser.parseMetricsFile(new File(interop, "TileMetricsOut.bin"), null);
+    Assert.assertEquals(6, analyses.size());
+
+    QCAnalysis lane1read1 = analyses.get(0);
+    Assert.assertEquals("171026_TEST_0001_AFLOWCELL", lane1read1.getProperty("run"));
+    Assert.assertEquals("1", lane1read1.getProperty("lane"));
+    Assert.assertEquals("1", lane1read1.getProperty("pair"));
+    Assert.assertEquals("InterOp", lane1read1.getProperty("tool"));
+    Assert.assertEquals("TileMetrics", lane1read1.getProperty("interop_subtype"));
+    Assert.assertEquals(150d, Double.parseDouble(lane1read1.getGeneralValues().get("density_mean")), DELTA);
+    Assert.assertEquals(0.2d, Double.parseDouble(lane1read1.getGeneralValues().get("percentphasing_mean")), DELTA);
+    Assert.assertNotNull(lane1read1.getGeneralValues().get("percentphasing_median"));
+
+    QCAnalysis lane1index1 = analyses.get(1);
+    Assert.assertEquals("index1", lane1index1.getProperty("pair"));
+    Assert.assertNull(lane1index1.getGeneralValues().get("percentphasing_mean"));
+
+    QCAnalysis lane2read2 = analyses.get(5);
+    Assert.assertEquals("2", lane2read2.getProperty("lane"));
+    Assert.assertEquals("2", lane2read2.getProperty("pair"));
+    Assert.assertEquals(0d, Double.parseDouble(lane2read2.getGeneralValues().get("density_mean")), DELTA);
+  }
+
+  @Test
+  public void parseQualityMetrics() throws QCAnalysisException {
+    QCAnalysis analysis = new DefaultQCAnalysis();
+    analysis.addProperty("lane", "1");
+    analysis.addProperty("pair", "1");
+    parser.parseReport(new File(interop, "QMetricsOut.bin"), analysis);
+
+    Assert.assertEquals(20d, positionValue(analysis, 2, "qscore_mean"), DELTA);
+    Assert.assertEquals(10d, positionValue(analysis, 2, "qscore_stdev"), DELTA);
+    Assert.assertEquals(50d, positionValue(analysis, 2, "percent_q20"), DELTA);
+    Assert.assertEquals(50d, positionValue(analysis, 2, "percent_q30"), DELTA);
+    Assert.assertEquals(30d, positionValue(analysis, 2, "qscore_max"), DELTA);
+    Assert.assertEquals(10d, positionValue(analysis, 2, "qscore_min"), DELTA);
+    Assert.assertEquals(9, analysis.getPositionValues().size());
+  }
+
+  @Test(expected = QCAnalysisException.class)
+  public void parseReportNeedsLaneAndPair() throws QCAnalysisException {
+    parser.parseReport(new File(interop, "QMetricsOut.bin"), new DefaultQCAnalysis());
+  }
+
+  @Test
+  public void parseRunDirectory() throws QCAnalysisException {
+    QCAnalysis template = new DefaultQCAnalysis();
+    template.addProperty("instrument", "TEST");
+    List<QCAnalysis> analyses = parser.parseRunDirectory(runDirectory, template);
+    Assert.assertEquals(24, analyses.size());
+
+    QCAnalysis error = null;
+    for (QCAnalysis analysis : analyses) {
+      Assert.assertEquals("TEST", analysis.getProperty("instrument"));
+      if ("ErrorMetrics".equals(analysis.getProperty("interop_subtype")) &&
+          "2".equals(analysis.getProperty("lane")) && "2".equals(analysis.getProperty("pair"))) {
+        error = analysis;
+      }
+    }
+    Assert.assertNotNull(error);
+    Assert.assertEquals(1d, positionValue(error, 5, "err_rate_mean"), DELTA);
+  }
+
+  @Test
+  public void parallelAggregationMatchesSerial() throws QCAnalysisException {
+    InterOpAggregator aggregator = new InterOpAggregator();
+    aggregator.setRecordsPerTask(3);
+    InterOpReportParser parallel = new InterOpReportParser(aggregator);
+
+    for (String name : new String[]{"TileMetricsOut.bin", "QMetricsOut.bin", "ErrorMetricsOut.bin", "ExtractionMetricsOut.bin"}) {
+      List<QCAnalysis> expected = parser.parseMetricsFile(new File(interop, name), null);
+      List<QCAnalysis> actual = parallel.parseMetricsFile(new File(interop, name), null);
+      Assert.assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+        Map<String, String> general = actual.get(i).getGeneralValues();
+        Assert.assertEquals(expected.get(i).getGeneralValues().keySet(), general.keySet());
+        for (Map.Entry<String, String> e : expected.get(i).getGeneralValues().entrySet()) {
+          Assert.assertEquals(Double.parseDouble(e.getValue()), Double.parseDouble(general.get(e.getKey())), DELTA);
+        }
+
+        List<PositionValue> positions = actual.get(i).getPositionValues();
+        Assert.assertEquals(expected.get(i).getPositionValues().size(), positions.size());
+        for (PositionValue p : expected.get(i).getPositionValues()) {
+          Assert.assertEquals(Double.parseDouble(p.getValue()), positionValue(actual.get(i), p.getPosition(), p.getKey()), DELTA);
+        }
+      }
+    }
+  }
+
+  private static double positionValue(QCAnalysis analysis, long position, String key) {
+    for (PositionValue p : analysis.getPositionValues()) {
+      if (p.getPosition() == position && key.equals(p.getKey())) {
+        return Double.parseDouble(p.getValue());
+      }
+    }
+    Assert.fail("No " + key + " at position " + position);
+    return Double.NaN;
+  }
+
+  private static ByteBuffer header(int version, int recordSize, int records) {
+    ByteBuffer buf = ByteBuffer.allocate(2 + recordSize * records).order(ByteOrder.LITTLE_ENDIAN);
+    buf.put((byte)version).put((byte)recordSize);
+    return buf;
+  }
+
+  private static void qualityRecord(ByteBuffer buf, int lane, int tile, int cycle, int score, int count) {
+    buf.putShort((short)lane).putShort((short)tile).putShort((short)cycle);
+    for (int q = 1; q <= 50; q++) {
+      buf.putInt(q == score ? count : 0);
+    }
+  }
+
+  private static void write(String name, ByteBuffer buf) throws IOException {
+    FileOutputStream out = new FileOutputStream(new File(interop, name));
+    try {
+      out.write(buf.array());
+    }
+    finally {
+      out.close();
+    }
+  }
+}
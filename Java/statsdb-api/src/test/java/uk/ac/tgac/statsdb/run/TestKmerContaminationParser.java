@@ -0,0 +1,75 @@
+package uk.ac.tgac.statsdb.run;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.run.parser.KmerContaminationReportParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Tests the kmer contamination parser against a single sample report
+ *
+ * @since 1.2
+ */
+public class TestKmerContaminationParser {
+  private static File f;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    f = File.createTempFile("statsdb-kmer", ".txt");
+    Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+    try {
+      w.write("Sample\tProgram\tReference\tSampleSize(Ratio)\tSampledReads\tContaminatedReads\tPercentage\tRefKmerPercent\n");
+      w.write("LIB1234\tkontaminant\tphix.fa\t0.1\t1,000,000\t12,345\t1.2345\t0.5\n");
+      w.write("a truncated row\n");
+    }
+    finally {
+      w.close();
+    }
+  }
+
+  @Test
+  public void parseKmerContaminationReport() throws QCAnalysisException {
+    QCAnalysis analysis = new DefaultQCAnalysis();
+    new KmerContaminationReportParser().parseReport(f, analysis);
+
+    Assert.assertEquals("kontaminant", analysis.getProperty("tool"));
+    Assert.assertEquals("phix.fa", analysis.getProperty("reference"));
+    Assert.assertEquals("LIB1234", analysis.getProperty("sample"));
+
+    Map<String, String> values = analysis.getGeneralValues();
+    Assert.assertEquals(5, values.size());
+    Assert.assertEquals("0.1", values.get("sample_size_ratio"));
+    Assert.assertEquals("1000000", values.get("sampled_reads"));
+    Assert.assertEquals("12345", values.get("contaminated_reads"));
+    Assert.assertEquals("1.2345", values.get("percentage"));
+    Assert.assertEquals("0.5", values.get("ref_kmer_percent"));
+    Assert.assertEquals("analysis", analysis.getValueScopes().get("sampled_reads"));
+  }
+
+  @Test(expected = QCAnalysisException.class)
+  public void failsWithoutAHeader() throws QCAnalysisException, IOException {
+    File empty = File.createTempFile("statsdb-kmer", ".txt");
+    try {
+      new KmerContaminationReportParser().parseReport(empty, new DefaultQCAnalysis());
+    }
+    finally {
+      empty.delete();
+    }
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    f.delete();
+  }
+}
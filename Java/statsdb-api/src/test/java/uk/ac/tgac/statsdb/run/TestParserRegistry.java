@@ -0,0 +1,144 @@
+package uk.ac.tgac.statsdb.run;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.dao.QCAnalysisStore;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.ingest.IngestResult;
+import uk.ac.tgac.statsdb.ingest.ParallelIngester;
+import uk.ac.tgac.statsdb.run.parser.FastQCReportParser;
+import uk.ac.tgac.statsdb.run.parser.InterOpReportParser;
+import uk.ac.tgac.statsdb.run.parser.KmerContaminationReportParser;
+import uk.ac.tgac.statsdb.run.parser.ParserRegistry;
+import uk.ac.tgac.statsdb.run.parser.QcReportParser;
+import uk.ac.tgac.statsdb.run.parser.TagCountReportParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests parser discovery and report type detection, and a mixed ingest routed through a ParserRegistry
+ *
+ * @since 1.2
+ */
+public class TestParserRegistry {
+  private static File directory;
+  private static File fastqc;
+  private static File kmer;
+  private static File tagCount;
+  private static File unknown;
+  private static ParserRegistry registry;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    directory = Files.createTempDirectory("statsdb-registry").toFile();
+    fastqc = new File(URI.create(TestParserRegistry.class.getResource("/fastqc_data.txt").toString()));
+    kmer = write("kmer.txt", "Sample\tProgram\tReference\tSampledReads\tRefKmerPercent\nLIB1\tkontaminant\tphix.fa\t100\t0.5\n");
+    tagCount = write("tags.txt", "1 1 ACGTAC 500\n1 1 NNNNNN 20\n");
+    unknown = write("unknown.txt", "not a report\n");
+
+    registry = new ParserRegistry();
+    registry.register(new FastQCReportParser());
+    registry.register(new InterOpReportParser());
+    registry.register(new KmerContaminationReportParser());
+    registry.register(new TagCountReportParser());
+  }
+
+  private static File write(String name, String contents) throws IOException {
+    File f = new File(directory, name);
+    Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+    try {
+      w.write(contents);
+    }
+    finally {
+      w.close();
+    }
+    return f;
+  }
+
+  @Test
+  public void discoversServiceProviders() throws IOException {
+    File services = new File(directory, "META-INF/services");
+    Assert.assertTrue(services.mkdirs());
+    Writer w = new OutputStreamWriter(new FileOutputStream(new File(services, QcReportParser.class.getName())), "UTF-8");
+    try {
+      w.write(KmerContaminationReportParser.class.getName() + "\n");
+      w.write("uk.ac.tgac.statsdb.run.parser.NoSuchReportParser\n");
+      w.write(TagCountReportParser.class.getName() + "\n");
+    }
+    finally {
+      w.close();
+    }
+
+    URLClassLoader loader = new URLClassLoader(new URL[]{directory.toURI().toURL()}, TestParserRegistry.class.getClassLoader());
+    ParserRegistry discovered = ParserRegistry.discover(loader);
+    Assert.assertTrue(discovered.getReportTypes().containsAll(Arrays.asList("kmer", "tagcount")));
+    Assert.assertTrue(discovered.getParser("tagcount") instanceof TagCountReportParser);
+  }
+
+  @Test
+  public void detectsReportTypes() throws QCAnalysisException, IOException {
+    Assert.assertEquals(Arrays.asList("fastqc", "interop", "kmer", "tagcount"), new ArrayList<>(registry.getReportTypes()));
+    Assert.assertTrue(registry.parserFor(fastqc) instanceof FastQCReportParser);
+    Assert.assertTrue(registry.parserFor(kmer) instanceof KmerContaminationReportParser);
+    Assert.assertTrue(registry.parserFor(tagCount) instanceof TagCountReportParser);
+    write("TileMetricsOut.bin", "");
+    Assert.assertTrue(registry.parserFor(new File(directory, "TileMetricsOut.bin")) instanceof InterOpReportParser);
+    Assert.assertNull(registry.parserFor(unknown));
+  }
+
+  @Test(expected = QCAnalysisException.class)
+  public void rejectsUnknownReports() throws QCAnalysisException {
+    registry.parseReport(unknown, new DefaultQCAnalysis());
+  }
+
+  @Test
+  public void ingestsMixedReports() throws QCAnalysisException, InterruptedException {
+    List<QCAnalysis> analyses = new ArrayList<>();
+    for (File report : Arrays.asList(fastqc, kmer, tagCount, unknown)) {
+      QCAnalysis analysis = new DefaultQCAnalysis();
+      analysis.addProperty("lane", "1");
+      analysis.addProperty(ParallelIngester.REPORT_PATH_PROPERTY, report.getAbsolutePath());
+      analyses.add(analysis);
+    }
+
+    ParallelIngester ingester = new ParallelIngester(registry, (QCAnalysisStore)null);
+    ingester.setParserThreads(3);
+    List<IngestResult> results = ingester.ingest(analyses);
+
+    Assert.assertEquals("FastQC", analyses.get(0).getProperty("tool"));
+    Assert.assertEquals("kontaminant", analyses.get(1).getProperty("tool"));
+    Assert.assertEquals("tgac_tag_count", analyses.get(2).getProperty("tool"));
+    Assert.assertEquals("520", analyses.get(2).getGeneralValues().get("tag_count_total"));
+    Assert.assertEquals(IngestResult.Status.FAILED, results.get(3).getStatus());
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    delete(directory);
+  }
+
+  private static void delete(File f) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    f.delete();
+  }
+}
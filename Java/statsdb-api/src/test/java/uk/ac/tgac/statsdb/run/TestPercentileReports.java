@@ -0,0 +1,273 @@
+package uk.ac.tgac.statsdb.run;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import uk.ac.tgac.statsdb.analysis.ColumnarQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.dao.DuplicatePolicy;
+import uk.ac.tgac.statsdb.dao.HsqldbTestDataSource;
+import uk.ac.tgac.statsdb.dao.QCAnalysisDAO;
+import uk.ac.tgac.statsdb.dao.ValueSketchDAO;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.util.QuantileSketch;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Tests the value sketches written on insert by ValueSketchDAO, and the percentile Reports queries that merge them,
+ * against an in-memory HSQLDB database. Three lanes over two runs are inserted, each with two barcodes.
+ *
+ * @since 1.2
+ */
+public class TestPercentileReports {
+  protected static final Logger log = LoggerFactory.getLogger(TestPercentileReports.class);
+
+  private static DataSource dataSource;
+  private static JdbcTemplate template;
+  private static ValueSketchDAO sketchDAO;
+
+  @BeforeClass
+  public static void setUp() throws QCAnalysisException {
+    log.info("Initial setup...");
+    dataSource = HsqldbTestDataSource.create("sketches");
+    template = new JdbcTemplate(dataSource);
+
+    QCAnalysisDAO dao = new QCAnalysisDAO();
+    dao.setJdbcTemplate(template);
+    dao.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    sketchDAO = new ValueSketchDAO(template, dao.getValueTypeDictionary());
+    sketchDAO.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    dao.addListener(sketchDAO);
+
+    // quality_mean at position p of run r, lane l and barcode b is 10 * r + l + b + p
+    int analyses = 0;
+    for (String[] lane : new String[][]{{"1", "1"}, {"1", "2"}, {"2", "1"}}) {
+      for (int barcode = 0; barcode < 2; barcode++) {
+        QCAnalysis analysis = analyses % 2 == 0 ? new DefaultQCAnalysis() : new ColumnarQCAnalysis();
+        analysis.addProperty("instrument", "SN319");
+        analysis.addProperty("run", "RUN_" + lane[0]);
+        analysis.addProperty("lane", lane[1]);
+        analysis.addProperty("barcode", "B" + barcode);
+        analysis.addValueType("quality_mean", "base_partition");
+        analysis.addValueType("total_sequences", "analysis");
+        int base = 10 * Integer.parseInt(lane[0]) + Integer.parseInt(lane[1]) + barcode;
+        for (int position = 1; position <= 3; position++) {
+          analysis.addPositionValue(String.valueOf(position), "quality_mean", String.valueOf(base + position));
+        }
+        analysis.addGeneralValue("total_sequences", String.valueOf(1000 * base), null);
+        dao.insertAnalysis(analysis);
+        analyses++;
+      }
+    }
+  }
+
+  @Test
+  public void sketchesAreKeptPerLane() {
+    Assert.assertEquals(3 * 4, template.queryForInt("SELECT COUNT(*) FROM value_sketch"));
+    Assert.assertEquals(2L, template.queryForLong(
+        "SELECT samples FROM value_sketch WHERE run = 'RUN_1' AND lane = '2' AND position = 3"));
+  }
+
+  @Test
+  public void percentilesAcrossAllRuns() throws SQLException {
+    Reports reports = new Reports(dataSource);
+    ReportTable table = reports.getPercentiles("quality_mean", new double[]{0d, 50d, 100d, 2.5d}, new HashMap<RunProperty, String>());
+    Assert.assertEquals(Arrays.asList("Position", "Samples", "P0", "P50", "P100", "P2.5"), table.getHeaders());
+
+    List<List<String>> rows = table.getTable();
+    Assert.assertEquals(4, rows.size());
+    // position 1 values are 12, 13, 13, 14, 22, 23
+    Assert.assertEquals(Arrays.asList("1", "6", "12.0", "13.5", "23.0"), rows.get(1).subList(0, 5));
+    Assert.assertEquals("3", rows.get(3).get(0));
+  }
+
+  @Test
+  public void percentilesForSelectedRuns() throws SQLException {
+    Reports reports = new Reports(dataSource);
+    Map<RunProperty, String> runProperties = new HashMap<>();
+    runProperties.put(RunProperty.run, "RUN_1");
+    SortedMap<Long, QuantileSketch> sketches = reports.getQuantileSketches("quality_mean", runProperties);
+    Assert.assertEquals(Arrays.asList(1L, 2L, 3L), Arrays.asList(sketches.keySet().toArray()));
+    Assert.assertEquals(4L, sketches.get(2L).getCount());
+    Assert.assertEquals(13d, sketches.get(2L).getMin(), 0d);
+    Assert.assertEquals(15d, sketches.get(2L).getMax(), 0d);
+
+    runProperties.put(RunProperty.lane, "2");
+    QuantileSketch general = reports.getQuantileSketches("total_sequences", runProperties).get(ValueSketchDAO.GENERAL_VALUE_POSITION);
+    Assert.assertEquals(2L, general.getCount());
+    Assert.assertEquals(12500d, general.quantile(0.5d), 0d);
+
+    Assert.assertTrue(reports.getQuantileSketches("no_such_value", runProperties).isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void percentilesCannotSelectBelowLane() throws SQLException {
+    Map<RunProperty, String> runProperties = new HashMap<>();
+    runProperties.put(RunProperty.run, "RUN_1");
+    runProperties.put(RunProperty.barcode, "B0");
+    new Reports(dataSource).getPercentiles("quality_mean", new double[]{50d}, runProperties);
+  }
+
+  @Test
+  public void rebuildMatchesIncrementalSketches() throws SQLException {
+    Reports reports = new Reports(dataSource);
+    ReportTable before = reports.getPercentiles("quality_mean", new double[]{25d, 50d, 75d}, new HashMap<RunProperty, String>());
+
+    Assert.assertEquals(3, sketchDAO.rebuild());
+    Assert.assertEquals(3 * 4, template.queryForInt("SELECT COUNT(*) FROM value_sketch"));
+    ReportTable after = reports.getPercentiles("quality_mean", new double[]{25d, 50d, 75d}, new HashMap<RunProperty, String>());
+    Assert.assertEquals(before.getTable(), after.getTable());
+  }
+
+  @Test
+  public void rebuildOnlyTheLanesOfLoadedAnalyses() throws SQLException, QCAnalysisException {
+    Reports reports = new Reports(dataSource);
+    Map<RunProperty, String> run2 = new HashMap<>();
+    run2.put(RunProperty.run, "RUN_2");
+    ReportTable before = reports.getPercentiles("quality_mean", new double[]{25d, 50d, 75d}, run2);
+    List<Long> run1 = template.queryForList("SELECT id FROM value_sketch WHERE run = 'RUN_1' ORDER BY id", Long.class);
+
+    template.update("DELETE FROM value_sketch WHERE run = 'RUN_2'");
+    QCAnalysis loaded = new DefaultQCAnalysis();
+    loaded.addProperty("instrument", "SN319");
+    loaded.addProperty("run", "RUN_2");
+    loaded.addProperty("lane", "1");
+    Assert.assertEquals(1, sketchDAO.rebuild(Arrays.asList(loaded.getProperties(), loaded.getProperties())));
+
+    Assert.assertEquals(before.getTable(), reports.getPercentiles("quality_mean", new double[]{25d, 50d, 75d}, run2).getTable());
+    Assert.assertEquals(run1, template.queryForList("SELECT id FROM value_sketch WHERE run = 'RUN_1' ORDER BY id", Long.class));
+  }
+
+  @Test
+  public void replacedAnalysesAreNotCountedTwice() throws SQLException, QCAnalysisException {
+    QCAnalysisDAO dao = new QCAnalysisDAO();
+    dao.setJdbcTemplate(template);
+    dao.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    dao.setDuplicatePolicy(DuplicatePolicy.REPLACE);
+    dao.addListener(sketchDAO);
+
+    Reports reports = new Reports(dataSource);
+    Map<RunProperty, String> run3 = new HashMap<>();
+    run3.put(RunProperty.run, "RUN_3");
+    try {
+      dao.insertAnalysis(rerun(30));
+      dao.insertAnalysis(rerun(30));
+      Assert.assertEquals(1L, dao.getSkippedCount());
+      dao.insertAnalysis(rerun(40));
+      Assert.assertEquals(1L, dao.getReplacedCount());
+
+      Assert.assertEquals(3, template.queryForInt("SELECT COUNT(*) FROM value_sketch WHERE run = 'RUN_3'"));
+      List<List<String>> rows = reports.getPercentiles("quality_mean", new double[]{0d, 100d}, run3).getTable();
+      Assert.assertEquals(Arrays.asList("1", "1", "41.0", "41.0"), rows.get(1));
+      Assert.assertEquals(Arrays.asList("3", "1", "43.0", "43.0"), rows.get(3));
+    }
+    finally {
+      template.update("DELETE FROM analysis WHERE id IN (SELECT analysis_id FROM analysis_run_identity WHERE run = 'RUN_3')");
+      template.update("DELETE FROM value_sketch WHERE run = 'RUN_3'");
+    }
+  }
+
+  @Test
+  public void disabledSketchesAreNotWritten() throws QCAnalysisException {
+    QCAnalysisDAO dao = new QCAnalysisDAO();
+    dao.setJdbcTemplate(template);
+    dao.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    ValueSketchDAO disabled = new ValueSketchDAO(template, dao.getValueTypeDictionary());
+    disabled.setEnabled(false);
+    dao.addListener(disabled);
+
+    QCAnalysis analysis = rerun(60);
+    dao.insertAnalysis(analysis);
+    try {
+      Assert.assertEquals(0, template.queryForInt("SELECT COUNT(*) FROM value_sketch WHERE run = 'RUN_3'"));
+    }
+    finally {
+      template.update("DELETE FROM analysis WHERE id = ?", analysis.getId());
+    }
+  }
+
+  @Test
+  public void concurrentFirstSketchesOfALaneAreMerged() throws QCAnalysisException {
+    QCAnalysisDAO dao = new QCAnalysisDAO();
+    dao.setJdbcTemplate(template);
+    // another process, with its own locks, sketching the same new lane
+    final ValueSketchDAO other = new ValueSketchDAO(template, dao.getValueTypeDictionary());
+    other.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    final QCAnalysis analysis = rerun(50);
+    final boolean[] raced = {false};
+
+    DataSource racing = new DelegatingDataSource(dataSource) {
+      @Override
+      public Connection getConnection() throws SQLException {
+        final Connection con = super.getConnection();
+        return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!raced[0] && "prepareStatement".equals(method.getName()) && ((String)args[0]).startsWith("INSERT INTO value_sketch")) {
+              raced[0] = true;
+              other.addAnalysis(analysis);
+            }
+            try {
+              return method.invoke(con, args);
+            }
+            catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+          }
+        });
+      }
+    };
+    ValueSketchDAO sketches = new ValueSketchDAO(new JdbcTemplate(racing), dao.getValueTypeDictionary());
+    sketches.setTransactionManager(new DataSourceTransactionManager(racing));
+    try {
+      sketches.addAnalysis(analysis);
+      Assert.assertTrue(raced[0]);
+      Assert.assertEquals(Arrays.asList(2L, 2L, 2L), template.queryForList(
+          "SELECT samples FROM value_sketch WHERE run = 'RUN_3' ORDER BY position", Long.class));
+    }
+    finally {
+      template.update("DELETE FROM value_sketch WHERE run = 'RUN_3'");
+    }
+  }
+
+  /**
+   * A report of lane 1 of RUN_3, with quality_mean base + p at position p
+   */
+  private static QCAnalysis rerun(int base) throws QCAnalysisException {
+    QCAnalysis analysis = new DefaultQCAnalysis();
+    analysis.addProperty("instrument", "SN319");
+    analysis.addProperty("run", "RUN_3");
+    analysis.addProperty("lane", "1");
+    analysis.addValueType("quality_mean", "base_partition");
+    for (int position = 1; position <= 3; position++) {
+      analysis.addPositionValue(String.valueOf(position), "quality_mean", String.valueOf(base + position));
+    }
+    return analysis;
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    log.info("Final teardown...");
+    template.execute("SHUTDOWN");
+    template = null;
+  }
+}
@@ -0,0 +1,180 @@
+package uk.ac.tgac.statsdb.run;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.dao.HsqldbTestDataSource;
+import uk.ac.tgac.statsdb.dao.QCAnalysisDAO;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.run.parser.FastQCReportParser;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the multi-metric per-position Reports query and the ReportsDecorator methods built on it, and the canned run,
+ * lane, barcode and sample queries, against an in-memory HSQLDB database holding a parsed FastQC report. HSQLDB has no
+ * MySQL stored procedures, so stand-ins for summary_per_position_for_run and summary_per_position_multi_for_run that
+ * ignore the run filters are used.
+ *
+ * @since 1.2
+ */
+public class TestReports {
+  protected static final Logger log = LoggerFactory.getLogger(TestReports.class);
+
+  private static DataSource dataSource;
+  private static JdbcTemplate template;
+
+  @BeforeClass
+  public static void setUp() throws IOException, QCAnalysisException {
+    log.info("Initial setup...");
+    dataSource = HsqldbTestDataSource.create("multimetric");
+    template = new JdbcTemplate(dataSource);
+    template.execute(
+        "CREATE PROCEDURE summary_per_position_multi_for_run(IN partition_values VARCHAR(2000), " +
+        "IN instrument_in VARCHAR(500), IN run_in VARCHAR(500), IN lane_in VARCHAR(500), IN pair_in VARCHAR(500), " +
+        "IN sample_name_in VARCHAR(500), IN barcode_in VARCHAR(500), IN tool_in VARCHAR(500)) " +
+        "READS SQL DATA DYNAMIC RESULT SETS 1 " +
+        "BEGIN ATOMIC " +
+        "  DECLARE result CURSOR WITH RETURN FOR " +
+        "    SELECT * FROM (" +
+        "      SELECT val.description AS Description, pos.position AS Position, CAST(pos.size AS VARCHAR(10)) AS Size, " +
+        "        AVG(pos.value) AS Average, COUNT(*) AS Samples, SUM(pos.value) AS Total " +
+        "      FROM per_partition_value AS pos INNER JOIN value_type AS val ON val.id = pos.value_type_id " +
+        "      WHERE POSITION(',' || val.description || ',' IN ',' || partition_values || ',') > 0 " +
+        "      GROUP BY val.description, pos.position, pos.size " +
+        "      UNION ALL " +
+        "      SELECT val.description, pos.position, '1', AVG(pos.value), COUNT(*), SUM(pos.value) " +
+        "      FROM per_position_value AS pos INNER JOIN value_type AS val ON val.id = pos.value_type_id " +
+        "      WHERE POSITION(',' || val.description || ',' IN ',' || partition_values || ',') > 0 " +
+        "      AND NOT EXISTS (SELECT * FROM per_partition_value WHERE value_type_id = val.id) " +
+        "      GROUP BY val.description, pos.position" +
+        "    ) AS summary ORDER BY Description, Position; " +
+        "  OPEN result; " +
+        "END");
+    template.execute(
+        "CREATE PROCEDURE summary_per_position_for_run(IN partition_value VARCHAR(45), " +
+        "IN instrument_in VARCHAR(500), IN run_in VARCHAR(500), IN lane_in VARCHAR(500), IN pair_in VARCHAR(500), " +
+        "IN barcode_in VARCHAR(500)) " +
+        "READS SQL DATA DYNAMIC RESULT SETS 1 " +
+        "BEGIN ATOMIC " +
+        "  DECLARE result CURSOR WITH RETURN FOR " +
+        "    SELECT * FROM (" +
+        "      SELECT pos.position AS Position, CAST(pos.size AS VARCHAR(10)) AS Size, " +
+        "        AVG(pos.value) AS Average, COUNT(*) AS Samples, SUM(pos.value) AS Total " +
+        "      FROM per_partition_value AS pos INNER JOIN value_type AS val ON val.id = pos.value_type_id " +
+        "      WHERE val.description = partition_value " +
+        "      GROUP BY pos.position, pos.size " +
+        "      UNION ALL " +
+        "      SELECT pos.position, '1', AVG(pos.value), COUNT(*), SUM(pos.value) " +
+        "      FROM per_position_value AS pos INNER JOIN value_type AS val ON val.id = pos.value_type_id " +
+        "      WHERE val.description = partition_value " +
+        "      AND NOT EXISTS (SELECT * FROM per_partition_value WHERE value_type_id = val.id) " +
+        "      GROUP BY pos.position" +
+        "    ) AS summary ORDER BY Position; " +
+        "  OPEN result; " +
+        "END");
+
+    URL furl = TestReports.class.getResource("/fastqc_data.txt");
+    if (furl == null) {
+      throw new IOException("No such file 'fastqc_data.txt'. Cannot run report tests");
+    }
+    QCAnalysis analysis = new DefaultQCAnalysis();
+    analysis.addProperty("instrument", "SN319");
+    analysis.addProperty("run", "111104_SN319_0169_BD08YFACXX");
+    analysis.addProperty("lane", "1");
+    analysis.addProperty("barcode", "ACGTAC");
+    analysis.addProperty("sample_name", "SAMPLE_1");
+    new FastQCReportParser().parseReport(new File(URI.create(furl.toString())), analysis);
+
+    QCAnalysisDAO dao = new QCAnalysisDAO();
+    dao.setJdbcTemplate(template);
+    dao.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    dao.insertAnalysis(analysis);
+
+    // a value type with both partition and position values is summarised from its partitions alone
+    template.update("INSERT INTO per_position_value (analysis_id, position, value, value_type_id) " +
+                    "SELECT analysis_id, position, value, value_type_id FROM per_partition_value " +
+                    "WHERE value_type_id = (SELECT id FROM value_type WHERE description = 'quality_mean')");
+  }
+
+  @Test
+  public void multiMetricPerPositionValues() throws SQLException {
+    Reports reports = new Reports(dataSource);
+    Map<String, ReportTable> report = reports.getPerPositionValues(
+        Arrays.asList("quality_mean", "base_content_a", "no_such_value"), new HashMap<RunProperty, String>());
+
+    Assert.assertEquals(Arrays.asList("quality_mean", "base_content_a", "no_such_value"),
+                        Arrays.asList(report.keySet().toArray()));
+    Assert.assertEquals(5, report.get("quality_mean").getHeaders().size());
+    Assert.assertEquals(partitionCount("quality_mean"), report.get("quality_mean").getTable().size() - 1);
+    Assert.assertEquals(partitionCount("base_content_a"), report.get("base_content_a").getTable().size() - 1);
+    Assert.assertTrue(report.get("no_such_value").isEmpty());
+  }
+
+  @Test
+  public void multiMetricMatchesSingleQueries() throws SQLException {
+    Reports reports = new Reports(dataSource);
+    List<String> analyses = Arrays.asList("quality_mean", "quality_median", "base_content_a", "gc_content_percentage");
+    Map<String, ReportTable> report = reports.getPerPositionValues(analyses, new HashMap<RunProperty, String>());
+    for (String analysis : analyses) {
+      ReportTable single = reports.getPerPositionValues(analysis, new HashMap<RunProperty, String>());
+      Assert.assertFalse(analysis + " should have values", single.isEmpty());
+      Assert.assertEquals(analysis, single.getTable(), report.get(analysis).getTable());
+    }
+  }
+
+  @Test
+  public void decoratorUsesSingleQuery() throws SQLException {
+    ReportsDecorator decorator = new ReportsDecorator(new Reports(dataSource));
+    Map<String, ReportTable> quality = decorator.getPerPositionBaseSequenceQuality(new HashMap<RunProperty, String>());
+    Assert.assertEquals(6, quality.size());
+    for (Map.Entry<String, ReportTable> e : quality.entrySet()) {
+      Assert.assertFalse(e.getKey() + " should have values", e.getValue().isEmpty());
+    }
+
+    Map<String, ReportTable> content = decorator.getPerPositionBaseContent(new HashMap<RunProperty, String>());
+    Assert.assertEquals(4, content.size());
+    for (Map.Entry<String, ReportTable> e : content.entrySet()) {
+      Assert.assertFalse(e.getKey() + " should have values", e.getValue().isEmpty());
+    }
+  }
+
+  @Test
+  public void cannedQueriesUseRunIdentity() throws SQLException {
+    Reports reports = new Reports(dataSource);
+    Assert.assertEquals(Arrays.asList("111104_SN319_0169_BD08YFACXX"), reports.listRunsForInstrument("SN319"));
+    Assert.assertEquals(Arrays.asList("1"), reports.listLanesForRun("111104_SN319_0169_BD08YFACXX"));
+    Assert.assertEquals(Arrays.asList("ACGTAC"), reports.listBarcodesForRunAndLane("111104_SN319_0169_BD08YFACXX", "1"));
+    Assert.assertEquals("SAMPLE_1", reports.getSampleFromRunLaneBarcode("111104_SN319_0169_BD08YFACXX", "1", "ACGTAC"));
+    Assert.assertTrue(reports.listLanesForRun("NO_SUCH_RUN").isEmpty());
+  }
+
+  private int partitionCount(String description) {
+    return template.queryForInt(
+        "SELECT COUNT(*) FROM per_partition_value p INNER JOIN value_type v ON v.id = p.value_type_id " +
+        "WHERE v.description = ?", description);
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    log.info("Final teardown...");
+    template.execute("SHUTDOWN");
+    template = null;
+  }
+}
@@ -0,0 +1,249 @@
+package uk.ac.tgac.statsdb.run;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import uk.ac.tgac.statsdb.analysis.ColumnarQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.dao.HsqldbTestDataSource;
+import uk.ac.tgac.statsdb.dao.QCAnalysisDAO;
+import uk.ac.tgac.statsdb.dao.ValueRollupDAO;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the value rollups maintained on insert by ValueRollupDAO, and the Reports summaries read from them, against an
+ * in-memory HSQLDB database. Three lanes over two runs are inserted, each with two barcodes, plus an analysis without
+ * a barcode that the rollups leave out. A DAO whose rollups aren't enabled leaves them alone.
+ *
+ * @since 1.2
+ */
+public class TestRollupReports {
+  protected static final Logger log = LoggerFactory.getLogger(TestRollupReports.class);
+
+  private static final String ROLLUPS_SELECT =
+      "SELECT source, value_type_id, position, instrument, run, lane, pair, size, samples, total, minimum, maximum " +
+      "FROM value_rollup ORDER BY source, value_type_id, position, instrument, run, lane, pair";
+
+  private static DataSource dataSource;
+  private static JdbcTemplate template;
+  private static QCAnalysisDAO dao;
+  private static ValueRollupDAO rollupDAO;
+
+  @BeforeClass
+  public static void setUp() throws QCAnalysisException {
+    log.info("Initial setup...");
+    dataSource = HsqldbTestDataSource.create("rollups");
+    template = new JdbcTemplate(dataSource);
+
+    dao = new QCAnalysisDAO();
+    dao.setJdbcTemplate(template);
+    dao.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    rollupDAO = new ValueRollupDAO(template);
+    rollupDAO.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    dao.setValueRollupDAO(rollupDAO);
+
+    for (int[] lane : new int[][]{{1, 1}, {1, 2}, {2, 1}}) {
+      for (int barcode = 0; barcode < 2; barcode++) {
+        dao.insertAnalysis(analysis(lane[0], lane[1], "B" + barcode, 10 * lane[0] + lane[1] + barcode, barcode == 1));
+      }
+    }
+    dao.insertAnalysis(analysis(1, 1, null, 50, false));
+  }
+
+  /**
+   * Values are base + 1 and base + 2 for the quality_mean partitions 1-2 and 3-4, base + p for base_content_a at
+   * position p, and 1000 * base for total_sequences
+   */
+  private static QCAnalysis analysis(int run, int lane, String barcode, int base, boolean columnar) throws QCAnalysisException {
+    QCAnalysis analysis = columnar ? new ColumnarQCAnalysis() : new DefaultQCAnalysis();
+    analysis.addProperty("instrument", "SN319");
+    analysis.addProperty("run", "RUN_" + run);
+    analysis.addProperty("lane", String.valueOf(lane));
+    analysis.addProperty("pair", "1");
+    analysis.addProperty("sample_name", "SAMPLE_" + barcode);
+    analysis.addProperty("tool", "FastQC");
+    if (barcode != null) {
+      analysis.addProperty("barcode", barcode);
+    }
+    analysis.addValueType("quality_mean", "base_partition");
+    analysis.addValueType("base_content_a", "base_partition");
+    analysis.addValueType("total_sequences", "analysis");
+    analysis.addPartitionValue("1-2", "quality_mean", String.valueOf(base + 1));
+    analysis.addPartitionValue("3-4", "quality_mean", String.valueOf(base + 2));
+    for (int position = 1; position <= 3; position++) {
+      analysis.addPositionValue(String.valueOf(position), "base_content_a", String.valueOf(base + position));
+    }
+    analysis.addGeneralValue("total_sequences", String.valueOf(1000 * base), null);
+    return analysis;
+  }
+
+  private static QCAnalysis otherInstrument(QCAnalysis analysis) throws QCAnalysisException {
+    analysis.addProperty("instrument", "SN7001");
+    return analysis;
+  }
+
+  private static Reports reports() {
+    Reports reports = new Reports(dataSource);
+    reports.setUseRollups(true);
+    return reports;
+  }
+
+  @Test
+  public void rollupsAreKeptPerGroup() {
+    Assert.assertEquals(6, template.queryForInt("SELECT COUNT(*) FROM value_rollup WHERE run = 'RUN_1' AND lane = '1'"));
+    Assert.assertEquals(2L, template.queryForLong(
+        "SELECT samples FROM value_rollup WHERE run = 'RUN_1' AND lane = '1' AND position = 3 AND source = " + ValueRollupDAO.POSITION_VALUES));
+    Assert.assertEquals(11d + 3d, template.queryForObject(
+        "SELECT minimum FROM value_rollup WHERE run = 'RUN_1' AND lane = '1' AND position = 3 AND source = " + ValueRollupDAO.POSITION_VALUES, Double.class), 0d);
+  }
+
+  @Test
+  public void perPositionValuesFromRollups() throws SQLException {
+    Map<RunProperty, String> runProperties = new HashMap<>();
+    runProperties.put(RunProperty.run, "RUN_1");
+    ReportTable table = reports().getPerPositionValues("base_content_a", runProperties);
+    Assert.assertEquals(Arrays.asList("Position", "Size", "Average", "Samples", "Total"), table.getHeaders());
+    Assert.assertEquals(4, table.getTable().size());
+    // position 1 values are 12, 13, 13, 14
+    Assert.assertEquals(Arrays.asList("1", "1", "13.0", "4", "52.0"), table.getTable().get(1));
+
+    runProperties.clear();
+    runProperties.put(RunProperty.instrument, "SN319");
+    table = reports().getPerPositionValues("quality_mean", runProperties);
+    Assert.assertEquals(3, table.getTable().size());
+    // partition 3-4 values are 13, 14, 14, 15, 23, 24
+    Assert.assertEquals(Arrays.asList("3", "2", "17.166666666666668", "6", "103.0"), table.getTable().get(2));
+  }
+
+  @Test
+  public void multiMetricPerPositionValuesFromRollups() throws SQLException {
+    Map<RunProperty, String> runProperties = new HashMap<>();
+    runProperties.put(RunProperty.instrument, "SN319");
+    runProperties.put(RunProperty.lane, "1");
+    runProperties.put(RunProperty.pair, "1");
+    Map<String, ReportTable> report = reports().getPerPositionValues(
+        Arrays.asList("quality_mean", "base_content_a", "no_such_value"), runProperties);
+
+    Assert.assertEquals(Arrays.asList("quality_mean", "base_content_a", "no_such_value"), Arrays.asList(report.keySet().toArray()));
+    Assert.assertEquals(3, report.get("quality_mean").getTable().size());
+    List<String> last = report.get("base_content_a").getTable().get(3);
+    // position 3 values are 14, 15, 24, 25
+    Assert.assertEquals(Arrays.asList("3", "1", "19.5", "4", "78.0"), last);
+    Assert.assertTrue(report.get("no_such_value").isEmpty());
+  }
+
+  @Test
+  public void asyncPerPositionValuesMatchRollups() throws SQLException {
+    Map<RunProperty, String> runProperties = new HashMap<>();
+    runProperties.put(RunProperty.instrument, "SN319");
+    runProperties.put(RunProperty.lane, "1");
+    List<String> analyses = Arrays.asList("quality_mean", "base_content_a");
+    Map<String, ReportTable> expected = reports().getPerPositionValues(analyses, runProperties);
+
+    try (AsyncReports async = new AsyncReports(reports(), 2, 4)) {
+      Map<String, ReportTable> report = async.getPerPositionValues(analyses, runProperties).join();
+      Assert.assertEquals(analyses, Arrays.asList(report.keySet().toArray()));
+      for (String analysis : analyses) {
+        Assert.assertEquals(expected.get(analysis).getTable(), report.get(analysis).getTable());
+      }
+    }
+  }
+
+  @Test
+  public void averageValuesFromRollups() throws SQLException {
+    Map<RunProperty, String> runProperties = new HashMap<>();
+    runProperties.put(RunProperty.run, "RUN_2");
+    ReportTable table = reports().getAverageValues(runProperties);
+    Assert.assertEquals(Arrays.asList("Description", "Average", "Samples", "Total"), table.getHeaders());
+    Assert.assertEquals(Arrays.asList("total_sequences", "21500.0", "2", "43000.0"), table.getTable().get(1));
+  }
+
+  @Test
+  public void supersededAnalysesAreRecomputed() throws QCAnalysisException {
+    QCAnalysis first = otherInstrument(analysis(3, 1, "B0", 31, false));
+    dao.insertAnalysis(first);
+    dao.insertAnalysis(otherInstrument(analysis(3, 1, "B1", 32, true)));
+    template.update("UPDATE analysis SET analysisDate = TIMESTAMP '1960-01-01 00:00:00' WHERE id = ?", first.getId());
+    Assert.assertEquals(2L, template.queryForLong(
+        "SELECT samples FROM value_rollup WHERE run = 'RUN_3' AND source = " + ValueRollupDAO.GENERAL_VALUES));
+
+    dao.insertAnalysis(otherInstrument(analysis(3, 1, "B0", 100, false)));
+    Map<String, Object> general = template.queryForMap(
+        "SELECT samples, total, minimum, maximum FROM value_rollup WHERE run = 'RUN_3' AND source = " + ValueRollupDAO.GENERAL_VALUES);
+    Assert.assertEquals(2L, ((Number)general.get("samples")).longValue());
+    Assert.assertEquals(132000d, ((Number)general.get("total")).doubleValue(), 0d);
+    Assert.assertEquals(32000d, ((Number)general.get("minimum")).doubleValue(), 0d);
+    Assert.assertEquals(100000d, ((Number)general.get("maximum")).doubleValue(), 0d);
+
+    // a late arrival that is older than the current analysis of its identity is left out
+    template.update("UPDATE analysis SET analysisDate = TIMESTAMP '2030-01-01 00:00:00' WHERE id = " +
+                    "(SELECT MAX(id) FROM analysis)");
+    dao.insertAnalysis(otherInstrument(analysis(3, 1, "B0", 200, false)));
+    Assert.assertEquals(132000d, template.queryForObject(
+        "SELECT total FROM value_rollup WHERE run = 'RUN_3' AND source = " + ValueRollupDAO.GENERAL_VALUES, Double.class), 0d);
+  }
+
+  @Test
+  public void disabledRollupsAreNotWritten() throws QCAnalysisException {
+    ValueRollupDAO disabled = new ValueRollupDAO(template);
+    disabled.setEnabled(false);
+    QCAnalysisDAO legacy = new QCAnalysisDAO();
+    legacy.setJdbcTemplate(template);
+    legacy.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    legacy.setValueRollupDAO(disabled);
+
+    QCAnalysis analysis = analysis(4, 1, "B0", 40, false);
+    legacy.insertAnalysis(analysis);
+    try {
+      Assert.assertEquals(0, template.queryForInt("SELECT COUNT(*) FROM value_rollup WHERE run = 'RUN_4'"));
+    }
+    finally {
+      template.update("DELETE FROM analysis WHERE id = ?", analysis.getId());
+    }
+  }
+
+  @Test
+  public void rebuildMatchesIncrementalRollups() {
+    List<Map<String, Object>> before = template.queryForList(ROLLUPS_SELECT);
+    Assert.assertEquals(before.size() / 6, rollupDAO.rebuild());
+    Assert.assertEquals(before, template.queryForList(ROLLUPS_SELECT));
+  }
+
+  @Test
+  public void rebuildOnlyTheGroupsOfLoadedAnalyses() throws QCAnalysisException {
+    List<Map<String, Object>> before = template.queryForList(ROLLUPS_SELECT);
+    template.update("DELETE FROM value_rollup WHERE run = 'RUN_2'");
+    template.update("DELETE FROM value_rollup WHERE run = 'RUN_1' AND lane = '2'");
+    try {
+      Map<String, String> b0 = analysis(2, 1, "B0", 0, false).getProperties();
+      Map<String, String> b1 = analysis(2, 1, "B1", 0, true).getProperties();
+      Assert.assertEquals(1, rollupDAO.rebuild(Arrays.asList(b0, b1)));
+      Assert.assertEquals(6, template.queryForInt("SELECT COUNT(*) FROM value_rollup WHERE run = 'RUN_2'"));
+      Assert.assertEquals(0, template.queryForInt("SELECT COUNT(*) FROM value_rollup WHERE run = 'RUN_1' AND lane = '2'"));
+    }
+    finally {
+      rollupDAO.rebuild();
+    }
+    Assert.assertEquals(before, template.queryForList(ROLLUPS_SELECT));
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    log.info("Final teardown...");
+    template.execute("SHUTDOWN");
+    template = null;
+  }
+}
@@ -0,0 +1,107 @@
+package uk.ac.tgac.statsdb.run;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.run.parser.TagCountReportParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Tests the tag count parser against a two lane file with two expected tags in lane 1 and many unexpected ones
+ *
+ * @since 1.2
+ */
+public class TestTagCountParser {
+  private static File f;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    f = File.createTempFile("statsdb-tagcount", ".txt");
+    Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+    try {
+      w.write("1 1 AAAAAA 5000\n");
+      w.write("1 1 CCCCCC 4000\n");
+      // 1000 unexpected tags in lane 1, with counts 1 to 1000
+      for (int i = 1; i <= 1000; i++) {
+        w.write("1\t1\tNN" + String.format("%04d", i) + "\t" + i + "\n");
+      }
+      w.write("2 1 GGGGGG 7000\n");
+      w.write("\n");
+    }
+    finally {
+      w.close();
+    }
+  }
+
+  private static QCAnalysis analysis(String lane, String barcode) throws QCAnalysisException {
+    QCAnalysis analysis = new DefaultQCAnalysis();
+    if (lane != null) {
+      analysis.addProperty("lane", lane);
+    }
+    if (barcode != null) {
+      analysis.addProperty("barcode", barcode);
+    }
+    return analysis;
+  }
+
+  @Test
+  public void keepsTopUnexpectedTags() throws QCAnalysisException {
+    TagCountReportParser parser = new TagCountReportParser();
+    parser.setTopTags(3);
+    QCAnalysis analysis = analysis("1", "AAAAAA,CCCCCC,TTTTTT");
+    parser.parseReport(f, analysis);
+
+    Map<String, String> values = analysis.getGeneralValues();
+    long unexpected = 1000L * 1001L / 2L;
+    Assert.assertEquals("tgac_tag_count", analysis.getProperty("tool"));
+    Assert.assertEquals(String.valueOf(9000L + unexpected), values.get("tag_count_total"));
+    Assert.assertEquals("9000", values.get("tag_count_expected"));
+    Assert.assertEquals(String.valueOf(unexpected), values.get("tag_count_unexpected"));
+    Assert.assertEquals("1002", values.get("tag_count_observed"));
+
+    Assert.assertEquals("5000", values.get("AAAAAA"));
+    Assert.assertEquals("4000", values.get("CCCCCC"));
+    Assert.assertEquals("0", values.get("TTTTTT"));
+    Assert.assertEquals("1000", values.get("NN1000"));
+    Assert.assertEquals("999", values.get("NN0999"));
+    Assert.assertEquals("998", values.get("NN0998"));
+    Assert.assertFalse(values.containsKey("NN0997"));
+    Assert.assertFalse(values.containsKey("GGGGGG"));
+
+    // four summary types plus the three expected and three unexpected tags
+    Assert.assertEquals(10, analysis.getValueScopes().size());
+    Assert.assertEquals(TagCountReportParser.TAG_SCOPE, analysis.getValueScopes().get("NN1000"));
+  }
+
+  @Test
+  public void countsEveryLaneWithoutALaneProperty() throws QCAnalysisException {
+    TagCountReportParser parser = new TagCountReportParser();
+    parser.setTopTags(0);
+    QCAnalysis analysis = analysis(null, null);
+    parser.parseReport(f, analysis);
+
+    Assert.assertEquals("1003", analysis.getGeneralValues().get("tag_count_observed"));
+    Assert.assertEquals("0", analysis.getGeneralValues().get("tag_count_expected"));
+    Assert.assertEquals(4, analysis.getGeneralValues().size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNegativeTopTags() {
+    new TagCountReportParser().setTopTags(-1);
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    f.delete();
+  }
+}
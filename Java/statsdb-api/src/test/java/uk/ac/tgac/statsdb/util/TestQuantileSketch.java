@@ -0,0 +1,99 @@
+package uk.ac.tgac.statsdb.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests QuantileSketch accuracy, merging and serialisation against exact quantiles
+ *
+ * @since 1.2
+ */
+public class TestQuantileSketch {
+  @Test
+  public void smallDistributionsAreExact() {
+    QuantileSketch sketch = new QuantileSketch();
+    for (double v : new double[]{5d, 1d, 3d, 2d, 4d}) {
+      sketch.add(v);
+    }
+    Assert.assertEquals(5L, sketch.getCount());
+    Assert.assertEquals(1d, sketch.quantile(0d), 0d);
+    Assert.assertEquals(3d, sketch.quantile(0.5d), 0d);
+    Assert.assertEquals(5d, sketch.quantile(1d), 0d);
+    Assert.assertEquals(1d, sketch.getMin(), 0d);
+    Assert.assertEquals(5d, sketch.getMax(), 0d);
+
+    QuantileSketch single = new QuantileSketch();
+    single.add(42d);
+    Assert.assertEquals(42d, single.quantile(0.9d), 0d);
+    Assert.assertTrue(Double.isNaN(new QuantileSketch().quantile(0.5d)));
+  }
+
+  @Test
+  public void largeDistributionsAreAccurate() {
+    Random r = new Random(42L);
+    double[] values = new double[100000];
+    QuantileSketch sketch = new QuantileSketch();
+    for (int i = 0; i < values.length; i++) {
+      values[i] = 30d + 5d * r.nextGaussian();
+      sketch.add(values[i]);
+    }
+    Arrays.sort(values);
+
+    Assert.assertEquals(values.length, sketch.getCount());
+    for (double q : new double[]{0.001d, 0.01d, 0.05d, 0.25d, 0.5d, 0.75d, 0.95d, 0.99d, 0.999d}) {
+      // within 0.5% of the rank
+      double estimate = sketch.quantile(q);
+      int rank = Arrays.binarySearch(values, estimate);
+      rank = rank < 0 ? -rank - 1 : rank;
+      Assert.assertEquals("quantile " + q, q, (double)rank / values.length, 0.005d);
+    }
+    Assert.assertEquals(values[0], sketch.quantile(0d), 0d);
+    Assert.assertEquals(values[values.length - 1], sketch.quantile(1d), 0d);
+    Assert.assertTrue(sketch.toBytes().length < 5000);
+  }
+
+  @Test
+  public void mergedSketchesMatchASingleSketch() {
+    Random r = new Random(7L);
+    QuantileSketch whole = new QuantileSketch();
+    QuantileSketch merged = new QuantileSketch();
+    for (int part = 0; part < 20; part++) {
+      QuantileSketch sketch = new QuantileSketch();
+      for (int i = 0; i < 2000; i++) {
+        double v = part * 0.5d + r.nextDouble() * 10d;
+        whole.add(v);
+        sketch.add(v);
+      }
+      merged.merge(QuantileSketch.fromBytes(sketch.toBytes()));
+    }
+
+    Assert.assertEquals(whole.getCount(), merged.getCount());
+    Assert.assertEquals(whole.getMin(), merged.getMin(), 0d);
+    Assert.assertEquals(whole.getMax(), merged.getMax(), 0d);
+    for (double q : new double[]{0.01d, 0.1d, 0.5d, 0.9d, 0.99d}) {
+      Assert.assertEquals("quantile " + q, whole.quantile(q), merged.quantile(q), 0.1d);
+    }
+  }
+
+  @Test
+  public void serialisationRoundTrips() {
+    QuantileSketch sketch = new QuantileSketch(50d);
+    for (int i = 0; i < 1000; i++) {
+      sketch.add(i % 37);
+    }
+    QuantileSketch copy = QuantileSketch.fromBytes(sketch.toBytes());
+    Assert.assertEquals(50d, copy.getCompression(), 0d);
+    Assert.assertEquals(sketch.getCount(), copy.getCount());
+    for (double q = 0d; q <= 1d; q += 0.05d) {
+      Assert.assertEquals(sketch.quantile(q), copy.quantile(q), 0d);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidBytes() {
+    QuantileSketch.fromBytes(new byte[]{9, 9, 9});
+  }
+}
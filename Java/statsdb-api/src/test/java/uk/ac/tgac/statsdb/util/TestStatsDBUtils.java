@@ -0,0 +1,84 @@
+package uk.ac.tgac.statsdb.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import java.util.Random;
+
+/**
+ * Tests the allocation-free range, position and double parsers against their java.lang equivalents
+ *
+ * @since 1.2
+ */
+public class TestStatsDBUtils {
+  @Test
+  public void parseRangeSlices() throws QCAnalysisException {
+    long[] bounds = new long[2];
+    StatsDBUtils.parseRange("x\t32-142\ty", 2, 8, bounds);
+    Assert.assertArrayEquals(new long[]{32L, 142L}, bounds);
+    StatsDBUtils.parseRange("7", 0, 1, bounds);
+    Assert.assertArrayEquals(new long[]{7L, 7L}, bounds);
+
+    for (String invalid : new String[]{"", "-", "1-", "-1", "1-2-3", "a-b", "10++", "99999999999999999999"}) {
+      try {
+        StatsDBUtils.parseRange(invalid, 0, invalid.length(), bounds);
+        Assert.fail("'" + invalid + "' isn't a valid range");
+      }
+      catch (QCAnalysisException e) {
+        // expected
+      }
+    }
+
+    Assert.assertEquals("10", StatsDBUtils.rangeToSize("142-133").getValue());
+    Assert.assertEquals("133", StatsDBUtils.rangeToSize("142-133").getKey());
+  }
+
+  @Test
+  public void parsePositionSlices() {
+    Assert.assertEquals(10L, StatsDBUtils.parsePosition("10++", 0, 4));
+    Assert.assertEquals(150L, StatsDBUtils.parsePosition("\t150\t", 1, 4));
+    Assert.assertEquals(-1L, StatsDBUtils.parsePosition("+", 0, 1));
+    Assert.assertEquals(-1L, StatsDBUtils.parsePosition("", 0, 0));
+    Assert.assertEquals(-1L, StatsDBUtils.parsePosition("1.5", 0, 3));
+    Assert.assertEquals(-1L, StatsDBUtils.parsePosition("99999999999999999999", 0, 20));
+  }
+
+  @Test
+  public void parseDoubleMatchesJavaLang() {
+    String[] values = {
+        "0", "-0", "-0.0", "1", "30.5", ".5", "5.", "+2.25", "0.001", "1e3", "1.5E-7", "-2.5e+10",
+        "36.27388148668641", "0.1", "0.30000000000000004", "123456789012345678901234", "1e-400", "1e400",
+        "4.9e-324", "1.7976931348623157E308", "NaN", "-Infinity", " 12 ", "12d", "0.0000000000000000000000001"
+    };
+    for (String value : values) {
+      assertSameDouble(value);
+    }
+
+    Random r = new Random(42L);
+    for (int i = 0; i < 100000; i++) {
+      assertSameDouble(Double.toString(r.nextDouble() * Math.pow(10, r.nextInt(20) - 10)));
+      assertSameDouble(String.valueOf(r.nextInt(1000000)) + "." + r.nextInt(1000));
+    }
+  }
+
+  @Test
+  public void parseDoubleRejectsNonNumbers() {
+    for (String invalid : new String[]{"", "-", ".", "e5", "1e", "1.2.3", "abc", "1,5"}) {
+      try {
+        StatsDBUtils.parseDouble(invalid, 0, invalid.length());
+        Assert.fail("'" + invalid + "' isn't a valid double");
+      }
+      catch (NumberFormatException e) {
+        // expected
+      }
+    }
+  }
+
+  private static void assertSameDouble(String value) {
+    String line = "pos\t" + value + "\tnext";
+    double expected = Double.parseDouble(value);
+    double actual = StatsDBUtils.parseDouble(line, 4, 4 + value.length());
+    Assert.assertEquals(value, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+  }
+}
@@ -0,0 +1,175 @@
+-- -----------------------------------------------------
+-- HSQLDB flavour of SQL/statsdb_schema.sql, used by the
+-- in-memory DAO tests and loader benchmarks
+-- -----------------------------------------------------
+DROP TRIGGER analysis_property_run_identity IF EXISTS;
+DROP TABLE value_rollup IF EXISTS;
+DROP TABLE value_sketch IF EXISTS;
+DROP TABLE analysis_fingerprint IF EXISTS;
+DROP TABLE analysis_run_identity IF EXISTS;
+DROP TABLE analysis_date IF EXISTS;
+DROP TABLE analysis_property IF EXISTS;
+DROP TABLE analysis_value IF EXISTS;
+DROP TABLE per_position_value IF EXISTS;
+DROP TABLE per_partition_value IF EXISTS;
+DROP TABLE analysis IF EXISTS;
+DROP TABLE value_type IF EXISTS;
+DROP TABLE type_scope IF EXISTS;
+
+CREATE TABLE type_scope (
+  id INTEGER GENERATED BY DEFAULT AS IDENTITY (START WITH 1) NOT NULL PRIMARY KEY,
+  scope VARCHAR(45),
+  CONSTRAINT uq_type_scope_scope UNIQUE (scope)
+);
+
+CREATE TABLE value_type (
+  id INTEGER GENERATED BY DEFAULT AS IDENTITY (START WITH 1) NOT NULL PRIMARY KEY,
+  type_scope_id INTEGER NOT NULL,
+  description VARCHAR(500),
+  comment VARCHAR(200),
+  CONSTRAINT fk_value_type_type_scope FOREIGN KEY (type_scope_id) REFERENCES type_scope (id),
+  CONSTRAINT uq_value_type_scope_description UNIQUE (type_scope_id, description)
+);
+
+CREATE TABLE analysis (
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1) NOT NULL PRIMARY KEY,
+  analysisDate TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE per_partition_value (
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1) NOT NULL PRIMARY KEY,
+  analysis_id BIGINT NOT NULL,
+  position INTEGER NOT NULL,
+  size INTEGER NOT NULL,
+  value DOUBLE NOT NULL,
+  value_type_id INTEGER NOT NULL,
+  CONSTRAINT fk_per_partition_value_analysis FOREIGN KEY (analysis_id) REFERENCES analysis (id) ON DELETE CASCADE,
+  CONSTRAINT fk_per_partition_value_value_type FOREIGN KEY (value_type_id) REFERENCES value_type (id)
+);
+
+CREATE TABLE per_position_value (
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1) NOT NULL PRIMARY KEY,
+  analysis_id BIGINT NOT NULL,
+  position INTEGER NOT NULL,
+  value DOUBLE NOT NULL,
+  value_type_id INTEGER NOT NULL,
+  CONSTRAINT fk_per_position_value_analysis FOREIGN KEY (analysis_id) REFERENCES analysis (id) ON DELETE CASCADE,
+  CONSTRAINT fk_per_position_value_value_type FOREIGN KEY (value_type_id) REFERENCES value_type (id)
+);
+
+CREATE TABLE analysis_value (
+  id INTEGER GENERATED BY DEFAULT AS IDENTITY (START WITH 1) NOT NULL PRIMARY KEY,
+  value DOUBLE,
+  analysis_id BIGINT NOT NULL,
+  value_type_id INTEGER NOT NULL,
+  CONSTRAINT fk_analysis_value_analysis FOREIGN KEY (analysis_id) REFERENCES analysis (id) ON DELETE CASCADE,
+  CONSTRAINT fk_analysis_value_value_type FOREIGN KEY (value_type_id) REFERENCES value_type (id)
+);
+
+CREATE TABLE analysis_property (
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1) NOT NULL PRIMARY KEY,
+  property VARCHAR(45),
+  value VARCHAR(500),
+  analysis_id BIGINT NOT NULL,
+  CONSTRAINT fk_analysis_property_analysis FOREIGN KEY (analysis_id) REFERENCES analysis (id) ON DELETE CASCADE
+);
+
+CREATE TABLE analysis_date (
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1) NOT NULL PRIMARY KEY,
+  property VARCHAR(45),
+  date TIMESTAMP,
+  analysis_id BIGINT NOT NULL,
+  CONSTRAINT fk_analysis_date_analysis FOREIGN KEY (analysis_id) REFERENCES analysis (id) ON DELETE CASCADE
+);
+
+CREATE TABLE analysis_run_identity (
+  analysis_id BIGINT NOT NULL PRIMARY KEY,
+  instrument VARCHAR(500),
+  run VARCHAR(500),
+  lane VARCHAR(500),
+  pair VARCHAR(500),
+  sample_name VARCHAR(500),
+  barcode VARCHAR(500),
+  tool VARCHAR(500),
+  reference VARCHAR(500),
+  interop_subtype VARCHAR(500),
+  CONSTRAINT fk_analysis_run_identity_analysis FOREIGN KEY (analysis_id) REFERENCES analysis (id) ON DELETE CASCADE
+);
+
+CREATE INDEX idx_run_identity_run ON analysis_run_identity (run, lane, pair, barcode);
+CREATE INDEX idx_run_identity_instrument ON analysis_run_identity (instrument, run);
+CREATE INDEX idx_run_identity_sample ON analysis_run_identity (sample_name);
+CREATE INDEX idx_run_identity_tool ON analysis_run_identity (tool);
+
+-- -----------------------------------------------------
+-- Equivalent of the MySQL analysis_property_run_identity
+-- trigger, as a single MERGE so that the script needs no
+-- statement delimiter other than the semicolon
+-- -----------------------------------------------------
+CREATE TRIGGER analysis_property_run_identity AFTER INSERT ON analysis_property
+REFERENCING NEW ROW AS n
+FOR EACH ROW
+WHEN (n.property IN ('instrument', 'run', 'lane', 'pair', 'sample_name', 'barcode', 'tool', 'reference', 'interop_subtype'))
+MERGE INTO analysis_run_identity AS ri
+USING (VALUES (n.analysis_id, n.property, n.value)) AS p (analysis_id, property, value)
+ON ri.analysis_id = p.analysis_id
+WHEN MATCHED THEN UPDATE SET
+    instrument = CASE WHEN p.property = 'instrument' THEN p.value ELSE ri.instrument END,
+    run = CASE WHEN p.property = 'run' THEN p.value ELSE ri.run END,
+    lane = CASE WHEN p.property = 'lane' THEN p.value ELSE ri.lane END,
+    pair = CASE WHEN p.property = 'pair' THEN p.value ELSE ri.pair END,
+    sample_name = CASE WHEN p.property = 'sample_name' THEN p.value ELSE ri.sample_name END,
+    barcode = CASE WHEN p.property = 'barcode' THEN p.value ELSE ri.barcode END,
+    tool = CASE WHEN p.property = 'tool' THEN p.value ELSE ri.tool END,
+    reference = CASE WHEN p.property = 'reference' THEN p.value ELSE ri.reference END,
+    interop_subtype = CASE WHEN p.property = 'interop_subtype' THEN p.value ELSE ri.interop_subtype END
+WHEN NOT MATCHED THEN INSERT (analysis_id, instrument, run, lane, pair, sample_name, barcode, tool, reference, interop_subtype)
+  VALUES (p.analysis_id,
+    CASE WHEN p.property = 'instrument' THEN p.value END,
+    CASE WHEN p.property = 'run' THEN p.value END,
+    CASE WHEN p.property = 'lane' THEN p.value END,
+    CASE WHEN p.property = 'pair' THEN p.value END,
+    CASE WHEN p.property = 'sample_name' THEN p.value END,
+    CASE WHEN p.property = 'barcode' THEN p.value END,
+    CASE WHEN p.property = 'tool' THEN p.value END,
+    CASE WHEN p.property = 'reference' THEN p.value END,
+    CASE WHEN p.property = 'interop_subtype' THEN p.value END);
+
+CREATE TABLE analysis_fingerprint (
+  analysis_id BIGINT NOT NULL PRIMARY KEY,
+  identity CHAR(40) NOT NULL,
+  fingerprint CHAR(40) NOT NULL,
+  CONSTRAINT uq_analysis_fingerprint_identity UNIQUE (identity),
+  CONSTRAINT fk_analysis_fingerprint_analysis FOREIGN KEY (analysis_id) REFERENCES analysis (id) ON DELETE CASCADE
+);
+
+CREATE TABLE value_sketch (
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1) NOT NULL PRIMARY KEY,
+  value_type_id INTEGER NOT NULL,
+  position INTEGER NOT NULL,
+  instrument VARCHAR(255) DEFAULT '' NOT NULL,
+  run VARCHAR(255) DEFAULT '' NOT NULL,
+  lane VARCHAR(45) DEFAULT '' NOT NULL,
+  samples BIGINT NOT NULL,
+  sketch VARBINARY(65535) NOT NULL,
+  CONSTRAINT fk_value_sketch_value_type FOREIGN KEY (value_type_id) REFERENCES value_type (id),
+  CONSTRAINT uq_value_sketch_key UNIQUE (value_type_id, position, instrument, run, lane)
+);
+
+CREATE TABLE value_rollup (
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1) NOT NULL PRIMARY KEY,
+  source INTEGER NOT NULL,
+  value_type_id INTEGER NOT NULL,
+  position INTEGER NOT NULL,
+  instrument VARCHAR(255) NOT NULL,
+  run VARCHAR(255) NOT NULL,
+  lane VARCHAR(45) NOT NULL,
+  pair VARCHAR(45) NOT NULL,
+  size INTEGER DEFAULT 1 NOT NULL,
+  samples BIGINT NOT NULL,
+  total DOUBLE NOT NULL,
+  minimum DOUBLE NOT NULL,
+  maximum DOUBLE NOT NULL,
+  CONSTRAINT fk_value_rollup_value_type FOREIGN KEY (value_type_id) REFERENCES value_type (id),
+  CONSTRAINT uq_value_rollup_key UNIQUE (value_type_id, source, position, instrument, run, lane, pair)
+);
@@ -0,0 +1,69 @@
+package uk.ac.tgac.statsdb.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.tgac.statsdb.analysis.ColumnarQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures AbstractQCAnalysis.addPartitionValue and addPositionValue, adding one report's worth of per-base values
+ * per operation, for both the default object-per-value and the columnar QCAnalysis implementations. The GC
+ * profiler's normalised allocation rate gives the heap cost per analysis.
+ *
+ * @since 1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AnalysisValuesBenchmark {
+  @Param({"150", "1000"})
+  public int positions;
+
+  @Param({"default", "columnar"})
+  public String implementation;
+
+  private String[] ranges;
+  private String[] singles;
+  private String[] values;
+
+  @Setup
+  public void setUp() {
+    ranges = new String[positions];
+    singles = new String[positions];
+    values = new String[positions];
+    for (int i = 0; i < positions; i++) {
+      int start = i * 5 + 1;
+      ranges[i] = start + "-" + (start + 4);
+      singles[i] = Integer.toString(i + 1);
+      values[i] = Double.toString(30 + (i % 97) / 10d);
+    }
+  }
+
+  @Benchmark
+  public QCAnalysis addPartitionValues() throws QCAnalysisException {
+    QCAnalysis analysis = newAnalysis();
+    for (int i = 0; i < positions; i++) {
+      analysis.addPartitionValue(ranges[i], "quality_mean", values[i]);
+    }
+    return analysis;
+  }
+
+  @Benchmark
+  public QCAnalysis addPositionValues() throws QCAnalysisException {
+    QCAnalysis analysis = newAnalysis();
+    for (int i = 0; i < positions; i++) {
+      analysis.addPositionValue(singles[i], "quality_score_count", values[i]);
+    }
+    return analysis;
+  }
+
+  private QCAnalysis newAnalysis() {
+    return "columnar".equals(implementation) ? new ColumnarQCAnalysis() : new DefaultQCAnalysis();
+  }
+}
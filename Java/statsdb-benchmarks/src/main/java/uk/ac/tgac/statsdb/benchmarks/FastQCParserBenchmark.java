@@ -0,0 +1,51 @@
+package uk.ac.tgac.statsdb.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.run.parser.FastQCReportParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures FastQCReportParser.parseReport over synthetic reports of increasing read length
+ *
+ * @since 1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FastQCParserBenchmark {
+  @Param({"150", "300", "1000"})
+  public int readLength;
+
+  @Param({"50"})
+  public int overrepresented;
+
+  private File report;
+  private FastQCReportParser parser;
+
+  @Setup
+  public void setUp() throws IOException {
+    report = new SyntheticFastQCReport(readLength, overrepresented, 20, 42L).writeTempFile();
+    parser = new FastQCReportParser();
+  }
+
+  @TearDown
+  public void tearDown() {
+    report.delete();
+  }
+
+  @Benchmark
+  public QCAnalysis parseReport() throws QCAnalysisException {
+    QCAnalysis analysis = new DefaultQCAnalysis();
+    parser.parseReport(report, analysis);
+    return analysis;
+  }
+}
@@ -0,0 +1,114 @@
+package uk.ac.tgac.statsdb.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.run.parser.interop.InterOpAggregator;
+import uk.ac.tgac.statsdb.run.parser.interop.InterOpMetric;
+import uk.ac.tgac.statsdb.run.parser.interop.InterOpRunInfo;
+import uk.ac.tgac.statsdb.run.parser.interop.MetricsSummary;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serial and fork-join summaries of a synthetic QMetricsOut.bin for a 4 lane, 2x151 cycle run. 624 tiles per
+ * lane is the size of a NovaSeq S4 flowcell.
+ *
+ * @since 1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterOpAggregationBenchmark {
+  private static final int LANES = 4;
+  private static final int CYCLES = 151 + 8 + 8 + 151;
+  private static final int SCORES = 50;
+
+  @Param({"64", "624"})
+  public int tiles;
+
+  @Param({"serial", "parallel"})
+  public String mode;
+
+  private File runDirectory;
+  private File metrics;
+  private InterOpRunInfo runInfo;
+  private InterOpAggregator aggregator;
+  private ForkJoinPool pool;
+
+  @Setup
+  public void setUp() throws IOException, QCAnalysisException {
+    runDirectory = Files.createTempDirectory("statsdb-interop-bench").toFile();
+    File interop = new File(runDirectory, "InterOp");
+    interop.mkdir();
+
+    Writer w = new OutputStreamWriter(new FileOutputStream(new File(runDirectory, InterOpRunInfo.RUN_INFO)), "UTF-8");
+    try {
+      w.write("<?xml version=\"1.0\"?>\n<RunInfo Version=\"5\"><Run Id=\"BENCHMARK\" Number=\"1\"><Reads>" +
+              "<Read Number=\"1\" NumCycles=\"151\" IsIndexedRead=\"N\" />" +
+              "<Read Number=\"2\" NumCycles=\"8\" IsIndexedRead=\"Y\" />" +
+              "<Read Number=\"3\" NumCycles=\"8\" IsIndexedRead=\"Y\" />" +
+              "<Read Number=\"4\" NumCycles=\"151\" IsIndexedRead=\"N\" />" +
+              "</Reads><FlowcellLayout LaneCount=\"" + LANES + "\" /></Run></RunInfo>");
+    }
+    finally {
+      w.close();
+    }
+
+    metrics = new File(interop, InterOpMetric.QUALITY.getFileName());
+    int recordSize = 6 + 4 * SCORES;
+    Random r = new Random(42L);
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(metrics));
+    try {
+      out.write(new byte[]{4, (byte)recordSize});
+      ByteBuffer record = ByteBuffer.allocate(recordSize).order(ByteOrder.LITTLE_ENDIAN);
+      for (int lane = 1; lane <= LANES; lane++) {
+        for (int tile = 1; tile <= tiles; tile++) {
+          for (int cycle = 1; cycle <= CYCLES; cycle++) {
+            record.clear();
+            record.putShort((short)lane).putShort((short)tile).putShort((short)cycle);
+            for (int q = 1; q <= SCORES; q++) {
+              record.putInt(q < 2 || q > 41 ? 0 : r.nextInt(20000));
+            }
+            out.write(record.array());
+          }
+        }
+      }
+    }
+    finally {
+      out.close();
+    }
+
+    runInfo = InterOpRunInfo.parse(runDirectory);
+    pool = new ForkJoinPool();
+    aggregator = new InterOpAggregator(pool);
+    aggregator.setRecordsPerTask(16384);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+    metrics.delete();
+    metrics.getParentFile().delete();
+    new File(runDirectory, InterOpRunInfo.RUN_INFO).delete();
+    runDirectory.delete();
+  }
+
+  @Benchmark
+  public MetricsSummary summarise() throws QCAnalysisException {
+    if ("serial".equals(mode)) {
+      MetricsSummary summary = InterOpMetric.QUALITY.newSummary(runInfo);
+      summary.read(metrics);
+      return summary;
+    }
+    return aggregator.summarise(InterOpMetric.QUALITY, runInfo, metrics);
+  }
+}
@@ -0,0 +1,130 @@
+package uk.ac.tgac.statsdb.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.util.StatsDBUtils;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the per-cell cost of parsing FastQC table cells. The legacy benchmarks reproduce the regex and String
+ * round trips that AbstractQCAnalysis and StatsDBUtils used before 1.2; the slice benchmarks use the allocation-free
+ * StatsDBUtils parsers on the cells of a whole report line. Compare the ns/op scores, and the gc.alloc.rate.norm
+ * figures from the GC profiler, which should be zero for the slice benchmarks.
+ *
+ * @since 1.2
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class NumericParsingBenchmark {
+  private static final Pattern rangeSpan = Pattern.compile("([0-9]+)-([0-9]+)");
+  private static final Pattern rangePoint = Pattern.compile("([0-9]+)");
+
+  private static final String LINE = "35-39\t36.27388148668641\t37.0\t35.0\t38.0\t31.0\t39.0";
+  private static final String RANGE = "35-39";
+  private static final String POSITION = "10++";
+  private static final String VALUE = "36.27388148668641";
+
+  private final long[] bounds = new long[2];
+
+  @Benchmark
+  public long legacyRange() throws QCAnalysisException {
+    Map.Entry<String, String> positionAndSize = legacyRangeToSize(RANGE);
+    return Long.parseLong(positionAndSize.getKey()) + Long.parseLong(positionAndSize.getValue());
+  }
+
+  @Benchmark
+  public long sliceRange() throws QCAnalysisException {
+    StatsDBUtils.parseRange(LINE, 0, 5, bounds);
+    return Math.min(bounds[0], bounds[1]) + Math.abs(bounds[1] - bounds[0]) + 1;
+  }
+
+  @Benchmark
+  public long legacyPosition() {
+    if (POSITION.matches("[\\d\\+]+")) {
+      return Long.parseLong(POSITION.replaceAll("\\+", ""));
+    }
+    return -1L;
+  }
+
+  @Benchmark
+  public long slicePosition() {
+    return StatsDBUtils.parsePosition(POSITION, 0, POSITION.length());
+  }
+
+  @Benchmark
+  public double legacyValue() {
+    return Double.parseDouble(LINE.substring(6, 6 + VALUE.length()));
+  }
+
+  @Benchmark
+  public double sliceValue() {
+    return StatsDBUtils.parseDouble(LINE, 6, 6 + VALUE.length());
+  }
+
+  /**
+   * Parses every cell of a per-base quality line the way FastQCReportParser feeds a DefaultQCAnalysis
+   */
+  @Benchmark
+  public void legacyLine(Blackhole bh) throws QCAnalysisException {
+    String[] cells = LINE.split("\t");
+    for (int i = 1; i < cells.length; i++) {
+      Map.Entry<String, String> positionAndSize = legacyRangeToSize(cells[0]);
+      bh.consume(Long.parseLong(positionAndSize.getKey()));
+      bh.consume(Long.parseLong(positionAndSize.getValue()));
+      bh.consume(Double.parseDouble(cells[i]));
+    }
+  }
+
+  /**
+   * Parses every cell of a per-base quality line the way FastQCReportParser feeds a ColumnarQCAnalysis
+   */
+  @Benchmark
+  public void sliceLine(Blackhole bh) throws QCAnalysisException {
+    int len = LINE.length();
+    int rangeEnd = LINE.indexOf('\t');
+    int start = rangeEnd + 1;
+    for (int i = start; i <= len; i++) {
+      if (i == len || LINE.charAt(i) == '\t') {
+        StatsDBUtils.parseRange(LINE, 0, rangeEnd, bounds);
+        bh.consume(bounds[0]);
+        bh.consume(bounds[1]);
+        bh.consume(StatsDBUtils.parseDouble(LINE, start, i));
+        start = i + 1;
+      }
+    }
+  }
+
+  private static Map.Entry<String, String> legacyRangeToSize(String range) throws QCAnalysisException {
+    long min;
+    long max;
+    Matcher m = rangeSpan.matcher(range);
+    if (m.matches()) {
+      min = Long.parseLong(m.group(1));
+      max = Long.parseLong(m.group(2));
+    }
+    else if (rangePoint.matcher(range).matches()) {
+      min = max = Long.parseLong(range);
+    }
+    else {
+      throw new QCAnalysisException("Invalid range string '" + range + "'. Needs to be of the form 'a-b'");
+    }
+    Map.Entry<Long, Long> kv = new AbstractMap.SimpleImmutableEntry<>(min, max);
+    long from = kv.getKey();
+    long to = kv.getValue();
+    long length = Math.abs(to - from);
+    if (to < from) {
+      from = to;
+    }
+    return new AbstractMap.SimpleImmutableEntry<>(String.valueOf(from), String.valueOf(length + 1));
+  }
+}
@@ -0,0 +1,87 @@
+package uk.ac.tgac.statsdb.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.dao.HsqldbTestDataSource;
+import uk.ac.tgac.statsdb.dao.QCAnalysisDAO;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.run.parser.FastQCReportParser;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures QCAnalysisDAO.insertAnalysis of a parsed synthetic report into an in-memory HSQLDB copy of the StatsDB
+ * schema, unbatched and in batches. Each operation inserts a fresh copy of the same analysis; the tables are emptied
+ * after every iteration.
+ *
+ * @since 1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QCAnalysisDAOBenchmark {
+  @Param({"150", "1000"})
+  public int readLength;
+
+  @Param({"1", "1000"})
+  public int batchSize;
+
+  private JdbcTemplate template;
+  private QCAnalysisDAO dao;
+  private File report;
+  private FastQCReportParser parser;
+
+  @Setup
+  public void setUp() throws IOException {
+    DataSource dataSource = HsqldbTestDataSource.create("benchmark");
+    template = new JdbcTemplate(dataSource);
+    dao = new QCAnalysisDAO();
+    dao.setJdbcTemplate(template);
+    dao.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    dao.setBatchSize(batchSize);
+
+    report = new SyntheticFastQCReport(readLength, 50, 20, 42L).writeTempFile();
+    parser = new FastQCReportParser();
+  }
+
+  @TearDown(Level.Iteration)
+  public void emptyTables() {
+    template.update("DELETE FROM analysis");
+  }
+
+  @TearDown
+  public void tearDown() {
+    template.execute("SHUTDOWN");
+    report.delete();
+  }
+
+  @State(Scope.Thread)
+  public static class ParsedAnalysis {
+    QCAnalysis analysis;
+
+    @Setup(Level.Invocation)
+    public void parse(QCAnalysisDAOBenchmark benchmark) throws QCAnalysisException {
+      analysis = new DefaultQCAnalysis();
+      analysis.addProperty("instrument", "benchmark");
+      analysis.addProperty("run", "BENCHMARK_RUN");
+      analysis.addProperty("lane", "1");
+      analysis.addProperty("pair", "1");
+      benchmark.parser.parseReport(benchmark.report, analysis);
+    }
+  }
+
+  @Benchmark
+  public long insertAnalysis(ParsedAnalysis parsed) throws QCAnalysisException {
+    dao.insertAnalysis(parsed.analysis);
+    return parsed.analysis.getId();
+  }
+}
@@ -0,0 +1,44 @@
+package uk.ac.tgac.statsdb.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import uk.ac.tgac.statsdb.run.GenericReportTable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures GenericReportTable.toJSON for per-position style tables of increasing size
+ *
+ * @since 1.2
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ReportTableBenchmark {
+  @Param({"150", "10000", "100000"})
+  public int rows;
+
+  private GenericReportTable table;
+
+  @Setup
+  public void setUp() {
+    List<List<String>> t = new ArrayList<>(rows + 1);
+    t.add(Arrays.asList("Position", "Size", "Average", "Samples", "Total"));
+    for (int i = 0; i < rows; i++) {
+      double avg = 30 + (i % 97) / 10d;
+      t.add(Arrays.asList(Integer.toString(i + 1), "1", Double.toString(avg), "8", Double.toString(avg * 8)));
+    }
+    table = new GenericReportTable(t);
+  }
+
+  @Benchmark
+  public String toJSON() throws IOException {
+    return table.toJSON();
+  }
+}
@@ -0,0 +1,28 @@
+package uk.ac.tgac.statsdb.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the StatsDB benchmarks. Accepts the usual JMH command line options, e.g. a benchmark name regex or
+ * "-p readLength=250", and always adds the GC profiler so that allocation rates (gc.alloc.rate.norm, bytes per
+ * operation) are reported alongside throughput and, from the sample time mode, p99 latency.
+ * <p/>
+ * Build with "mvn package" in statsdb-benchmarks, then run "java -jar target/benchmarks.jar".
+ *
+ * @since 1.2
+ */
+public class StatsDbBenchmarks {
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    Options options = new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,162 @@
+package uk.ac.tgac.statsdb.benchmarks;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Writes synthetic FastQC 0.10.1 fastqc_data.txt reports with every module the FastQCReportParser understands. The
+ * report size is controlled by the read length, which sets the number of per-base rows, and the number of
+ * overrepresented sequences and kmers. Values are random but reproducible for a given seed.
+ *
+ * @since 1.2
+ */
+public class SyntheticFastQCReport {
+  private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+  private final int readLength;
+  private final int overrepresented;
+  private final int kmers;
+  private final long seed;
+
+  /**
+   * Creates a report generator
+   *
+   * @param readLength      the read length, i.e. the number of per-base positions
+   * @param overrepresented the number of overrepresented sequences
+   * @param kmers           the number of enriched kmers
+   * @param seed            random seed for the generated values
+   */
+  public SyntheticFastQCReport(int readLength, int overrepresented, int kmers, long seed) {
+    this.readLength = readLength;
+    this.overrepresented = overrepresented;
+    this.kmers = kmers;
+    this.seed = seed;
+  }
+
+  /**
+   * Writes a report to a temporary file, deleted on exit
+   *
+   * @return the report file
+   * @throws IOException
+   */
+  public File writeTempFile() throws IOException {
+    File f = File.createTempFile("statsdb_fastqc_" + readLength + "_", ".txt");
+    f.deleteOnExit();
+    Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), "UTF-8"));
+    try {
+      write(out);
+    }
+    finally {
+      out.close();
+    }
+    return f;
+  }
+
+  /**
+   * Writes the report
+   *
+   * @param w
+   * @throws IOException
+   */
+  public void write(Writer w) throws IOException {
+    Random r = new Random(seed);
+    PrintWriter out = new PrintWriter(w);
+    out.print("##FastQC\t0.10.1\n");
+
+    module(out, "Basic Statistics", "#Measure\tValue\t");
+    out.print("Filename\tsynthetic_" + readLength + "_R1.fastq.gz\t\n");
+    out.print("File type\tConventional base calls\t\n");
+    out.print("Encoding\tSanger / Illumina 1.9\t\n");
+    out.print("Total Sequences\t" + (10000000 + r.nextInt(10000000)) + "\t\n");
+    out.print("Filtered Sequences\t0\t\n");
+    out.print("Sequence length\t" + readLength + "\t\n");
+    out.print("%GC\t" + (35 + r.nextInt(20)) + "\t\n");
+    end(out);
+
+    module(out, "Per base sequence quality",
+           "#Base\tMean\tMedian\tLower Quartile\tUpper Quartile\t10th Percentile\t90th Percentile");
+    for (int p = 1; p <= readLength; p++) {
+      double mean = 30 + r.nextDouble() * 8;
+      out.print(p + "\t" + mean + "\t" + (mean + 1) + "\t" + (mean - 2) + "\t" + (mean + 2) + "\t" + (mean - 6)
+                + "\t" + (mean + 3) + "\n");
+    }
+    end(out);
+
+    module(out, "Per sequence quality scores", "#Quality\tCount");
+    for (int q = 2; q <= 40; q++) {
+      out.print(q + "\t" + (r.nextInt(1000000) + 0.0) + "\n");
+    }
+    end(out);
+
+    module(out, "Per base sequence content", "#Base\tG\tA\tT\tC");
+    for (int p = 1; p <= readLength; p++) {
+      double g = 20 + r.nextDouble() * 10;
+      double a = 20 + r.nextDouble() * 10;
+      double t = 20 + r.nextDouble() * 10;
+      out.print(p + "\t" + g + "\t" + a + "\t" + t + "\t" + (100 - g - a - t) + "\n");
+    }
+    end(out);
+
+    module(out, "Per base GC content", "#Base\t%GC");
+    for (int p = 1; p <= readLength; p++) {
+      out.print(p + "\t" + (40 + r.nextDouble() * 10) + "\n");
+    }
+    end(out);
+
+    module(out, "Per sequence GC content", "#GC Content\tCount");
+    for (int gc = 0; gc <= 100; gc++) {
+      out.print(gc + "\t" + (r.nextInt(500000) + 0.0) + "\n");
+    }
+    end(out);
+
+    module(out, "Per base N content", "#Base\tN-Count");
+    for (int p = 1; p <= readLength; p++) {
+      out.print(p + "\t" + r.nextDouble() / 10 + "\n");
+    }
+    end(out);
+
+    module(out, "Sequence Length Distribution", "#Length\tCount");
+    out.print(readLength + "\t" + (r.nextInt(10000000) + 0.0) + "\n");
+    end(out);
+
+    out.print(">>Sequence Duplication Levels\tpass\n");
+    out.print("#Total Duplicate Percentage\t" + r.nextDouble() * 50 + "\n");
+    out.print("#Duplication Level\tRelative count\n");
+    for (int d = 1; d <= 9; d++) {
+      out.print(d + "\t" + r.nextDouble() * 100 + "\n");
+    }
+    out.print("10++\t" + r.nextDouble() * 10 + "\n");
+    end(out);
+
+    module(out, "Overrepresented sequences", "#Sequence\tCount\tPercentage\tPossible Source");
+    for (int i = 0; i < overrepresented; i++) {
+      out.print(sequence(r, 50) + "\t" + r.nextInt(100000) + "\t" + r.nextDouble() + "\tNo Hit\n");
+    }
+    end(out);
+
+    module(out, "Kmer Content", "#Sequence\tCount\tObs/Exp Overall\tObs/Exp Max\tMax Obs/Exp Position");
+    for (int i = 0; i < kmers; i++) {
+      out.print(sequence(r, 5) + "\t" + r.nextInt(10000000) + "\t" + r.nextDouble() * 5 + "\t" + r.nextDouble() * 10
+                + "\t" + (1 + r.nextInt(readLength)) + "\n");
+    }
+    end(out);
+    out.flush();
+  }
+
+  private static void module(PrintWriter out, String name, String header) {
+    out.print(">>" + name + "\tpass\n");
+    out.print(header + "\n");
+  }
+
+  private static void end(PrintWriter out) {
+    out.print(">>END_MODULE\n");
+  }
+
+  private static String sequence(Random r, int length) {
+    char[] seq = new char[length];
+    for (int i = 0; i < length; i++) {
+      seq[i] = BASES[r.nextInt(BASES.length)];
+    }
+    return new String(seq);
+  }
+}
@@ -0,0 +1,49 @@
+package uk.ac.tgac.statsdb.server;
+
+import uk.ac.tgac.statsdb.run.consumer.D3PlotConsumer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+
+/**
+ * Serves the {@link D3PlotConsumer} lane plots under /plots/, in the {"stats":[...]} shape read by
+ * Web/scripts/statsdb.js:
+ * <ul>
+ * <li>quality?run=...&lane=1[&pair=1]: per position base sequence quality</li>
+ * <li>basecontent?run=...&lane=1[&pair=1]: per position base content</li>
+ * </ul>
+ * The pair defaults to 1.
+ *
+ * @since 1.2
+ */
+public class PlotHandler extends QueryHandler {
+  private final D3PlotConsumer consumer;
+
+  public PlotHandler(D3PlotConsumer consumer) {
+    this.consumer = consumer;
+  }
+
+  @Override
+  protected Response query(String path, Map<String, String> params) throws Exception {
+    if (!"quality".equals(path) && !"basecontent".equals(path)) {
+      return null;
+    }
+
+    String run = required(params, "run");
+    int lane = Integer.parseInt(required(params, "lane"));
+    String pair = params.get("pair");
+    if (pair != null && !pair.isEmpty() && !"1".equals(pair) && !"2".equals(pair)) {
+      throw new IllegalArgumentException("Pair must be 1 or 2: " + pair);
+    }
+    boolean firstPair = !"2".equals(pair);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if ("quality".equals(path)) {
+      consumer.writePerPositionBaseSequenceQualityForLane(run, firstPair, lane, out);
+    }
+    else {
+      consumer.writePerPositionBaseContentForLane(run, firstPair, lane, out);
+    }
+    return new Response(Response.JSON, out.toByteArray());
+  }
+}
@@ -0,0 +1,283 @@
+package uk.ac.tgac.statsdb.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.tgac.statsdb.run.ReportTable;
+import uk.ac.tgac.statsdb.run.RunProperty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Base HttpHandler for the read-only StatsDB query endpoints. Subclasses turn a path, relative to the handler's
+ * context, and its query parameters into a {@link Response}; this class takes care of the HTTP side:
+ * <ul>
+ * <li>only GET and HEAD are allowed</li>
+ * <li>every response carries an ETag computed from its body, and a matching If-None-Match is answered with 304</li>
+ * <li>bodies over {@link #DEFAULT_GZIP_THRESHOLD} bytes are gzipped for clients that accept it</li>
+ * <li>requests turned away by a full {@link WorkerPool} are answered with 503 before touching the database</li>
+ * </ul>
+ * An IllegalArgumentException from a subclass is a bad request (400), a null response is not found (404), and any
+ * other exception is logged and answered with 500.
+ *
+ * @since 1.2
+ */
+public abstract class QueryHandler implements HttpHandler {
+  protected static final Logger log = LoggerFactory.getLogger(QueryHandler.class);
+
+  public static final int DEFAULT_GZIP_THRESHOLD = 1024;
+  public static final int RETRY_AFTER_SECONDS = 1;
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private int gzipThreshold = DEFAULT_GZIP_THRESHOLD;
+
+  /**
+   * Answers a query
+   *
+   * @param path   the request path, relative to the handler context
+   * @param params the decoded query parameters
+   * @return the response, or null if the path is unknown
+   * @throws Exception
+   */
+  protected abstract Response query(String path, Map<String, String> params) throws Exception;
+
+  public int getGzipThreshold() {
+    return gzipThreshold;
+  }
+
+  /**
+   * Sets the smallest body, in bytes, that is gzipped for clients that accept it
+   *
+   * @param gzipThreshold the threshold
+   */
+  public void setGzipThreshold(int gzipThreshold) {
+    if (gzipThreshold < 0) {
+      throw new IllegalArgumentException("Gzip threshold cannot be negative: " + gzipThreshold);
+    }
+    this.gzipThreshold = gzipThreshold;
+  }
+
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    try {
+      if (WorkerPool.isOverloaded()) {
+        exchange.getResponseHeaders().set("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+        sendError(exchange, 503, "Server busy");
+        return;
+      }
+
+      String method = exchange.getRequestMethod();
+      if (!"GET".equals(method) && !"HEAD".equals(method)) {
+        exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+        sendError(exchange, 405, "Method not allowed: " + method);
+        return;
+      }
+
+      String path = exchange.getRequestURI().getPath().substring(exchange.getHttpContext().getPath().length());
+      Response response;
+      try {
+        response = query(path, parseQuery(exchange.getRequestURI().getRawQuery()));
+      }
+      catch (IllegalArgumentException e) {
+        sendError(exchange, 400, e.getMessage());
+        return;
+      }
+      catch (Exception e) {
+        log.error("Failed to answer " + exchange.getRequestURI(), e);
+        sendError(exchange, 500, "Query failed");
+        return;
+      }
+
+      if (response == null) {
+        sendError(exchange, 404, "No such query: " + path);
+      }
+      else {
+        send(exchange, response);
+      }
+    }
+    finally {
+      exchange.close();
+    }
+  }
+
+  private void send(HttpExchange exchange, Response response) throws IOException {
+    byte[] body = response.getBody();
+    String etag = etag(body);
+
+    Headers headers = exchange.getResponseHeaders();
+    headers.set("ETag", etag);
+    headers.set("Cache-Control", "no-cache");
+    headers.set("Vary", "Accept-Encoding");
+
+    if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+      exchange.sendResponseHeaders(304, -1);
+      return;
+    }
+
+    headers.set("Content-Type", response.getContentType());
+    if (body.length >= gzipThreshold && acceptsGzip(exchange.getRequestHeaders().getFirst("Accept-Encoding"))) {
+      body = gzip(body);
+      headers.set("Content-Encoding", "gzip");
+    }
+
+    if ("HEAD".equals(exchange.getRequestMethod())) {
+      exchange.sendResponseHeaders(200, -1);
+      return;
+    }
+    exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+    if (body.length > 0) {
+      OutputStream out = exchange.getResponseBody();
+      out.write(body);
+      out.flush();
+    }
+  }
+
+  private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+    byte[] body = (message == null ? "" : message).getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+    if ("HEAD".equals(exchange.getRequestMethod()) || body.length == 0) {
+      exchange.sendResponseHeaders(status, -1);
+      return;
+    }
+    exchange.sendResponseHeaders(status, body.length);
+    exchange.getResponseBody().write(body);
+  }
+
+  /**
+   * Returns a weak ETag for a body. Weak, because the same tag is sent for the gzipped and the plain representation.
+   */
+  static String etag(byte[] body) {
+    try {
+      byte[] digest = MessageDigest.getInstance("MD5").digest(body);
+      StringBuilder sb = new StringBuilder("W/\"");
+      for (byte b : digest) {
+        sb.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+      }
+      return sb.append('"').toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 is not available", e);
+    }
+  }
+
+  /**
+   * Weak comparison of an If-None-Match header against an ETag
+   */
+  static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if ("*".equals(tag) || opaque.equals(tag.startsWith("W/") ? tag.substring(2) : tag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      if ("gzip".equalsIgnoreCase(parts[0].trim())) {
+        return parts.length < 2 || !parts[1].trim().matches("q\\s*=\\s*0(\\.0*)?");
+      }
+    }
+    return false;
+  }
+
+  private static byte[] gzip(byte[] body) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4 + 64);
+    GZIPOutputStream out = new GZIPOutputStream(bytes);
+    try {
+      out.write(body);
+    }
+    finally {
+      out.close();
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decodes a raw query string. Where a parameter is repeated, the last value wins.
+   */
+  static Map<String, String> parseQuery(String rawQuery) throws IOException {
+    Map<String, String> params = new HashMap<>();
+    if (rawQuery == null || rawQuery.isEmpty()) {
+      return params;
+    }
+    for (String pair : rawQuery.split("&")) {
+      if (pair.isEmpty()) {
+        continue;
+      }
+      int eq = pair.indexOf('=');
+      String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+      String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+      params.put(name, value);
+    }
+    return params;
+  }
+
+  /**
+   * Returns a required parameter
+   *
+   * @throws IllegalArgumentException if it is missing or empty
+   */
+  protected static String required(Map<String, String> params, String name) {
+    String value = params.get(name);
+    if (value == null || value.isEmpty()) {
+      throw new IllegalArgumentException("Missing parameter: " + name);
+    }
+    return value;
+  }
+
+  /**
+   * Collects the RunProperty filters, passed as parameters named after the RunProperty, e.g. run=...&lane=1
+   */
+  protected static Map<RunProperty, String> runProperties(Map<String, String> params) {
+    Map<RunProperty, String> runProperties = new HashMap<>();
+    for (RunProperty property : RunProperty.values()) {
+      String value = params.get(property.name());
+      if (value != null && !value.isEmpty()) {
+        runProperties.put(property, value);
+      }
+    }
+    return runProperties;
+  }
+
+  /**
+   * Renders a ReportTable as JSON, an array of rows with the header first, or as CSV if the format parameter is csv
+   */
+  protected static Response table(ReportTable table, Map<String, String> params) throws IOException {
+    if (isCsv(params)) {
+      return Response.csv(table == null ? "" : table.toCSV());
+    }
+    return Response.json(table == null ? "[]" : table.toJSON());
+  }
+
+  protected static boolean isCsv(Map<String, String> params) {
+    String format = params.get("format");
+    if (format == null || format.isEmpty() || "json".equals(format)) {
+      return false;
+    }
+    if ("csv".equals(format)) {
+      return true;
+    }
+    throw new IllegalArgumentException("Unknown format: " + format);
+  }
+}
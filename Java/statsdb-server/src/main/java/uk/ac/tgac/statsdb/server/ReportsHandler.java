@@ -0,0 +1,92 @@
+package uk.ac.tgac.statsdb.server;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import uk.ac.tgac.statsdb.run.ReportTable;
+import uk.ac.tgac.statsdb.run.Reports;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves {@link Reports} queries under /reports/. RunProperty filters are passed as parameters named after the
+ * property, e.g. ?run=111104_SN319_0169_BD08YFACXX&lane=1, and tables are returned as JSON unless format=csv.
+ * <ul>
+ * <li>perposition?analysis=quality_mean[,base_content_a...]: per position values, as an object of tables keyed by
+ * analysis when more than one is given</li>
+ * <li>averages: average general values</li>
+ * <li>summary?scope=overrepresented_sequence: summary values for a scope</li>
+ * <li>percentiles?analysis=quality_mean[&p=10,50,90]: estimated percentiles per position, the median by default</li>
+ * <li>runs[?instrument=...], lanes?run=..., barcodes?run=...&lane=...: listings, as JSON arrays or one per line</li>
+ * </ul>
+ *
+ * @since 1.2
+ */
+public class ReportsHandler extends QueryHandler {
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private final Reports reports;
+
+  public ReportsHandler(Reports reports) {
+    this.reports = reports;
+  }
+
+  @Override
+  protected Response query(String path, Map<String, String> params) throws Exception {
+    switch (path) {
+      case "perposition":
+        List<String> analyses = Arrays.asList(required(params, "analysis").split(","));
+        if (analyses.size() == 1) {
+          return table(reports.getPerPositionValues(analyses.get(0), runProperties(params)), params);
+        }
+        if (isCsv(params)) {
+          throw new IllegalArgumentException("CSV output takes a single analysis");
+        }
+        Map<String, List<List<String>>> tables = new LinkedHashMap<>();
+        for (Map.Entry<String, ReportTable> e : reports.getPerPositionValues(analyses, runProperties(params)).entrySet()) {
+          tables.put(e.getKey(), e.getValue().getTable());
+        }
+        return Response.json(mapper.writeValueAsString(tables));
+      case "averages":
+        return table(reports.getAverageValues(runProperties(params)), params);
+      case "summary":
+        return table(reports.getSummaryValues(required(params, "scope"), runProperties(params)), params);
+      case "percentiles":
+        return table(reports.getPercentiles(required(params, "analysis"), percentiles(params.get("p")), runProperties(params)), params);
+      case "runs":
+        String instrument = params.get("instrument");
+        return list(instrument == null || instrument.isEmpty() ? reports.listAllRuns() : reports.listRunsForInstrument(instrument), params);
+      case "lanes":
+        return list(reports.listLanesForRun(required(params, "run")), params);
+      case "barcodes":
+        return list(reports.listBarcodesForRunAndLane(required(params, "run"), required(params, "lane")), params);
+      default:
+        return null;
+    }
+  }
+
+  private static double[] percentiles(String p) {
+    if (p == null || p.isEmpty()) {
+      return new double[]{50d};
+    }
+    String[] values = p.split(",");
+    double[] percentiles = new double[values.length];
+    for (int i = 0; i < values.length; i++) {
+      percentiles[i] = Double.parseDouble(values[i].trim());
+    }
+    return percentiles;
+  }
+
+  private static Response list(List<String> values, Map<String, String> params) throws IOException {
+    if (isCsv(params)) {
+      StringBuilder sb = new StringBuilder();
+      for (String value : values) {
+        sb.append(value).append('\n');
+      }
+      return Response.csv(sb.toString());
+    }
+    return Response.json(mapper.writeValueAsString(values));
+  }
+}
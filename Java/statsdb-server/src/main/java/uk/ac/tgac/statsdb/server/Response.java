@@ -0,0 +1,39 @@
+package uk.ac.tgac.statsdb.server;
+
+import java.nio.charset.Charset;
+
+/**
+ * An uncompressed response body and its content type, as returned by a {@link QueryHandler}
+ *
+ * @since 1.2
+ */
+public class Response {
+  public static final String JSON = "application/json; charset=UTF-8";
+  public static final String CSV = "text/csv; charset=UTF-8";
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final String contentType;
+  private final byte[] body;
+
+  public Response(String contentType, byte[] body) {
+    this.contentType = contentType;
+    this.body = body;
+  }
+
+  public static Response json(String json) {
+    return new Response(JSON, json.getBytes(UTF8));
+  }
+
+  public static Response csv(String csv) {
+    return new Response(CSV, csv.getBytes(UTF8));
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public byte[] getBody() {
+    return body;
+  }
+}
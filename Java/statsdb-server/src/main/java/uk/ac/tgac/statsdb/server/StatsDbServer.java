@@ -0,0 +1,180 @@
+package uk.ac.tgac.statsdb.server;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import uk.ac.tgac.statsdb.dao.MonitoredBasicDataSource;
+import uk.ac.tgac.statsdb.dao.ValueRollupDAO;
+import uk.ac.tgac.statsdb.run.AsyncReports;
+import uk.ac.tgac.statsdb.run.CachingReports;
+import uk.ac.tgac.statsdb.run.Reports;
+import uk.ac.tgac.statsdb.run.consumer.D3PlotConsumer;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Embedded HTTP query service for StatsDB, serving {@link ReportsHandler} under /reports/ and {@link PlotHandler}
+ * under /plots/. Every request shares the one pooled DataSource, and runs on a bounded {@link WorkerPool}, so that a
+ * burst of requests queues for a database connection instead of opening more; requests beyond the queue are answered
+ * with 503. The value types of a plot are queried at once through an {@link AsyncReports} with as many threads as
+ * there are workers, so a plot takes as long as its slowest query.
+ * <p/>
+ * Run with "java -jar statsdb-server.jar -p 8090", with db-config.xml and statsdb.properties on the classpath as for
+ * the StatsDB CLI.
+ *
+ * @since 1.2
+ */
+public class StatsDbServer {
+  protected static final Logger log = LoggerFactory.getLogger(StatsDbServer.class);
+
+  public static final int DEFAULT_PORT = 8090;
+  public static final int DEFAULT_WORKERS = 8;
+  public static final int DEFAULT_QUEUE_SIZE = 64;
+
+  private final HttpServer server;
+  private final WorkerPool pool;
+  private final AsyncReports asyncReports;
+
+  /**
+   * Creates a new StatsDbServer, which is started with {@link #start()}
+   *
+   * @param address   the address to bind, with port 0 for any free port
+   * @param reports   the Reports to query, sharing one pooled DataSource
+   * @param workers   the number of requests answered at once, at most the size of the connection pool
+   * @param queueSize the number of requests waiting for a worker before further requests are turned away
+   * @throws IOException if the address cannot be bound
+   */
+  public StatsDbServer(InetSocketAddress address, Reports reports, int workers, int queueSize) throws IOException {
+    this.pool = new WorkerPool(workers, queueSize);
+    this.server = HttpServer.create(address, 0);
+    this.asyncReports = new AsyncReports(reports, workers, AsyncReports.DEFAULT_QUEUE_SIZE);
+    server.setExecutor(pool);
+    server.createContext("/reports/", new ReportsHandler(reports));
+    server.createContext("/plots/", new PlotHandler(new D3PlotConsumer(asyncReports)));
+  }
+
+  public void start() {
+    server.start();
+    log.info("StatsDB query server listening on " + server.getAddress());
+  }
+
+  /**
+   * Stops accepting connections, and waits for requests in progress to finish
+   *
+   * @param delaySeconds how long to wait
+   */
+  public void stop(int delaySeconds) {
+    server.stop(delaySeconds);
+    try {
+      pool.shutdown(delaySeconds * 1000L);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    asyncReports.close();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  public WorkerPool getWorkerPool() {
+    return pool;
+  }
+
+  public static void main(String[] args) {
+    Options options = new Options();
+
+    options.addOption("h", false, "Print this help");
+    options.addOption("u", false, "Answer run, lane and pair summaries from the value rollups, as when statsdb.rollups is set");
+
+    Option portOption = OptionBuilder.withArgName("port")
+        .hasArg()
+        .withDescription("Port to listen on. Defaults to " + DEFAULT_PORT + ".")
+        .create("p");
+    options.addOption(portOption);
+
+    Option bindOption = OptionBuilder.withArgName("address")
+        .hasArg()
+        .withDescription("Address to bind. Defaults to all addresses.")
+        .create("b");
+    options.addOption(bindOption);
+
+    Option workersOption = OptionBuilder.withArgName("threads")
+        .hasArg()
+        .withDescription("Number of requests answered at once. Defaults to " + DEFAULT_WORKERS + ", the default connection pool size.")
+        .create("w");
+    options.addOption(workersOption);
+
+    Option queueSizeOption = OptionBuilder.withArgName("size")
+        .hasArg()
+        .withDescription("Maximum number of requests waiting for a worker. Defaults to " + DEFAULT_QUEUE_SIZE + ".")
+        .create("q");
+    options.addOption(queueSizeOption);
+
+    Option cacheOption = OptionBuilder.withArgName("seconds")
+        .hasArg()
+        .withDescription("Cache report tables for the given time to live. Reports ingested meanwhile show once it has passed.")
+        .create("c");
+    options.addOption(cacheOption);
+
+    CommandLineParser parser = new BasicParser();
+    try {
+      CommandLine line = parser.parse(options, args);
+
+      if (line.hasOption("h")) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("statsdb-server.jar", options);
+        System.exit(0);
+      }
+
+      int port = line.hasOption("p") ? Integer.parseInt(line.getOptionValue("p")) : DEFAULT_PORT;
+      int workers = line.hasOption("w") ? Integer.parseInt(line.getOptionValue("w")) : DEFAULT_WORKERS;
+      int queueSize = line.hasOption("q") ? Integer.parseInt(line.getOptionValue("q")) : DEFAULT_QUEUE_SIZE;
+      InetSocketAddress address = line.hasOption("b") ? new InetSocketAddress(line.getOptionValue("b"), port) : new InetSocketAddress(port);
+
+      final ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("db-config.xml");
+      final DataSource dataSource = context.getBean("dataSource", DataSource.class);
+
+      Reports reports;
+      if (line.hasOption("c")) {
+        reports = new CachingReports(dataSource, CachingReports.DEFAULT_MAX_ENTRIES, Long.parseLong(line.getOptionValue("c")) * 1000L);
+      }
+      else {
+        reports = new Reports(dataSource);
+      }
+      reports.setUseRollups(line.hasOption("u") || context.getBean("valueRollupDAO", ValueRollupDAO.class).isEnabled());
+
+      final StatsDbServer server = new StatsDbServer(address, reports, workers, queueSize);
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        @Override
+        public void run() {
+          log.info("Stopping StatsDB query server:");
+          server.stop(5);
+          log.info("\t\\_ " + server.getWorkerPool().getRejectedCount() + " requests turned away whilst busy");
+          if (dataSource instanceof MonitoredBasicDataSource) {
+            ((MonitoredBasicDataSource)dataSource).logStatistics();
+          }
+          context.close();
+        }
+      });
+      server.start();
+    }
+    catch (ParseException e) {
+      log.error("Parsing failed.  Reason: " + e.getMessage());
+      System.exit(1);
+    }
+    catch (IllegalArgumentException e) {
+      log.error("Invalid server setting: " + e.getMessage());
+      System.exit(1);
+    }
+    catch (IOException e) {
+      log.error("Unable to start the query server: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+}
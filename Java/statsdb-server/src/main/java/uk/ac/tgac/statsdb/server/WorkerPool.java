@@ -0,0 +1,114 @@
+package uk.ac.tgac.statsdb.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor for HTTP requests. A fixed number of workers run requests, and up to queueSize more wait for a
+ * free worker. Requests arriving beyond that are run straight away on the calling (dispatcher) thread with
+ * {@link #isOverloaded()} set, so that handlers can turn them away with a 503 rather than queue without limit or hold
+ * on to the connection until the database pool frees up.
+ *
+ * @since 1.2
+ */
+public class WorkerPool implements Executor {
+  protected static final Logger log = LoggerFactory.getLogger(WorkerPool.class);
+
+  private static final ThreadLocal<Boolean> overloaded = new ThreadLocal<>();
+
+  private final ThreadPoolExecutor executor;
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  /**
+   * Creates a new WorkerPool
+   *
+   * @param workers   the number of worker threads, at least 1
+   * @param queueSize the number of requests that may wait for a worker, 0 for none
+   */
+  public WorkerPool(int workers, int queueSize) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("A worker pool needs at least one worker: " + workers);
+    }
+    if (queueSize < 0) {
+      throw new IllegalArgumentException("Queue size cannot be negative: " + queueSize);
+    }
+    BlockingQueue<Runnable> queue = queueSize == 0 ? new SynchronousQueue<Runnable>() : new ArrayBlockingQueue<Runnable>(queueSize);
+    this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, queue, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "statsdb-http-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    try {
+      executor.execute(command);
+    }
+    catch (RejectedExecutionException e) {
+      rejectedCount.incrementAndGet();
+      overloaded.set(Boolean.TRUE);
+      try {
+        command.run();
+      }
+      finally {
+        overloaded.remove();
+      }
+    }
+  }
+
+  /**
+   * Whether the request running on the current thread was rejected by a full pool
+   *
+   * @return true if the request should be turned away
+   */
+  public static boolean isOverloaded() {
+    return Boolean.TRUE.equals(overloaded.get());
+  }
+
+  /**
+   * @return the number of requests turned away since the pool was created
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * @return the number of requests waiting for a worker
+   */
+  public int getQueuedCount() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Stops accepting requests, and waits for those already accepted to finish
+   *
+   * @param timeoutMillis how long to wait
+   * @return true if every request finished in time
+   * @throws InterruptedException
+   */
+  public boolean shutdown(long timeoutMillis) throws InterruptedException {
+    executor.shutdown();
+    boolean terminated = executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    if (!terminated) {
+      log.warn("\t\\_ " + executor.getActiveCount() + " requests still running after " + timeoutMillis + "ms");
+    }
+    return terminated;
+  }
+}
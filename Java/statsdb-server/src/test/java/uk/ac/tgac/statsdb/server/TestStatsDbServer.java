@@ -0,0 +1,251 @@
+package uk.ac.tgac.statsdb.server;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import uk.ac.tgac.statsdb.analysis.DefaultQCAnalysis;
+import uk.ac.tgac.statsdb.analysis.QCAnalysis;
+import uk.ac.tgac.statsdb.dao.HsqldbTestDataSource;
+import uk.ac.tgac.statsdb.dao.QCAnalysisDAO;
+import uk.ac.tgac.statsdb.dao.ValueRollupDAO;
+import uk.ac.tgac.statsdb.dao.ValueSketchDAO;
+import uk.ac.tgac.statsdb.exception.QCAnalysisException;
+import uk.ac.tgac.statsdb.run.Reports;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests the StatsDB query server against an in-memory HSQLDB database. The queries used are those answered without
+ * the MySQL stored procedures, from the value rollups and sketches.
+ *
+ * @since 1.2
+ */
+public class TestStatsDbServer {
+  protected static final Logger log = LoggerFactory.getLogger(TestStatsDbServer.class);
+
+  private static final String[] QUALITY = {"quality_mean", "quality_median", "quality_lower_quartile",
+                                           "quality_upper_quartile", "quality_10th_percentile", "quality_90th_percentile"};
+  private static final int POSITIONS = 100;
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private static JdbcTemplate template;
+  private static StatsDbServer server;
+
+  @BeforeClass
+  public static void setUp() throws QCAnalysisException, IOException {
+    log.info("Initial setup...");
+    DataSource dataSource = HsqldbTestDataSource.create("server");
+    template = new JdbcTemplate(dataSource);
+
+    QCAnalysisDAO dao = new QCAnalysisDAO();
+    dao.setJdbcTemplate(template);
+    dao.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    ValueRollupDAO rollupDAO = new ValueRollupDAO(template);
+    rollupDAO.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    dao.setValueRollupDAO(rollupDAO);
+    ValueSketchDAO sketchDAO = new ValueSketchDAO(template, dao.getValueTypeDictionary());
+    sketchDAO.setTransactionManager(new DataSourceTransactionManager(dataSource));
+    dao.addListener(sketchDAO);
+
+    // each quality value at position p of barcode b is q + p + b, for the q-th QUALITY value type
+    for (int barcode = 0; barcode < 2; barcode++) {
+      QCAnalysis analysis = new DefaultQCAnalysis();
+      analysis.addProperty("instrument", "SN319");
+      analysis.addProperty("run", "RUN_1");
+      analysis.addProperty("lane", "1");
+      analysis.addProperty("pair", "1");
+      analysis.addProperty("sample_name", "SAMPLE_" + barcode);
+      analysis.addProperty("barcode", "B" + barcode);
+      analysis.addProperty("tool", "FastQC");
+      for (int q = 0; q < QUALITY.length; q++) {
+        analysis.addValueType(QUALITY[q], "base_partition");
+        for (int position = 1; position <= POSITIONS; position++) {
+          analysis.addPositionValue(String.valueOf(position), QUALITY[q], String.valueOf(q + position + barcode));
+        }
+      }
+      dao.insertAnalysis(analysis);
+    }
+
+    Reports reports = new Reports(dataSource);
+    reports.setUseRollups(true);
+    server = new StatsDbServer(new InetSocketAddress("127.0.0.1", 0), reports, 2, 4);
+    server.start();
+  }
+
+  private static HttpURLConnection open(String path, String... headers) throws IOException {
+    HttpURLConnection con = (HttpURLConnection)new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+    for (int i = 0; i < headers.length; i += 2) {
+      con.setRequestProperty(headers[i], headers[i + 1]);
+    }
+    return con;
+  }
+
+  private static byte[] read(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+        bytes.write(buffer, 0, n);
+      }
+    }
+    finally {
+      in.close();
+    }
+    return bytes.toByteArray();
+  }
+
+  private static String get(String path) throws IOException {
+    HttpURLConnection con = open(path);
+    Assert.assertEquals(200, con.getResponseCode());
+    return new String(read(con.getInputStream()), "UTF-8");
+  }
+
+  @Test
+  public void perPositionValuesAsJsonAndCsv() throws IOException {
+    List<?> rows = mapper.readValue(get("/reports/perposition?analysis=quality_mean&run=RUN_1&lane=1"), List.class);
+    Assert.assertEquals(POSITIONS + 1, rows.size());
+    Assert.assertEquals(Arrays.asList("Position", "Size", "Average", "Samples", "Total"), rows.get(0));
+    // position 1 values are 1 and 2
+    Assert.assertEquals(Arrays.asList("1", "1", "1.5", "2", "3.0"), rows.get(1));
+
+    String csv = get("/reports/perposition?analysis=quality_mean&run=RUN_1&format=csv");
+    Assert.assertTrue(csv.startsWith("Position,Size,Average,Samples,Total"));
+
+    Map<?, ?> tables = mapper.readValue(get("/reports/perposition?analysis=quality_mean,quality_median&run=RUN_1"), Map.class);
+    Assert.assertEquals(Arrays.asList("quality_mean", "quality_median"), Arrays.asList(tables.keySet().toArray()));
+  }
+
+  @Test
+  public void percentiles() throws IOException {
+    List<?> rows = mapper.readValue(get("/reports/percentiles?analysis=quality_mean&p=0,100&lane=1"), List.class);
+    Assert.assertEquals(Arrays.asList("Position", "Samples", "P0", "P100"), rows.get(0));
+    Assert.assertEquals(Arrays.asList("2", "2", "2.0", "3.0"), rows.get(2));
+  }
+
+  @Test
+  public void qualityPlot() throws IOException {
+    Map<?, ?> plot = mapper.readValue(get("/plots/quality?run=RUN_1&lane=1&pair=1"), Map.class);
+    List<?> stats = (List<?>)plot.get("stats");
+    Assert.assertEquals(POSITIONS, stats.size());
+    Map<?, ?> first = (Map<?, ?>)stats.get(0);
+    Assert.assertEquals("1", first.get("base"));
+    Assert.assertEquals("1.5", first.get("mean"));
+    Assert.assertEquals("2.5", first.get("median"));
+    Assert.assertEquals("6.5", first.get("ninetiethpercentile"));
+  }
+
+  @Test
+  public void conditionalGet() throws IOException {
+    HttpURLConnection con = open("/reports/perposition?analysis=quality_mean&run=RUN_1");
+    Assert.assertEquals(200, con.getResponseCode());
+    String etag = con.getHeaderField("ETag");
+    Assert.assertNotNull(etag);
+    read(con.getInputStream());
+
+    con = open("/reports/perposition?analysis=quality_mean&run=RUN_1", "If-None-Match", etag);
+    Assert.assertEquals(304, con.getResponseCode());
+    Assert.assertEquals(etag, con.getHeaderField("ETag"));
+
+    con = open("/reports/perposition?analysis=quality_median&run=RUN_1", "If-None-Match", etag);
+    Assert.assertEquals(200, con.getResponseCode());
+    read(con.getInputStream());
+  }
+
+  @Test
+  public void gzipEncoding() throws IOException {
+    String plain = get("/reports/perposition?analysis=quality_mean&run=RUN_1");
+    Assert.assertTrue(plain.length() > QueryHandler.DEFAULT_GZIP_THRESHOLD);
+
+    HttpURLConnection con = open("/reports/perposition?analysis=quality_mean&run=RUN_1", "Accept-Encoding", "gzip");
+    Assert.assertEquals(200, con.getResponseCode());
+    Assert.assertEquals("gzip", con.getHeaderField("Content-Encoding"));
+    byte[] compressed = read(con.getInputStream());
+    Assert.assertTrue(compressed.length < plain.length());
+    Assert.assertEquals(plain, new String(read(new GZIPInputStream(new ByteArrayInputStream(compressed))), "UTF-8"));
+
+    con = open("/reports/percentiles?analysis=no_such_value", "Accept-Encoding", "gzip");
+    Assert.assertEquals(200, con.getResponseCode());
+    Assert.assertNull(con.getHeaderField("Content-Encoding"));
+    read(con.getInputStream());
+  }
+
+  @Test
+  public void errors() throws IOException {
+    Assert.assertEquals(404, open("/reports/nosuchquery").getResponseCode());
+    Assert.assertEquals(400, open("/reports/perposition").getResponseCode());
+    Assert.assertEquals(400, open("/plots/quality?run=RUN_1&lane=one").getResponseCode());
+    Assert.assertEquals(400, open("/reports/perposition?analysis=quality_mean&format=xml").getResponseCode());
+    Assert.assertEquals(400, open("/reports/percentiles?analysis=quality_mean&barcode=ACGTAC").getResponseCode());
+
+    HttpURLConnection con = open("/reports/perposition?analysis=quality_mean");
+    con.setRequestMethod("DELETE");
+    Assert.assertEquals(405, con.getResponseCode());
+    Assert.assertEquals("GET, HEAD", con.getHeaderField("Allow"));
+  }
+
+  @Test
+  public void fullPoolRunsOverloadedRequestsOnTheCaller() throws InterruptedException {
+    WorkerPool pool = new WorkerPool(1, 0);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final boolean[] overloaded = new boolean[2];
+    try {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          overloaded[0] = WorkerPool.isOverloaded();
+          started.countDown();
+          try {
+            release.await();
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      started.await();
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          overloaded[1] = WorkerPool.isOverloaded();
+        }
+      });
+    }
+    finally {
+      release.countDown();
+      pool.shutdown(1000L);
+    }
+    Assert.assertFalse(overloaded[0]);
+    Assert.assertTrue(overloaded[1]);
+    Assert.assertFalse(WorkerPool.isOverloaded());
+    Assert.assertEquals(1L, pool.getRejectedCount());
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    log.info("Final teardown...");
+    server.stop(0);
+    template.execute("SHUTDOWN");
+    template = null;
+  }
+}
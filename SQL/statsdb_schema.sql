@@ -12,7 +12,8 @@ USE `statsdb` ;
 CREATE  TABLE IF NOT EXISTS `type_scope` (
   `id` INT NOT NULL AUTO_INCREMENT,
   `scope` VARCHAR(45) NULL ,
-  PRIMARY KEY (`id`) )
+  PRIMARY KEY (`id`) ,
+  UNIQUE INDEX `uq_type_scope_scope` (`scope` ASC) )
 ENGINE = InnoDB
 COMMENT = 'This table sets if the scope is for run, for each base, or p' /* comment truncated */;
 
@@ -23,10 +24,11 @@ COMMENT = 'This table sets if the scope is for run, for each base, or p' /* comm
 CREATE  TABLE IF NOT EXISTS `value_type` (
   `id` INT NOT NULL AUTO_INCREMENT,
   `type_scope_id` INT NOT NULL ,
-  `description` TEXT NULL ,
+  `description` VARCHAR(500) NULL ,
   `comment` VARCHAR(200) NULL ,
   PRIMARY KEY (`id`) ,
   INDEX `fk_value_type_type_scope` (`type_scope_id` ASC) ,
+  UNIQUE INDEX `uq_value_type_scope_description` (`type_scope_id` ASC, `description` ASC) ,
   CONSTRAINT `fk_value_type_type_scope`
     FOREIGN KEY (`type_scope_id` )
     REFERENCES `type_scope` (`id` )
@@ -130,6 +132,8 @@ CREATE  TABLE IF NOT EXISTS `analysis_property` (
   `analysis_id` BIGINT(20) NOT NULL ,
   PRIMARY KEY (`id`) ,
   INDEX `fk_analysis_property_analysis1` (`id` ASC) ,
+  INDEX `idx_analysis_property_lookup` (`property` ASC, `value`(100) ASC, `analysis_id` ASC) ,
+  INDEX `idx_analysis_property_analysis` (`analysis_id` ASC, `property` ASC) ,
   CONSTRAINT `fk_analysis_property_analysis2`
     FOREIGN KEY (`analysis_id` )
     REFERENCES `analysis` (`id` )
@@ -156,6 +160,164 @@ CREATE  TABLE IF NOT EXISTS `analysis_date` (
 ENGINE = InnoDB;
 
 
+-- -----------------------------------------------------
+-- Table `analysis_run_identity`
+-- One row per analysis holding the properties that identify
+-- the run it belongs to, so that analyses can be looked up
+-- by run without repeatedly scanning analysis_property.
+-- Maintained by the analysis_property_run_identity trigger.
+-- -----------------------------------------------------
+CREATE  TABLE IF NOT EXISTS `analysis_run_identity` (
+  `analysis_id` BIGINT(20) NOT NULL ,
+  `instrument` VARCHAR(500) NULL ,
+  `run` VARCHAR(500) NULL ,
+  `lane` VARCHAR(500) NULL ,
+  `pair` VARCHAR(500) NULL ,
+  `sample_name` VARCHAR(500) NULL ,
+  `barcode` VARCHAR(500) NULL ,
+  `tool` VARCHAR(500) NULL ,
+  `reference` VARCHAR(500) NULL ,
+  `interop_subtype` VARCHAR(500) NULL ,
+  PRIMARY KEY (`analysis_id`) ,
+  INDEX `idx_run_identity_run` (`run`(100) ASC, `lane`(20) ASC, `pair`(20) ASC, `barcode`(50) ASC) ,
+  INDEX `idx_run_identity_instrument` (`instrument`(100) ASC, `run`(100) ASC) ,
+  INDEX `idx_run_identity_sample` (`sample_name`(100) ASC) ,
+  INDEX `idx_run_identity_tool` (`tool`(100) ASC) ,
+  CONSTRAINT `fk_analysis_run_identity_analysis`
+    FOREIGN KEY (`analysis_id` )
+    REFERENCES `analysis` (`id` )
+    ON DELETE CASCADE
+    ON UPDATE NO ACTION)
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = latin1;
+
+
+-- -----------------------------------------------------
+-- Table `analysis_fingerprint`
+-- The SHA-1 of the run identity and of the content of each
+-- analysis written by the Java ingest, so that a report
+-- ingested again is skipped, or replaces the earlier
+-- analysis, rather than being stored twice. The unique
+-- index allows one analysis per identity.
+-- -----------------------------------------------------
+CREATE  TABLE IF NOT EXISTS `analysis_fingerprint` (
+  `analysis_id` BIGINT(20) NOT NULL ,
+  `identity` CHAR(40) NOT NULL ,
+  `fingerprint` CHAR(40) NOT NULL ,
+  PRIMARY KEY (`analysis_id`) ,
+  UNIQUE INDEX `uq_analysis_fingerprint_identity` (`identity` ASC) ,
+  CONSTRAINT `fk_analysis_fingerprint_analysis`
+    FOREIGN KEY (`analysis_id` )
+    REFERENCES `analysis` (`id` )
+    ON DELETE CASCADE
+    ON UPDATE NO ACTION)
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = latin1;
+
+
+-- -----------------------------------------------------
+-- Table `value_sketch`
+-- A serialised quantile sketch of the values of each value
+-- type at each position, per instrument, run and lane, so
+-- that percentiles over any selection of runs can be
+-- estimated by merging sketches. General values are held
+-- at position 0. Maintained by the Java ValueSketchDAO.
+-- -----------------------------------------------------
+CREATE  TABLE IF NOT EXISTS `value_sketch` (
+  `id` BIGINT(20) NOT NULL AUTO_INCREMENT ,
+  `value_type_id` INT NOT NULL ,
+  `position` INT(11) NOT NULL ,
+  `instrument` VARCHAR(255) NOT NULL DEFAULT '' ,
+  `run` VARCHAR(255) NOT NULL DEFAULT '' ,
+  `lane` VARCHAR(45) NOT NULL DEFAULT '' ,
+  `samples` BIGINT(20) NOT NULL ,
+  `sketch` BLOB NOT NULL ,
+  PRIMARY KEY (`id`) ,
+  UNIQUE INDEX `uq_value_sketch_key` (`value_type_id` ASC, `position` ASC, `instrument` ASC, `run` ASC, `lane` ASC) ,
+  INDEX `idx_value_sketch_lane` (`instrument` ASC, `run` ASC, `lane` ASC) ,
+  CONSTRAINT `fk_value_sketch_value_type`
+    FOREIGN KEY (`value_type_id` )
+    REFERENCES `value_type` (`id` )
+    ON DELETE NO ACTION
+    ON UPDATE NO ACTION)
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = latin1;
+
+
+-- -----------------------------------------------------
+-- Table `value_rollup`
+-- The number, sum, minimum and maximum of the values of
+-- each value type at each position, per instrument, run,
+-- lane and pair, so that summaries needn't aggregate the
+-- raw values. source is 0 for general values (held at
+-- position 0), 1 for partition and 2 for position values.
+-- Maintained by the Java ValueRollupDAO.
+-- -----------------------------------------------------
+CREATE  TABLE IF NOT EXISTS `value_rollup` (
+  `id` BIGINT(20) NOT NULL AUTO_INCREMENT ,
+  `source` TINYINT NOT NULL ,
+  `value_type_id` INT NOT NULL ,
+  `position` INT(11) NOT NULL ,
+  `instrument` VARCHAR(255) NOT NULL ,
+  `run` VARCHAR(255) NOT NULL ,
+  `lane` VARCHAR(45) NOT NULL ,
+  `pair` VARCHAR(45) NOT NULL ,
+  `size` INT(11) NOT NULL DEFAULT 1 ,
+  `samples` BIGINT(20) NOT NULL ,
+  `total` DOUBLE NOT NULL ,
+  `minimum` DOUBLE NOT NULL ,
+  `maximum` DOUBLE NOT NULL ,
+  PRIMARY KEY (`id`) ,
+  UNIQUE INDEX `uq_value_rollup_key` (`value_type_id` ASC, `source` ASC, `position` ASC, `instrument` ASC, `run` ASC, `lane` ASC, `pair` ASC) ,
+  INDEX `idx_value_rollup_group` (`instrument` ASC, `run` ASC, `lane` ASC, `pair` ASC) ,
+  CONSTRAINT `fk_value_rollup_value_type`
+    FOREIGN KEY (`value_type_id` )
+    REFERENCES `value_type` (`id` )
+    ON DELETE NO ACTION
+    ON UPDATE NO ACTION)
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = latin1;
+
+DELIMITER $$
+
+DROP TRIGGER IF EXISTS `analysis_property_run_identity`$$
+CREATE TRIGGER `analysis_property_run_identity`
+AFTER INSERT ON `analysis_property`
+FOR EACH ROW
+BEGIN
+	IF NEW.property IN ('instrument', 'run', 'lane', 'pair', 'sample_name',
+		'barcode', 'tool', 'reference', 'interop_subtype')
+	THEN
+		INSERT INTO analysis_run_identity (
+			analysis_id, instrument, run, lane, pair, sample_name,
+			barcode, tool, reference, interop_subtype)
+		VALUES (
+			NEW.analysis_id,
+			IF(NEW.property = 'instrument', NEW.value, NULL),
+			IF(NEW.property = 'run', NEW.value, NULL),
+			IF(NEW.property = 'lane', NEW.value, NULL),
+			IF(NEW.property = 'pair', NEW.value, NULL),
+			IF(NEW.property = 'sample_name', NEW.value, NULL),
+			IF(NEW.property = 'barcode', NEW.value, NULL),
+			IF(NEW.property = 'tool', NEW.value, NULL),
+			IF(NEW.property = 'reference', NEW.value, NULL),
+			IF(NEW.property = 'interop_subtype', NEW.value, NULL))
+		ON DUPLICATE KEY UPDATE
+			instrument = IF(NEW.property = 'instrument', NEW.value, instrument),
+			run = IF(NEW.property = 'run', NEW.value, run),
+			lane = IF(NEW.property = 'lane', NEW.value, lane),
+			pair = IF(NEW.property = 'pair', NEW.value, pair),
+			sample_name = IF(NEW.property = 'sample_name', NEW.value, sample_name),
+			barcode = IF(NEW.property = 'barcode', NEW.value, barcode),
+			tool = IF(NEW.property = 'tool', NEW.value, tool),
+			reference = IF(NEW.property = 'reference', NEW.value, reference),
+			interop_subtype = IF(NEW.property = 'interop_subtype', NEW.value, interop_subtype);
+	END IF;
+END$$
+
+DELIMITER ;
+
+
 
 SET SQL_MODE=@OLD_SQL_MODE;
 SET FOREIGN_KEY_CHECKS=@OLD_FOREIGN_KEY_CHECKS;
@@ -0,0 +1,94 @@
+-- -----------------------------------------------------
+-- Upgrades an existing StatsDB database to the current
+-- schema. Each section can be run once, in order.
+-- -----------------------------------------------------
+USE `statsdb` ;
+
+-- -----------------------------------------------------
+-- 1.2: unique dictionary keys on type_scope(scope) and
+-- value_type(type_scope_id, description). Duplicate
+-- entries are merged onto the lowest id first.
+-- -----------------------------------------------------
+CREATE TEMPORARY TABLE `type_scope_merge` AS
+  SELECT t.`id` AS old_id, k.keep_id
+  FROM `type_scope` t
+  JOIN (SELECT `scope`, MIN(`id`) AS keep_id FROM `type_scope` GROUP BY `scope` HAVING COUNT(*) > 1) k
+    ON t.`scope` = k.`scope` AND t.`id` <> k.keep_id;
+
+UPDATE `value_type` v JOIN `type_scope_merge` m ON v.`type_scope_id` = m.old_id SET v.`type_scope_id` = m.keep_id;
+DELETE t FROM `type_scope` t JOIN `type_scope_merge` m ON t.`id` = m.old_id;
+DROP TEMPORARY TABLE `type_scope_merge`;
+
+CREATE TEMPORARY TABLE `value_type_merge` AS
+  SELECT v.`id` AS old_id, k.keep_id
+  FROM `value_type` v
+  JOIN (SELECT `type_scope_id`, `description`, MIN(`id`) AS keep_id FROM `value_type`
+        GROUP BY `type_scope_id`, `description` HAVING COUNT(*) > 1) k
+    ON v.`type_scope_id` = k.`type_scope_id` AND v.`description` = k.`description` AND v.`id` <> k.keep_id;
+
+UPDATE `analysis_value` a JOIN `value_type_merge` m ON a.`value_type_id` = m.old_id SET a.`value_type_id` = m.keep_id;
+UPDATE `per_partition_value` p JOIN `value_type_merge` m ON p.`value_type_id` = m.old_id SET p.`value_type_id` = m.keep_id;
+UPDATE `per_position_value` p JOIN `value_type_merge` m ON p.`value_type_id` = m.old_id SET p.`value_type_id` = m.keep_id;
+DELETE v FROM `value_type` v JOIN `value_type_merge` m ON v.`id` = m.old_id;
+DROP TEMPORARY TABLE `value_type_merge`;
+
+ALTER TABLE `type_scope`
+  ADD UNIQUE INDEX `uq_type_scope_scope` (`scope` ASC);
+
+ALTER TABLE `value_type`
+  MODIFY `description` VARCHAR(500) NULL ,
+  ADD UNIQUE INDEX `uq_value_type_scope_description` (`type_scope_id` ASC, `description` ASC);
+
+-- -----------------------------------------------------
+-- 1.2: analysis_run_identity lookup table, maintained by
+-- the analysis_property_run_identity trigger. Create the
+-- table and trigger from statsdb_schema.sql first, then
+-- backfill existing analyses, and reload
+-- stored_procedures.sql.
+-- -----------------------------------------------------
+ALTER TABLE `analysis_property`
+  ADD INDEX `idx_analysis_property_lookup` (`property` ASC, `value`(100) ASC, `analysis_id` ASC) ,
+  ADD INDEX `idx_analysis_property_analysis` (`analysis_id` ASC, `property` ASC);
+
+INSERT INTO `analysis_run_identity` (
+  analysis_id, instrument, run, lane, pair, sample_name,
+  barcode, tool, reference, interop_subtype)
+SELECT
+  analysis_id,
+  MAX(IF(property = 'instrument', value, NULL)),
+  MAX(IF(property = 'run', value, NULL)),
+  MAX(IF(property = 'lane', value, NULL)),
+  MAX(IF(property = 'pair', value, NULL)),
+  MAX(IF(property = 'sample_name', value, NULL)),
+  MAX(IF(property = 'barcode', value, NULL)),
+  MAX(IF(property = 'tool', value, NULL)),
+  MAX(IF(property = 'reference', value, NULL)),
+  MAX(IF(property = 'interop_subtype', value, NULL))
+FROM `analysis_property`
+WHERE property IN ('instrument', 'run', 'lane', 'pair', 'sample_name',
+  'barcode', 'tool', 'reference', 'interop_subtype')
+GROUP BY analysis_id
+ON DUPLICATE KEY UPDATE analysis_id = analysis_id;
+
+-- -----------------------------------------------------
+-- 1.2: value_sketch quantile sketches. Create the table
+-- from statsdb_schema.sql, then sketch existing analyses
+-- with ValueSketchDAO.rebuild(), which reads them through
+-- analysis_run_identity.
+-- -----------------------------------------------------
+
+-- -----------------------------------------------------
+-- 1.2: value_rollup summaries. Create the table from
+-- statsdb_schema.sql, then roll up existing analyses with
+-- ValueRollupDAO.rebuild() before enabling
+-- Reports.setUseRollups(true).
+-- -----------------------------------------------------
+
+-- -----------------------------------------------------
+-- 1.2: analysis_fingerprint for idempotent ingest. Create
+-- the table from statsdb_schema.sql. Existing analyses have
+-- no fingerprint, so a report already stored before the
+-- upgrade is stored once more on its first re-ingest, and
+-- earlier duplicates are still resolved by
+-- detect_duplicates and set_duplicate_selection_type.
+-- -----------------------------------------------------
@@ -572,6 +572,86 @@ BEGIN
 	DROP TEMPORARY TABLE IF EXISTS analysis_ids_tmp;
 END$$
 
+DROP PROCEDURE IF EXISTS summary_per_position_multi_for_run$$
+CREATE PROCEDURE summary_per_position_multi_for_run(
+	IN partition_values VARCHAR(2000),
+	IN instrument_in VARCHAR(500),
+	IN run_in VARCHAR(500),
+	IN lane_in VARCHAR(500),
+	IN pair_in VARCHAR(500),
+	IN sample_name_in VARCHAR(500),
+	IN barcode_in VARCHAR(500),
+	IN tool_in VARCHAR(500))
+BEGIN
+--	As summary_per_position_for_run, but for a comma separated list of
+--	value types, so that the analysis IDs are only resolved once. Returns
+--	one row per value type and position, ordered by value type. As in the
+--	single value type procedure, a value type with any partition values
+--	is summarised from its partitions alone.
+	CALL get_analysis_id_as_temp_table(
+		instrument_in,
+		run_in,
+		lane_in,
+		pair_in,
+		sample_name_in,
+		barcode_in,
+		tool_in)
+	;
+	
+	DROP TEMPORARY TABLE IF EXISTS multi_value_types;
+	CREATE TEMPORARY TABLE multi_value_types ENGINE=MEMORY AS
+	SELECT id, description,
+		EXISTS (
+			SELECT *
+			FROM per_partition_value
+			WHERE value_type_id = value_type.id) AS partitioned
+	FROM value_type
+	WHERE FIND_IN_SET(description, partition_values)
+	;
+	
+	-- MySQL can't open a temporary table twice in one query, so the
+	-- partition and position halves each get their own copy
+	DROP TEMPORARY TABLE IF EXISTS multi_analysis_ids;
+	CREATE TEMPORARY TABLE multi_analysis_ids ENGINE=MEMORY AS
+	SELECT analysis_id FROM analysis_ids_tmp
+	;
+	DROP TEMPORARY TABLE IF EXISTS multi_value_types_pos;
+	CREATE TEMPORARY TABLE multi_value_types_pos ENGINE=MEMORY AS
+	SELECT id, description FROM multi_value_types WHERE NOT partitioned
+	;
+	
+	SELECT
+		val.description AS Description,
+		pos.position AS Position,
+		pos.size AS Size,
+		AVG(pos.value) AS Average,
+		COUNT(*) AS Samples,
+		SUM(pos.value) AS Total
+	FROM per_partition_value AS pos
+	INNER JOIN multi_value_types AS val ON val.id = pos.value_type_id
+	INNER JOIN analysis_ids_tmp AS ids ON ids.analysis_id = pos.analysis_id
+	GROUP BY pos.value_type_id, pos.position
+	UNION ALL
+	SELECT
+		val.description AS Description,
+		pos.position AS Position,
+		'1' AS Size,
+		AVG(pos.value) AS Average,
+		COUNT(*) AS Samples,
+		SUM(pos.value) AS Total
+	FROM per_position_value AS pos
+	INNER JOIN multi_value_types_pos AS val ON val.id = pos.value_type_id
+	INNER JOIN multi_analysis_ids AS ids ON ids.analysis_id = pos.analysis_id
+	GROUP BY pos.value_type_id, pos.position
+	ORDER BY Description, Position
+	;
+	
+	DROP TEMPORARY TABLE IF EXISTS multi_value_types;
+	DROP TEMPORARY TABLE IF EXISTS multi_value_types_pos;
+	DROP TEMPORARY TABLE IF EXISTS multi_analysis_ids;
+	DROP TEMPORARY TABLE IF EXISTS analysis_ids_tmp;
+END$$
+
 DROP PROCEDURE IF EXISTS get_analysis_id$$
 CREATE PROCEDURE get_analysis_id(
 	IN instrument_in VARCHAR(500),
@@ -582,46 +662,33 @@ CREATE PROCEDURE get_analysis_id(
 	IN barcode_in VARCHAR(500),
 	IN tool_in VARCHAR(500))
 get_ids:BEGIN
+	-- analysis_run_identity holds one indexed row per analysis, so each
+	-- filter is a single column comparison rather than a scan of
+	-- analysis_property.
 	DROP TEMPORARY TABLE IF EXISTS an_ids_tmp1;
 	CREATE TEMPORARY TABLE an_ids_tmp1 ENGINE=INNODB AS
-	SELECT DISTINCT analysis_id 
-	FROM analysis_property
-	WHERE 
-		IF(instrument_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'instrument'
-			AND value = instrument_in))
-		AND IF(run_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'run'
-			AND value = run_in))
-		AND IF(lane_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'lane'
-			AND value = lane_in))
-		AND IF(pair_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'pair'
-			AND value = pair_in))
-		AND IF(sample_name_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'sample_name'
-			AND value = sample_name_in))
-		AND IF(barcode_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'barcode'
-			AND value = barcode_in))
-		AND IF(tool_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'tool'
-			AND value = tool_in))
+	SELECT
+		ri.analysis_id AS analysis_id,
+		d.analysisDate AS date,
+		ri.instrument AS instrument,
+		ri.run AS run,
+		ri.lane AS lane,
+		ri.pair AS pair,
+		ri.sample_name AS sample_name,
+		ri.barcode AS barcode,
+		ri.tool AS tool,
+		ri.reference AS screening_reference,
+		ri.interop_subtype AS interop_subtype
+	FROM analysis_run_identity AS ri
+	INNER JOIN analysis AS d
+		ON ri.analysis_id = d.id
+	WHERE (instrument_in IS NULL OR ri.instrument = instrument_in)
+		AND (run_in IS NULL OR ri.run = run_in)
+		AND (lane_in IS NULL OR ri.lane = lane_in)
+		AND (pair_in IS NULL OR ri.pair = pair_in)
+		AND (sample_name_in IS NULL OR ri.sample_name = sample_name_in)
+		AND (barcode_in IS NULL OR ri.barcode = barcode_in)
+		AND (tool_in IS NULL OR ri.tool = tool_in)
 	;
 	
 	-- If @duplicate_selection indicates to retrieve all matching IDs,
@@ -633,51 +700,19 @@ get_ids:BEGIN
 		LEAVE get_ids;
 	END IF;
 	
-	-- Pull in other identifying info for the run IDs
+	-- Only analyses carrying the full set of identifying properties
+	-- take part in duplicate detection
 	DROP TEMPORARY TABLE IF EXISTS an_ids_tmp2;
 	CREATE TEMPORARY TABLE an_ids_tmp2 ENGINE=INNODB AS
-	SELECT DISTINCT
-		tmp.analysis_id as analysis_id,
-		d.analysisDate as date,
-		ins.value AS instrument,
-		rn.value AS run,
-		ln.value AS lane,
-		pr.value AS pair,
-		sn.value AS sample_name,
-		bc.value AS barcode,
-		tl.value AS tool,
-		ref.value AS screening_reference,
-		ist.value AS interop_subtype
-	FROM an_ids_tmp1 AS tmp
-	INNER JOIN analysis AS d 
-		ON tmp.analysis_id = d.id
-	INNER JOIN analysis_property AS ins 
-		ON tmp.analysis_id = ins.analysis_id 
-		AND ins.property = 'instrument'
-	INNER JOIN analysis_property AS rn 
-		ON tmp.analysis_id = rn.analysis_id 
-		AND rn.property = 'run'
-	INNER JOIN analysis_property AS ln 
-		ON tmp.analysis_id = ln.analysis_id 
-		AND ln.property = 'lane'
-	INNER JOIN analysis_property AS pr 
-		ON tmp.analysis_id = pr.analysis_id 
-		AND pr.property = 'pair'
-	INNER JOIN analysis_property AS sn 
-		ON tmp.analysis_id = sn.analysis_id 
-		AND sn.property = 'sample_name'
-	INNER JOIN analysis_property AS bc 
-		ON tmp.analysis_id = bc.analysis_id 
-		AND bc.property = 'barcode'
-	INNER JOIN analysis_property AS tl 
-		ON tmp.analysis_id = tl.analysis_id 
-		AND tl.property = 'tool'
-	LEFT JOIN analysis_property AS ref 
-		ON tmp.analysis_id = ref.analysis_id 
-		AND ref.property = 'reference'
-	LEFT JOIN analysis_property AS ist 
-		ON tmp.analysis_id = ist.analysis_id 
-		AND ist.property = 'interop_subtype'
+	SELECT *
+	FROM an_ids_tmp1
+	WHERE instrument IS NOT NULL
+		AND run IS NOT NULL
+		AND lane IS NOT NULL
+		AND pair IS NOT NULL
+		AND sample_name IS NOT NULL
+		AND barcode IS NOT NULL
+		AND tool IS NOT NULL
 	;
 	
 	-- Get the groupwise most recent dates and their respective records
@@ -764,46 +799,33 @@ get_ids:BEGIN
 --	This creates a temporary table in memory holding a set of analysis_ids,
 --	in order to work around MySQL's inability to use the output of
 --	stored procedures inside other stored procedures.
+	-- analysis_run_identity holds one indexed row per analysis, so each
+	-- filter is a single column comparison rather than a scan of
+	-- analysis_property.
 	DROP TEMPORARY TABLE IF EXISTS an_ids_tmp1;
-	CREATE TEMPORARY TABLE an_ids_tmp1 ENGINE=MEMORY AS
-	SELECT DISTINCT analysis_id 
-	FROM analysis_property
-	WHERE 
-		IF(instrument_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'instrument'
-			AND value = instrument_in))
-		AND IF(run_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'run'
-			AND value = run_in))
-		AND IF(lane_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'lane'
-			AND value = lane_in))
-		AND IF(pair_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'pair'
-			AND value = pair_in))
-		AND IF(sample_name_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'sample_name'
-			AND value = sample_name_in))
-		AND IF(barcode_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'barcode'
-			AND value = barcode_in))
-		AND IF(tool_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'tool'
-			AND value = tool_in))
+	CREATE TEMPORARY TABLE an_ids_tmp1 ENGINE=INNODB AS
+	SELECT
+		ri.analysis_id AS analysis_id,
+		d.analysisDate AS date,
+		ri.instrument AS instrument,
+		ri.run AS run,
+		ri.lane AS lane,
+		ri.pair AS pair,
+		ri.sample_name AS sample_name,
+		ri.barcode AS barcode,
+		ri.tool AS tool,
+		ri.reference AS screening_reference,
+		ri.interop_subtype AS interop_subtype
+	FROM analysis_run_identity AS ri
+	INNER JOIN analysis AS d
+		ON ri.analysis_id = d.id
+	WHERE (instrument_in IS NULL OR ri.instrument = instrument_in)
+		AND (run_in IS NULL OR ri.run = run_in)
+		AND (lane_in IS NULL OR ri.lane = lane_in)
+		AND (pair_in IS NULL OR ri.pair = pair_in)
+		AND (sample_name_in IS NULL OR ri.sample_name = sample_name_in)
+		AND (barcode_in IS NULL OR ri.barcode = barcode_in)
+		AND (tool_in IS NULL OR ri.tool = tool_in)
 	;
 	
 	-- If @duplicate_selection indicates to retrieve all matching IDs,
@@ -817,51 +839,19 @@ get_ids:BEGIN
 		LEAVE get_ids;
 	END IF;
 	
-	-- Pull in other identifying info for the run IDs
+	-- Only analyses carrying the full set of identifying properties
+	-- take part in duplicate detection
 	DROP TEMPORARY TABLE IF EXISTS an_ids_tmp2;
 	CREATE TEMPORARY TABLE an_ids_tmp2 ENGINE=INNODB AS
-	SELECT DISTINCT
-		tmp.analysis_id as analysis_id,
-		d.analysisDate as date,
-		ins.value AS instrument,
-		rn.value AS run,
-		ln.value AS lane,
-		pr.value AS pair,
-		sn.value AS sample_name,
-		bc.value AS barcode,
-		tl.value AS tool,
-		ref.value AS screening_reference,
-		ist.value AS interop_subtype
-	FROM an_ids_tmp1 AS tmp
-	INNER JOIN analysis AS d 
-		ON tmp.analysis_id = d.id
-	INNER JOIN analysis_property AS ins 
-		ON tmp.analysis_id = ins.analysis_id 
-		AND ins.property = 'instrument'
-	INNER JOIN analysis_property AS rn 
-		ON tmp.analysis_id = rn.analysis_id 
-		AND rn.property = 'run'
-	INNER JOIN analysis_property AS ln 
-		ON tmp.analysis_id = ln.analysis_id 
-		AND ln.property = 'lane'
-	INNER JOIN analysis_property AS pr 
-		ON tmp.analysis_id = pr.analysis_id 
-		AND pr.property = 'pair'
-	INNER JOIN analysis_property AS sn 
-		ON tmp.analysis_id = sn.analysis_id 
-		AND sn.property = 'sample_name'
-	INNER JOIN analysis_property AS bc 
-		ON tmp.analysis_id = bc.analysis_id 
-		AND bc.property = 'barcode'
-	INNER JOIN analysis_property AS tl 
-		ON tmp.analysis_id = tl.analysis_id 
-		AND tl.property = 'tool'
-	LEFT JOIN analysis_property AS ref 
-		ON tmp.analysis_id = ref.analysis_id 
-		AND ref.property = 'reference'
-	LEFT JOIN analysis_property AS ist 
-		ON tmp.analysis_id = ist.analysis_id 
-		AND ist.property = 'interop_subtype'
+	SELECT *
+	FROM an_ids_tmp1
+	WHERE instrument IS NOT NULL
+		AND run IS NOT NULL
+		AND lane IS NOT NULL
+		AND pair IS NOT NULL
+		AND sample_name IS NOT NULL
+		AND barcode IS NOT NULL
+		AND tool IS NOT NULL
 	;
 	
 	-- Get the groupwise most recent dates and their respective records
@@ -956,93 +946,48 @@ CREATE PROCEDURE detect_duplicates(
 	IN barcode_in VARCHAR(500),
 	IN tool_in VARCHAR(500))
 get_ids:BEGIN
+	-- analysis_run_identity holds one indexed row per analysis, so each
+	-- filter is a single column comparison rather than a scan of
+	-- analysis_property.
 	DROP TEMPORARY TABLE IF EXISTS an_ids_tmp1;
-	CREATE TEMPORARY TABLE an_ids_tmp1 ENGINE=MEMORY AS
-	SELECT DISTINCT analysis_id 
-	FROM analysis_property
-	WHERE 
-		IF(instrument_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'instrument'
-			AND value = instrument_in))
-		AND IF(run_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'run'
-			AND value = run_in))
-		AND IF(lane_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'lane'
-			AND value = lane_in))
-		AND IF(pair_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'pair'
-			AND value = pair_in))
-		AND IF(sample_name_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'sample_name'
-			AND value = sample_name_in))
-		AND IF(barcode_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'barcode'
-			AND value = barcode_in))
-		AND IF(tool_in IS NULL, TRUE, analysis_id IN
-			(SELECT DISTINCT analysis_id
-			FROM analysis_property
-			WHERE property = 'tool'
-			AND value = tool_in))
+	CREATE TEMPORARY TABLE an_ids_tmp1 ENGINE=INNODB AS
+	SELECT
+		ri.analysis_id AS analysis_id,
+		d.analysisDate AS date,
+		ri.instrument AS instrument,
+		ri.run AS run,
+		ri.lane AS lane,
+		ri.pair AS pair,
+		ri.sample_name AS sample_name,
+		ri.barcode AS barcode,
+		ri.tool AS tool,
+		ri.reference AS screening_reference,
+		ri.interop_subtype AS interop_subtype
+	FROM analysis_run_identity AS ri
+	INNER JOIN analysis AS d
+		ON ri.analysis_id = d.id
+	WHERE (instrument_in IS NULL OR ri.instrument = instrument_in)
+		AND (run_in IS NULL OR ri.run = run_in)
+		AND (lane_in IS NULL OR ri.lane = lane_in)
+		AND (pair_in IS NULL OR ri.pair = pair_in)
+		AND (sample_name_in IS NULL OR ri.sample_name = sample_name_in)
+		AND (barcode_in IS NULL OR ri.barcode = barcode_in)
+		AND (tool_in IS NULL OR ri.tool = tool_in)
 	;
 	
-	-- Pull in other identifying info for the run IDs
+	-- Only analyses carrying the full set of identifying properties
+	-- take part in duplicate detection
 	DROP TEMPORARY TABLE IF EXISTS an_ids_tmp2;
 	CREATE TEMPORARY TABLE an_ids_tmp2 ENGINE=INNODB AS
-	SELECT DISTINCT
-		tmp.analysis_id as analysis_id,
-		d.analysisDate as date,
-		ins.value AS instrument,
-		rn.value AS run,
-		ln.value AS lane,
-		pr.value AS pair,
-		sn.value AS sample_name,
-		bc.value AS barcode,
-		tl.value AS tool,
-		ref.value AS screening_reference,
-		ist.value AS interop_subtype
-	FROM an_ids_tmp1 AS tmp
-	INNER JOIN analysis AS d 
-		ON tmp.analysis_id = d.id
-	INNER JOIN analysis_property AS ins 
-		ON tmp.analysis_id = ins.analysis_id 
-		AND ins.property = 'instrument'
-	INNER JOIN analysis_property AS rn 
-		ON tmp.analysis_id = rn.analysis_id 
-		AND rn.property = 'run'
-	INNER JOIN analysis_property AS ln 
-		ON tmp.analysis_id = ln.analysis_id 
-		AND ln.property = 'lane'
-	INNER JOIN analysis_property AS pr 
-		ON tmp.analysis_id = pr.analysis_id 
-		AND pr.property = 'pair'
-	INNER JOIN analysis_property AS sn 
-		ON tmp.analysis_id = sn.analysis_id 
-		AND sn.property = 'sample_name'
-	INNER JOIN analysis_property AS bc 
-		ON tmp.analysis_id = bc.analysis_id 
-		AND bc.property = 'barcode'
-	INNER JOIN analysis_property AS tl 
-		ON tmp.analysis_id = tl.analysis_id 
-		AND tl.property = 'tool'
-	LEFT JOIN analysis_property AS ref 
-		ON tmp.analysis_id = ref.analysis_id 
-		AND ref.property = 'reference'
-	LEFT JOIN analysis_property AS ist 
-		ON tmp.analysis_id = ist.analysis_id 
-		AND ist.property = 'interop_subtype'
+	SELECT *
+	FROM an_ids_tmp1
+	WHERE instrument IS NOT NULL
+		AND run IS NOT NULL
+		AND lane IS NOT NULL
+		AND pair IS NOT NULL
+		AND sample_name IS NOT NULL
+		AND barcode IS NOT NULL
+		AND tool IS NOT NULL
 	;
 	
 	-- If @duplicate_selection indicates to retrieve all matching IDs,